@@ -1,8 +1,11 @@
 package com.caoyixin.cyxid.benchmark;
 
 import com.caoyixin.cyxid.benchmark.segment.SegmentIdGeneratorBenchmark;
+import com.caoyixin.cyxid.benchmark.segment.SegmentLeaseScalingBenchmark;
 import com.caoyixin.cyxid.benchmark.segmentchain.SegmentChainIdGeneratorBenchmark;
+import com.caoyixin.cyxid.benchmark.segmentchain.SegmentChainScalingBenchmark;
 import com.caoyixin.cyxid.benchmark.snowflake.SnowflakeIdGeneratorBenchmark;
+import com.caoyixin.cyxid.benchmark.storage.LocalSegmentAllocatorBenchmark;
 import org.openjdk.jmh.results.format.ResultFormatType;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
@@ -26,7 +29,10 @@ public class CyxIdBenchmarkRunner {
                 // 包含所有基准测试类
                 .include(SnowflakeIdGeneratorBenchmark.class.getSimpleName())
                 .include(SegmentIdGeneratorBenchmark.class.getSimpleName())
+                .include(SegmentLeaseScalingBenchmark.class.getSimpleName())
                 .include(SegmentChainIdGeneratorBenchmark.class.getSimpleName())
+                .include(SegmentChainScalingBenchmark.class.getSimpleName())
+                .include(LocalSegmentAllocatorBenchmark.class.getSimpleName())
                 // 设置输出格式为JSON
                 .resultFormat(ResultFormatType.JSON)
                 .result("cyx-id-benchmark-comparison.json")
@@ -0,0 +1,101 @@
+package com.caoyixin.cyxid.benchmark.segment;
+
+import com.caoyixin.cyxid.segment.SegmentIdGenerator;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段ID生成器线程扩展性基准测试
+ * 对比共享计数器模式与线程本地子块租借模式在不同线程数下的吞吐量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+public class SegmentLeaseScalingBenchmark {
+    
+    private static final String GENERATOR_NAME = "benchmark";
+    private static final int SEGMENT_SIZE = 100000;
+    
+    /**
+     * 是否启用线程本地子块租借模式
+     */
+    @Param({"false", "true"})
+    public boolean threadLocalLease;
+    
+    // 用于模拟ID段分配的当前值
+    private final AtomicLong currentValue = new AtomicLong(0);
+    
+    private SegmentIdGenerator idGenerator;
+    
+    @Setup
+    public void setup() {
+        // 创建模拟的段分配器
+        SegmentAllocator mockAllocator = name -> {
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            long minId = maxId - SEGMENT_SIZE + 1;
+            return new IdSegment(minId, maxId);
+        };
+        
+        idGenerator = new SegmentIdGenerator(GENERATOR_NAME, mockAllocator, threadLocalLease);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        currentValue.set(0); // 重置当前值
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public long threads1() {
+        return idGenerator.generate();
+    }
+    
+    @Benchmark
+    @Threads(2)
+    public long threads2() {
+        return idGenerator.generate();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public long threads4() {
+        return idGenerator.generate();
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public long threads8() {
+        return idGenerator.generate();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public long threads16() {
+        return idGenerator.generate();
+    }
+    
+    /**
+     * 运行基准测试
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SegmentLeaseScalingBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmark-" + SegmentLeaseScalingBenchmark.class.getSimpleName() + ".json")
+                .build();
+        
+        new Runner(options).run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.caoyixin.cyxid.benchmark.storage;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.local.LocalSegmentAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地段分配器基准测试
+ * 测量内存映射高水位文件上每秒可完成的ID段分配次数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+public class LocalSegmentAllocatorBenchmark {
+    
+    private static final String TAG = "benchmark";
+    private static final int STEP = 1000;
+    private static final long RESERVE_AHEAD = 100_000_000L;
+    
+    private Path dir;
+    private LocalSegmentAllocator allocator;
+    
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("cyx-id-local");
+        allocator = new LocalSegmentAllocator(dir.resolve("hwm"), STEP, RESERVE_AHEAD, 16);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        allocator.close();
+        Files.deleteIfExists(dir.resolve("hwm"));
+        Files.deleteIfExists(dir);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public IdSegment threads1() {
+        return allocator.nextSegment(TAG);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public IdSegment threads8() {
+        return allocator.nextSegment(TAG);
+    }
+    
+    /**
+     * 运行基准测试
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LocalSegmentAllocatorBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmark-" + LocalSegmentAllocatorBenchmark.class.getSimpleName() + ".json")
+                .build();
+        
+        new Runner(options).run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.buffer.SegmentBufferManager;
+import com.caoyixin.cyxid.segment.cache.CachingSegmentAllocator;
+import com.caoyixin.cyxid.segment.loader.SegmentLoadMetrics;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import com.caoyixin.cyxid.storage.redis.RedisSegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 异步ID段分配测试
+ */
+@DisplayName("异步ID段分配测试")
+public class AsyncSegmentAllocatorTest {
+    
+    private final AtomicLong currentValue = new AtomicLong(0);
+    
+    /**
+     * 等待存储响应的异步请求，由测试手动完成
+     */
+    private final Queue<DeferredRequest> deferred = new ConcurrentLinkedQueue<>();
+    
+    private final SegmentAllocator asyncAllocator = new SegmentAllocator() {
+        @Override
+        public IdSegment nextSegment(String name) {
+            return nextSegment(name, 1000);
+        }
+        
+        @Override
+        public IdSegment nextSegment(String name, int requestedStep) {
+            long maxId = currentValue.addAndGet(requestedStep);
+            return new IdSegment(maxId - requestedStep + 1, maxId);
+        }
+        
+        @Override
+        public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+            DeferredRequest request = new DeferredRequest(requestedStep);
+            deferred.add(request);
+            return request.result;
+        }
+    };
+    
+    @Test
+    @DisplayName("默认的异步实现在调用线程中执行同步分配")
+    void defaultAdapterShouldWrapSyncCall() throws Exception {
+        SegmentAllocator allocator = name -> {
+            if ("broken".equals(name)) {
+                throw new CyxIdException("存储不可用");
+            }
+            return new IdSegment(1, 10);
+        };
+        
+        CompletableFuture<IdSegment> ok = allocator.nextSegmentAsync("order").toCompletableFuture();
+        assertTrue(ok.isDone(), "默认实现应该返回已完成的结果");
+        assertEquals(10, ok.get().getMaxId());
+        
+        CompletableFuture<IdSegment> failed = allocator.nextSegmentAsync("broken", 100).toCompletableFuture();
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(CyxIdException.class, e.getCause(), "同步异常应该转换为异常完成");
+    }
+    
+    @Test
+    @DisplayName("异步加载等待响应期间不占用加载线程，单线程调度器可以同时为多个业务加载")
+    void schedulerShouldKeepManyLoadsInFlight() throws Exception {
+        SegmentLoaderScheduler scheduler = new SegmentLoaderScheduler(SegmentLoaderScheduler.Mode.PLATFORM, 1);
+        try {
+            SegmentBufferManager manager = new SegmentBufferManager(asyncAllocator, 100, 100, 60_000, scheduler);
+            int tags = 8;
+            for (int i = 0; i < tags; i++) {
+                manager.loadNextSegmentAsync(manager.getBuffer("tag-" + i));
+            }
+            
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (deferred.size() < tags && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(tags, deferred.size(), "所有业务的加载请求都应该已经发出");
+            assertEquals(tags, scheduler.getInFlightLoads());
+            assertEquals(0, scheduler.getActiveLoads(), "等待响应期间不应该占用加载许可");
+            
+            DeferredRequest request;
+            while ((request = deferred.poll()) != null) {
+                long maxId = currentValue.addAndGet(request.step);
+                request.result.complete(new IdSegment(maxId - request.step + 1, maxId));
+            }
+            assertEquals(0, scheduler.getInFlightLoads());
+            long loads = scheduler.getMetrics().values().stream().mapToLong(SegmentLoadMetrics::getLoads).sum();
+            assertEquals(tags, loads, "加载完成时才记录统计");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("分级缓存耗尽时异步请求在超级号段到达后完成，不阻塞调用线程")
+    void cachingAllocatorShouldCompleteWhenSuperSegmentArrives() throws Exception {
+        CachingSegmentAllocator caching = new CachingSegmentAllocator(asyncAllocator, 10, 1000);
+        
+        CompletableFuture<IdSegment> first = caching.nextSegmentAsync("order").toCompletableFuture();
+        CompletableFuture<IdSegment> second = caching.nextSegmentAsync("order").toCompletableFuture();
+        assertFalse(first.isDone(), "缓存为空时应该等待超级号段");
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (deferred.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        DeferredRequest request = deferred.poll();
+        assertNotNull(request);
+        assertEquals(1000, request.step, "应该按超级号段步长请求");
+        assertTrue(deferred.isEmpty(), "同一业务只应该有一个加载请求");
+        request.result.complete(new IdSegment(1, 1000));
+        
+        assertEquals(1000, first.get(5, TimeUnit.SECONDS).getStep() + second.get(5, TimeUnit.SECONDS).getStep() + 980);
+        assertNotEquals(first.get().getMinId(), second.get().getMinId());
+        assertEquals(980, caching.getCachedIdsCount("order"));
+        caching.shutdown();
+    }
+    
+    @Test
+    @DisplayName("Redis分配器的异步接口对非法步长返回失败的结果，而不是同步抛出异常")
+    void redisAllocatorShouldFailAsyncOnInvalidStep() {
+        RedisSegmentAllocator redis = new RedisSegmentAllocator(null, 1000, "test:");
+        
+        CompletableFuture<IdSegment> result = redis.nextSegmentAsync("order", 0).toCompletableFuture();
+        assertTrue(result.isCompletedExceptionally());
+        ExecutionException error = assertThrows(ExecutionException.class, result::get);
+        assertTrue(error.getCause() instanceof IllegalArgumentException);
+    }
+    
+    /**
+     * 等待完成的异步请求
+     */
+    private static final class DeferredRequest {
+        
+        private final int step;
+        
+        private final CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        
+        private DeferredRequest(int step) {
+            this.step = step;
+        }
+    }
+}
\ No newline at end of file
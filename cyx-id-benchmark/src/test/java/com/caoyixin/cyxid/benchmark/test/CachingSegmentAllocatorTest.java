@@ -0,0 +1,122 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.cache.CachingSegmentAllocator;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分级缓存的ID段分配器测试
+ */
+@DisplayName("分级缓存的ID段分配器测试")
+public class CachingSegmentAllocatorTest {
+    
+    private static final int SUPER_STEP = 10_000;
+    
+    private final AtomicLong currentValue = new AtomicLong(0);
+    
+    private final SegmentAllocator allocator = new SegmentAllocator() {
+        @Override
+        public IdSegment nextSegment(String name) {
+            return nextSegment(name, 1000);
+        }
+        
+        @Override
+        public IdSegment nextSegment(String name, int requestedStep) {
+            long maxId = currentValue.addAndGet(requestedStep);
+            return new IdSegment(maxId - requestedStep + 1, maxId);
+        }
+    };
+    
+    @Test
+    @DisplayName("并发请求小号段时从超级号段切分，切分出的ID段连续且不重叠")
+    void shouldCarveSmallSegmentsFromSuperSegments() throws Exception {
+        CachingSegmentAllocator caching = new CachingSegmentAllocator(allocator, 10, SUPER_STEP);
+        int threads = 8;
+        int perThread = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<IdSegment>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                List<IdSegment> segments = new ArrayList<>(perThread);
+                for (int i = 0; i < perThread; i++) {
+                    segments.add(caching.nextSegment("order", 7));
+                }
+                return segments;
+            }));
+        }
+        
+        List<IdSegment> all = new ArrayList<>();
+        for (Future<List<IdSegment>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+        
+        all.sort((a, b) -> Long.compare(a.getMinId(), b.getMinId()));
+        long expectedMin = 1;
+        for (IdSegment segment : all) {
+            assertEquals(expectedMin, segment.getMinId(), "切分出的ID段应该连续且不重叠");
+            assertTrue(segment.getStep() <= 7);
+            expectedMin = segment.getMaxId() + 1;
+        }
+        
+        long issued = expectedMin - 1;
+        assertTrue(caching.getDelegateCallCount() <= issued / SUPER_STEP + 2,
+                "应该按超级号段请求实际的分配器，实际请求次数：" + caching.getDelegateCallCount());
+        
+        IdSegment large = caching.nextSegment("order", SUPER_STEP);
+        assertEquals(SUPER_STEP, large.getStep(), "不小于超级号段的请求应该直接转发");
+        caching.shutdown();
+    }
+    
+    @Test
+    @DisplayName("关闭时保存尚未切分的ID范围，重启后优先使用")
+    void shouldPersistUnusedRangesOnShutdown(@TempDir Path dir) {
+        SegmentSnapshotStore store = new SegmentSnapshotStore(dir.resolve("cache.snapshot"), "node-1");
+        SegmentLoaderScheduler scheduler = SegmentLoaderScheduler.getDefault();
+        
+        CachingSegmentAllocator first = new CachingSegmentAllocator(allocator, 100, SUPER_STEP, 20, scheduler, store);
+        IdSegment issued = first.nextSegment("order");
+        assertEquals(new IdSegment(1, 100).toString(), issued.toString());
+        assertEquals(SUPER_STEP - 100, first.getCachedIdsCount("order"));
+        first.shutdown();
+        assertThrows(CyxIdException.class, () -> first.nextSegment("order"), "关闭后应该拒绝请求");
+        
+        CachingSegmentAllocator second = new CachingSegmentAllocator(allocator, 100, SUPER_STEP, 20, scheduler, store);
+        assertEquals(101, second.nextSegment("order").getMinId(), "重启后应该从保存的范围继续切分");
+        assertEquals(0, second.getDelegateCallCount(), "保存的范围充足时不应该请求实际的分配器");
+        second.shutdown();
+        
+        CachingSegmentAllocator third = new CachingSegmentAllocator(allocator, 100, SUPER_STEP, 20, scheduler, store);
+        assertEquals(201, third.nextSegment("order").getMinId(), "每次关闭都应该保存剩余范围");
+        third.shutdown();
+    }
+    
+    @Test
+    @DisplayName("异步接口对非法步长返回失败的结果，而不是同步抛出异常")
+    void shouldFailAsyncOnInvalidStep() {
+        CachingSegmentAllocator caching = new CachingSegmentAllocator(allocator, 100, SUPER_STEP);
+        
+        CompletableFuture<IdSegment> result = caching.nextSegmentAsync("order", -1).toCompletableFuture();
+        ExecutionException error = assertThrows(ExecutionException.class, result::get);
+        assertTrue(error.getCause() instanceof IllegalArgumentException);
+        caching.shutdown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,263 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.buffer.SegmentBufferManager;
+import com.caoyixin.cyxid.segment.coalesce.CoalescingSegmentAllocator;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 合并并发请求的ID段分配器测试
+ */
+@DisplayName("合并并发请求的ID段分配器测试")
+public class CoalescingSegmentAllocatorTest {
+    
+    private static final int DEFAULT_STEP = 100;
+    
+    private final AtomicLong currentValue = new AtomicLong(0);
+    
+    private final AtomicLong backendCalls = new AtomicLong(0);
+    
+    private volatile boolean broken = false;
+    
+    /**
+     * 每次请求耗时5毫秒的分配器
+     */
+    private final SegmentAllocator allocator = new SegmentAllocator() {
+        @Override
+        public IdSegment nextSegment(String name) {
+            return nextSegment(name, DEFAULT_STEP);
+        }
+        
+        @Override
+        public IdSegment nextSegment(String name, int requestedStep) {
+            backendCalls.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (broken) {
+                throw new CyxIdException("存储不可用");
+            }
+            long maxId = currentValue.addAndGet(requestedStep);
+            return new IdSegment(maxId - requestedStep + 1, maxId);
+        }
+        
+        @Override
+        public List<IdSegment> nextSegments(String name, int count) {
+            IdSegment whole = nextSegment(name, DEFAULT_STEP * count);
+            List<IdSegment> segments = new ArrayList<>(count);
+            for (long minId = whole.getMinId(); minId <= whole.getMaxId(); minId += DEFAULT_STEP) {
+                segments.add(new IdSegment(minId, minId + DEFAULT_STEP - 1));
+            }
+            return segments;
+        }
+    };
+    
+    /**
+     * 等待存储响应的异步请求，由测试手动完成
+     */
+    private final Queue<CompletableFuture<IdSegment>> deferred = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicLong syncCalls = new AtomicLong(0);
+    
+    /**
+     * 异步请求由测试手动完成的分配器，同步请求立即返回并单独计数
+     */
+    private final SegmentAllocator asyncAllocator = new SegmentAllocator() {
+        @Override
+        public IdSegment nextSegment(String name) {
+            syncCalls.incrementAndGet();
+            long maxId = currentValue.addAndGet(DEFAULT_STEP);
+            return new IdSegment(maxId - DEFAULT_STEP + 1, maxId);
+        }
+        
+        @Override
+        public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+            backendCalls.incrementAndGet();
+            CompletableFuture<IdSegment> result = new CompletableFuture<>();
+            deferred.add(result);
+            return result;
+        }
+    };
+    
+    /**
+     * 完成一个等待中的异步请求
+     */
+    private void completeDeferred(int step) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (deferred.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<IdSegment> request = deferred.poll();
+        assertNotNull(request, "应该已经发出异步请求");
+        long maxId = currentValue.addAndGet(step);
+        request.complete(new IdSegment(maxId - step + 1, maxId));
+    }
+    
+    /**
+     * 多个线程同时请求，返回所有分到的ID段，按最小ID排序
+     */
+    private List<IdSegment> requestConcurrently(CoalescingSegmentAllocator coalescing, int requestedStep)
+            throws Exception {
+        int threads = 16;
+        int perThread = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<IdSegment>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<IdSegment> segments = new ArrayList<>(perThread);
+                for (int i = 0; i < perThread; i++) {
+                    segments.add(requestedStep > 0
+                            ? coalescing.nextSegment("order", requestedStep) : coalescing.nextSegment("order"));
+                }
+                return segments;
+            }));
+        }
+        start.countDown();
+        
+        List<IdSegment> all = new ArrayList<>();
+        for (Future<List<IdSegment>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+        all.sort((a, b) -> Long.compare(a.getMinId(), b.getMinId()));
+        assertEquals(threads * perThread, all.size());
+        return all;
+    }
+    
+    @Test
+    @DisplayName("并发的按步长请求合并为一次后端请求，切分出的ID段连续且不重叠")
+    void shouldCoalesceStepRequests() throws Exception {
+        CoalescingSegmentAllocator coalescing = new CoalescingSegmentAllocator(allocator);
+        List<IdSegment> all = requestConcurrently(coalescing, 10);
+        
+        long expectedMin = 1;
+        for (IdSegment segment : all) {
+            assertEquals(expectedMin, segment.getMinId(), "ID段应该连续且不重叠");
+            assertEquals(10, segment.getStep(), "每个请求方应该分到请求的步长");
+            expectedMin = segment.getMaxId() + 1;
+        }
+        assertEquals(all.size(), coalescing.getRequestCount());
+        assertEquals(backendCalls.get(), coalescing.getBackendCallCount());
+        assertTrue(backendCalls.get() < all.size() / 2,
+                "并发请求应该被合并，实际后端请求次数：" + backendCalls.get());
+    }
+    
+    @Test
+    @DisplayName("未指定步长的并发请求通过一次批量分配满足")
+    void shouldCoalesceDefaultRequestsWithBatch() throws Exception {
+        CoalescingSegmentAllocator coalescing = new CoalescingSegmentAllocator(allocator);
+        List<IdSegment> all = requestConcurrently(coalescing, 0);
+        
+        long expectedMin = 1;
+        for (IdSegment segment : all) {
+            assertEquals(expectedMin, segment.getMinId(), "ID段应该连续且不重叠");
+            assertEquals(DEFAULT_STEP, segment.getStep());
+            expectedMin = segment.getMaxId() + 1;
+        }
+        assertTrue(backendCalls.get() < all.size() / 2,
+                "并发请求应该被合并，实际后端请求次数：" + backendCalls.get());
+    }
+    
+    @Test
+    @DisplayName("后端失败时同一轮的请求方都收到异常，之后的请求恢复正常")
+    void shouldPropagateFailureToWholeRound() throws Exception {
+        CoalescingSegmentAllocator coalescing = new CoalescingSegmentAllocator(allocator);
+        broken = true;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<IdSegment>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> coalescing.nextSegment("order", 10)));
+        }
+        for (Future<IdSegment> future : futures) {
+            Exception e = assertThrows(Exception.class, future::get);
+            assertInstanceOf(CyxIdException.class, e.getCause());
+        }
+        executor.shutdown();
+        
+        broken = false;
+        assertEquals(10, coalescing.nextSegment("order", 10).getStep());
+    }
+    
+    @Test
+    @DisplayName("异步请求不阻塞调用线程，等待中到达的请求合并为下一轮")
+    void shouldCoalesceAsyncRequestsWithoutBlocking() throws Exception {
+        CoalescingSegmentAllocator coalescing = new CoalescingSegmentAllocator(asyncAllocator);
+        
+        CompletableFuture<IdSegment> first = coalescing.nextSegmentAsync("order", 10).toCompletableFuture();
+        CompletableFuture<IdSegment> second = coalescing.nextSegmentAsync("order", 10).toCompletableFuture();
+        CompletableFuture<IdSegment> third = coalescing.nextSegmentAsync("order", 10).toCompletableFuture();
+        assertFalse(first.isDone(), "后端未响应时应该返回未完成的结果");
+        assertEquals(1, backendCalls.get(), "上一轮未结束时后到的请求应该排队");
+        
+        completeDeferred(10);
+        assertEquals(10, first.get().getStep());
+        assertFalse(second.isDone());
+        assertEquals(2, backendCalls.get(), "上一轮结束后排队的请求应该合并为一次后端请求");
+        
+        completeDeferred(20);
+        assertEquals(11, second.get().getMinId());
+        assertEquals(21, third.get().getMinId());
+        assertEquals(10, third.get().getStep(), "合并的ID段应该按请求方切分");
+        assertEquals(3, coalescing.getRequestCount());
+        assertEquals(2, coalescing.getBackendCallCount());
+        assertEquals(0, syncCalls.get(), "异步请求不应该调用同步接口");
+        
+        assertTrue(coalescing.nextSegmentAsync("order", 0).toCompletableFuture().isCompletedExceptionally(),
+                "步长无效时应该返回异常完成的结果而不是直接抛出");
+    }
+    
+    @Test
+    @DisplayName("缓存管理器通过合并分配器异步加载时，等待响应期间不占用加载线程")
+    void bufferManagerShouldLoadThroughCoalescingWithoutBlocking() throws Exception {
+        SegmentLoaderScheduler scheduler = new SegmentLoaderScheduler(SegmentLoaderScheduler.Mode.PLATFORM, 1);
+        try {
+            SegmentBufferManager manager = new SegmentBufferManager(
+                    new CoalescingSegmentAllocator(asyncAllocator), 100, 100, 60_000, scheduler);
+            // 第一个ID段同步加载
+            manager.loadNextSegmentAsync(manager.getBuffer("order"));
+            assertEquals(1, syncCalls.get());
+            
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            // 请求发出后加载任务随即返回并归还许可，同步等待响应时许可会一直被占用
+            while ((deferred.isEmpty() || scheduler.getActiveLoads() > 0) && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, deferred.size(), "加载请求应该已经通过异步接口发出");
+            assertEquals(1, scheduler.getInFlightLoads());
+            assertEquals(0, scheduler.getActiveLoads(), "等待响应期间不应该占用加载许可");
+            
+            completeDeferred(DEFAULT_STEP);
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (scheduler.getInFlightLoads() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, scheduler.getInFlightLoads());
+            assertEquals(1, syncCalls.get(), "异步加载不应该调用同步接口");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.hedge.HedgedSegmentAllocator;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.RegionStride;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 对冲请求的ID段分配器测试
+ */
+@DisplayName("对冲请求的ID段分配器测试")
+public class HedgedSegmentAllocatorTest {
+    
+    private static final int SEGMENT_SIZE = 100;
+    
+    /**
+     * 模拟的后端，可以设置下一次请求变慢或失败
+     */
+    private static class Backend implements SegmentAllocator {
+        
+        private final RegionStride region;
+        
+        private final AtomicLong position = new AtomicLong();
+        
+        private final AtomicLong calls = new AtomicLong();
+        
+        private final AtomicBoolean slowOnce = new AtomicBoolean(false);
+        
+        private volatile boolean broken = false;
+        
+        Backend(RegionStride region) {
+            this.region = region;
+        }
+        
+        @Override
+        public IdSegment nextSegment(String name) {
+            calls.incrementAndGet();
+            if (broken) {
+                throw new CyxIdException("存储不可用");
+            }
+            if (slowOnce.compareAndSet(true, false)) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long last = position.addAndGet(SEGMENT_SIZE);
+            return region.toSegment(last - SEGMENT_SIZE + 1, last);
+        }
+    }
+    
+    private final Backend primary = new Backend(new RegionStride(0, 2));
+    
+    private final Backend secondary = new Backend(new RegionStride(1, 2));
+    
+    @Test
+    @DisplayName("主分配器超过对冲延迟时使用备用分配器的结果，较晚返回的ID段留作下一次使用")
+    void shouldHedgeSlowPrimaryAndKeepLateSegment() throws Exception {
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(primary, secondary, 95, 20, 50);
+        for (int i = 0; i < 64; i++) {
+            assertEquals(0, allocator.nextSegment("order").getMinId() % 2, "主分配器正常时应该使用主分配器的结果");
+        }
+        assertEquals(0, allocator.getHedgeCount());
+        assertEquals(0, secondary.calls.get());
+        assertTrue(allocator.getHedgeDelayNanos() < 50_000_000L, "对冲延迟应该按主分配器的延迟百分位收缩");
+        
+        primary.slowOnce.set(true);
+        long start = System.nanoTime();
+        IdSegment hedged = allocator.nextSegment("order");
+        assertTrue(System.nanoTime() - start < 400_000_000L, "不应该等待慢请求");
+        assertEquals(1, hedged.getMinId() % 2, "应该使用备用分配器的结果");
+        assertEquals(1, allocator.getHedgeCount());
+        assertEquals(1, allocator.getSecondaryWinCount());
+        
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (allocator.getSpareIdsCount("order") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SEGMENT_SIZE, allocator.getSpareIdsCount("order"), "较晚返回的ID段应该留作备用");
+        
+        long primaryCalls = primary.calls.get();
+        IdSegment late = allocator.nextSegment("order");
+        assertEquals(0, late.getMinId() % 2, "应该使用主分配器较晚返回的ID段");
+        assertEquals(primaryCalls, primary.calls.get(), "使用备用ID段时不应该请求后端");
+        assertEquals(1, allocator.getSpareHitCount());
+        assertEquals(1.0 / 65, allocator.getHedgeRate(), 1e-9);
+        allocator.shutdown();
+    }
+    
+    @Test
+    @DisplayName("主分配器失败时立即转发到备用分配器，主备都失败时抛出主分配器的异常")
+    void shouldFailoverAndFailWhenBothFail() {
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(primary, secondary, 95, 1_000, 1_000);
+        primary.broken = true;
+        long start = System.nanoTime();
+        assertEquals(1, allocator.nextSegment("order").getMinId() % 2);
+        assertTrue(System.nanoTime() - start < 500_000_000L, "主分配器失败时不应该等待对冲延迟");
+        assertEquals(1, allocator.getHedgeCount());
+        
+        secondary.broken = true;
+        CyxIdException e = assertThrows(CyxIdException.class, () -> allocator.nextSegment("order"));
+        assertEquals("存储不可用", e.getMessage());
+        assertEquals(1, e.getSuppressed().length, "备用分配器的异常应该作为被抑制的异常");
+        assertTrue(allocator.nextSegmentAsync("order").toCompletableFuture().handle((s, t) -> t != null).join());
+        allocator.shutdown();
+    }
+    
+    @Test
+    @DisplayName("备用ID段长于请求的步长时按步长切分，剩余部分保持间隔留作下一次使用")
+    void shouldCarveOversizedSpareByRequestedStep() throws Exception {
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(primary, secondary, 95, 20, 50);
+        primary.slowOnce.set(true);
+        assertEquals(1, allocator.nextSegment("order", 30).getMinId() % 2, "应该使用备用分配器的结果");
+        
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (allocator.getSpareIdsCount("order") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SEGMENT_SIZE, allocator.getSpareIdsCount("order"));
+        
+        long primaryCalls = primary.calls.get();
+        long expectedMin = 0;
+        for (int i = 0; i < 3; i++) {
+            IdSegment carved = allocator.nextSegment("order", 30);
+            assertEquals(30, carved.getStep(), "应该按请求的步长切分备用ID段");
+            assertEquals(2, carved.getStride(), "切分出的ID段应该保持间隔");
+            if (i > 0) {
+                assertEquals(expectedMin, carved.getMinId(), "切分出的ID段应该连续");
+            }
+            expectedMin = carved.getMaxId() + 2;
+        }
+        assertEquals(SEGMENT_SIZE - 90, allocator.getSpareIdsCount("order"));
+        assertEquals(10, allocator.nextSegment("order", 30).getStep(), "剩余不足步长时应该整段使用");
+        assertEquals(primaryCalls, primary.calls.get(), "使用备用ID段时不应该请求后端");
+        assertEquals(4, allocator.getSpareHitCount());
+        
+        assertTrue(allocator.nextSegmentAsync("order", 0).toCompletableFuture().isCompletedExceptionally(),
+                "步长无效时应该返回异常完成的结果而不是直接抛出");
+        allocator.shutdown();
+    }
+    
+    @Test
+    @DisplayName("主备分配器抛出同一个异常实例时以该异常失败，而不是在抑制自身时出错")
+    void shouldFailWithSharedErrorInstance() throws Exception {
+        CyxIdException shared = new CyxIdException("存储不可用");
+        SegmentAllocator failing = name -> {
+            throw shared;
+        };
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(failing, failing, 95, 1_000, 1_000);
+        
+        CompletableFuture<IdSegment> result = allocator.nextSegmentAsync("order").toCompletableFuture();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertSame(shared, e.getCause());
+        assertEquals(0, shared.getSuppressed().length);
+        allocator.shutdown();
+    }
+    
+    @Test
+    @DisplayName("通过分配器的异步接口发出请求，不调用同步接口")
+    void shouldCallAllocatorsThroughAsyncInterface() throws Exception {
+        AtomicLong syncCalls = new AtomicLong();
+        Queue<CompletableFuture<IdSegment>> pending = new ConcurrentLinkedQueue<>();
+        SegmentAllocator asyncPrimary = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                syncCalls.incrementAndGet();
+                throw new IllegalStateException("不应该调用同步接口");
+            }
+            
+            @Override
+            public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+                CompletableFuture<IdSegment> result = new CompletableFuture<>();
+                pending.add(result);
+                return result;
+            }
+        };
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(asyncPrimary, secondary, 95, 1_000, 1_000);
+        
+        CompletableFuture<IdSegment> result = allocator.nextSegmentAsync("order").toCompletableFuture();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pending.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        pending.poll().complete(new IdSegment(2, 200, 2));
+        assertEquals(2, result.get(5, TimeUnit.SECONDS).getMinId());
+        assertEquals(0, syncCalls.get());
+        assertEquals(0, secondary.calls.get());
+        allocator.shutdown();
+    }
+    
+    @Test
+    @DisplayName("对冲延迟只反映最近一个统计窗口内的延迟，主分配器变快后随之收缩")
+    void hedgeDelayShouldFollowRecentLatency() {
+        AtomicLong sleepMillis = new AtomicLong(10);
+        AtomicLong position = new AtomicLong();
+        RegionStride region = new RegionStride(0, 2);
+        SegmentAllocator varying = name -> {
+            long millis = sleepMillis.get();
+            if (millis > 0) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long last = position.addAndGet(SEGMENT_SIZE);
+            return region.toSegment(last - SEGMENT_SIZE + 1, last);
+        };
+        HedgedSegmentAllocator allocator = new HedgedSegmentAllocator(varying, secondary, 95, 0, 1_000);
+        
+        while (allocator.getRequestCount() < 64) {
+            allocator.nextSegment("order");
+        }
+        assertTrue(allocator.getHedgeDelayNanos() >= 5_000_000L, "对冲延迟应该反映慢请求");
+        
+        sleepMillis.set(0);
+        while (allocator.getRequestCount() < 640) {
+            allocator.nextSegment("order");
+        }
+        assertTrue(allocator.getHedgeDelayNanos() < 5_000_000L,
+                "旧窗口的慢请求不应该继续影响对冲延迟：" + allocator.getHedgeDelayNanos());
+        allocator.shutdown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.MachineIdAllocator;
+import com.caoyixin.cyxid.storage.api.metrics.AllocatorMetrics;
+import com.caoyixin.cyxid.storage.api.metrics.InstrumentedMachineIdAllocator;
+import com.caoyixin.cyxid.storage.api.metrics.InstrumentedSegmentAllocator;
+import com.caoyixin.cyxid.storage.api.metrics.LatencyHistogram;
+import com.caoyixin.cyxid.storage.api.metrics.LatencySnapshot;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 带统计的分配器测试
+ */
+@DisplayName("带统计的分配器测试")
+public class InstrumentedAllocatorTest {
+    
+    @Test
+    @DisplayName("延迟直方图的百分位误差在3%以内")
+    void histogramPercentilesShouldBeAccurate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(99), "没有记录时百分位为0");
+        
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMinNanos());
+        assertEquals(100_000_000, snapshot.getMaxNanos());
+        assertEquals(50_000_500, snapshot.getMeanNanos());
+        for (double percentile : new double[]{10, 50, 90, 99, 99.9}) {
+            double expected = percentile * 1_000_000;
+            double actual = snapshot.getValueAtPercentile(percentile);
+            assertTrue(Math.abs(actual - expected) / expected < 0.03,
+                    "p" + percentile + "误差过大：" + actual + " vs " + expected);
+        }
+        assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+        
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getValueAtPercentile(100), "最大值也应该能记录");
+    }
+    
+    @Test
+    @DisplayName("按业务记录调用次数、失败次数和延迟")
+    void segmentAllocatorShouldRecordPerTag() {
+        AtomicLong current = new AtomicLong();
+        InstrumentedSegmentAllocator allocator = new InstrumentedSegmentAllocator(name -> {
+            if ("broken".equals(name)) {
+                throw new CyxIdException("存储不可用");
+            }
+            long maxId = current.addAndGet(100);
+            return new IdSegment(maxId - 99, maxId);
+        });
+        
+        for (int i = 0; i < 10; i++) {
+            allocator.nextSegment("order");
+        }
+        allocator.nextSegments("user", 3);
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("order", 1);
+        counts.put("user", 2);
+        allocator.nextSegments(counts);
+        assertThrows(CyxIdException.class, () -> allocator.nextSegment("broken", 50));
+        allocator.nextSegmentAsync("order").toCompletableFuture().join();
+        assertTrue(allocator.nextSegmentAsync("broken").toCompletableFuture().isCompletedExceptionally());
+        
+        Map<String, AllocatorMetrics> metrics = allocator.getMetrics();
+        assertEquals(12, metrics.get("order").getCalls());
+        assertEquals(0, metrics.get("order").getErrors());
+        assertEquals(2, metrics.get("user").getCalls(), "批量分配按一次调用计入每个业务");
+        assertEquals(2, metrics.get("broken").getCalls());
+        assertEquals(2, metrics.get("broken").getErrors());
+        assertEquals(12, metrics.get("order").getLatency().getCount());
+        assertTrue(metrics.get("order").getLatency().getMaxNanos() > 0);
+    }
+    
+    @Test
+    @DisplayName("机器ID分配器按操作记录，释放失败计为失败")
+    void machineIdAllocatorShouldRecordPerOperation() {
+        InstrumentedMachineIdAllocator allocator = new InstrumentedMachineIdAllocator(new MachineIdAllocator() {
+            @Override
+            public int allocate() {
+                return 7;
+            }
+            
+            @Override
+            public boolean release(int machineId) {
+                return machineId == 7;
+            }
+        });
+        
+        assertEquals(7, allocator.allocate());
+        assertTrue(allocator.release(7));
+        assertFalse(allocator.release(8));
+        
+        Map<String, AllocatorMetrics> metrics = allocator.getMetrics();
+        assertEquals(1, metrics.get(InstrumentedMachineIdAllocator.ALLOCATE).getCalls());
+        assertEquals(2, metrics.get(InstrumentedMachineIdAllocator.RELEASE).getCalls());
+        assertEquals(1, metrics.get(InstrumentedMachineIdAllocator.RELEASE).getErrors());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,207 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.jdbc.JdbcDialect;
+import com.caoyixin.cyxid.storage.jdbc.JdbcMachineIdAllocator;
+import com.caoyixin.cyxid.storage.jdbc.JdbcSegmentAllocator;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JDBC存储测试，使用内嵌的H2数据库
+ */
+@DisplayName("JDBC存储测试")
+public class JdbcStorageTest {
+    
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:cyx-id-" + System.nanoTime());
+        
+        // 保持一个连接，避免内存数据库在连接全部关闭后被销毁
+        keepAlive = dataSource.getConnection();
+        execute("CREATE TABLE cyx_id_segment (biz_tag VARCHAR(128) NOT NULL PRIMARY KEY, "
+                + "max_id BIGINT NOT NULL DEFAULT 0, step INT NOT NULL, version BIGINT NOT NULL DEFAULT 0)");
+        execute("CREATE TABLE cyx_id_machine_lease (machine_id INT NOT NULL PRIMARY KEY, owner VARCHAR(128) NOT NULL, "
+                + "lease_expire_time BIGINT NOT NULL, version BIGINT NOT NULL DEFAULT 0)");
+    }
+    
+    @AfterEach
+    void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+    
+    @Test
+    @DisplayName("多个分配器并发分配的ID段互不重叠且使用号段表中的步长")
+    void concurrentAllocatorsShouldNotOverlap() throws Exception {
+        execute("INSERT INTO cyx_id_segment (biz_tag, max_id, step, version) VALUES ('order', 0, 50, 0)");
+        
+        JdbcSegmentAllocator singleStatement = new JdbcSegmentAllocator(dataSource);
+        JdbcSegmentAllocator generic = new JdbcSegmentAllocator(dataSource, 1000, "cyx_id_segment", JdbcDialect.GENERIC);
+        assertEquals(JdbcDialect.H2, singleStatement.getDialect(), "应该识别出H2方言");
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<IdSegment>>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            JdbcSegmentAllocator allocator = t % 2 == 0 ? singleStatement : generic;
+            futures.add(executor.submit(() -> {
+                List<IdSegment> segments = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    segments.add(allocator.nextSegment("order"));
+                }
+                return segments;
+            }));
+        }
+        
+        List<IdSegment> all = new ArrayList<>();
+        for (Future<List<IdSegment>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+        
+        all.sort((a, b) -> Long.compare(a.getMinId(), b.getMinId()));
+        long expectedMin = 1;
+        for (IdSegment segment : all) {
+            assertEquals(50, segment.getStep(), "应该使用号段表中的步长");
+            assertEquals(expectedMin, segment.getMinId(), "ID段应该连续且不重叠");
+            expectedMin = segment.getMaxId() + 1;
+        }
+        assertEquals(200 * 50, queryLong("SELECT max_id FROM cyx_id_segment WHERE biz_tag = 'order'"));
+        assertEquals(200, queryLong("SELECT version FROM cyx_id_segment WHERE biz_tag = 'order'"), "每次分配应该递增版本号");
+    }
+    
+    @Test
+    @DisplayName("多个业务在一个事务中批量分配，不存在的业务自动创建")
+    void batchShouldAllocateAllTagsInOneTransaction() throws SQLException {
+        execute("INSERT INTO cyx_id_segment (biz_tag, max_id, step, version) VALUES ('user', 500, 100, 0)");
+        
+        JdbcSegmentAllocator allocator = new JdbcSegmentAllocator(dataSource, 10, "cyx_id_segment");
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("user", 3);
+        counts.put("order", 2);
+        
+        Map<String, List<IdSegment>> result = allocator.nextSegments(counts);
+        assertEquals(new ArrayList<>(counts.keySet()), new ArrayList<>(result.keySet()), "结果应该保持请求的顺序");
+        
+        List<IdSegment> user = result.get("user");
+        assertEquals(3, user.size());
+        assertEquals(501, user.get(0).getMinId());
+        assertEquals(800, user.get(2).getMaxId());
+        
+        List<IdSegment> order = result.get("order");
+        assertEquals(2, order.size());
+        assertEquals(1, order.get(0).getMinId());
+        assertEquals(20, order.get(1).getMaxId(), "新业务应该按默认步长创建");
+        
+        assertEquals(21, allocator.nextSegments("order", 2).get(0).getMinId(), "批量分配后应该继续递增");
+        assertThrows(IllegalArgumentException.class, () -> allocator.nextSegments(Collections.singletonMap("user", 0)));
+    }
+    
+    @Test
+    @DisplayName("机器ID租约互斥，释放或过期后可被其他节点使用")
+    void machineIdLeaseShouldBeExclusive() throws SQLException {
+        JdbcMachineIdAllocator first = new JdbcMachineIdAllocator(dataSource, "cyx_id_machine_lease", 1, 60_000, "node-a");
+        JdbcMachineIdAllocator second = new JdbcMachineIdAllocator(dataSource, "cyx_id_machine_lease", 1, 60_000, "node-b");
+        JdbcMachineIdAllocator third = new JdbcMachineIdAllocator(dataSource, "cyx_id_machine_lease", 1, 60_000, "node-c");
+        
+        int a = first.allocate();
+        int b = second.allocate();
+        assertNotEquals(a, b, "不同节点应该分配到不同的机器ID");
+        assertTrue(first.isLeaseValid());
+        assertThrows(RuntimeException.class, third::allocate, "机器ID用尽时应该分配失败");
+        
+        // 同一节点重启后续用原来的机器ID
+        JdbcMachineIdAllocator restarted = new JdbcMachineIdAllocator(dataSource, "cyx_id_machine_lease", 1, 60_000, "node-a");
+        assertEquals(a, restarted.allocate(), "同一节点应该续用已持有的租约");
+        
+        // 释放后可被其他节点使用
+        assertTrue(second.release(b));
+        assertEquals(b, third.allocate(), "释放的机器ID应该可以被其他节点使用");
+        
+        // 租约过期后可被其他节点接管
+        execute("UPDATE cyx_id_machine_lease SET lease_expire_time = 0 WHERE owner = 'node-a'");
+        JdbcMachineIdAllocator fourth = new JdbcMachineIdAllocator(dataSource, "cyx_id_machine_lease", 1, 60_000, "node-d");
+        assertEquals(a, fourth.allocate(), "过期的租约应该可以被接管");
+        
+        assertFalse(first.release(a), "租约被接管后原节点不能释放");
+        restarted.release(a);
+        third.release(b);
+        fourth.release(a);
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM cyx_id_machine_lease"));
+    }
+    
+    @Test
+    @DisplayName("连接池的连接不是自动提交模式时，租约的分配、续租和释放都会提交")
+    void machineIdLeaseShouldCommitWithoutAutoCommit() throws Exception {
+        // 模拟非自动提交的连接池，H2关闭连接时回滚未提交的事务
+        DataSource manualCommit = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(dataSource, args);
+                        if (result instanceof Connection) {
+                            ((Connection) result).setAutoCommit(false);
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        
+        JdbcMachineIdAllocator first = new JdbcMachineIdAllocator(manualCommit, "cyx_id_machine_lease", 1, 300, "node-a");
+        JdbcMachineIdAllocator second = new JdbcMachineIdAllocator(manualCommit, "cyx_id_machine_lease", 1, 300, "node-b");
+        int a = first.allocate();
+        assertEquals(1, queryLong("SELECT COUNT(*) FROM cyx_id_machine_lease WHERE owner = 'node-a'"), "分配的租约应该已经提交");
+        assertNotEquals(a, second.allocate(), "已提交的租约应该阻止其他节点分配同一个机器ID");
+        
+        long expireTime = queryLong("SELECT lease_expire_time FROM cyx_id_machine_lease WHERE owner = 'node-a'");
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (queryLong("SELECT lease_expire_time FROM cyx_id_machine_lease WHERE owner = 'node-a'") == expireTime
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(queryLong("SELECT lease_expire_time FROM cyx_id_machine_lease WHERE owner = 'node-a'") > expireTime,
+                "续租应该已经提交");
+        
+        assertTrue(first.release(a));
+        assertTrue(second.release(1 - a));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM cyx_id_machine_lease"), "释放应该已经提交");
+    }
+    
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+    
+    private long queryLong(String sql) throws SQLException {
+        try (Statement statement = keepAlive.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.local.LocalSegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地段分配器测试
+ */
+@DisplayName("本地段分配器测试")
+public class LocalSegmentAllocatorTest {
+    
+    @Test
+    @DisplayName("并发分配的ID段互不重叠，刷盘次数按预留量合并")
+    void concurrentAllocationShouldNotOverlapAndGroupForces(@TempDir Path dir) throws Exception {
+        int threads = 8;
+        int perThread = 10_000;
+        try (LocalSegmentAllocator allocator = new LocalSegmentAllocator(dir.resolve("hwm"), 10, 10_000, 16)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<List<IdSegment>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    List<IdSegment> segments = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++) {
+                        segments.add(allocator.nextSegment("order"));
+                    }
+                    return segments;
+                }));
+            }
+            
+            List<IdSegment> all = new ArrayList<>();
+            for (Future<List<IdSegment>> future : futures) {
+                all.addAll(future.get());
+            }
+            executor.shutdown();
+            
+            all.sort((a, b) -> Long.compare(a.getMinId(), b.getMinId()));
+            long expectedMin = 1;
+            for (IdSegment segment : all) {
+                assertEquals(expectedMin, segment.getMinId(), "ID段应该连续且不重叠");
+                expectedMin = segment.getMaxId() + 1;
+            }
+            
+            long issued = (long) threads * perThread * 10;
+            assertTrue(allocator.getReservedMaxId("order") >= issued, "发出的ID不能超过已刷盘的预留上限");
+            assertTrue(allocator.getForceCount() <= issued / 10_000 + 2,
+                    "每次刷盘应该预留一大段ID，实际刷盘次数：" + allocator.getForceCount());
+        }
+    }
+    
+    @Test
+    @DisplayName("崩溃或重启后从预留上限继续分配，不重复发放")
+    void shouldNeverReissueAfterCrashOrRestart(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("hwm");
+        Path crashed = dir.resolve("crashed");
+        
+        long lastIssued;
+        try (LocalSegmentAllocator allocator = new LocalSegmentAllocator(file, 100, 1_000, 16)) {
+            assertThrows(CyxIdException.class, () -> new LocalSegmentAllocator(file), "文件应该被独占锁定");
+            
+            allocator.nextSegment("order");
+            Map<String, Integer> counts = new HashMap<>();
+            counts.put("order", 3);
+            counts.put("user", 2);
+            lastIssued = allocator.nextSegments(counts).get("order").get(2).getMaxId();
+            assertEquals(400, lastIssued);
+            
+            // 打开期间复制文件，相当于进程崩溃时磁盘上的内容
+            Files.copy(file, crashed);
+        }
+        
+        try (LocalSegmentAllocator recovered = new LocalSegmentAllocator(crashed)) {
+            IdSegment next = recovered.nextSegment("order");
+            assertTrue(next.getMinId() > lastIssued, "崩溃后不能重复发放ID：" + next);
+            assertTrue(recovered.nextSegment("user").getMinId() > 200, "所有业务都应该恢复");
+        }
+        
+        try (LocalSegmentAllocator restarted = new LocalSegmentAllocator(file)) {
+            long reserved = restarted.getReservedMaxId("order");
+            assertEquals(reserved + 1, restarted.nextSegment("order").getMinId(), "重启后应该从预留上限之后继续分配");
+            assertThrows(IllegalArgumentException.class, () -> restarted.nextSegment("order", 0));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,185 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.segment.SegmentIdGenerator;
+import com.caoyixin.cyxid.segment.buffer.SegmentBuffer;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分段ID缓存器并发压力测试
+ * 使用极小的步长让大量线程同时跨越ID段边界，反复执行以覆盖切换时的各种交错
+ */
+@DisplayName("分段ID缓存器并发压力测试")
+public class SegmentBufferStressTest {
+    
+    private static final String GENERATOR_NAME = "stress-segment";
+    private static final int SEGMENT_SIZE = 7;
+    private static final int THREAD_COUNT = 8;
+    private static final int IDS_PER_THREAD = 1000;
+    
+    private AtomicLong currentValue;
+    private SegmentAllocator allocator;
+    
+    @BeforeEach
+    void setUp() {
+        currentValue = new AtomicLong(0);
+        
+        // 创建连续分配的模拟段分配器
+        allocator = name -> {
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+    }
+    
+    @RepeatedTest(10)
+    @DisplayName("跨段切换时ID既不重复也不跳号")
+    void switchingSegmentsShouldNeitherSkipNorDuplicate() throws Exception {
+        SegmentIdGenerator generator = new SegmentIdGenerator(GENERATOR_NAME, allocator);
+        
+        long[] ids = generateConcurrently(generator::generate);
+        
+        // 段按顺序连续分配且只在耗尽后切换，发放的ID应恰好是1..N
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i + 1, ids[i], "ID应该连续且不重复");
+        }
+    }
+    
+    @RepeatedTest(10)
+    @DisplayName("线程本地租借模式跨段切换时ID不重复")
+    void leaseModeShouldNotDuplicate() throws Exception {
+        SegmentIdGenerator generator = new SegmentIdGenerator(GENERATOR_NAME, allocator, true);
+        
+        long[] ids = generateConcurrently(generator::generate);
+        
+        Set<Long> unique = ConcurrentHashMap.newKeySet(ids.length);
+        for (long id : ids) {
+            assertTrue(unique.add(id), "ID应该是唯一的：" + id);
+            assertTrue(id > 0 && id <= currentValue.get(), "ID应该在已分配的范围内：" + id);
+        }
+    }
+    
+    @RepeatedTest(10)
+    @DisplayName("加载线程与消费线程竞争时每个预加载段只被使用一次")
+    void concurrentLoaderShouldNotReuseSegment() throws Exception {
+        SegmentBuffer buffer = new SegmentBuffer(GENERATOR_NAME);
+        buffer.initialize(allocator.nextSegment(GENERATOR_NAME));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT + 1);
+        CyclicBarrier barrier = new CyclicBarrier(THREAD_COUNT + 1);
+        AtomicLong issued = new AtomicLong(0);
+        long target = (long) THREAD_COUNT * IDS_PER_THREAD;
+        
+        // 模拟加载线程：下一段被消费后立即补充
+        Future<?> loader = executor.submit(() -> {
+            barrier.await();
+            while (issued.get() < target) {
+                CompletableFuture<IdSegment> pending = buffer.startLoadingNextSegment();
+                if (pending != null) {
+                    pending.complete(allocator.nextSegment(GENERATOR_NAME));
+                }
+                Thread.yield();
+            }
+            return null;
+        });
+        
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                long[] local = new long[IDS_PER_THREAD];
+                for (int i = 0; i < IDS_PER_THREAD; ) {
+                    long id = buffer.nextId();
+                    if (id != SegmentBuffer.EXHAUSTED) {
+                        local[i++] = id;
+                        issued.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                return local;
+            }));
+        }
+        
+        long[] ids = collect(futures);
+        loader.get();
+        executor.shutdown();
+        
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i + 1, ids[i], "ID应该连续且不重复");
+        }
+    }
+    
+    /**
+     * 多线程并发生成ID
+     *
+     * @param task 单次生成ID的操作
+     * @return 所有线程生成的ID
+     */
+    private long[] generateConcurrently(IdSupplier task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CyclicBarrier barrier = new CyclicBarrier(THREAD_COUNT);
+        List<Future<long[]>> futures = new ArrayList<>();
+        
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            Callable<long[]> worker = () -> {
+                barrier.await();
+                long[] local = new long[IDS_PER_THREAD];
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    local[i] = task.next();
+                }
+                return local;
+            };
+            futures.add(executor.submit(worker));
+        }
+        
+        long[] ids = collect(futures);
+        executor.shutdown();
+        return ids;
+    }
+    
+    /**
+     * 合并所有线程的结果
+     *
+     * @param futures 各线程的结果
+     * @return 合并后的ID
+     */
+    private long[] collect(List<Future<long[]>> futures) throws Exception {
+        long[] ids = new long[futures.size() * IDS_PER_THREAD];
+        int offset = 0;
+        for (Future<long[]> future : futures) {
+            long[] local = future.get();
+            System.arraycopy(local, 0, ids, offset, local.length);
+            offset += local.length;
+        }
+        return ids;
+    }
+    
+    /**
+     * 单次生成ID的操作
+     */
+    @FunctionalInterface
+    private interface IdSupplier {
+        
+        long next();
+    }
+}
\ No newline at end of file
@@ -1,6 +1,12 @@
 package com.caoyixin.cyxid.benchmark.test;
 
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.chain.ChainDepthTuner;
+import com.caoyixin.cyxid.segment.chain.PrefetchWorker;
+import com.caoyixin.cyxid.segment.chain.SegmentChainBuffer;
+import com.caoyixin.cyxid.segment.chain.SegmentChainBufferManager;
 import com.caoyixin.cyxid.segment.chain.SegmentChainIdGenerator;
+import com.caoyixin.cyxid.segment.chain.SegmentChainMetrics;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import org.junit.jupiter.api.AfterEach;
@@ -8,13 +14,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -151,4 +164,281 @@ public class SegmentChainIdGeneratorTest {
         // 检查是否已分配足够的段
         assertTrue(currentValue.get() >= SEGMENT_SIZE * 2, "预取机制应该已请求更多段");
     }
+    
+    @Test
+    @DisplayName("消耗越过阈值时立即触发预取，无需等待定期检查")
+    void shouldPrefetchAsSoonAsThresholdIsCrossed() throws InterruptedException {
+        AtomicLong allocated = new AtomicLong(0);
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, name -> {
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, 60_000, 20, MAX_CHAIN_LENGTH);
+        
+        try {
+            // 剩余19个，低于20%的阈值
+            for (int i = 0; i < 81; i++) {
+                generator.generate();
+            }
+            
+            long deadline = System.currentTimeMillis() + 2000;
+            while (allocated.get() < SEGMENT_SIZE * 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(allocated.get() >= SEGMENT_SIZE * 2, "越过阈值后应该立即预取下一个段");
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("链耗尽时同步按需加载，分配器持续失败时超时后才抛出异常")
+    void shouldDemandFetchWhenChainRunsDry() throws InterruptedException {
+        AtomicLong allocated = new AtomicLong(0);
+        AtomicBoolean available = new AtomicBoolean(true);
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, name -> {
+            if (!available.get()) {
+                throw new IllegalStateException("存储不可用");
+            }
+            sleep(20);
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, 60_000, 20, MAX_CHAIN_LENGTH, 2000);
+        
+        try {
+            int threadCount = 8;
+            int idsPerThread = 500;
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            CountDownLatch latch = new CountDownLatch(threadCount);
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            AtomicLong failures = new AtomicLong();
+            for (int i = 0; i < threadCount; i++) {
+                executor.submit(() -> {
+                    try {
+                        for (int j = 0; j < idsPerThread; j++) {
+                            ids.add(generator.generate());
+                        }
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            
+            assertEquals(0, failures.get(), "突发消耗时不应该抛出异常");
+            assertEquals(threadCount * idsPerThread, ids.size(), "ID应该是唯一的");
+            
+            available.set(false);
+            long start = System.nanoTime();
+            assertThrows(CyxIdException.class, () -> {
+                while (true) {
+                    generator.generate();
+                }
+            }, "分配器持续失败时应该抛出异常");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(2000), "应该等到按需加载超时后才抛出异常");
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("链深度为1时耗尽的头节点不占深度，按需加载的ID段都能追加使用")
+    void shouldDemandFetchWithSingleSegmentChain() {
+        AtomicLong allocated = new AtomicLong(0);
+        AtomicLong calls = new AtomicLong(0);
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, name -> {
+            calls.incrementAndGet();
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, 60_000, 20, 1, 200);
+        
+        try {
+            for (long expected = 1; expected <= 10 * SEGMENT_SIZE; expected++) {
+                assertEquals(expected, generator.generate(), "ID应该连续递增");
+            }
+            assertEquals(10, calls.get(), "每个ID段都应该被使用，不应该丢弃后重复加载");
+            assertEquals(1, generator.getMetrics().getChainLength());
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("预取时一次请求补满整条链")
+    void shouldRefillWholeChainInOneAllocatorCall() throws InterruptedException {
+        AtomicLong allocated = new AtomicLong(0);
+        List<Integer> batchCounts = new CopyOnWriteArrayList<>();
+        SegmentAllocator allocator = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                long maxId = allocated.addAndGet(SEGMENT_SIZE);
+                return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+            }
+            
+            @Override
+            public List<IdSegment> nextSegments(String name, int count) {
+                batchCounts.add(count);
+                return SegmentAllocator.super.nextSegments(name, count);
+            }
+        };
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, allocator, 60_000, 20, 5);
+        
+        try {
+            for (int i = 0; i < 81; i++) {
+                generator.generate();
+            }
+            
+            long deadline = System.currentTimeMillis() + 2000;
+            while (allocated.get() < SEGMENT_SIZE * 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(SEGMENT_SIZE * 5, allocated.get(), "应该补满整条链");
+            assertEquals(Collections.singletonList(4), batchCounts, "应该一次请求4个ID段");
+            
+            long lastId = 81;
+            for (int i = 0; i < 4 * SEGMENT_SIZE; i++) {
+                long id = generator.generate();
+                assertEquals(lastId + 1, id, "ID应该连续递增");
+                lastId = id;
+            }
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("链深度随峰值消耗加深，空闲后回落，并在指标中可见")
+    void chainDepthShouldFollowBurstsWithinBounds() throws InterruptedException {
+        long halfLife = TimeUnit.SECONDS.toNanos(1);
+        long latency = TimeUnit.MILLISECONDS.toNanos(10);
+        ChainDepthTuner tuner = new ChainDepthTuner(halfLife);
+        assertEquals(2, tuner.recommend(SEGMENT_SIZE, latency, 2, 8, 0), "没有消耗样本时应该使用下限");
+        
+        // 1毫秒消耗一个段，一次加载期间需要约20个段
+        tuner.recordConsumption(SEGMENT_SIZE, TimeUnit.MILLISECONDS.toNanos(1), 0);
+        assertEquals(8, tuner.recommend(SEGMENT_SIZE, latency, 2, 8, 0), "峰值时应该加深到上限");
+        assertEquals(2, tuner.recommend(SEGMENT_SIZE, latency, 2, 8, 20 * halfLife), "空闲后应该回落到下限");
+        
+        AtomicLong allocated = new AtomicLong(0);
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, name -> {
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, 60_000, 20, 2, 5, 1000);
+        
+        try {
+            for (int i = 0; i < 81; i++) {
+                generator.generate();
+            }
+            
+            long deadline = System.currentTimeMillis() + 2000;
+            while (generator.getMetrics().getRefillCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            SegmentChainMetrics metrics = generator.getMetrics();
+            assertEquals(1, metrics.getRefillCount(), "指标应该记录预取次数");
+            assertEquals(2, metrics.getChainDepth(), "没有峰值样本时链深度应该为下限");
+            assertEquals(2, metrics.getChainLength(), "链应该补到当前深度");
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("链深度下限为1时调节后的深度不低于2，第一次预取按已消耗部分估算峰值")
+    void chainDepthTuningShouldNotStallAtDepthOne() throws InterruptedException {
+        AtomicLong calls = new AtomicLong(0);
+        AtomicLong allocated = new AtomicLong(0);
+        SegmentChainIdGenerator generator = new SegmentChainIdGenerator(GENERATOR_NAME, name -> {
+            calls.incrementAndGet();
+            sleep(20);
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, 60_000, 20, 1, 3, 200);
+        
+        try {
+            assertTrue(generator.getMetrics().getChainDepth() >= 2, "深度调节不应该停留在1");
+            for (int i = 0; i < 81; i++) {
+                generator.generate();
+            }
+            long deadline = System.currentTimeMillis() + 2000;
+            while (generator.getMetrics().getRefillCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, generator.getMetrics().getRefillCount(), "越过阈值时应该预取");
+            assertEquals(3, generator.getMetrics().getChainDepth(), "按第一个ID段的消耗速率应该加深到上限");
+            
+            for (long expected = 82; expected <= 10 * SEGMENT_SIZE; expected++) {
+                assertEquals(expected, generator.generate(), "ID应该连续递增");
+            }
+            // 10个已用完的ID段加上链中预取的最多2个ID段
+            assertTrue(calls.get() <= 12, "不应该丢弃已分配的ID段，实际分配次数：" + calls.get());
+        } finally {
+            generator.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("定期检查把所有需要补充的业务合并为一次批量分配")
+    void prefetchTickShouldBatchAllTagsInOneAllocatorCall() throws InterruptedException {
+        Map<String, AtomicLong> allocated = new ConcurrentHashMap<>();
+        List<Map<String, Integer>> batches = new CopyOnWriteArrayList<>();
+        SegmentAllocator allocator = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                long maxId = allocated.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(SEGMENT_SIZE);
+                return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+            }
+            
+            @Override
+            public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+                batches.add(new HashMap<>(counts));
+                return SegmentAllocator.super.nextSegments(counts);
+            }
+        };
+        SegmentChainBufferManager manager = new SegmentChainBufferManager(allocator, 60_000);
+        
+        try {
+            List<String> tags = Arrays.asList("order", "user", "payment");
+            for (String tag : tags) {
+                SegmentChainBuffer buffer = manager.getBuffer(tag);
+                buffer.setPrefetchListener(null); // 只验证定期检查
+                for (int i = 0; i < 81; i++) {
+                    buffer.nextId();
+                }
+            }
+            
+            new PrefetchWorker(manager).run();
+            
+            long deadline = System.currentTimeMillis() + 2000;
+            while (batches.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, batches.size(), "所有业务应该合并为一次批量分配");
+            Map<String, Integer> expected = new HashMap<>();
+            for (String tag : tags) {
+                expected.put(tag, 2);
+            }
+            assertEquals(expected, batches.get(0), "每个业务应该补满链中的空位");
+            
+            while (manager.getBuffer("payment").getCurrentChainLength() < MAX_CHAIN_LENGTH
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            for (String tag : tags) {
+                assertEquals(MAX_CHAIN_LENGTH, manager.getBuffer(tag).getCurrentChainLength(), "链应该已补满：" + tag);
+            }
+        } finally {
+            manager.shutdown();
+        }
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 } 
\ No newline at end of file
@@ -1,15 +1,42 @@
 package com.caoyixin.cyxid.benchmark.test;
 
+import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.core.exception.CyxIdException;
 import com.caoyixin.cyxid.segment.SegmentIdGenerator;
+import com.caoyixin.cyxid.segment.SegmentIdGeneratorFactory;
+import com.caoyixin.cyxid.segment.buffer.SegmentBuffer;
+import com.caoyixin.cyxid.segment.buffer.SegmentBufferManager;
+import com.caoyixin.cyxid.segment.fallback.DegradableSegmentAllocator;
+import com.caoyixin.cyxid.segment.fallback.ReservedRangeEmergencySource;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshot;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -63,9 +90,11 @@ public class SegmentIdGeneratorTest {
         
         assertEquals(count, idSet.size(), "应该生成" + count + "个唯一的ID");
         
-        // 验证使用了正确数量的段
+        // 验证使用了正确数量的段，最后一个段上可能已经触发了下一个段的预加载
         int expectedSegments = (count + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
-        assertEquals(expectedSegments * SEGMENT_SIZE, currentValue.get(), "应该分配正确数量的段");
+        long allocated = currentValue.get();
+        assertTrue(allocated == expectedSegments * SEGMENT_SIZE || allocated == (expectedSegments + 1) * SEGMENT_SIZE,
+                "应该分配正确数量的段，至多多预加载一个段：" + allocated);
     }
     
     @Test
@@ -85,9 +114,11 @@ public class SegmentIdGeneratorTest {
             assertTrue(ids.get(i) > ids.get(i - 1), "ID应该是递增的");
         }
         
-        // 验证使用了正确数量的段
+        // 验证使用了正确数量的段，最后一个段上可能已经触发了下一个段的预加载
         int expectedSegments = (batchSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
-        assertEquals(expectedSegments * SEGMENT_SIZE, currentValue.get(), "应该分配正确数量的段");
+        long allocated = currentValue.get();
+        assertTrue(allocated == expectedSegments * SEGMENT_SIZE || allocated == (expectedSegments + 1) * SEGMENT_SIZE,
+                "应该分配正确数量的段，至多多预加载一个段：" + allocated);
     }
     
     @Test
@@ -96,4 +127,363 @@ public class SegmentIdGeneratorTest {
         assertEquals(GENERATOR_NAME, idGenerator.getName(), "生成器名称应该正确");
         assertEquals("segment", idGenerator.getType(), "生成器类型应该是segment");
     }
-} 
\ No newline at end of file
+    
+    @Test
+    @DisplayName("线程本地租借模式下多线程生成的ID是唯一的")
+    void leaseModeShouldGenerateUniqueIdsInMultithreadedEnvironment() throws InterruptedException {
+        SegmentIdGenerator leaseGenerator = new SegmentIdGenerator(GENERATOR_NAME, name -> {
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        }, true);
+        
+        int threadCount = 8;
+        int idsPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threadCount * idsPerThread);
+        
+        for (int i = 0; i < threadCount; i++) {
+            executor.submit(() -> {
+                try {
+                    long lastId = 0;
+                    for (int j = 0; j < idsPerThread; j++) {
+                        long id = leaseGenerator.generate();
+                        assertTrue(id > lastId, "同一线程内的ID应该是递增的");
+                        assertTrue(ids.add(id), "ID应该是唯一的");
+                        lastId = id;
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        latch.await();
+        executor.shutdown();
+        
+        assertEquals(threadCount * idsPerThread, ids.size(), "应该生成" + (threadCount * idsPerThread) + "个唯一的ID");
+        assertTrue(leaseGenerator.isThreadLocalLeaseEnabled(), "应该启用线程本地租借模式");
+    }
+    
+    @Test
+    @DisplayName("线程本地租借模式下取走剩余范围或关闭后不再发放子块中剩余的ID")
+    void leaseModeShouldStopAfterDrainAndShutdown() {
+        SegmentAllocator allocator = name -> {
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+        
+        SegmentIdGenerator drained = new SegmentIdGenerator(GENERATOR_NAME, allocator, true);
+        assertTrue(drained.generate() > 0, "应该从租借的子块发放ID");
+        drained.getBufferManager().drainSnapshots();
+        assertThrows(CyxIdException.class, drained::generate, "取走剩余范围后子块中的ID不应该继续发放");
+        
+        SegmentIdGenerator closed = new SegmentIdGenerator(GENERATOR_NAME, allocator, true);
+        assertTrue(closed.generate() > 0);
+        closed.shutdown();
+        assertThrows(CyxIdException.class, closed::generate, "关闭后子块中的ID不应该继续发放");
+        
+        idGenerator.shutdown();
+        assertThrows(CyxIdException.class, idGenerator::generate, "关闭后不应该继续发放ID");
+    }
+    
+    @Test
+    @DisplayName("加载失败的句柄尚未清除时设置的下一个ID段不会被丢弃")
+    void setNextSegmentShouldReplaceFailedLoad() {
+        SegmentBuffer buffer = new SegmentBuffer(GENERATOR_NAME);
+        buffer.initialize(new IdSegment(1, 2));
+        
+        CompletableFuture<IdSegment> pending = buffer.startLoadingNextSegment();
+        pending.completeExceptionally(new IllegalStateException("存储不可用"));
+        assertTrue(buffer.setNextSegment(new IdSegment(101, 102)), "应该接受已就绪的下一个ID段");
+        
+        assertEquals(1, buffer.nextId());
+        assertEquals(2, buffer.nextId());
+        assertEquals(101, buffer.nextId(), "当前ID段用完后应该切换到设置的ID段");
+    }
+    
+    @Test
+    @DisplayName("ID段消耗过快时按请求步长扩大ID段且不超过最大步长")
+    void adaptiveStepShouldGrowForHotTagWithinBounds() {
+        int maxStep = 800;
+        Queue<Integer> requestedSteps = new ConcurrentLinkedQueue<>();
+        
+        // 创建支持按请求步长分配的模拟段分配器
+        SegmentAllocator adaptiveAllocator = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                return nextSegment(name, SEGMENT_SIZE);
+            }
+            
+            @Override
+            public IdSegment nextSegment(String name, int requestedStep) {
+                requestedSteps.add(requestedStep);
+                long maxId = currentValue.addAndGet(requestedStep);
+                return new IdSegment(maxId - requestedStep + 1, maxId);
+            }
+        };
+        
+        // 期望每个ID段使用1分钟，测试中的消耗速度远快于此
+        SegmentBufferManager bufferManager = new SegmentBufferManager(adaptiveAllocator, 0, maxStep, 60_000);
+        SegmentIdGenerator adaptiveGenerator = new SegmentIdGenerator(GENERATOR_NAME, bufferManager, false);
+        
+        long lastId = 0;
+        for (int i = 0; i < 5000; i++) {
+            long id = adaptiveGenerator.generate();
+            assertTrue(id > lastId, "ID应该是递增的");
+            lastId = id;
+        }
+        
+        assertTrue(requestedSteps.contains(maxStep), "步长应该增长到最大步长：" + requestedSteps);
+        for (int step : requestedSteps) {
+            assertTrue(step >= SEGMENT_SIZE && step <= maxStep, "步长应该在上下限之间：" + step);
+        }
+    }
+    
+    @Test
+    @DisplayName("分配器变慢时提前触发加载下一个ID段")
+    void refillThresholdShouldRiseWithAllocatorLatency() {
+        // 创建每次分配耗时5毫秒的模拟段分配器
+        SegmentAllocator slowAllocator = name -> {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+        
+        SegmentBufferManager bufferManager = new SegmentBufferManager(slowAllocator);
+        SegmentIdGenerator slowGenerator = new SegmentIdGenerator(GENERATOR_NAME, bufferManager, false);
+        SegmentBuffer buffer = bufferManager.getBuffer(GENERATOR_NAME);
+        long fallbackThreshold = SEGMENT_SIZE * buffer.getSafeDistancePercent() / 100;
+        
+        for (int i = 0; i < 2000; i++) {
+            slowGenerator.generate();
+        }
+        
+        assertTrue(buffer.getRefillThresholdEstimator().getP99LatencyNanos() >= 5_000_000L, "应该记录到分配器延迟");
+        assertTrue(buffer.getRefillThresholdEstimator().getConsumptionRatePerSecond() > 0, "应该记录到消耗速率");
+        assertTrue(buffer.getRefillThreshold() > fallbackThreshold, 
+                "消耗远快于加载时阈值应该高于固定百分比：" + buffer.getRefillThreshold());
+    }
+    
+    @Test
+    @DisplayName("分配器不可用时从应急区间继续发放ID并在恢复后自动切回")
+    void degradableAllocatorShouldKeepIssuingIdsDuringOutage() throws InterruptedException {
+        long reservedStart = 1_000_000;
+        AtomicBoolean storageDown = new AtomicBoolean(false);
+        SegmentAllocator flakyAllocator = name -> {
+            if (storageDown.get()) {
+                throw new IllegalStateException("存储不可用");
+            }
+            long maxId = currentValue.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+        
+        DegradableSegmentAllocator allocator = new DegradableSegmentAllocator(flakyAllocator,
+                new ReservedRangeEmergencySource(reservedStart, reservedStart + 100_000), 1, 10, 100, SEGMENT_SIZE);
+        // 固定步长，保证恢复后仍会频繁请求新的ID段
+        SegmentBufferManager bufferManager = new SegmentBufferManager(allocator, SEGMENT_SIZE, SEGMENT_SIZE, 60_000);
+        SegmentIdGenerator degradableGenerator = new SegmentIdGenerator(GENERATOR_NAME, bufferManager, false);
+        
+        // 存储故障期间仍能持续发放唯一的ID，且使用了应急区间
+        storageDown.set(true);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ids.add(degradableGenerator.generate()), "ID应该是唯一的");
+        }
+        assertTrue(ids.stream().anyMatch(id -> id >= reservedStart), "应该使用应急区间的ID");
+        assertTrue(allocator.isDegraded(), "应该处于降级状态");
+        
+        // 存储恢复后熔断到期，探测成功后切回实际的分配器；按状态而不是固定数量发放，不依赖ID段大小
+        storageDown.set(false);
+        Thread.sleep(150);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (allocator.getState() != DegradableSegmentAllocator.State.CLOSED
+                && System.currentTimeMillis() < deadline) {
+            assertTrue(ids.add(degradableGenerator.generate()), "ID应该是唯一的");
+        }
+        assertEquals(DegradableSegmentAllocator.State.CLOSED, allocator.getState(), "应该恢复正常状态");
+    }
+    
+    @Test
+    @DisplayName("异步请求经过熔断器转发到实际的分配器的异步接口，熔断到期后只放行一个探测请求")
+    void degradableAllocatorShouldRouteAsyncThroughBreaker() throws Exception {
+        long reservedStart = 1_000_000;
+        Queue<CompletableFuture<IdSegment>> asyncCalls = new ConcurrentLinkedQueue<>();
+        AtomicLong syncCalls = new AtomicLong();
+        SegmentAllocator asyncAllocator = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                syncCalls.incrementAndGet();
+                throw new IllegalStateException("异步请求不应该调用同步接口");
+            }
+            
+            @Override
+            public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+                CompletableFuture<IdSegment> result = new CompletableFuture<>();
+                asyncCalls.add(result);
+                return result;
+            }
+        };
+        DegradableSegmentAllocator allocator = new DegradableSegmentAllocator(asyncAllocator,
+                new ReservedRangeEmergencySource(reservedStart, reservedStart + 100_000), 1, 50, 100, SEGMENT_SIZE);
+        
+        // 实际的分配器异步失败时以应急ID段完成并熔断
+        CompletableFuture<IdSegment> first = allocator.nextSegmentAsync("order", SEGMENT_SIZE).toCompletableFuture();
+        assertFalse(first.isDone(), "应该等待实际的分配器的异步结果");
+        asyncCalls.poll().completeExceptionally(new IllegalStateException("存储不可用"));
+        assertTrue(first.get(5, TimeUnit.SECONDS).getMinId() >= reservedStart, "失败时应该使用应急区间");
+        assertEquals(DegradableSegmentAllocator.State.OPEN, allocator.getState());
+        
+        // 熔断期间直接使用应急来源
+        assertTrue(allocator.nextSegmentAsync("order", SEGMENT_SIZE).toCompletableFuture().isDone());
+        assertTrue(asyncCalls.isEmpty(), "熔断期间不应该请求实际的分配器");
+        
+        // 到期后并发请求只有一个成为探测请求
+        Thread.sleep(80);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CompletableFuture<IdSegment>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return allocator.nextSegmentAsync("order", SEGMENT_SIZE).toCompletableFuture();
+                }));
+            }
+            start.countDown();
+            for (Future<CompletableFuture<IdSegment>> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, asyncCalls.size(), "熔断到期后应该只放行一个探测请求");
+        assertEquals(DegradableSegmentAllocator.State.HALF_OPEN, allocator.getState());
+        
+        CompletableFuture<IdSegment> probe = asyncCalls.poll();
+        probe.complete(new IdSegment(1, SEGMENT_SIZE));
+        assertEquals(DegradableSegmentAllocator.State.CLOSED, allocator.getState(), "探测成功后应该恢复");
+        assertEquals(0, syncCalls.get(), "异步请求不应该调用同步接口");
+    }
+    
+    @Test
+    @DisplayName("预热时并行加载每个业务的前两个ID段")
+    void warmUpShouldLoadFirstTwoSegmentsOfEachTag() {
+        Map<String, AtomicLong> allocations = new ConcurrentHashMap<>();
+        SegmentIdGeneratorFactory factory = new SegmentIdGeneratorFactory(name -> {
+            long maxId = allocations.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        });
+        
+        List<String> tags = Arrays.asList("order", "user", "payment");
+        factory.warmUp(tags).join();
+        
+        assertTrue(factory.isReady(), "预热完成后应该就绪");
+        for (String tag : tags) {
+            assertEquals(2 * SEGMENT_SIZE, allocations.get(tag).get(), "每个业务应该加载两个ID段：" + tag);
+            assertEquals(1, factory.getGenerator(tag).generate(), "第一个ID应该来自已加载的ID段：" + tag);
+        }
+    }
+    
+    @Test
+    @DisplayName("关闭时保存剩余ID范围，同一节点重启后优先使用且只使用一次")
+    void snapshotShouldResumeRemainderOnSameNodeOnly(@TempDir Path dir) {
+        AtomicLong allocations = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        SegmentAllocator allocator = name -> {
+            allocations.incrementAndGet();
+            long maxId = allocated.addAndGet(SEGMENT_SIZE);
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+        Path file = dir.resolve("segment.snapshot");
+        
+        SegmentIdGeneratorFactory first = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(file, "node-a"));
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, first.getGenerator("order").generate(), "ID应该连续");
+        }
+        first.shutdown();
+        assertTrue(Files.exists(file), "关闭后应该写入快照文件");
+        
+        long allocationsBeforeRestart = allocations.get();
+        SegmentIdGeneratorFactory second = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(file, "node-a"));
+        assertFalse(Files.exists(file), "快照读取后应该被删除");
+        assertEquals(11, second.getGenerator("order").generate(), "重启后应该从剩余范围继续");
+        assertEquals(allocationsBeforeRestart, allocations.get(), "使用快照时不应该请求分配器");
+        second.shutdown();
+        
+        SegmentIdGeneratorFactory other = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(file, "node-b"));
+        assertEquals(allocated.get() + 1, other.getGenerator("order").generate(),
+                "其他节点不应该使用快照，而是请求新的ID段");
+        assertTrue(Files.exists(file), "被拒绝的快照文件应该保留");
+        
+        SegmentSnapshotStore store = new SegmentSnapshotStore(file, "node-a");
+        assertFalse(store.consume().isEmpty(), "原节点应该能读取快照");
+        assertTrue(store.consume().isEmpty(), "同一份快照只能读取一次");
+    }
+    
+    @Test
+    @DisplayName("节点标识相同的克隆实例复制了快照文件时，最多一个实例能使用快照")
+    void snapshotEpochShouldRejectClonedCopy(@TempDir Path dir) throws Exception {
+        Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        SegmentAllocator storage = new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                return nextSegment(name, SEGMENT_SIZE);
+            }
+            
+            @Override
+            public IdSegment nextSegment(String name, int requestedStep) {
+                long maxId = counters.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(requestedStep);
+                return new IdSegment(maxId - requestedStep + 1, maxId);
+            }
+        };
+        Path file = dir.resolve("segment.snapshot");
+        Path cloneFile = Files.createDirectory(dir.resolve("clone")).resolve("segment.snapshot");
+        
+        SegmentSnapshotStore original = new SegmentSnapshotStore(file, "host-1", storage);
+        original.save(Arrays.asList(new SegmentSnapshot("order", SEGMENT_SIZE,
+                Arrays.asList(new IdSegment(11, 100)))));
+        Files.copy(file, cloneFile);
+        
+        SegmentSnapshotStore clone = new SegmentSnapshotStore(cloneFile, "host-1", storage);
+        assertEquals(11, clone.consume().get("order").getSegments().get(0).getMinId(), "先启动的实例应该能使用快照");
+        assertTrue(original.consume().isEmpty(), "纪元已被使用，复制出的另一份快照应该被拒绝");
+        
+        original.save(Arrays.asList(new SegmentSnapshot("order", SEGMENT_SIZE,
+                Arrays.asList(new IdSegment(201, 300)))));
+        assertFalse(original.consume().isEmpty(), "重新保存后应该能使用新的快照");
+        
+        new SegmentSnapshotStore(file, "host-1").save(Arrays.asList(new SegmentSnapshot("order", SEGMENT_SIZE,
+                Arrays.asList(new IdSegment(301, 400)))));
+        assertTrue(original.consume().isEmpty(), "没有记录纪元的快照应该被拒绝");
+    }
+    
+    @Test
+    @DisplayName("工厂关闭并保存快照后，继续使用生成器立即抛出异常")
+    void generateShouldFailFastAfterFactoryShutdown(@TempDir Path dir) {
+        AtomicLong allocations = new AtomicLong();
+        SegmentAllocator allocator = name -> {
+            long maxId = allocations.incrementAndGet() * SEGMENT_SIZE;
+            return new IdSegment(maxId - SEGMENT_SIZE + 1, maxId);
+        };
+        SegmentIdGeneratorFactory factory = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(dir.resolve("segment.snapshot"), "node-a"));
+        IdGenerator generator = factory.getGenerator("order");
+        assertEquals(1, generator.generate());
+        factory.shutdown();
+        
+        long allocationsAfterShutdown = allocations.get();
+        CyxIdException e = assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> assertThrows(CyxIdException.class, generator::generate));
+        assertEquals("生成器已关闭", e.getMessage());
+        assertTrue(allocations.get() - allocationsAfterShutdown <= 1, "关闭后不应该反复请求分配器");
+    }
+}
\ No newline at end of file
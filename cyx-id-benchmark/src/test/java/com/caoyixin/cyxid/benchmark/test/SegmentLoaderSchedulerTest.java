@@ -0,0 +1,163 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.segment.loader.SegmentLoadMetrics;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ID段加载调度器测试
+ */
+@DisplayName("ID段加载调度器测试")
+public class SegmentLoaderSchedulerTest {
+    
+    private SegmentLoaderScheduler scheduler;
+    private CountDownLatch blocker;
+    
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        scheduler = new SegmentLoaderScheduler(SegmentLoaderScheduler.Mode.PLATFORM, 1);
+        
+        // 占住唯一的加载线程，使后续任务进入排队
+        blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", 0, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS), "阻塞任务应该开始执行");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        blocker.countDown();
+        scheduler.shutdown();
+    }
+    
+    @Test
+    @DisplayName("预计耗尽时间越早的任务越先执行")
+    void shouldRunTaskClosestToExhaustionFirst() throws InterruptedException {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        
+        scheduler.submit("cold", TimeUnit.MILLISECONDS.toNanos(900), () -> { order.add("cold"); done.countDown(); });
+        scheduler.submit("hot", TimeUnit.MILLISECONDS.toNanos(10), () -> { order.add("hot"); done.countDown(); });
+        scheduler.submit("warm", TimeUnit.MILLISECONDS.toNanos(300), () -> { order.add("warm"); done.countDown(); });
+        assertEquals(3, scheduler.getQueueDepth(), "三个任务应该在排队");
+        
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "所有任务应该执行完成");
+        
+        assertEquals(Arrays.asList("hot", "warm", "cold"), order, "应该按预计耗尽时间从早到晚执行");
+        assertEquals(0, scheduler.getQueueDepth(), "队列应该为空");
+    }
+    
+    @Test
+    @DisplayName("同一缓存器排队中的加载任务不会重复提交")
+    void shouldDedupeQueuedTasksPerKey() throws InterruptedException {
+        Object buffer = new Object();
+        CountDownLatch done = new CountDownLatch(1);
+        
+        assertTrue(scheduler.submit(buffer, 100, done::countDown), "第一次提交应该成功");
+        assertFalse(scheduler.submit(buffer, 50, done::countDown), "排队中的重复提交应该被忽略");
+        assertEquals(1, scheduler.getQueueDepth(), "只有一个任务在排队");
+        
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "任务应该执行完成");
+    }
+    
+    @Test
+    @DisplayName("按业务记录排队等待和迟到情况")
+    void shouldRecordStarvationAndLatenessPerTag() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submit(new Object(), "order", 0, done::countDown), "提交应该成功");
+        
+        Thread.sleep(20);
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "任务应该执行完成");
+        
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!scheduler.getMetrics().containsKey("order") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        SegmentLoadMetrics metrics = scheduler.getMetrics().get("order");
+        assertNotNull(metrics, "应该记录业务的加载统计");
+        assertEquals(1, metrics.getLoads(), "应该记录一次加载");
+        assertTrue(metrics.getMaxQueueWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20), "应该记录被挤占的排队时间");
+        assertEquals(1, metrics.getLateLoads(), "晚于预计耗尽时间完成的加载应该记为迟到");
+    }
+    
+    @Test
+    @DisplayName("批量任务按业务分别记录排队等待和迟到情况")
+    void shouldRecordMetricsPerTagForBatch() throws InterruptedException {
+        Map<String, Long> timeToExhaustion = new LinkedHashMap<>();
+        timeToExhaustion.put("order", 0L);
+        timeToExhaustion.put("user", TimeUnit.HOURS.toNanos(1));
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submitBatch(new Object(), timeToExhaustion, done::countDown), "提交应该成功");
+        
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "任务应该执行完成");
+        
+        long deadline = System.currentTimeMillis() + 2000;
+        while (scheduler.getMetrics().size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Map<String, SegmentLoadMetrics> metrics = scheduler.getMetrics();
+        assertEquals(1, metrics.get("order").getLoads(), "批次中的每个业务都应该记录一次加载");
+        assertEquals(1, metrics.get("user").getLoads(), "批次中的每个业务都应该记录一次加载");
+        assertEquals(1, metrics.get("order").getLateLoads(), "应该按业务自身的预计耗尽时间判断迟到");
+        assertEquals(0, metrics.get("user").getLateLoads(), "应该按业务自身的预计耗尽时间判断迟到");
+    }
+    
+    @Test
+    @DisplayName("关闭后拒绝新任务，已排队的任务仍执行完毕")
+    void shouldRunQueuedTasksAfterShutdown() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit("first", 0, done::countDown), "提交应该成功");
+        assertTrue(scheduler.submit("second", 0, done::countDown), "提交应该成功");
+        
+        scheduler.shutdown();
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit("late", 0, () -> { }));
+        
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS), "关闭前排队的任务应该执行完成");
+    }
+    
+    @Test
+    @DisplayName("默认调度器被关闭后，获取或配置默认调度器时创建新的实例")
+    void shouldReplaceDefaultAfterShutdown() {
+        SegmentLoaderScheduler configured = SegmentLoaderScheduler.configureDefault(SegmentLoaderScheduler.Mode.PLATFORM, 3);
+        assertSame(configured, SegmentLoaderScheduler.configureDefault(SegmentLoaderScheduler.Mode.PLATFORM, 3),
+                "配置相同时应该返回现有实例");
+        
+        // 模拟容器关闭时关闭了共享的默认调度器
+        configured.shutdown();
+        assertTrue(configured.isShutdown());
+        SegmentLoaderScheduler reconfigured = SegmentLoaderScheduler.configureDefault(SegmentLoaderScheduler.Mode.PLATFORM, 3);
+        assertNotSame(configured, reconfigured, "已关闭的默认调度器应该被替换");
+        assertFalse(reconfigured.isShutdown());
+        
+        reconfigured.shutdown();
+        SegmentLoaderScheduler replaced = SegmentLoaderScheduler.getDefault();
+        assertNotSame(reconfigured, replaced, "已关闭的默认调度器应该被替换");
+        assertTrue(replaced.submit("order", 0, () -> { }), "新的默认调度器应该接受任务");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.shm.SharedMemorySegmentIdGenerator;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 跨进程共享内存分段ID生成器测试
+ * 同一进程内的多个实例映射同一个文件，模拟同一主机上的多个进程
+ */
+@DisplayName("跨进程共享内存分段ID生成器测试")
+public class SharedMemorySegmentIdGeneratorTest {
+    
+    private static final int STEP = 1000;
+    
+    private final AtomicLong currentValue = new AtomicLong(0);
+    private final AtomicInteger allocatorCalls = new AtomicInteger(0);
+    
+    private final SegmentAllocator allocator = name -> {
+        allocatorCalls.incrementAndGet();
+        long maxId = currentValue.addAndGet(STEP);
+        return new IdSegment(maxId - STEP + 1, maxId);
+    };
+    
+    @Test
+    @DisplayName("多个实例共用一个缓冲区和一个分配器客户端，发放的ID不重复")
+    void instancesShouldShareOneBuffer(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("order.shm");
+        SharedMemorySegmentIdGenerator first = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        SharedMemorySegmentIdGenerator second = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        try {
+            assertThrows(CyxIdException.class, () -> new SharedMemorySegmentIdGenerator("user", allocator, file, 1),
+                    "共享文件属于其他生成器时应该拒绝");
+            
+            int threadsPerInstance = 4;
+            int perThread = 20_000;
+            ExecutorService executor = Executors.newFixedThreadPool(threadsPerInstance * 2);
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threadsPerInstance * 2; t++) {
+                SharedMemorySegmentIdGenerator generator = t % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.generate();
+                    }
+                    return ids;
+                }));
+            }
+            
+            Set<Long> unique = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                for (long id : future.get()) {
+                    assertTrue(unique.add(id), "ID不应该重复：" + id);
+                }
+            }
+            executor.shutdown();
+            
+            int total = threadsPerInstance * 2 * perThread;
+            assertEquals(total, unique.size());
+            assertTrue(first.isLeader() ^ second.isLeader(), "应该只有一个补充进程");
+            assertTrue(allocatorCalls.get() <= total / STEP + 3,
+                    "两个实例应该共用一个缓冲区，实际分配次数：" + allocatorCalls.get());
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("补充进程退出后其他实例接替补充")
+    void followerShouldTakeOverWhenLeaderExits(@TempDir Path dir) {
+        Path file = dir.resolve("order.shm");
+        SharedMemorySegmentIdGenerator first = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        SharedMemorySegmentIdGenerator second = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        try {
+            long last = first.generate();
+            SharedMemorySegmentIdGenerator leader = first.isLeader() ? first : second;
+            SharedMemorySegmentIdGenerator follower = leader == first ? second : first;
+            
+            leader.shutdown();
+            for (int i = 0; i < STEP * 5; i++) {
+                long id = follower.generate();
+                assertTrue(id > last, "ID应该在同一序列上继续递增");
+                last = id;
+            }
+            assertTrue(follower.isLeader(), "剩余实例应该成为补充进程");
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+    
+    @Test
+    @DisplayName("补充进程写入槽位中途退出留下奇数序号时，接替的补充进程仍能补充该槽位")
+    void shouldRecoverSlotLeftMidWrite(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("order.shm");
+        SharedMemorySegmentIdGenerator generator = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        long last = generator.generate();
+        generator.shutdown();
+        
+        // 两个槽位（偏移256和512）的序号都改为奇数，模拟补充进程在写入中途退出
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer epoch = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset : new long[]{256, 512}) {
+                epoch.clear();
+                channel.read(epoch, offset);
+                long odd = epoch.getLong(0) | 1;
+                epoch.clear();
+                epoch.putLong(0, odd);
+                channel.write(epoch, offset);
+            }
+        }
+        
+        SharedMemorySegmentIdGenerator recovered = new SharedMemorySegmentIdGenerator("order", allocator, file, 1);
+        try {
+            int callsBefore = allocatorCalls.get();
+            for (int i = 0; i < STEP * 3; i++) {
+                long id = recovered.generate();
+                assertTrue(id > last, "ID应该在同一序列上继续递增");
+                last = id;
+            }
+            assertTrue(allocatorCalls.get() - callsBefore <= 5,
+                    "槽位恢复后不应该反复补充，实际分配次数：" + (allocatorCalls.get() - callsBefore));
+        } finally {
+            recovered.shutdown();
+        }
+    }
+}
\ No newline at end of file
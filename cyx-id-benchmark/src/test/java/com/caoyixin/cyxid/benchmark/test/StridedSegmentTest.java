@@ -0,0 +1,164 @@
+package com.caoyixin.cyxid.benchmark.test;
+
+import com.caoyixin.cyxid.segment.SegmentIdGenerator;
+import com.caoyixin.cyxid.segment.SegmentIdGeneratorFactory;
+import com.caoyixin.cyxid.segment.cache.CachingSegmentAllocator;
+import com.caoyixin.cyxid.segment.chain.SegmentChainIdGenerator;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.RegionStride;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 间隔ID段测试
+ */
+@DisplayName("间隔ID段测试")
+public class StridedSegmentTest {
+    
+    private static final int SEGMENT_SIZE = 100;
+    
+    private static final int REGION_COUNT = 3;
+    
+    /**
+     * 创建一个区域的分配器，每个区域有独立的计数，模拟各自独立的存储
+     */
+    private static SegmentAllocator regionAllocator(RegionStride region) {
+        AtomicLong position = new AtomicLong();
+        return new SegmentAllocator() {
+            @Override
+            public IdSegment nextSegment(String name) {
+                return nextSegment(name, SEGMENT_SIZE);
+            }
+            
+            @Override
+            public IdSegment nextSegment(String name, int requestedStep) {
+                long last = position.addAndGet(requestedStep);
+                return region.toSegment(last - requestedStep + 1, last);
+            }
+        };
+    }
+    
+    @Test
+    @DisplayName("区域映射的ID段按间隔递增，参数不合法时拒绝")
+    void regionStrideShouldMapPositions() {
+        IdSegment segment = new RegionStride(2, REGION_COUNT).toSegment(1, 4);
+        assertEquals(5, segment.getMinId());
+        assertEquals(14, segment.getMaxId());
+        assertEquals(3, segment.getStride());
+        assertEquals(4, segment.getStep());
+        assertTrue(segment.isStrided());
+        
+        IdSegment contiguous = RegionStride.NONE.toSegment(1, 4);
+        assertEquals(new IdSegment(1, 4).getStep(), contiguous.getStep());
+        assertFalse(contiguous.isStrided());
+        
+        assertThrows(IllegalArgumentException.class, () -> new RegionStride(3, 3));
+        assertThrows(IllegalArgumentException.class, () -> new IdSegment(1, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new IdSegment(1, 10, 2), "最大ID必须落在间隔上");
+    }
+    
+    @Test
+    @DisplayName("从连续ID迁移时各区域从起始ID之后发放，不与已发放的ID重叠")
+    void regionStrideShouldStartAfterBaseId() {
+        long highWaterMark = 10_000;
+        for (int k = 0; k < REGION_COUNT; k++) {
+            IdSegment first = new RegionStride(k, REGION_COUNT, highWaterMark).toSegment(1, 4);
+            assertTrue(first.getMinId() > highWaterMark, "迁移后的ID应该大于已发放的最大ID");
+            assertEquals((highWaterMark + k) % REGION_COUNT, first.getMinId() % REGION_COUNT, "各区域的余数应该不同");
+            assertEquals(REGION_COUNT, first.getStride());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RegionStride(0, REGION_COUNT, -1));
+    }
+    
+    @Test
+    @DisplayName("多个区域独立分配，各生成器产生的ID互不重叠且符合区域余数")
+    void regionsShouldNeverCollide() throws Exception {
+        Set<Long> all = ConcurrentHashMap.newKeySet();
+        int perThread = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(REGION_COUNT * 3);
+        List<Future<?>> futures = new ArrayList<>();
+        List<SegmentChainIdGenerator> chains = new ArrayList<>();
+        for (int k = 0; k < REGION_COUNT; k++) {
+            RegionStride region = new RegionStride(k, REGION_COUNT);
+            int remainder = k;
+            SegmentIdGenerator plain = new SegmentIdGenerator("order", regionAllocator(region));
+            SegmentIdGenerator leased = new SegmentIdGenerator("user", regionAllocator(region), true);
+            SegmentChainIdGenerator chain = new SegmentChainIdGenerator("item", regionAllocator(region), 50, 20, 3);
+            chains.add(chain);
+            long offset = 0;
+            for (Object generator : new Object[]{plain, leased, chain}) {
+                long tag = offset++;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        long id = generator instanceof SegmentIdGenerator
+                                ? ((SegmentIdGenerator) generator).generate()
+                                : ((SegmentChainIdGenerator) generator).generate();
+                        assertEquals(remainder, id % REGION_COUNT, "ID应该属于本区域");
+                        // 不同业务的ID各自独立，按业务区分后再比较是否重复
+                        assertTrue(all.add(id * 4 + tag), "ID不应该重复：" + id);
+                    }
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        chains.forEach(SegmentChainIdGenerator::shutdown);
+        
+        assertEquals(REGION_COUNT * 3 * perThread, all.size());
+    }
+    
+    @Test
+    @DisplayName("从间隔超级号段切分出的ID段保持间隔")
+    void cachingAllocatorShouldKeepStride() {
+        CachingSegmentAllocator caching = new CachingSegmentAllocator(
+                regionAllocator(new RegionStride(1, REGION_COUNT)), 10, 1_000);
+        long expectedMin = REGION_COUNT + 1;
+        for (int i = 0; i < 500; i++) {
+            IdSegment segment = caching.nextSegment("order", 7);
+            assertEquals(expectedMin, segment.getMinId(), "切分出的ID段应该在区域内连续");
+            assertEquals(REGION_COUNT, segment.getStride());
+            assertTrue(segment.getStep() <= 7);
+            expectedMin = segment.getMaxId() + REGION_COUNT;
+        }
+        caching.shutdown();
+    }
+    
+    @Test
+    @DisplayName("间隔ID段的剩余范围写入快照后按原间隔继续")
+    void snapshotShouldKeepStride(@TempDir Path dir) {
+        Path file = dir.resolve("segment.snapshot");
+        SegmentAllocator allocator = regionAllocator(new RegionStride(2, REGION_COUNT));
+        
+        SegmentIdGeneratorFactory first = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(file, "node-a"));
+        long last = 0;
+        for (int i = 0; i < 10; i++) {
+            last = first.getGenerator("order").generate();
+        }
+        assertEquals(REGION_COUNT + 2 + 9 * REGION_COUNT, last);
+        first.shutdown();
+        
+        SegmentIdGeneratorFactory second = new SegmentIdGeneratorFactory(
+                allocator, 0, 1_000_000, 900_000, new SegmentSnapshotStore(file, "node-a"));
+        assertEquals(last + REGION_COUNT, second.getGenerator("order").generate(), "重启后应该按原间隔继续");
+        second.shutdown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.caoyixin.cyxid.segment.chain;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 链深度调节器
+ * 根据观测到的峰值消耗速率和分配器加载延迟计算链中应保持的ID段数量：
+ * 深度 = 1 + ceil(峰值消耗速率 × 加载延迟（P99） × 安全系数 / ID段长度)，
+ * 即一次加载期间突发流量可能消耗的ID段数再加上当前段。
+ * 峰值消耗速率按半衰期随时间衰减，空闲一段时间后深度回落到下限
+ */
+public class ChainDepthTuner {
+    
+    /**
+     * 安全系数，放大一次加载期间的预计消耗以应对更大的突发
+     */
+    private static final double SAFETY_FACTOR = 2.0;
+    
+    /**
+     * 默认的峰值衰减半衰期（纳秒）
+     */
+    private static final long DEFAULT_HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    
+    /**
+     * 峰值衰减半衰期（纳秒）
+     */
+    private final long halfLifeNanos;
+    
+    /**
+     * 峰值消耗速率（每纳秒消耗的ID数），记录时刻为lastUpdateNanos
+     */
+    private double peakRate = 0;
+    
+    /**
+     * 峰值消耗速率的记录时间（纳秒）
+     */
+    private long lastUpdateNanos;
+    
+    /**
+     * 是否已有消耗样本
+     */
+    private volatile boolean sampled = false;
+    
+    /**
+     * 创建链深度调节器，峰值半衰期为60秒
+     */
+    public ChainDepthTuner() {
+        this(DEFAULT_HALF_LIFE_NANOS);
+    }
+    
+    /**
+     * 创建链深度调节器
+     *
+     * @param halfLifeNanos 峰值衰减半衰期（纳秒）
+     */
+    public ChainDepthTuner(long halfLifeNanos) {
+        if (halfLifeNanos <= 0) {
+            throw new IllegalArgumentException("半衰期必须大于0");
+        }
+        this.halfLifeNanos = halfLifeNanos;
+    }
+    
+    /**
+     * 记录一个ID段的消耗情况
+     *
+     * @param consumed 消耗的ID数量
+     * @param elapsedNanos 消耗这些ID所用的时间（纳秒）
+     * @param nowNanos 当前时间（纳秒）
+     */
+    public synchronized void recordConsumption(long consumed, long elapsedNanos, long nowNanos) {
+        if (consumed <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        
+        double rate = (double) consumed / elapsedNanos;
+        peakRate = Math.max(decayedPeakRate(nowNanos), rate);
+        lastUpdateNanos = nowNanos;
+        sampled = true;
+    }
+    
+    /**
+     * 是否已有消耗样本
+     *
+     * @return 记录过至少一次有效的消耗时返回true
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+    
+    /**
+     * 计算建议的链深度
+     *
+     * @param step ID段长度
+     * @param latencyNanos 分配器加载延迟（纳秒），通常为P99
+     * @param minDepth 深度下限
+     * @param maxDepth 深度上限
+     * @param nowNanos 当前时间（纳秒）
+     * @return 建议的链深度
+     */
+    public synchronized int recommend(long step, long latencyNanos, int minDepth, int maxDepth, long nowNanos) {
+        double burst = decayedPeakRate(nowNanos) * latencyNanos * SAFETY_FACTOR;
+        long depth = 1 + (long) Math.ceil(burst / Math.max(1, step));
+        return (int) Math.max(minDepth, Math.min(maxDepth, depth));
+    }
+    
+    /**
+     * 获取衰减后的峰值消耗速率
+     *
+     * @param nowNanos 当前时间（纳秒）
+     * @return 每秒消耗的ID数
+     */
+    public synchronized double getPeakRatePerSecond(long nowNanos) {
+        return decayedPeakRate(nowNanos) * TimeUnit.SECONDS.toNanos(1);
+    }
+    
+    /**
+     * 按半衰期衰减峰值消耗速率
+     *
+     * @param nowNanos 当前时间（纳秒）
+     * @return 衰减后的峰值消耗速率（每纳秒）
+     */
+    private double decayedPeakRate(long nowNanos) {
+        if (peakRate == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(0, nowNanos - lastUpdateNanos);
+        return peakRate * Math.pow(0.5, (double) elapsed / halfLifeNanos);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.caoyixin.cyxid.segment.chain;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 左侧填充，使计数器与对象头及前一个对象不在同一缓存行
+ */
+abstract class PaddedCounterLeftPadding {
+    
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+/**
+ * 计数器的值
+ */
+abstract class PaddedCounterValue extends PaddedCounterLeftPadding {
+    
+    /**
+     * 当前值
+     */
+    volatile long value;
+}
+
+/**
+ * 缓存行填充的计数器
+ * 计数器前后各填充56字节，避免高频自增的计数器与其他线程读取的字段共享缓存行（伪共享）
+ */
+public final class PaddedCounter extends PaddedCounterValue {
+    
+    long p11, p12, p13, p14, p15, p16, p17;
+    
+    /**
+     * 当前值的原子更新器
+     */
+    private static final AtomicLongFieldUpdater<PaddedCounterValue> VALUE =
+            AtomicLongFieldUpdater.newUpdater(PaddedCounterValue.class, "value");
+    
+    /**
+     * 创建缓存行填充的计数器
+     *
+     * @param initialValue 初始值
+     */
+    public PaddedCounter(long initialValue) {
+        this.value = initialValue;
+    }
+    
+    /**
+     * 获取当前值
+     *
+     * @return 当前值
+     */
+    public long get() {
+        return value;
+    }
+    
+    /**
+     * 自增并返回自增后的值
+     *
+     * @return 自增后的值
+     */
+    public long incrementAndGet() {
+        return VALUE.incrementAndGet(this);
+    }
+    
+    /**
+     * 增加指定值并返回增加后的值
+     *
+     * @param delta 增加的值
+     * @return 增加后的值
+     */
+    public long addAndGet(long delta) {
+        return VALUE.addAndGet(this, delta);
+    }
+    
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
\ No newline at end of file
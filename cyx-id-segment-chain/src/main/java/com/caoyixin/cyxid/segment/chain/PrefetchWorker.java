@@ -2,11 +2,14 @@ package com.caoyixin.cyxid.segment.chain;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
  * 预取工作器
- * 定期检查所有缓存器，为需要预取的缓存器执行预取操作
+ * 定期检查所有缓存器，调整链深度，将需要预取的缓存器合并为一次批量预取提交到加载调度器。
+ * 预取通常已由消耗越过阈值的线程触发，这里只作为兜底
  */
 @Slf4j
 public class PrefetchWorker implements Runnable {
@@ -36,9 +39,19 @@ public class PrefetchWorker implements Runnable {
             
             log.debug("开始检查需要预取的缓存器，共{}个", bufferMap.size());
             
-            // 检查每个缓存器是否需要预取
+            // 调整链深度后收集需要预取的缓存器，合并为一次批量预取
+            long now = System.nanoTime();
+            List<SegmentChainBuffer> needPrefetch = new ArrayList<>();
             for (SegmentChainBuffer buffer : bufferMap.values()) {
-                checkAndPrefetch(buffer);
+                buffer.retuneChainDepth(now);
+                if (needsPrefetch(buffer)) {
+                    needPrefetch.add(buffer);
+                }
+            }
+            
+            if (!needPrefetch.isEmpty()) {
+                log.debug("{}个缓存器需要预取", needPrefetch.size());
+                bufferManager.schedulePrefetchBatch(needPrefetch);
             }
             
         } catch (Exception e) {
@@ -47,18 +60,17 @@ public class PrefetchWorker implements Runnable {
     }
     
     /**
-     * 检查缓存器是否需要预取，如果需要则执行预取
+     * 检查缓存器是否需要预取
      *
      * @param buffer 缓存器
+     * @return 是否需要预取
      */
-    private void checkAndPrefetch(SegmentChainBuffer buffer) {
+    private boolean needsPrefetch(SegmentChainBuffer buffer) {
         try {
-            if (buffer.shouldPrefetch()) {
-                log.debug("缓存器[{}]需要预取", buffer.getName());
-                bufferManager.prefetchNextSegment(buffer);
-            }
+            return buffer.shouldPrefetch();
         } catch (Exception e) {
             log.error("检查预取状态异常：{}", buffer.getName(), e);
+            return false;
         }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,18 +1,36 @@
 package com.caoyixin.cyxid.segment.chain;
 
 import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.loader.RefillThresholdEstimator;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 /**
  * 链式分段ID缓存器
- * 基于链表结构的ID段缓存器，提供高性能的ID生成与预取功能
+ * 基于链表结构的ID段缓存器，提供高性能的ID生成与预取功能。
+ * 获取ID和切换头节点都不加锁：节点计数器单独填充缓存行，头节点耗尽后通过CAS切换，只有追加节点时加锁
  */
 @Slf4j
 public class SegmentChainBuffer {
     
+    /**
+     * 按需加载失败后重试的间隔（纳秒）
+     */
+    private static final long DEMAND_FETCH_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
     /**
      * ID生成器名称
      */
@@ -20,9 +38,9 @@ public class SegmentChainBuffer {
     private final String name;
     
     /**
-     * 链表头节点（当前使用的节点）
+     * 链表头节点（当前使用的节点），耗尽后通过CAS切换到下一个节点
      */
-    private volatile SegmentChainNode head;
+    private final AtomicReference<SegmentChainNode> head = new AtomicReference<>();
     
     /**
      * 链表尾节点（最近预取的节点）
@@ -37,30 +55,108 @@ public class SegmentChainBuffer {
     private volatile boolean initialized = false;
     
     /**
-     * 安全距离百分比，当消耗到此百分比时开始预取下一个ID段
+     * 安全距离百分比，尚无消耗速率和加载延迟样本时，当前节点剩余低于此百分比开始预取下一个ID段
      */
     @Getter
     @Setter
     private volatile int safeDistancePercent = 20;
     
     /**
-     * 链的长度（最大预取段数）
+     * 链的长度（最大预取段数）；启用深度调节时为深度上限
      */
     @Getter
     @Setter
     private volatile int maxChainLength = 3;
     
+    /**
+     * 链深度下限，大于0且小于maxChainLength时启用深度调节，否则链深度固定为maxChainLength。
+     * 调节后的深度不低于2，深度为1时链中没有空位，无法预取
+     */
+    @Getter
+    @Setter
+    private volatile int minChainLength = 0;
+    
+    /**
+     * 深度调节器给出的当前链深度，仅在启用深度调节时使用
+     */
+    private volatile int tunedChainLength = 0;
+    
+    /**
+     * 链深度调节器，根据峰值消耗速率和加载延迟计算链深度
+     */
+    @Getter
+    private final ChainDepthTuner chainDepthTuner = new ChainDepthTuner();
+    
+    /**
+     * 预取加载次数
+     */
+    private final LongAdder refillCount = new LongAdder();
+    
+    /**
+     * 预取加载的ID段总数
+     */
+    private final LongAdder refilledSegments = new LongAdder();
+    
+    /**
+     * 链耗尽后同步按需加载的次数
+     */
+    private final LongAdder demandFetchCount = new LongAdder();
+    
+    /**
+     * 链深度加深次数
+     */
+    private final LongAdder deepenCount = new LongAdder();
+    
+    /**
+     * 链深度变浅次数
+     */
+    private final LongAdder shrinkCount = new LongAdder();
+    
     /**
      * 当前链中的段数
      */
+    private final AtomicInteger currentChainLength = new AtomicInteger(0);
+    
+    /**
+     * 正在进行的加载（预取或按需加载），完成时清空，没有加载时为null
+     */
+    private volatile CompletableFuture<Void> loading;
+    
+    /**
+     * 按需加载的最长等待时间（毫秒），链中所有ID段耗尽后超过此时间仍未加载到ID段才抛出异常
+     */
     @Getter
-    private volatile int currentChainLength = 0;
+    @Setter
+    private volatile long demandFetchTimeoutMillis = 1000;
     
     /**
-     * 是否正在预取
+     * 按需加载ID段的回调，参数为生成器名称
+     */
+    @Setter
+    private volatile Function<String, IdSegment> demandLoader;
+    
+    /**
+     * 当前节点触发预取的剩余数量阈值，每次切换节点时重新计算
+     */
+    @Getter
+    private volatile long refillThreshold = 0;
+    
+    /**
+     * 当前节点开始使用的时间（纳秒）
+     */
+    private volatile long headStartNanos;
+    
+    /**
+     * 补充阈值估算器，根据消耗速率和加载延迟计算触发预取的剩余数量
      */
     @Getter
-    private volatile boolean prefetching = false;
+    private final RefillThresholdEstimator refillThresholdEstimator = new RefillThresholdEstimator();
+    
+    /**
+     * 预取请求的回调，消耗越过阈值的线程通过它立即提交预取任务
+     */
+    @Setter
+    private volatile Consumer<SegmentChainBuffer> prefetchListener;
     
     /**
      * 创建链式分段ID缓存器
@@ -81,9 +177,12 @@ public class SegmentChainBuffer {
             return;
         }
         
-        head = new SegmentChainNode(segment);
-        tail = head;
-        currentChainLength = 1;
+        SegmentChainNode node = new SegmentChainNode(segment);
+        tail = node;
+        head.set(node);
+        currentChainLength.set(1);
+        headStartNanos = System.nanoTime();
+        refillThreshold = refillThresholdEstimator.threshold(segment.getStep(), safeDistancePercent);
         initialized = true;
         
         log.info("初始化链式分段ID缓存器[{}]，初始ID段：{}", name, segment);
@@ -91,6 +190,7 @@ public class SegmentChainBuffer {
     
     /**
      * 获取下一个ID
+     * 链中所有ID段耗尽时同步按需加载，超过按需加载的最长等待时间仍未加载到ID段才抛出异常
      *
      * @return 下一个ID
      */
@@ -99,38 +199,145 @@ public class SegmentChainBuffer {
             throw new CyxIdException("链式分段ID缓存器[" + name + "]尚未初始化");
         }
         
-        // 从当前头节点获取ID
-        long id = head.nextId();
-        
-        // 如果获取到有效ID，直接返回
-        if (id > 0) {
-            return id;
-        }
-        
-        // 获取到无效ID，表示当前节点已耗尽，尝试切换到下一个节点
-        synchronized (this) {
-            // 再次检查当前节点，防止在同步前已被其他线程切换
-            id = head.nextId();
+        long deadline = 0;
+        while (true) {
+            // 从当前头节点获取ID
+            SegmentChainNode node = head.get();
+            long id = node.nextId();
+            
+            // 如果获取到有效ID，越过阈值时触发预取后直接返回
             if (id > 0) {
+                IdSegment segment = node.getSegment();
+                if (segment.getMaxId() - id < refillThreshold * segment.getStride()) {
+                    requestPrefetch(node);
+                }
                 return id;
             }
             
-            // 当前节点确实用完，切换到下一个节点
-            SegmentChainNode next = head.getNext();
+            // 获取到无效ID，表示当前节点已耗尽，通过CAS切换到下一个节点，失败说明已被其他线程切换
+            SegmentChainNode next = node.getNext();
             if (next != null) {
-                log.debug("切换到下一个ID段：{}", next);
-                head = next;
-                currentChainLength--;
-                return nextId(); // 重新尝试获取ID
+                if (head.compareAndSet(node, next)) {
+                    log.debug("切换到下一个ID段：{}", next);
+                    long now = System.nanoTime();
+                    refillThresholdEstimator.recordConsumption(node.getSegment().getStep(), now - headStartNanos);
+                    chainDepthTuner.recordConsumption(node.getSegment().getStep(), now - headStartNanos, now);
+                    refillThreshold = refillThresholdEstimator.threshold(next.getSegment().getStep(), safeDistancePercent);
+                    headStartNanos = now;
+                    currentChainLength.decrementAndGet();
+                    retuneChainDepth(now);
+                }
+                continue;
             }
             
-            // 没有下一个节点，链式缓冲区耗尽
+            // 头节点已被其他线程切换，重新获取
+            if (head.get() != node) {
+                continue;
+            }
+            
+            // 没有下一个节点，按需加载，所有线程共用同一次加载
+            if (deadline == 0) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(demandFetchTimeoutMillis);
+            }
+            awaitDemandFetch(deadline);
+        }
+    }
+    
+    /**
+     * 等待按需加载下一个ID段
+     * 没有正在进行的加载时由当前线程同步加载，否则等待正在进行的加载（预取或其他线程发起的按需加载）完成。
+     * 同一时间只有一个加载，保证ID段按分配顺序追加到链尾
+     *
+     * @param deadline 最晚等待到的时间（纳秒）
+     */
+    private void awaitDemandFetch(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new CyxIdException("链式分段ID缓存器[" + name + "]中的所有ID段已耗尽，按需加载超时");
+        }
+        
+        Function<String, IdSegment> loader = demandLoader;
+        if (loader == null) {
             throw new CyxIdException("链式分段ID缓存器[" + name + "]中的所有ID段已耗尽");
         }
+        
+        if (startPrefetching()) {
+            try {
+                // 上一次加载可能刚刚完成，已有可用的ID段时不再加载
+                SegmentChainNode current = head.get();
+                if (current.getNext() != null || current.remainingIdsCount() > 0) {
+                    return;
+                }
+                log.warn("链式分段ID缓存器[{}]中的所有ID段已耗尽，同步加载下一个ID段", name);
+                demandFetchCount.increment();
+                IdSegment segment;
+                try {
+                    segment = loader.apply(name);
+                } catch (Exception e) {
+                    // 加载失败，稍后在截止时间内重试
+                    log.error("按需加载ID段失败：{}", name, e);
+                    LockSupport.parkNanos(Math.min(remaining, DEMAND_FETCH_RETRY_NANOS));
+                    return;
+                }
+                if (!appendSegment(segment)) {
+                    // 已耗尽的头节点不占链深度，追加失败说明链状态异常，丢弃已分配的ID段并重试只会浪费ID
+                    throw new CyxIdException("链式分段ID缓存器[" + name + "]无法追加按需加载的ID段：" + segment);
+                }
+            } finally {
+                endPrefetching();
+            }
+            return;
+        }
+        
+        CompletableFuture<Void> inflight = loading;
+        if (inflight == null) {
+            return;
+        }
+        try {
+            inflight.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new CyxIdException("链式分段ID缓存器[" + name + "]中的所有ID段已耗尽，按需加载超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CyxIdException("等待按需加载ID段时被中断：" + name, e);
+        } catch (ExecutionException e) {
+            // 加载结果由重试时重新检查
+        }
+    }
+    
+    /**
+     * 当前节点消耗越过阈值时请求预取
+     * 链未满时由第一个越过阈值的线程提交预取任务，同一节点只提交一次
+     *
+     * @param node 当前节点
+     */
+    private void requestPrefetch(SegmentChainNode node) {
+        if (!chainDepthTuner.isSampled() && isChainDepthTuningEnabled()) {
+            seedChainDepth(node);
+        }
+        Consumer<SegmentChainBuffer> listener = prefetchListener;
+        if (listener != null && currentChainLength.get() < getChainDepth() && node.markPrefetchTriggered()) {
+            log.debug("链式分段ID缓存器[{}]当前节点越过预取阈值，提交预取任务", name);
+            listener.accept(this);
+        }
+    }
+    
+    /**
+     * 第一个ID段耗尽前深度调节器没有消耗样本，按当前节点已消耗的部分估算峰值并重新计算链深度，
+     * 使第一次预取就按实际消耗速率补链，而不是停留在下限
+     *
+     * @param node 当前节点
+     */
+    private void seedChainDepth(SegmentChainNode node) {
+        long now = System.nanoTime();
+        long consumed = node.getSegment().getStep() - node.remainingIdsCount();
+        chainDepthTuner.recordConsumption(consumed, now - headStartNanos, now);
+        retuneChainDepth(now);
     }
     
     /**
      * 添加下一个ID段到链尾
+     * 已耗尽的头节点即将被切换掉，不计入链深度，否则链深度为1时耗尽后永远无法追加
      *
      * @param segment 新的ID段
      * @return 是否添加成功
@@ -142,8 +349,13 @@ public class SegmentChainBuffer {
         }
         
         // 检查是否超过最大链长
-        if (currentChainLength >= maxChainLength) {
-            log.debug("链式分段ID缓存器[{}]已达到最大链长：{}，不再添加ID段", name, maxChainLength);
+        int chainDepth = getChainDepth();
+        int occupied = currentChainLength.get();
+        if (head.get().remainingIdsCount() == 0) {
+            occupied--;
+        }
+        if (occupied >= chainDepth) {
+            log.debug("链式分段ID缓存器[{}]已达到链深度：{}，不再添加ID段", name, chainDepth);
             return false;
         }
         
@@ -151,43 +363,187 @@ public class SegmentChainBuffer {
         SegmentChainNode newNode = new SegmentChainNode(segment);
         tail.setNext(newNode);
         tail = newNode;
-        currentChainLength++;
+        int chainLength = currentChainLength.incrementAndGet();
         
-        log.debug("链式分段ID缓存器[{}]添加新ID段：{}，当前链长：{}", name, segment, currentChainLength);
+        log.debug("链式分段ID缓存器[{}]添加新ID段：{}，当前链长：{}", name, segment, chainLength);
         return true;
     }
     
+    /**
+     * 链中所有ID段的剩余可用数量
+     *
+     * @return 剩余可用数量
+     */
+    public long remainingIdsCount() {
+        long remaining = 0;
+        for (SegmentChainNode node = head.get(); node != null; node = node.getNext()) {
+            remaining += node.remainingIdsCount();
+        }
+        return remaining;
+    }
+    
+    /**
+     * 获取当前链中的段数
+     *
+     * @return 当前链中的段数
+     */
+    public int getCurrentChainLength() {
+        return currentChainLength.get();
+    }
+    
+    /**
+     * 是否启用链深度调节
+     *
+     * @return 深度下限大于0且小于上限时返回true
+     */
+    public boolean isChainDepthTuningEnabled() {
+        int min = minChainLength;
+        return min > 0 && min < maxChainLength;
+    }
+    
+    /**
+     * 获取当前的链深度，即链中最多保持的ID段数
+     *
+     * @return 启用深度调节时为调节后的深度，否则为maxChainLength
+     */
+    public int getChainDepth() {
+        if (!isChainDepthTuningEnabled()) {
+            return maxChainLength;
+        }
+        int tuned = tunedChainLength;
+        return Math.max(tunedChainFloor(), Math.min(maxChainLength, tuned));
+    }
+    
+    /**
+     * 启用深度调节时链深度的下限，不低于2且不超过maxChainLength
+     *
+     * @return 链深度下限
+     */
+    private int tunedChainFloor() {
+        return Math.min(maxChainLength, Math.max(2, minChainLength));
+    }
+    
+    /**
+     * 根据峰值消耗速率和加载延迟重新计算链深度
+     * 在切换节点时和定期检查时调用，空闲时峰值衰减使深度回落
+     *
+     * @param nowNanos 当前时间（纳秒）
+     */
+    public void retuneChainDepth(long nowNanos) {
+        if (!isChainDepthTuningEnabled() || !initialized) {
+            return;
+        }
+        
+        int previous = getChainDepth();
+        int depth = chainDepthTuner.recommend(head.get().getSegment().getStep(),
+                refillThresholdEstimator.getP99LatencyNanos(), tunedChainFloor(), maxChainLength, nowNanos);
+        tunedChainLength = depth;
+        if (depth > previous) {
+            deepenCount.increment();
+            log.debug("链式分段ID缓存器[{}]加深链深度：{} -> {}", name, previous, depth);
+        } else if (depth < previous) {
+            shrinkCount.increment();
+            log.debug("链式分段ID缓存器[{}]降低链深度：{} -> {}", name, previous, depth);
+        }
+    }
+    
+    /**
+     * 记录一次预取加载，由预取任务调用
+     *
+     * @param segments 本次加载的ID段数量
+     */
+    public void recordRefill(int segments) {
+        refillCount.increment();
+        refilledSegments.add(segments);
+    }
+    
+    /**
+     * 获取缓存器的运行指标
+     *
+     * @return 指标快照
+     */
+    public SegmentChainMetrics getMetrics() {
+        return new SegmentChainMetrics(
+                name,
+                currentChainLength.get(),
+                getChainDepth(),
+                remainingIdsCount(),
+                refillThreshold,
+                refillThresholdEstimator.getConsumptionRatePerSecond(),
+                refillThresholdEstimator.getP99LatencyNanos(),
+                refillCount.sum(),
+                refilledSegments.sum(),
+                demandFetchCount.sum(),
+                deepenCount.sum(),
+                shrinkCount.sum()
+        );
+    }
+    
+    /**
+     * 按当前消耗速率估算链中剩余ID耗尽前的时间
+     *
+     * @return 预计耗尽前的时间（纳秒），尚无消耗样本时返回Long.MAX_VALUE
+     */
+    public long timeToExhaustionNanos() {
+        return refillThresholdEstimator.timeToExhaustionNanos(remainingIdsCount());
+    }
+    
     /**
      * 判断是否需要预取
      *
      * @return 是否需要预取
      */
     public boolean shouldPrefetch() {
-        if (!initialized || prefetching) {
+        if (!initialized || loading != null) {
             return false;
         }
         
-        // 如果链长未达到最大值，且当前节点接近用完，则需要预取
-        return currentChainLength < maxChainLength && head.shouldPrefetchNext(safeDistancePercent);
+        // 如果链长未达到最大值，且当前节点剩余低于按消耗速率和加载延迟计算的阈值，则需要预取
+        return currentChainLength.get() < getChainDepth() && head.get().remainingIdsCount() < refillThreshold;
     }
     
     /**
-     * 开始预取
+     * 记录一次分配器加载的延迟，由预取任务调用
      *
-     * @return 如果已经在预取中，返回false；否则设置预取状态并返回true
+     * @param latencyNanos 加载延迟（纳秒）
+     */
+    public void recordLoadLatency(long latencyNanos) {
+        refillThresholdEstimator.recordLatency(latencyNanos);
+    }
+    
+    /**
+     * 是否正在预取或按需加载
+     *
+     * @return 是否正在加载
+     */
+    public boolean isPrefetching() {
+        return loading != null;
+    }
+    
+    /**
+     * 开始预取或按需加载
+     *
+     * @return 如果已经在加载中，返回false；否则设置加载状态并返回true
      */
     public synchronized boolean startPrefetching() {
-        if (prefetching) {
+        if (loading != null) {
             return false;
         }
-        prefetching = true;
+        loading = new CompletableFuture<>();
         return true;
     }
     
     /**
-     * 结束预取
+     * 结束预取或按需加载，唤醒等待加载的线程
      */
-    public synchronized void endPrefetching() {
-        prefetching = false;
+    public void endPrefetching() {
+        CompletableFuture<Void> finished;
+        synchronized (this) {
+            finished = loading;
+            loading = null;
+        }
+        if (finished != null) {
+            finished.complete(null);
+        }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,20 +1,26 @@
 package com.caoyixin.cyxid.segment.chain;
 
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 链式分段ID缓存管理器
- * 负责管理多个链式分段ID缓存器，并提供异步预取功能
+ * 负责管理多个链式分段ID缓存器，并提供异步预取功能。
+ * 预取由消耗越过阈值的线程立即触发，定期检查只作为兜底，补上因调度器拒绝等原因漏掉的预取
  */
 @Slf4j
 public class SegmentChainBufferManager {
@@ -30,9 +36,14 @@ public class SegmentChainBufferManager {
     private final SegmentAllocator segmentAllocator;
     
     /**
-     * 异步预取线程池
+     * ID段加载调度器，进程内共享
      */
-    private final ScheduledExecutorService prefetchExecutor;
+    private final SegmentLoaderScheduler loaderScheduler;
+    
+    /**
+     * 定期预取检查任务的句柄
+     */
+    private ScheduledFuture<?> prefetchFuture;
     
     /**
      * 预取任务
@@ -51,42 +62,41 @@ public class SegmentChainBufferManager {
      * @param prefetchPeriod 预取检查周期（毫秒）
      */
     public SegmentChainBufferManager(SegmentAllocator segmentAllocator, long prefetchPeriod) {
+        this(segmentAllocator, prefetchPeriod, SegmentLoaderScheduler.getDefault());
+    }
+    
+    /**
+     * 创建链式分段ID缓存管理器
+     * 定期预取检查与预取任务都由共享的加载调度器执行，不再为每个管理器单独创建线程
+     *
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取检查周期（毫秒）
+     * @param loaderScheduler ID段加载调度器
+     */
+    public SegmentChainBufferManager(SegmentAllocator segmentAllocator, long prefetchPeriod,
+                                     SegmentLoaderScheduler loaderScheduler) {
         this.segmentAllocator = segmentAllocator;
         this.prefetchPeriod = prefetchPeriod;
-        
-        // 创建预取线程池
-        ThreadFactory threadFactory = new ThreadFactory() {
-            private final AtomicInteger threadCount = new AtomicInteger(0);
-            
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("segment-chain-prefetcher-" + threadCount.incrementAndGet());
-                thread.setDaemon(true);
-                return thread;
-            }
-        };
-        
-        this.prefetchExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        this.loaderScheduler = loaderScheduler;
         this.prefetchWorker = new PrefetchWorker(this);
         
-        // 启动预取线程
+        // 启动定期预取检查
         startPrefetchWorker();
         
         log.info("初始化链式分段ID缓存管理器，预取周期：{}ms", prefetchPeriod);
     }
     
     /**
-     * 启动预取工作线程
+     * 在共享的周期任务线程上启动定期预取检查
      */
     private void startPrefetchWorker() {
-        prefetchExecutor.scheduleWithFixedDelay(
+        prefetchFuture = loaderScheduler.scheduleWithFixedDelay(
                 prefetchWorker,
                 prefetchPeriod,
                 prefetchPeriod,
                 TimeUnit.MILLISECONDS
         );
-        log.debug("启动预取工作线程，周期：{}ms", prefetchPeriod);
+        log.debug("启动定期预取检查，周期：{}ms", prefetchPeriod);
     }
     
     /**
@@ -108,6 +118,8 @@ public class SegmentChainBufferManager {
     private SegmentChainBuffer createBuffer(String name) {
         log.info("创建链式分段ID缓存器：{}", name);
         SegmentChainBuffer buffer = new SegmentChainBuffer(name);
+        buffer.setPrefetchListener(this::schedulePrefetch);
+        buffer.setDemandLoader(key -> loadSegment(buffer));
         
         // 初始化缓存器
         initBuffer(buffer);
@@ -130,8 +142,8 @@ public class SegmentChainBufferManager {
                 return;
             }
             
-            // 获取第一个ID段
-            IdSegment segment = segmentAllocator.nextSegment(buffer.getName());
+            // 获取第一个ID段，加载延迟作为计算预取阈值和链深度的第一个样本
+            IdSegment segment = loadSegment(buffer);
             buffer.initialize(segment);
             
             log.info("初始化链式分段ID缓存器[{}]完成", buffer.getName());
@@ -139,7 +151,106 @@ public class SegmentChainBufferManager {
     }
     
     /**
-     * 为指定缓存器预取下一个ID段
+     * 将缓存器的预取任务提交到加载调度器
+     * 同一缓存器同时只会有一个排队中的预取任务，预计耗尽时间越早越先执行
+     *
+     * @param buffer 缓存器
+     */
+    public void schedulePrefetch(SegmentChainBuffer buffer) {
+        try {
+            loaderScheduler.submit(buffer, buffer.getName(), buffer.timeToExhaustionNanos(),
+                    () -> prefetchNextSegment(buffer));
+        } catch (RejectedExecutionException e) {
+            log.error("提交预取任务失败：{}", buffer.getName(), e);
+        }
+    }
+    
+    /**
+     * 将多个缓存器的预取合并为一个任务提交到加载调度器
+     * 所有缓存器的ID段通过{@link SegmentAllocator#nextSegments(Map)}在一次存储往返中获取
+     *
+     * @param buffers 需要预取的缓存器
+     */
+    public void schedulePrefetchBatch(Collection<SegmentChainBuffer> buffers) {
+        if (buffers.size() == 1) {
+            schedulePrefetch(buffers.iterator().next());
+            return;
+        }
+        
+        // 按预计耗尽时间排序，最紧急的业务排在批次最前，批次按其中最紧急的业务排队，统计按业务分别记录
+        List<SegmentChainBuffer> batch = new ArrayList<>(buffers);
+        batch.sort(Comparator.comparingLong(SegmentChainBuffer::timeToExhaustionNanos));
+        Map<String, Long> timeToExhaustion = new LinkedHashMap<>();
+        for (SegmentChainBuffer buffer : batch) {
+            timeToExhaustion.put(buffer.getName(), buffer.timeToExhaustionNanos());
+        }
+        try {
+            loaderScheduler.submitBatch(this, timeToExhaustion, () -> prefetchBatch(batch));
+        } catch (RejectedExecutionException e) {
+            log.error("提交批量预取任务失败：{}个缓存器", batch.size(), e);
+        }
+    }
+    
+    /**
+     * 为多个缓存器批量预取ID段，一次补满各自链中的空位
+     * 已有加载在进行中或链已满的缓存器会被跳过
+     *
+     * @param buffers 需要预取的缓存器
+     */
+    public void prefetchBatch(Collection<SegmentChainBuffer> buffers) {
+        // 获取各缓存器的加载权并计算需要的ID段数
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Map<String, SegmentChainBuffer> loading = new LinkedHashMap<>();
+        for (SegmentChainBuffer buffer : buffers) {
+            if (!buffer.startPrefetching()) {
+                continue;
+            }
+            int count = buffer.getChainDepth() - buffer.getCurrentChainLength();
+            if (count <= 0) {
+                buffer.endPrefetching();
+                continue;
+            }
+            counts.put(buffer.getName(), count);
+            loading.put(buffer.getName(), buffer);
+        }
+        if (counts.isEmpty()) {
+            return;
+        }
+        
+        try {
+            log.debug("批量预取ID段：{}", counts);
+            
+            long start = System.nanoTime();
+            Map<String, List<IdSegment>> result = segmentAllocator.nextSegments(counts);
+            long latency = System.nanoTime() - start;
+            
+            // 按顺序添加到各自的链尾
+            for (Map.Entry<String, List<IdSegment>> entry : result.entrySet()) {
+                SegmentChainBuffer buffer = loading.get(entry.getKey());
+                if (buffer == null) {
+                    continue;
+                }
+                buffer.recordLoadLatency(latency);
+                buffer.recordRefill(entry.getValue().size());
+                for (IdSegment segment : entry.getValue()) {
+                    if (!buffer.appendSegment(segment)) {
+                        log.warn("缓存器[{}]链长已达到最大值，丢弃预取的ID段：{}", buffer.getName(), segment);
+                    }
+                }
+            }
+            
+        } catch (Exception e) {
+            log.error("批量预取ID段失败：{}", counts.keySet(), e);
+        } finally {
+            for (SegmentChainBuffer buffer : loading.values()) {
+                buffer.endPrefetching();
+            }
+        }
+    }
+    
+    /**
+     * 为指定缓存器预取ID段，一次补满链中的空位
+     * 需要多个ID段时通过{@link SegmentAllocator#nextSegments(String, int)}在一次存储往返中获取
      *
      * @param buffer 缓存器
      */
@@ -151,24 +262,80 @@ public class SegmentChainBufferManager {
         
         try {
             String name = buffer.getName();
-            log.debug("为缓存器[{}]预取下一个ID段", name);
+            int count = buffer.getChainDepth() - buffer.getCurrentChainLength();
+            if (count <= 0) {
+                log.debug("缓存器[{}]链长已达到最大值，无需预取", name);
+                return;
+            }
+            log.debug("为缓存器[{}]预取{}个ID段", name, count);
             
-            // 获取下一个ID段
-            IdSegment segment = segmentAllocator.nextSegment(name);
+            // 获取ID段
+            List<IdSegment> segments = loadSegments(buffer, count);
             
-            // 添加到链尾
-            boolean added = buffer.appendSegment(segment);
-            if (added) {
-                log.debug("为缓存器[{}]预取ID段成功：{}", name, segment);
-            } else {
-                log.debug("缓存器[{}]链长已达到最大值，不再添加预取的ID段", name);
+            // 按顺序添加到链尾
+            buffer.recordRefill(segments.size());
+            for (IdSegment segment : segments) {
+                if (!buffer.appendSegment(segment)) {
+                    log.warn("缓存器[{}]链长已达到最大值，丢弃预取的ID段：{}", name, segment);
+                }
             }
+            log.debug("为缓存器[{}]预取ID段成功：{}", name, segments);
             
         } catch (Exception e) {
             log.error("预取ID段失败", e);
+            return;
         } finally {
             buffer.endPrefetching();
         }
+        
+        // 链仍未补满且当前节点低于阈值时继续预取，不等待定期检查
+        if (buffer.shouldPrefetch()) {
+            schedulePrefetch(buffer);
+        }
+    }
+    
+    /**
+     * 从分配器加载下一个ID段并记录加载延迟
+     *
+     * @param buffer 缓存器
+     * @return 加载的ID段
+     */
+    private IdSegment loadSegment(SegmentChainBuffer buffer) {
+        long start = System.nanoTime();
+        IdSegment segment = segmentAllocator.nextSegment(buffer.getName());
+        buffer.recordLoadLatency(System.nanoTime() - start);
+        return segment;
+    }
+    
+    /**
+     * 从分配器一次加载多个ID段并记录加载延迟
+     *
+     * @param buffer 缓存器
+     * @param count ID段数量
+     * @return 加载的ID段，按ID从小到大排列
+     */
+    private List<IdSegment> loadSegments(SegmentChainBuffer buffer, int count) {
+        if (count == 1) {
+            return Collections.singletonList(loadSegment(buffer));
+        }
+        
+        long start = System.nanoTime();
+        List<IdSegment> segments = segmentAllocator.nextSegments(buffer.getName(), count);
+        buffer.recordLoadLatency(System.nanoTime() - start);
+        return segments;
+    }
+    
+    /**
+     * 获取所有缓存器的运行指标
+     *
+     * @return 指标快照，key为ID生成器名称
+     */
+    public Map<String, SegmentChainMetrics> getMetrics() {
+        Map<String, SegmentChainMetrics> metrics = new LinkedHashMap<>();
+        for (SegmentChainBuffer buffer : bufferMap.values()) {
+            metrics.put(buffer.getName(), buffer.getMetrics());
+        }
+        return metrics;
     }
     
     /**
@@ -181,11 +348,21 @@ public class SegmentChainBufferManager {
     }
     
     /**
-     * 关闭管理器，释放资源
+     * 获取ID段加载调度器
+     *
+     * @return ID段加载调度器
+     */
+    public SegmentLoaderScheduler getLoaderScheduler() {
+        return loaderScheduler;
+    }
+    
+    /**
+     * 关闭管理器，停止定期预取检查
+     * 加载调度器为进程内共享，不随管理器关闭
      */
     public void shutdown() {
-        if (prefetchExecutor != null) {
-            prefetchExecutor.shutdown();
+        if (prefetchFuture != null) {
+            prefetchFuture.cancel(false);
         }
     }
 } 
\ No newline at end of file
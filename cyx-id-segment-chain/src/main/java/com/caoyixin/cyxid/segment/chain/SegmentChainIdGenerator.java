@@ -1,6 +1,7 @@
 package com.caoyixin.cyxid.segment.chain;
 
 import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
@@ -32,16 +33,76 @@ public class SegmentChainIdGenerator implements IdGenerator {
      */
     public SegmentChainIdGenerator(String name, SegmentAllocator segmentAllocator,
                                  long prefetchPeriod, int safeDistancePercent, int maxChainLength) {
+        this(name, segmentAllocator, prefetchPeriod, safeDistancePercent, maxChainLength, 1000);
+    }
+    
+    /**
+     * 创建链式分段ID生成器
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     */
+    public SegmentChainIdGenerator(String name, SegmentAllocator segmentAllocator,
+                                 long prefetchPeriod, int safeDistancePercent, int maxChainLength,
+                                 long demandFetchTimeoutMillis) {
+        this(name, segmentAllocator, prefetchPeriod, safeDistancePercent, 0, maxChainLength, demandFetchTimeoutMillis);
+    }
+    
+    /**
+     * 创建链式分段ID生成器
+     * 链深度下限大于0且小于最大链长时，按峰值消耗速率和分配器加载延迟在上下限之间自动调整链深度
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param minChainLength 链深度下限，小于等于0时链深度固定为最大链长
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     */
+    public SegmentChainIdGenerator(String name, SegmentAllocator segmentAllocator,
+                                 long prefetchPeriod, int safeDistancePercent, int minChainLength,
+                                 int maxChainLength, long demandFetchTimeoutMillis) {
+        this(name, segmentAllocator, prefetchPeriod, safeDistancePercent, minChainLength, maxChainLength,
+                demandFetchTimeoutMillis, SegmentLoaderScheduler.getDefault());
+    }
+    
+    /**
+     * 创建链式分段ID生成器
+     * 链深度下限大于0且小于最大链长时，按峰值消耗速率和分配器加载延迟在上下限之间自动调整链深度
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param minChainLength 链深度下限，小于等于0时链深度固定为最大链长
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     * @param loaderScheduler ID段加载调度器
+     */
+    public SegmentChainIdGenerator(String name, SegmentAllocator segmentAllocator,
+                                 long prefetchPeriod, int safeDistancePercent, int minChainLength,
+                                 int maxChainLength, long demandFetchTimeoutMillis,
+                                 SegmentLoaderScheduler loaderScheduler) {
+        if (minChainLength > maxChainLength) {
+            throw new IllegalArgumentException("链深度下限不能大于最大链长");
+        }
         this.name = name;
-        this.bufferManager = new SegmentChainBufferManager(segmentAllocator, prefetchPeriod);
+        this.bufferManager = new SegmentChainBufferManager(segmentAllocator, prefetchPeriod, loaderScheduler);
         
         // 获取并配置缓存器
         SegmentChainBuffer buffer = getBuffer();
         buffer.setSafeDistancePercent(safeDistancePercent);
         buffer.setMaxChainLength(maxChainLength);
+        buffer.setMinChainLength(minChainLength);
+        buffer.setDemandFetchTimeoutMillis(demandFetchTimeoutMillis);
         
-        log.info("初始化链式分段ID生成器：{}，预取周期：{}ms，安全距离：{}%，最大链长：{}", 
-                name, prefetchPeriod, safeDistancePercent, maxChainLength);
+        log.info("初始化链式分段ID生成器：{}，预取周期：{}ms，安全距离：{}%，链深度：[{}, {}]，按需加载超时：{}ms", 
+                name, prefetchPeriod, safeDistancePercent, minChainLength, maxChainLength, demandFetchTimeoutMillis);
     }
     
     /**
@@ -69,6 +130,15 @@ public class SegmentChainIdGenerator implements IdGenerator {
         return "segment-chain";
     }
     
+    /**
+     * 获取运行指标，包括链长、链深度和预取情况
+     *
+     * @return 指标快照
+     */
+    public SegmentChainMetrics getMetrics() {
+        return getBuffer().getMetrics();
+    }
+    
     /**
      * 获取当前生成器的缓存器
      *
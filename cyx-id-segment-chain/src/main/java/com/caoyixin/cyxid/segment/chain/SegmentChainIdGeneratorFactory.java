@@ -1,6 +1,7 @@
 package com.caoyixin.cyxid.segment.chain;
 
 import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
@@ -34,11 +35,26 @@ public class SegmentChainIdGeneratorFactory {
      */
     private final int safeDistancePercent;
     
+    /**
+     * 链深度下限，小于等于0时链深度固定为最大链长
+     */
+    private final int minChainLength;
+    
     /**
      * 最大链长
      */
     private final int maxChainLength;
     
+    /**
+     * 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     */
+    private final long demandFetchTimeoutMillis;
+    
+    /**
+     * ID段加载调度器，为null时使用进程内共享的默认调度器
+     */
+    private final SegmentLoaderScheduler loaderScheduler;
+    
     /**
      * 创建链式分段ID生成器工厂
      *
@@ -49,10 +65,62 @@ public class SegmentChainIdGeneratorFactory {
      */
     public SegmentChainIdGeneratorFactory(SegmentAllocator segmentAllocator, long prefetchPeriod, 
                                        int safeDistancePercent, int maxChainLength) {
+        this(segmentAllocator, prefetchPeriod, safeDistancePercent, maxChainLength, 1000);
+    }
+    
+    /**
+     * 创建链式分段ID生成器工厂
+     *
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     */
+    public SegmentChainIdGeneratorFactory(SegmentAllocator segmentAllocator, long prefetchPeriod, 
+                                       int safeDistancePercent, int maxChainLength,
+                                       long demandFetchTimeoutMillis) {
+        this(segmentAllocator, prefetchPeriod, safeDistancePercent, 0, maxChainLength, demandFetchTimeoutMillis);
+    }
+    
+    /**
+     * 创建链式分段ID生成器工厂
+     *
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param minChainLength 链深度下限，小于等于0时链深度固定为最大链长
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     */
+    public SegmentChainIdGeneratorFactory(SegmentAllocator segmentAllocator, long prefetchPeriod, 
+                                       int safeDistancePercent, int minChainLength, int maxChainLength,
+                                       long demandFetchTimeoutMillis) {
+        this(segmentAllocator, prefetchPeriod, safeDistancePercent, minChainLength, maxChainLength,
+                demandFetchTimeoutMillis, null);
+    }
+    
+    /**
+     * 创建链式分段ID生成器工厂
+     *
+     * @param segmentAllocator ID段分配器
+     * @param prefetchPeriod 预取周期（毫秒）
+     * @param safeDistancePercent 安全距离百分比
+     * @param minChainLength 链深度下限，小于等于0时链深度固定为最大链长
+     * @param maxChainLength 最大链长
+     * @param demandFetchTimeoutMillis 所有ID段耗尽时按需加载的最长等待时间（毫秒）
+     * @param loaderScheduler ID段加载调度器，为null时使用进程内共享的默认调度器
+     */
+    public SegmentChainIdGeneratorFactory(SegmentAllocator segmentAllocator, long prefetchPeriod,
+                                       int safeDistancePercent, int minChainLength, int maxChainLength,
+                                       long demandFetchTimeoutMillis, SegmentLoaderScheduler loaderScheduler) {
+        this.loaderScheduler = loaderScheduler;
         this.segmentAllocator = segmentAllocator;
         this.prefetchPeriod = prefetchPeriod;
         this.safeDistancePercent = safeDistancePercent;
+        this.minChainLength = minChainLength;
         this.maxChainLength = maxChainLength;
+        this.demandFetchTimeoutMillis = demandFetchTimeoutMillis;
     }
     
     /**
@@ -83,7 +151,8 @@ public class SegmentChainIdGeneratorFactory {
     private SegmentChainIdGenerator createGenerator(String name) {
         log.info("创建链式分段ID生成器：{}", name);
         return new SegmentChainIdGenerator(name, segmentAllocator, 
-                prefetchPeriod, safeDistancePercent, maxChainLength);
+                prefetchPeriod, safeDistancePercent, minChainLength, maxChainLength, demandFetchTimeoutMillis,
+                loaderScheduler != null ? loaderScheduler : SegmentLoaderScheduler.getDefault());
     }
     
     /**
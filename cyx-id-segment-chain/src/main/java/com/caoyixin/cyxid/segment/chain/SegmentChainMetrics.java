@@ -0,0 +1,122 @@
+package com.caoyixin.cyxid.segment.chain;
+
+import lombok.Getter;
+
+/**
+ * 链式分段ID缓存器的运行指标快照
+ */
+@Getter
+public class SegmentChainMetrics {
+    
+    /**
+     * ID生成器名称
+     */
+    private final String name;
+    
+    /**
+     * 当前链中的段数
+     */
+    private final int chainLength;
+    
+    /**
+     * 当前的链深度，即链中最多保持的ID段数
+     */
+    private final int chainDepth;
+    
+    /**
+     * 链中剩余的ID数量
+     */
+    private final long remainingIds;
+    
+    /**
+     * 当前节点触发预取的剩余数量阈值
+     */
+    private final long refillThreshold;
+    
+    /**
+     * 消耗速率（每秒ID数）
+     */
+    private final double consumptionRatePerSecond;
+    
+    /**
+     * 分配器加载延迟的P99（纳秒）
+     */
+    private final long p99LatencyNanos;
+    
+    /**
+     * 预取加载次数
+     */
+    private final long refillCount;
+    
+    /**
+     * 预取加载的ID段总数
+     */
+    private final long refilledSegments;
+    
+    /**
+     * 链耗尽后同步按需加载的次数
+     */
+    private final long demandFetchCount;
+    
+    /**
+     * 链深度加深次数
+     */
+    private final long deepenCount;
+    
+    /**
+     * 链深度变浅次数
+     */
+    private final long shrinkCount;
+    
+    /**
+     * 创建运行指标快照
+     *
+     * @param name ID生成器名称
+     * @param chainLength 当前链中的段数
+     * @param chainDepth 当前的链深度
+     * @param remainingIds 链中剩余的ID数量
+     * @param refillThreshold 当前节点触发预取的剩余数量阈值
+     * @param consumptionRatePerSecond 消耗速率（每秒ID数）
+     * @param p99LatencyNanos 分配器加载延迟的P99（纳秒）
+     * @param refillCount 预取加载次数
+     * @param refilledSegments 预取加载的ID段总数
+     * @param demandFetchCount 同步按需加载的次数
+     * @param deepenCount 链深度加深次数
+     * @param shrinkCount 链深度变浅次数
+     */
+    public SegmentChainMetrics(String name, int chainLength, int chainDepth, long remainingIds,
+                               long refillThreshold, double consumptionRatePerSecond, long p99LatencyNanos,
+                               long refillCount, long refilledSegments, long demandFetchCount,
+                               long deepenCount, long shrinkCount) {
+        this.name = name;
+        this.chainLength = chainLength;
+        this.chainDepth = chainDepth;
+        this.remainingIds = remainingIds;
+        this.refillThreshold = refillThreshold;
+        this.consumptionRatePerSecond = consumptionRatePerSecond;
+        this.p99LatencyNanos = p99LatencyNanos;
+        this.refillCount = refillCount;
+        this.refilledSegments = refilledSegments;
+        this.demandFetchCount = demandFetchCount;
+        this.deepenCount = deepenCount;
+        this.shrinkCount = shrinkCount;
+    }
+    
+    @Override
+    public String toString() {
+        return "SegmentChainMetrics{" +
+                "name='" + name + '\'' +
+                ", chainLength=" + chainLength +
+                ", chainDepth=" + chainDepth +
+                ", remainingIds=" + remainingIds +
+                ", refillThreshold=" + refillThreshold +
+                ", consumptionRatePerSecond=" + consumptionRatePerSecond +
+                ", p99LatencyNanos=" + p99LatencyNanos +
+                ", refillCount=" + refillCount +
+                ", refilledSegments=" + refilledSegments +
+                ", demandFetchCount=" + demandFetchCount +
+                ", deepenCount=" + deepenCount +
+                ", shrinkCount=" + shrinkCount +
+                '}';
+    }
+}
\ No newline at end of file
@@ -3,7 +3,7 @@ package com.caoyixin.cyxid.segment.chain;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import lombok.Getter;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 链式分段ID节点
@@ -18,15 +18,25 @@ public class SegmentChainNode {
     private final IdSegment segment;
     
     /**
-     * 当前ID值
+     * 当前ID值，单独填充缓存行，自增时不影响其他线程读取segment和next
      */
-    private final AtomicLong currentValue;
+    private final PaddedCounter currentValue;
+    
+    /**
+     * 相邻两个ID的间隔，连续段为1
+     */
+    private final long stride;
     
     /**
      * 下一个节点
      */
     private volatile SegmentChainNode next;
     
+    /**
+     * 是否已由消耗到阈值的线程触发过预取，每个节点只触发一次
+     */
+    private final AtomicBoolean prefetchTriggered = new AtomicBoolean(false);
+    
     /**
      * 创建链式分段ID节点
      *
@@ -34,7 +44,8 @@ public class SegmentChainNode {
      */
     public SegmentChainNode(IdSegment segment) {
         this.segment = segment;
-        this.currentValue = new AtomicLong(segment.getMinId() - 1); // 初始值为最小值-1，首次自增即为最小值
+        this.stride = segment.getStride();
+        this.currentValue = new PaddedCounter(segment.getMinId() - stride); // 初始值为最小值减一个间隔，首次自增即为最小值
         this.next = null;
     }
     
@@ -49,11 +60,15 @@ public class SegmentChainNode {
     
     /**
      * 获取下一个ID
+     * 已耗尽时不再自增，计数器最多越过最大值的并发线程数
      *
      * @return 下一个ID，如果ID段已用完则返回-1
      */
     public long nextId() {
-        long value = currentValue.incrementAndGet();
+        if (currentValue.get() >= segment.getMaxId()) {
+            return -1;
+        }
+        long value = currentValue.addAndGet(stride);
         if (value <= segment.getMaxId()) {
             return value;
         }
@@ -61,13 +76,22 @@ public class SegmentChainNode {
         return -1;
     }
     
+    /**
+     * 标记当前节点已触发预取
+     *
+     * @return 是否为首次标记，只有首次标记的线程负责提交预取任务
+     */
+    public boolean markPrefetchTriggered() {
+        return !prefetchTriggered.get() && prefetchTriggered.compareAndSet(false, true);
+    }
+    
     /**
      * 当前ID段的剩余可用数量
      *
-     * @return 剩余可用数量
+     * @return 剩余可用数量，已耗尽时为0
      */
     public long remainingIdsCount() {
-        return segment.getMaxId() - currentValue.get();
+        return Math.max(0, (segment.getMaxId() - currentValue.get()) / stride);
     }
     
     /**
@@ -4,9 +4,16 @@ import com.caoyixin.cyxid.core.IdGenerator;
 import com.caoyixin.cyxid.core.exception.CyxIdException;
 import com.caoyixin.cyxid.segment.buffer.SegmentBuffer;
 import com.caoyixin.cyxid.segment.buffer.SegmentBufferManager;
+import com.caoyixin.cyxid.storage.api.IdSegment;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * 分段ID生成器
  * 基于分段方式的ID生成器实现，使用双缓冲机制提高性能
@@ -14,6 +21,11 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class SegmentIdGenerator implements IdGenerator {
     
+    /**
+     * 触发加载后仍没有加载句柄（任务被拒绝或同步失败）时的退避时长（纳秒）
+     */
+    private static final long LOAD_RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    
     /**
      * 生成器名称
      */
@@ -24,6 +36,21 @@ public class SegmentIdGenerator implements IdGenerator {
      */
     private final SegmentBufferManager bufferManager;
     
+    /**
+     * 是否启用线程本地子块租借模式
+     */
+    private final boolean threadLocalLeaseEnabled;
+    
+    /**
+     * 线程本地子块，仅在租借模式下使用
+     */
+    private final ThreadLocal<LeasedBlock> leasedBlock = ThreadLocal.withInitial(LeasedBlock::new);
+    
+    /**
+     * 是否已关闭
+     */
+    private volatile boolean closed = false;
+    
     /**
      * 创建分段ID生成器
      *
@@ -31,35 +58,68 @@ public class SegmentIdGenerator implements IdGenerator {
      * @param segmentAllocator ID段分配器
      */
     public SegmentIdGenerator(String name, SegmentAllocator segmentAllocator) {
+        this(name, segmentAllocator, false);
+    }
+    
+    /**
+     * 创建分段ID生成器
+     * 开启线程本地子块租借模式后，每个线程一次从当前ID段租借一个子块，
+     * 在子块内无原子操作地发放ID。ID仍然唯一，但跨线程只保持大致递增
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param threadLocalLeaseEnabled 是否启用线程本地子块租借模式
+     */
+    public SegmentIdGenerator(String name, SegmentAllocator segmentAllocator, boolean threadLocalLeaseEnabled) {
+        this(name, new SegmentBufferManager(segmentAllocator), threadLocalLeaseEnabled);
+    }
+    
+    /**
+     * 使用指定的缓存管理器创建分段ID生成器
+     * 用于定制缓存器的动态步长等参数
+     *
+     * @param name 生成器名称
+     * @param bufferManager 分段ID缓存管理器
+     * @param threadLocalLeaseEnabled 是否启用线程本地子块租借模式
+     */
+    public SegmentIdGenerator(String name, SegmentBufferManager bufferManager, boolean threadLocalLeaseEnabled) {
         this.name = name;
-        this.bufferManager = new SegmentBufferManager(segmentAllocator);
+        this.bufferManager = bufferManager;
+        this.threadLocalLeaseEnabled = threadLocalLeaseEnabled;
         
         // 预初始化缓冲器
         getBuffer();
         
-        log.info("初始化分段ID生成器：{}", name);
+        log.info("初始化分段ID生成器：{}，线程本地租借：{}", name, threadLocalLeaseEnabled);
     }
     
     @Override
     public long generate() {
-        // 获取当前生成器的ID缓冲区
-        SegmentBuffer buffer = getBuffer();
-        
-        // 如果发现ID缓冲区快用完，异步加载下一段
-        if (buffer.shouldLoadNext()) {
-            bufferManager.loadNextSegmentAsync(buffer);
+        if (threadLocalLeaseEnabled) {
+            return generateFromLease();
+        }
+        if (closed) {
+            throw new CyxIdException("生成器已关闭");
         }
         
-        // 获取下一个ID
-        long id = buffer.nextId();
+        // 获取当前生成器的ID缓冲区
+        SegmentBuffer buffer = getBuffer();
         
-        // 如果当前段用完，切换到下一段
-        if (buffer.isExhausted()) {
-            waitAndSwitchBuffer(buffer);
-            return generate();
+        while (true) {
+            // 如果发现ID缓冲区快用完，异步加载下一段
+            if (buffer.shouldLoadNext()) {
+                bufferManager.loadNextSegmentAsync(buffer);
+            }
+            
+            // 获取下一个ID，当前段用完时缓冲器会无锁切换到已就绪的下一段
+            long id = buffer.nextId();
+            if (id != SegmentBuffer.EXHAUSTED) {
+                return id;
+            }
+            
+            // 下一段尚未就绪，等待加载完成后重试
+            awaitNextSegment(buffer);
         }
-        
-        return id;
     }
     
     @Override
@@ -77,6 +137,102 @@ public class SegmentIdGenerator implements IdGenerator {
         return "segment";
     }
     
+    /**
+     * 预热生成器
+     * 第一个ID段在创建生成器时已加载，此处立即发起第二个ID段的加载，
+     * 使第一次真实请求和第一次切换ID段都不需要等待存储
+     *
+     * @return 第二个ID段加载完成时完成的句柄
+     */
+    public CompletableFuture<Void> warmUp() {
+        SegmentBuffer buffer = getBuffer();
+        bufferManager.loadNextSegmentAsync(buffer);
+        
+        CompletableFuture<IdSegment> pending = buffer.getPendingNextSegment();
+        if (pending == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pending.thenAccept(segment -> log.info("预热分段ID生成器[{}]完成，下一个ID段：{}", name, segment));
+    }
+    
+    /**
+     * 关闭生成器
+     * 关闭后不再发放ID，包括线程本地子块中尚未发放的ID；
+     * 当前线程的子块立即移除，其他线程的子块在下一次获取ID时移除
+     */
+    public void shutdown() {
+        closed = true;
+        leasedBlock.remove();
+        bufferManager.shutdown();
+    }
+    
+    /**
+     * 获取分段ID缓存管理器
+     *
+     * @return 分段ID缓存管理器
+     */
+    public SegmentBufferManager getBufferManager() {
+        return bufferManager;
+    }
+    
+    /**
+     * 是否启用线程本地子块租借模式
+     *
+     * @return 是否启用
+     */
+    public boolean isThreadLocalLeaseEnabled() {
+        return threadLocalLeaseEnabled;
+    }
+    
+    /**
+     * 从线程本地子块中获取ID，子块用完时重新租借
+     * 生成器关闭或缓存器被取走剩余范围后，子块中剩余的ID不再发放
+     *
+     * @return 下一个ID
+     */
+    private long generateFromLease() {
+        LeasedBlock block = leasedBlock.get();
+        if (block.cursor <= block.end && !closed && !block.buffer.isClosed()) {
+            long id = block.cursor;
+            block.cursor += block.stride;
+            return id;
+        }
+        return leaseAndGenerate(block);
+    }
+    
+    /**
+     * 从当前ID段租借新的子块，并返回子块中的第一个ID
+     *
+     * @param block 线程本地子块
+     * @return 下一个ID
+     */
+    private long leaseAndGenerate(LeasedBlock block) {
+        while (true) {
+            SegmentBuffer buffer = getBuffer();
+            if (closed || buffer.isClosed()) {
+                leasedBlock.remove();
+                throw new CyxIdException("生成器已关闭");
+            }
+            
+            // 如果发现ID缓冲区快用完，异步加载下一段
+            if (buffer.shouldLoadNext()) {
+                bufferManager.loadNextSegmentAsync(buffer);
+            }
+            
+            IdSegment range = buffer.leaseBlock(block.nextLeaseSize(buffer.getCurrentSegment()));
+            if (range != null) {
+                block.buffer = buffer;
+                block.cursor = range.getMinId() + range.getStride();
+                block.end = range.getMaxId();
+                block.stride = range.getStride();
+                return range.getMinId();
+            }
+            
+            // 当前段已耗尽且下一段尚未就绪，等待加载完成后重新租借
+            awaitNextSegment(buffer);
+        }
+    }
+    
     /**
      * 获取当前生成器的ID缓冲器
      *
@@ -87,42 +243,50 @@ public class SegmentIdGenerator implements IdGenerator {
     }
     
     /**
-     * 等待下一个ID段加载完成并切换
+     * 等待下一个ID段加载完成
+     * 阻塞在当前ID段的加载句柄上，ID段到达时立即返回，加载失败时立即抛出异常，
+     * 由调用方在新的ID段上重试。触发加载后仍没有加载句柄时短暂退避后重试，直到超时
      *
      * @param buffer ID缓冲器
+     * @throws CyxIdException 缓冲器已关闭、等待超时或加载失败
      */
-    private void waitAndSwitchBuffer(SegmentBuffer buffer) {
-        synchronized (buffer) {
-            // 如果下一个段已经加载好，直接切换
-            if (buffer.getNextSegment() != null) {
-                buffer.switchToNextSegment();
-                return;
+    private void awaitNextSegment(SegmentBuffer buffer) {
+        // 最多等待10秒
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        
+        while (buffer.isExhausted()) {
+            // 关闭后缓冲器不再切换到下一个ID段，继续等待只会空转
+            if (buffer.isClosed()) {
+                throw new CyxIdException("生成器已关闭");
             }
             
-            // 如果没有在加载，触发加载
-            if (!buffer.isLoadingNext()) {
-                bufferManager.loadNextSegmentAsync(buffer);
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new CyxIdException("等待下一个ID段超时，生成器：" + name);
             }
             
-            // 等待加载完成
-            try {
-                long start = System.currentTimeMillis();
-                // 最多等待10秒
-                long waitTimeout = 10000;
-                
-                while (buffer.getNextSegment() == null) {
-                    if (System.currentTimeMillis() - start > waitTimeout) {
-                        throw new CyxIdException("等待下一个ID段超时，生成器：" + name);
+            CompletableFuture<IdSegment> pending = buffer.getPendingNextSegment();
+            if (pending == null) {
+                // 如果没有在加载（如上次加载失败），触发加载
+                bufferManager.loadNextSegmentAsync(buffer);
+                if (buffer.getPendingNextSegment() == null && buffer.isExhausted()) {
+                    // 加载任务被拒绝或同步失败，退避后重试，避免空转
+                    LockSupport.parkNanos(Math.min(remaining, LOAD_RETRY_BACKOFF_NANOS));
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new CyxIdException("等待ID段时被中断");
                     }
-                    
-                    log.info("等待下一个ID段加载完成，生成器：{}", name);
-                    // 等待500ms后重新检查
-                    buffer.wait(500);
                 }
-                
-                // 切换到下一个段
-                buffer.switchToNextSegment();
-                
+                continue;
+            }
+            
+            try {
+                log.debug("等待下一个ID段加载完成，生成器：{}", name);
+                pending.get(remaining, TimeUnit.NANOSECONDS);
+                return;
+            } catch (ExecutionException e) {
+                throw new CyxIdException("加载下一个ID段失败，生成器：" + name, e.getCause());
+            } catch (TimeoutException e) {
+                throw new CyxIdException("等待下一个ID段超时，生成器：" + name);
             } catch (InterruptedException e) {
                 log.warn("等待ID段时被中断", e);
                 Thread.currentThread().interrupt();
@@ -130,4 +294,81 @@ public class SegmentIdGenerator implements IdGenerator {
             }
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 线程本地子块
+     * 记录线程当前租借到的ID范围，并根据线程的消耗速率自适应调整下次租借的大小
+     */
+    private static final class LeasedBlock {
+        
+        /**
+         * 最小租借大小
+         */
+        private static final int MIN_LEASE_SIZE = 64;
+        
+        /**
+         * 最大租借大小
+         */
+        private static final int MAX_LEASE_SIZE = 1024;
+        
+        /**
+         * 期望一个子块的消耗时长（纳秒），快于此值则扩大子块，慢于此值则缩小子块
+         */
+        private static final long TARGET_LEASE_NANOS = 10_000_000L;
+        
+        /**
+         * 子块所属的缓存器，尚未租借时为null
+         */
+        private SegmentBuffer buffer;
+        
+        /**
+         * 子块中下一个待发放的ID
+         */
+        private long cursor = 1;
+        
+        /**
+         * 子块的最大ID（包含）
+         */
+        private long end = 0;
+        
+        /**
+         * 子块中相邻两个ID的间隔
+         */
+        private long stride = 1;
+        
+        /**
+         * 下次租借的大小
+         */
+        private int leaseSize = MIN_LEASE_SIZE;
+        
+        /**
+         * 上次租借的时间（纳秒）
+         */
+        private long lastLeaseNanos = 0;
+        
+        /**
+         * 根据上一个子块的消耗时长计算下次租借的大小
+         * 子块大小不超过当前ID段的四分之一，避免单个线程占用整段
+         *
+         * @param segment 当前ID段
+         * @return 下次租借的大小
+         */
+        private int nextLeaseSize(IdSegment segment) {
+            long now = System.nanoTime();
+            if (lastLeaseNanos != 0) {
+                long elapsed = now - lastLeaseNanos;
+                if (elapsed < TARGET_LEASE_NANOS / 2) {
+                    leaseSize = Math.min(leaseSize << 1, MAX_LEASE_SIZE);
+                } else if (elapsed > TARGET_LEASE_NANOS * 2) {
+                    leaseSize = Math.max(leaseSize >> 1, MIN_LEASE_SIZE);
+                }
+            }
+            lastLeaseNanos = now;
+            
+            if (segment == null) {
+                return leaseSize;
+            }
+            return (int) Math.max(1, Math.min(leaseSize, segment.getStep() / 4));
+        }
+    }
+}
\ No newline at end of file
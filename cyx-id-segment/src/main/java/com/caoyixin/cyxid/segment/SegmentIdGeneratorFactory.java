@@ -1,11 +1,24 @@
 package com.caoyixin.cyxid.segment;
 
 import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.segment.buffer.SegmentBufferManager;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshot;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 分段ID生成器工厂
@@ -24,13 +37,100 @@ public class SegmentIdGeneratorFactory {
      */
     private final SegmentAllocator segmentAllocator;
     
+    /**
+     * 最小步长，小于等于0时使用第一个ID段的长度
+     */
+    private final int minStep;
+    
+    /**
+     * 最大步长
+     */
+    private final int maxStep;
+    
+    /**
+     * 期望一个ID段的使用时长（毫秒）
+     */
+    private final long targetSegmentDurationMillis;
+    
+    /**
+     * ID段快照存储，为null时不保存剩余ID范围
+     */
+    private final SegmentSnapshotStore snapshotStore;
+    
+    /**
+     * ID段加载调度器，为null时使用进程内共享的默认调度器
+     */
+    private final SegmentLoaderScheduler loaderScheduler;
+    
+    /**
+     * 启动时读取的快照中尚未被生成器使用的部分，key为生成器名称
+     */
+    private final Map<String, SegmentSnapshot> restoredSnapshots;
+    
+    /**
+     * 最近一次预热的句柄，未预热时为null
+     */
+    private volatile CompletableFuture<Void> warmUpFuture;
+    
     /**
      * 创建分段ID生成器工厂
      *
      * @param segmentAllocator ID段分配器
      */
     public SegmentIdGeneratorFactory(SegmentAllocator segmentAllocator) {
+        this(segmentAllocator, 0, 1_000_000, TimeUnit.MINUTES.toMillis(15));
+    }
+    
+    /**
+     * 创建分段ID生成器工厂
+     *
+     * @param segmentAllocator ID段分配器
+     * @param minStep 最小步长，小于等于0时使用第一个ID段的长度
+     * @param maxStep 最大步长
+     * @param targetSegmentDurationMillis 期望一个ID段的使用时长（毫秒）
+     */
+    public SegmentIdGeneratorFactory(SegmentAllocator segmentAllocator, int minStep, int maxStep,
+                                     long targetSegmentDurationMillis) {
+        this(segmentAllocator, minStep, maxStep, targetSegmentDurationMillis, null);
+    }
+    
+    /**
+     * 创建分段ID生成器工厂
+     * 指定快照存储时，启动时读取上次关闭保存的剩余ID范围并优先使用，关闭时保存本次的剩余ID范围
+     *
+     * @param segmentAllocator ID段分配器
+     * @param minStep 最小步长，小于等于0时使用第一个ID段的长度
+     * @param maxStep 最大步长
+     * @param targetSegmentDurationMillis 期望一个ID段的使用时长（毫秒）
+     * @param snapshotStore ID段快照存储，为null时不保存剩余ID范围
+     */
+    public SegmentIdGeneratorFactory(SegmentAllocator segmentAllocator, int minStep, int maxStep,
+                                     long targetSegmentDurationMillis, SegmentSnapshotStore snapshotStore) {
+        this(segmentAllocator, minStep, maxStep, targetSegmentDurationMillis, snapshotStore, null);
+    }
+    
+    /**
+     * 创建分段ID生成器工厂
+     * 指定快照存储时，启动时读取上次关闭保存的剩余ID范围并优先使用，关闭时保存本次的剩余ID范围
+     *
+     * @param segmentAllocator ID段分配器
+     * @param minStep 最小步长，小于等于0时使用第一个ID段的长度
+     * @param maxStep 最大步长
+     * @param targetSegmentDurationMillis 期望一个ID段的使用时长（毫秒）
+     * @param snapshotStore ID段快照存储，为null时不保存剩余ID范围
+     * @param loaderScheduler ID段加载调度器，为null时使用进程内共享的默认调度器
+     */
+    public SegmentIdGeneratorFactory(SegmentAllocator segmentAllocator, int minStep, int maxStep,
+                                     long targetSegmentDurationMillis, SegmentSnapshotStore snapshotStore,
+                                     SegmentLoaderScheduler loaderScheduler) {
+        this.loaderScheduler = loaderScheduler;
         this.segmentAllocator = segmentAllocator;
+        this.minStep = minStep;
+        this.maxStep = maxStep;
+        this.targetSegmentDurationMillis = targetSegmentDurationMillis;
+        this.snapshotStore = snapshotStore;
+        this.restoredSnapshots = snapshotStore == null
+                ? Collections.emptyMap() : new ConcurrentHashMap<>(snapshotStore.consume());
     }
     
     /**
@@ -43,6 +143,55 @@ public class SegmentIdGeneratorFactory {
         return generatorCache.computeIfAbsent(name, this::createGenerator);
     }
     
+    /**
+     * 并行预热指定名称的生成器
+     * 每个名称并行加载第一个和第二个ID段，预热完成前{@link #isReady()}返回false
+     *
+     * @param names 需要预热的生成器名称
+     * @return 所有生成器预热完成时完成的句柄，任一生成器预热失败时以异常完成
+     */
+    public CompletableFuture<Void> warmUp(Collection<String> names) {
+        if (names.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        log.info("开始预热分段ID生成器：{}", names);
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ExecutorService warmUpExecutor = Executors.newFixedThreadPool(Math.min(names.size(), 8), r -> {
+            Thread thread = new Thread(r);
+            thread.setName("segment-warm-up-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        CompletableFuture<?>[] futures = names.stream()
+                .map(name -> CompletableFuture.supplyAsync(() -> (SegmentIdGenerator) getGenerator(name), warmUpExecutor)
+                        .thenCompose(SegmentIdGenerator::warmUp))
+                .toArray(CompletableFuture[]::new);
+        
+        CompletableFuture<Void> future = CompletableFuture.allOf(futures).whenComplete((result, error) -> {
+            warmUpExecutor.shutdown();
+            if (error != null) {
+                log.error("预热分段ID生成器失败：{}", names, error);
+            } else {
+                log.info("预热分段ID生成器完成：{}", names);
+            }
+        });
+        warmUpFuture = future;
+        return future;
+    }
+    
+    /**
+     * 是否已就绪
+     * 未预热或最近一次预热成功完成时返回true
+     *
+     * @return 是否已就绪
+     */
+    public boolean isReady() {
+        CompletableFuture<Void> future = warmUpFuture;
+        return future == null || (future.isDone() && !future.isCompletedExceptionally());
+    }
+    
     /**
      * 创建新的分段ID生成器
      *
@@ -51,13 +200,32 @@ public class SegmentIdGeneratorFactory {
      */
     private SegmentIdGenerator createGenerator(String name) {
         log.info("创建分段ID生成器：{}", name);
-        return new SegmentIdGenerator(name, segmentAllocator);
+        SegmentBufferManager bufferManager = new SegmentBufferManager(segmentAllocator, minStep, maxStep,
+                targetSegmentDurationMillis, loaderScheduler != null ? loaderScheduler : SegmentLoaderScheduler.getDefault());
+        
+        SegmentSnapshot snapshot = restoredSnapshots.remove(name);
+        if (snapshot != null) {
+            bufferManager.restore(snapshot);
+        }
+        return new SegmentIdGenerator(name, bufferManager, false);
     }
     
     /**
      * 关闭工厂，释放资源
+     * 配置了快照存储时，取走所有生成器尚未使用的ID范围并持久化，供下次启动使用
      */
     public void shutdown() {
+        if (snapshotStore != null) {
+            List<SegmentSnapshot> snapshots = new ArrayList<>(restoredSnapshots.values());
+            for (SegmentIdGenerator generator : generatorCache.values()) {
+                snapshots.addAll(generator.getBufferManager().drainSnapshots());
+            }
+            snapshotStore.save(snapshots);
+        }
+        
+        for (SegmentIdGenerator generator : generatorCache.values()) {
+            generator.shutdown();
+        }
         generatorCache.clear();
     }
 } 
\ No newline at end of file
@@ -1,58 +1,95 @@
 package com.caoyixin.cyxid.segment.buffer;
 
+import com.caoyixin.cyxid.segment.loader.RefillThresholdEstimator;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 分段ID缓存器
  * 用于存储和管理一个ID段的使用情况
+ * 当前ID段与其游标封装在不可变的{@link SegmentHolder}中，切换ID段时通过CAS整体替换，
+ * 发放ID和切换ID段的路径上都不需要加锁。触发加载的剩余数量阈值在每次切换时按消耗速率和加载延迟重新计算
  */
-@Getter
 public class SegmentBuffer {
     
+    /**
+     * 当前ID段已耗尽且无可切换的下一个ID段时的返回值
+     */
+    public static final long EXHAUSTED = -1;
+    
     /**
      * ID段名称
      */
+    @Getter
     private final String name;
     
     /**
-     * 当前正在使用的ID段
+     * 当前正在使用的ID段及其游标
      */
-    private volatile IdSegment currentSegment;
+    private final AtomicReference<SegmentHolder> current = new AtomicReference<>();
     
     /**
-     * 下一个预加载的ID段
+     * 是否初始化完成
      */
-    private volatile IdSegment nextSegment;
+    @Getter
+    private volatile boolean initialized = false;
     
     /**
-     * 当前ID段的当前值
+     * 是否已关闭，关闭后不再切换到下一个ID段
      */
-    private final AtomicLong currentValue = new AtomicLong(0);
+    @Getter
+    private volatile boolean closed = false;
     
     /**
-     * 是否处于下一个ID段的加载状态
+     * 下次请求的步长，按ID段的消耗速率在最小步长和最大步长之间动态调整
      */
-    private volatile boolean isLoadingNext = false;
+    @Getter
+    @Setter
+    private volatile int step = 1000;
     
     /**
-     * 是否初始化完成
+     * 最小步长，未设置（小于等于0）时使用第一个ID段的长度
      */
+    @Getter
     @Setter
-    private volatile boolean initialized = false;
+    private volatile int minStep = 0;
     
     /**
      * 最大步长
      */
+    @Getter
     @Setter
-    private volatile int step = 1000;
+    private volatile int maxStep = 1_000_000;
+    
+    /**
+     * 期望一个ID段的使用时长（毫秒），消耗快于此值时扩大步长，慢于两倍此值时缩小步长
+     */
+    @Getter
+    @Setter
+    private volatile long targetSegmentDurationMillis = TimeUnit.MINUTES.toMillis(15);
+    
+    /**
+     * 上次请求ID段的时间（纳秒）
+     */
+    private volatile long lastLoadNanos;
+    
+    /**
+     * 补充阈值估算器，根据消耗速率和加载延迟计算触发加载的剩余数量
+     */
+    @Getter
+    private final RefillThresholdEstimator refillThresholdEstimator = new RefillThresholdEstimator();
     
     /**
-     * 安全阈值百分比，当消耗到此百分比时开始异步加载下一个ID段
+     * 安全距离百分比，尚无消耗速率和加载延迟样本时，剩余低于此百分比开始异步加载下一个ID段
      */
+    @Getter
     @Setter
     private volatile int safeDistancePercent = 50;
     
@@ -66,30 +103,149 @@ public class SegmentBuffer {
     }
     
     /**
-     * 设置当前ID段
+     * 使用第一个ID段初始化缓存器
+     *
+     * @param segment 第一个ID段
+     */
+    public void initialize(IdSegment segment) {
+        initialize(segment, segment.getStep());
+    }
+    
+    /**
+     * 使用第一个ID段初始化缓存器，并指定动态步长的起点
+     * 用于从快照恢复时第一个ID段只是上次剩余的一部分的情况
+     *
+     * @param segment 第一个ID段
+     * @param baseStep 动态步长的起点
+     */
+    public void initialize(IdSegment segment, long baseStep) {
+        int segmentStep = (int) Math.min(baseStep, Integer.MAX_VALUE);
+        if (minStep <= 0) {
+            minStep = segmentStep;
+        }
+        if (maxStep < minStep) {
+            maxStep = minStep;
+        }
+        step = Math.max(minStep, Math.min(segmentStep, maxStep));
+        lastLoadNanos = System.nanoTime();
+        
+        current.set(new SegmentHolder(segment, refillThreshold(segment)));
+        initialized = true;
+    }
+    
+    /**
+     * 计算下次请求的步长
+     * 根据距上次请求ID段的时长判断消耗速率：短于期望时长时步长翻倍，
+     * 超过两倍期望时长时步长减半，结果限制在最小步长和最大步长之间。
+     * 由加载器在发起请求前调用，每个持有者只会有一次加载，因此无需额外同步
+     *
+     * @return 下次请求的步长
+     */
+    public int nextStep() {
+        long now = System.nanoTime();
+        long duration = now - lastLoadNanos;
+        lastLoadNanos = now;
+        
+        long target = TimeUnit.MILLISECONDS.toNanos(targetSegmentDurationMillis);
+        int currentStep = step;
+        int nextStep = currentStep;
+        if (duration < target) {
+            nextStep = (int) Math.min((long) currentStep << 1, maxStep);
+        } else if (duration >= target << 1) {
+            nextStep = Math.max(currentStep >> 1, minStep);
+        }
+        step = nextStep;
+        return nextStep;
+    }
+    
+    /**
+     * 获取当前正在使用的ID段
+     *
+     * @return 当前ID段，未初始化时返回null
+     */
+    public IdSegment getCurrentSegment() {
+        SegmentHolder holder = current.get();
+        return holder == null ? null : holder.getSegment();
+    }
+    
+    /**
+     * 获取下一个预加载的ID段
+     *
+     * @return 下一个ID段，尚未加载时返回null
+     */
+    public IdSegment getNextSegment() {
+        SegmentHolder holder = current.get();
+        return holder == null ? null : holder.getNext();
+    }
+    
+    /**
+     * 是否正在加载下一个ID段
      *
-     * @param currentSegment 当前ID段
+     * @return 是否正在加载
      */
-    public void setCurrentSegment(IdSegment currentSegment) {
-        this.currentSegment = currentSegment;
+    public boolean isLoadingNext() {
+        SegmentHolder holder = current.get();
+        return holder != null && holder.isLoading();
     }
     
     /**
-     * 设置是否正在加载下一个ID段
+     * 获取当前ID段的下一个ID段加载句柄
+     * 等待者可以阻塞在该句柄上或在其上链式注册回调，ID段到达或加载失败时立即得到通知
      *
-     * @param isLoadingNext 是否正在加载
+     * @return 加载句柄，尚未发起加载时返回null
      */
-    public void setIsLoadingNext(boolean isLoadingNext) {
-        this.isLoadingNext = isLoadingNext;
+    public CompletableFuture<IdSegment> getPendingNextSegment() {
+        SegmentHolder holder = current.get();
+        return holder == null ? null : holder.getPendingNext();
     }
     
     /**
      * 获取下一个ID
+     * 当前ID段耗尽时，如果下一个ID段已就绪则通过CAS切换后在新ID段上重试
      *
-     * @return 下一个ID
+     * @return 下一个ID，如果当前ID段已耗尽且下一个ID段尚未就绪则返回{@link #EXHAUSTED}
      */
     public long nextId() {
-        return currentValue.incrementAndGet();
+        while (true) {
+            SegmentHolder holder = current.get();
+            if (holder == null) {
+                return EXHAUSTED;
+            }
+            
+            long id = holder.nextId();
+            if (id != EXHAUSTED) {
+                return id;
+            }
+            
+            if (!switchToNextSegment(holder)) {
+                return EXHAUSTED;
+            }
+        }
+    }
+    
+    /**
+     * 从当前ID段中租借一个连续的子块
+     * 只执行一次getAndAdd，子块内的ID由调用线程自行发放
+     *
+     * @param size 期望的子块大小
+     * @return 租借到的子块，如果当前ID段已耗尽且下一个ID段尚未就绪则返回null
+     */
+    public IdSegment leaseBlock(int size) {
+        while (true) {
+            SegmentHolder holder = current.get();
+            if (holder == null) {
+                return null;
+            }
+            
+            IdSegment block = holder.leaseBlock(size);
+            if (block != null) {
+                return block;
+            }
+            
+            if (!switchToNextSegment(holder)) {
+                return null;
+            }
+        }
     }
     
     /**
@@ -98,7 +254,7 @@ public class SegmentBuffer {
      * @return ID段的起始值
      */
     public long getCurrentSegmentMinId() {
-        IdSegment segment = currentSegment;
+        IdSegment segment = getCurrentSegment();
         return segment == null ? 0 : segment.getMinId();
     }
     
@@ -108,11 +264,28 @@ public class SegmentBuffer {
      * @return 剩余可用数量
      */
     public long remainingIdsCount() {
-        IdSegment segment = currentSegment;
-        if (segment == null) {
-            return 0;
-        }
-        return segment.getMaxId() - currentValue.get();
+        SegmentHolder holder = current.get();
+        return holder == null ? 0 : holder.remaining();
+    }
+    
+    /**
+     * 获取当前ID段触发加载下一个ID段的剩余数量阈值
+     * 每次切换ID段时根据消耗速率和加载延迟重新计算
+     *
+     * @return 剩余数量阈值
+     */
+    public long getRefillThreshold() {
+        SegmentHolder holder = current.get();
+        return holder == null ? 0 : holder.getRefillThreshold();
+    }
+    
+    /**
+     * 记录一次分配器加载的延迟，由加载器调用
+     *
+     * @param latencyNanos 加载延迟（纳秒）
+     */
+    public void recordLoadLatency(long latencyNanos) {
+        refillThresholdEstimator.recordLatency(latencyNanos);
     }
     
     /**
@@ -121,12 +294,15 @@ public class SegmentBuffer {
      * @return 是否需要加载
      */
     public boolean shouldLoadNext() {
-        if (currentSegment == null) {
+        SegmentHolder holder = current.get();
+        if (holder == null) {
             return true;
         }
+        if (holder.hasPendingNext()) {
+            return false;
+        }
         
-        long threshold = (long)(currentSegment.getStep() * (safeDistancePercent / 100.0));
-        return !isLoadingNext && remainingIdsCount() < threshold;
+        return holder.remaining() < holder.getRefillThreshold();
     }
     
     /**
@@ -135,47 +311,112 @@ public class SegmentBuffer {
      * @return 是否耗尽
      */
     public boolean isExhausted() {
-        IdSegment segment = currentSegment;
-        if (segment == null) {
-            return true;
-        }
-        return currentValue.get() > segment.getMaxId();
+        SegmentHolder holder = current.get();
+        return holder == null || holder.isExhausted();
     }
     
     /**
      * 切换到下一个ID段
+     * 只有当前持有者仍为expected时才会替换，CAS失败说明其他线程已完成切换
+     *
+     * @param expected 调用方观察到的已耗尽的持有者
+     * @return 是否可以在新的持有者上重试；下一个ID段尚未就绪时返回false
      */
-    public synchronized void switchToNextSegment() {
-        if (nextSegment == null) {
-            return;
+    private boolean switchToNextSegment(SegmentHolder expected) {
+        IdSegment next = expected.getNext();
+        if (next == null || closed) {
+            return current.get() != expected;
+        }
+        
+        SegmentHolder holder = new SegmentHolder(next, refillThreshold(next));
+        if (current.compareAndSet(expected, holder)) {
+            // 只有切换成功的线程记录上一个ID段的消耗速率，并据此更新新ID段的阈值
+            refillThresholdEstimator.recordConsumption(expected.getSegment().getStep(),
+                    holder.getCreatedNanos() - expected.getCreatedNanos());
+            holder.setRefillThreshold(refillThreshold(next));
         }
+        return true;
+    }
+    
+    /**
+     * 关闭缓存器并取走所有尚未使用的ID范围
+     * 依次取走当前ID段的剩余部分和已就绪的下一个ID段，关闭后其他线程不会再切换到下一个ID段，
+     * 取走的范围不会再被发放
+     *
+     * @return 尚未使用的ID范围，按使用顺序排列
+     */
+    public List<IdSegment> drain() {
+        closed = true;
         
-        currentSegment = nextSegment;
-        currentValue.set(currentSegment.getMinId());
-        nextSegment = null;
-        isLoadingNext = false;
+        List<IdSegment> remaining = new ArrayList<>(2);
+        SegmentHolder holder = current.get();
+        while (holder != null) {
+            IdSegment rest = holder.drain();
+            if (rest != null) {
+                remaining.add(rest);
+            }
+            
+            IdSegment next = holder.getNext();
+            if (next == null) {
+                break;
+            }
+            
+            // 接管下一个ID段，CAS失败说明其他线程已在关闭前完成切换，继续处理其切换后的持有者
+            SegmentHolder nextHolder = new SegmentHolder(next, 0);
+            holder = current.compareAndSet(holder, nextHolder) ? nextHolder : current.get();
+        }
+        return remaining;
+    }
+    
+    /**
+     * 计算ID段触发加载下一个ID段的剩余数量阈值
+     *
+     * @param segment ID段
+     * @return 剩余数量阈值
+     */
+    private long refillThreshold(IdSegment segment) {
+        return refillThresholdEstimator.threshold(segment.getStep(), safeDistancePercent);
     }
     
     /**
      * 内部设置下一个ID段，由加载器调用
+     * 下一个ID段挂在发起加载的持有者上，该持有者在下一个ID段就绪前不会被替换
      *
      * @param nextSegment 下一个ID段
+     * @return 是否设置成功
      */
-    public synchronized void setNextSegment(IdSegment nextSegment) {
-        this.nextSegment = nextSegment;
-        this.isLoadingNext = false;
+    public boolean setNextSegment(IdSegment nextSegment) {
+        SegmentHolder holder = current.get();
+        if (holder == null) {
+            initialize(nextSegment);
+            return true;
+        }
+        return holder.offerNext(nextSegment);
     }
     
     /**
-     * 开始加载下一个ID段，设置加载状态
+     * 开始加载下一个ID段
+     * 加载句柄挂在当前持有者上，每个持有者只会有一次成功的加载
      *
-     * @return 如果已经在加载中，返回false；否则设置加载状态并返回true
+     * @return 由调用方负责完成的加载句柄；如果已经在加载中或下一个ID段已就绪，返回null
      */
-    public synchronized boolean startLoadingNextSegment() {
-        if (isLoadingNext) {
-            return false;
+    public CompletableFuture<IdSegment> startLoadingNextSegment() {
+        SegmentHolder holder = current.get();
+        return holder == null ? null : holder.startLoading();
+    }
+    
+    /**
+     * 加载下一个ID段失败，立即将异常传递给所有等待者，并允许下次重试
+     *
+     * @param pending 失败的加载句柄
+     * @param cause 失败原因
+     */
+    public void failLoadingNextSegment(CompletableFuture<IdSegment> pending, Throwable cause) {
+        SegmentHolder holder = current.get();
+        if (holder != null) {
+            holder.failLoading(pending, cause);
+        } else {
+            pending.completeExceptionally(cause);
         }
-        isLoadingNext = true;
-        return true;
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,15 +1,19 @@
 package com.caoyixin.cyxid.segment.buffer;
 
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshot;
 import com.caoyixin.cyxid.storage.api.IdSegment;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 分段ID缓存管理器
@@ -23,15 +27,35 @@ public class SegmentBufferManager {
      */
     private final Map<String, SegmentBuffer> bufferMap = new ConcurrentHashMap<>();
     
+    /**
+     * 待恢复的快照，key为ID段名称，初始化缓存器时优先使用并移除
+     */
+    private final Map<String, SegmentSnapshot> pendingSnapshots = new ConcurrentHashMap<>();
+    
     /**
      * ID段分配器
      */
     private final SegmentAllocator segmentAllocator;
     
     /**
-     * 异步加载线程池
+     * 最小步长，小于等于0时使用第一个ID段的长度
+     */
+    private final int minStep;
+    
+    /**
+     * 最大步长
+     */
+    private final int maxStep;
+    
+    /**
+     * 期望一个ID段的使用时长（毫秒）
+     */
+    private final long targetSegmentDurationMillis;
+    
+    /**
+     * ID段加载调度器，进程内共享
      */
-    private final ExecutorService loadingExecutor;
+    private final SegmentLoaderScheduler loaderScheduler;
     
     /**
      * 创建分段ID缓存管理器
@@ -39,22 +63,42 @@ public class SegmentBufferManager {
      * @param segmentAllocator ID段分配器
      */
     public SegmentBufferManager(SegmentAllocator segmentAllocator) {
+        this(segmentAllocator, 0, 1_000_000, TimeUnit.MINUTES.toMillis(15));
+    }
+    
+    /**
+     * 创建分段ID缓存管理器
+     * 各缓存器按ID段的消耗速率在最小步长和最大步长之间动态调整下次请求的步长
+     *
+     * @param segmentAllocator ID段分配器
+     * @param minStep 最小步长，小于等于0时使用第一个ID段的长度
+     * @param maxStep 最大步长
+     * @param targetSegmentDurationMillis 期望一个ID段的使用时长（毫秒）
+     */
+    public SegmentBufferManager(SegmentAllocator segmentAllocator, int minStep, int maxStep,
+                                long targetSegmentDurationMillis) {
+        this(segmentAllocator, minStep, maxStep, targetSegmentDurationMillis, SegmentLoaderScheduler.getDefault());
+    }
+    
+    /**
+     * 创建分段ID缓存管理器
+     *
+     * @param segmentAllocator ID段分配器
+     * @param minStep 最小步长，小于等于0时使用第一个ID段的长度
+     * @param maxStep 最大步长
+     * @param targetSegmentDurationMillis 期望一个ID段的使用时长（毫秒）
+     * @param loaderScheduler ID段加载调度器
+     */
+    public SegmentBufferManager(SegmentAllocator segmentAllocator, int minStep, int maxStep,
+                                long targetSegmentDurationMillis, SegmentLoaderScheduler loaderScheduler) {
+        if (targetSegmentDurationMillis <= 0) {
+            throw new IllegalArgumentException("期望的ID段使用时长必须大于0");
+        }
         this.segmentAllocator = segmentAllocator;
-        
-        // 创建加载线程池，使用自定义线程工厂
-        ThreadFactory threadFactory = new ThreadFactory() {
-            private final AtomicInteger threadCount = new AtomicInteger(0);
-            
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("segment-loader-" + threadCount.incrementAndGet());
-                thread.setDaemon(true);
-                return thread;
-            }
-        };
-        
-        this.loadingExecutor = Executors.newFixedThreadPool(2, threadFactory);
+        this.minStep = minStep;
+        this.maxStep = maxStep;
+        this.targetSegmentDurationMillis = targetSegmentDurationMillis;
+        this.loaderScheduler = loaderScheduler;
     }
     
     /**
@@ -76,6 +120,9 @@ public class SegmentBufferManager {
     private SegmentBuffer createBuffer(String name) {
         log.info("创建分段ID缓存器：{}", name);
         SegmentBuffer buffer = new SegmentBuffer(name);
+        buffer.setMinStep(minStep);
+        buffer.setMaxStep(maxStep);
+        buffer.setTargetSegmentDurationMillis(targetSegmentDurationMillis);
         
         // 初始化缓存器
         initBuffer(buffer);
@@ -98,48 +145,130 @@ public class SegmentBufferManager {
                 return;
             }
             
+            // 优先使用上次关闭时保存的剩余ID范围
+            SegmentSnapshot snapshot = pendingSnapshots.remove(buffer.getName());
+            if (snapshot != null && !snapshot.isEmpty()) {
+                restoreBuffer(buffer, snapshot);
+                return;
+            }
+            
             // 加载第一个ID段
             IdSegment segment = segmentAllocator.nextSegment(buffer.getName());
-            buffer.setCurrentSegment(segment);
-            buffer.getCurrentValue().set(segment.getMinId() - 1);  // 预设为最小值-1，首次nextId会得到最小值
-            buffer.setInitialized(true);
+            buffer.initialize(segment);
             
             log.info("初始化缓存器[{}]完成，初始ID段：{}", buffer.getName(), segment);
         }
     }
     
+    /**
+     * 使用快照初始化缓存器
+     * 第一个剩余范围作为当前ID段，第二个作为已就绪的下一个ID段，其余范围被丢弃
+     *
+     * @param buffer 缓存器
+     * @param snapshot 快照
+     */
+    private void restoreBuffer(SegmentBuffer buffer, SegmentSnapshot snapshot) {
+        List<IdSegment> segments = snapshot.getSegments();
+        buffer.initialize(segments.get(0), snapshot.getStep());
+        if (segments.size() > 1) {
+            buffer.setNextSegment(segments.get(1));
+        }
+        
+        log.info("从快照恢复缓存器[{}]完成，剩余ID段：{}", buffer.getName(), segments);
+    }
+    
+    /**
+     * 登记待恢复的快照，之后首次创建同名缓存器时优先使用快照中的剩余ID范围
+     *
+     * @param snapshot 快照
+     */
+    public void restore(SegmentSnapshot snapshot) {
+        pendingSnapshots.put(snapshot.getName(), snapshot);
+    }
+    
+    /**
+     * 关闭所有缓存器并取走尚未使用的ID范围
+     * 尚未使用的待恢复快照也会一并返回
+     *
+     * @return 各缓存器的快照
+     */
+    public List<SegmentSnapshot> drainSnapshots() {
+        List<SegmentSnapshot> snapshots = new ArrayList<>(pendingSnapshots.values());
+        pendingSnapshots.clear();
+        
+        for (SegmentBuffer buffer : bufferMap.values()) {
+            snapshots.add(new SegmentSnapshot(buffer.getName(), buffer.getStep(), buffer.drain()));
+        }
+        return snapshots;
+    }
+    
     /**
      * 异步加载下一个ID段
+     * 加载任务提交到共享的加载调度器，剩余ID越少越先执行。按缓存器根据消耗速率计算的步长异步请求ID段，
+     * 分配器支持异步分配时等待响应期间不占用加载线程；
+     * 加载结果通过缓存器上的加载句柄发布，等待者在ID段到达或加载失败时立即被唤醒
      *
      * @param buffer 缓存器
      */
     public void loadNextSegmentAsync(SegmentBuffer buffer) {
-        if (!buffer.startLoadingNextSegment()) {
+        CompletableFuture<IdSegment> pending = buffer.startLoadingNextSegment();
+        if (pending == null) {
             // 已经有加载任务在执行
             return;
         }
         
         String name = buffer.getName();
-        loadingExecutor.execute(() -> {
-            try {
-                log.debug("异步加载下一个ID段：{}", name);
-                IdSegment nextSegment = segmentAllocator.nextSegment(name);
-                buffer.setNextSegment(nextSegment);
-                log.debug("加载下一个ID段成功：{} -> {}", name, nextSegment);
-            } catch (Exception e) {
-                log.error("加载下一个ID段失败：{}", name, e);
-                // 重置加载状态，允许下次重试
-                buffer.setIsLoadingNext(false);
+        try {
+            long timeToExhaustion = buffer.getRefillThresholdEstimator().timeToExhaustionNanos(buffer.remainingIdsCount());
+            boolean submitted = loaderScheduler.submitAsync(buffer, name, timeToExhaustion, () -> {
+                try {
+                    int step = buffer.nextStep();
+                    log.debug("异步加载下一个ID段：{}，步长：{}", name, step);
+                    long start = System.nanoTime();
+                    return segmentAllocator.nextSegmentAsync(name, step).whenComplete((nextSegment, e) -> {
+                        if (e == null) {
+                            buffer.recordLoadLatency(System.nanoTime() - start);
+                            pending.complete(nextSegment);
+                            log.debug("加载下一个ID段成功：{} -> {}", name, nextSegment);
+                        } else {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                            log.error("加载下一个ID段失败：{}", name, cause);
+                            // 通知等待者并重置加载状态，允许下次重试
+                            buffer.failLoadingNextSegment(pending, cause);
+                        }
+                    });
+                } catch (Exception e) {
+                    log.error("加载下一个ID段失败：{}", name, e);
+                    buffer.failLoadingNextSegment(pending, e);
+                    CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    return failed;
+                }
+            });
+            if (!submitted) {
+                // 加载句柄按持有者去重，正常情况下不会出现重复任务；出现时清除句柄以便重试
+                buffer.failLoadingNextSegment(pending, new IllegalStateException("ID段加载任务重复：" + name));
             }
-        });
+        } catch (RejectedExecutionException e) {
+            log.error("提交ID段加载任务失败：{}", name, e);
+            buffer.failLoadingNextSegment(pending, e);
+        }
+    }
+    
+    /**
+     * 获取ID段加载调度器
+     *
+     * @return ID段加载调度器
+     */
+    public SegmentLoaderScheduler getLoaderScheduler() {
+        return loaderScheduler;
     }
     
     /**
      * 关闭管理器，释放资源
+     * 加载调度器为进程内共享，不随管理器关闭
      */
     public void shutdown() {
-        if (loadingExecutor != null) {
-            loadingExecutor.shutdown();
-        }
+        log.debug("关闭分段ID缓存管理器，缓存器数量：{}", bufferMap.size());
     }
 } 
\ No newline at end of file
@@ -0,0 +1,242 @@
+package com.caoyixin.cyxid.segment.buffer;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ID段持有者
+ * 将一个不可变的ID段与其发放游标绑定在一起，切换ID段时整体替换，
+ * 避免重置共享计数器时产生的竞争。预加载的下一个ID段以可完成的句柄挂在持有者上，
+ * 保证一个预加载的ID段只能被用来替换它所属的持有者一次，等待者也可以直接阻塞或链式监听该句柄
+ */
+final class SegmentHolder {
+    
+    /**
+     * 持有的ID段
+     */
+    private final IdSegment segment;
+    
+    /**
+     * 下一个待发放的ID
+     */
+    private final AtomicLong cursor;
+    
+    /**
+     * 相邻两个ID的间隔，连续段为1
+     */
+    private final long stride;
+    
+    /**
+     * 下一个ID段的加载句柄，加载失败后会被清除以便重试
+     */
+    private final AtomicReference<CompletableFuture<IdSegment>> pendingNext = new AtomicReference<>();
+    
+    /**
+     * 开始使用此ID段的时间（纳秒）
+     */
+    private final long createdNanos;
+    
+    /**
+     * 触发加载下一个ID段的剩余数量阈值
+     */
+    private volatile long refillThreshold;
+    
+    /**
+     * 创建ID段持有者
+     *
+     * @param segment ID段
+     * @param refillThreshold 触发加载下一个ID段的剩余数量阈值
+     */
+    SegmentHolder(IdSegment segment, long refillThreshold) {
+        this.segment = segment;
+        this.cursor = new AtomicLong(segment.getMinId());
+        this.stride = segment.getStride();
+        this.createdNanos = System.nanoTime();
+        this.refillThreshold = refillThreshold;
+    }
+    
+    /**
+     * 获取持有的ID段
+     *
+     * @return ID段
+     */
+    IdSegment getSegment() {
+        return segment;
+    }
+    
+    /**
+     * 获取开始使用此ID段的时间
+     *
+     * @return 开始使用的时间（纳秒）
+     */
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+    
+    /**
+     * 获取触发加载下一个ID段的剩余数量阈值
+     *
+     * @return 剩余数量阈值
+     */
+    long getRefillThreshold() {
+        return refillThreshold;
+    }
+    
+    /**
+     * 更新触发加载下一个ID段的剩余数量阈值
+     *
+     * @param refillThreshold 剩余数量阈值
+     */
+    void setRefillThreshold(long refillThreshold) {
+        this.refillThreshold = refillThreshold;
+    }
+    
+    /**
+     * 获取预加载的下一个ID段
+     *
+     * @return 下一个ID段，尚未加载完成时返回null
+     */
+    IdSegment getNext() {
+        CompletableFuture<IdSegment> pending = pendingNext.get();
+        if (pending == null || !pending.isDone() || pending.isCompletedExceptionally()) {
+            return null;
+        }
+        return pending.join();
+    }
+    
+    /**
+     * 获取下一个ID段的加载句柄
+     *
+     * @return 加载句柄，尚未发起加载时返回null
+     */
+    CompletableFuture<IdSegment> getPendingNext() {
+        return pendingNext.get();
+    }
+    
+    /**
+     * 开始加载下一个ID段
+     *
+     * @return 由调用方负责完成的加载句柄，已在加载或已加载时返回null
+     */
+    CompletableFuture<IdSegment> startLoading() {
+        CompletableFuture<IdSegment> pending = new CompletableFuture<>();
+        return pendingNext.compareAndSet(null, pending) ? pending : null;
+    }
+    
+    /**
+     * 直接设置预加载的下一个ID段
+     *
+     * @param segment 下一个ID段
+     * @return 是否设置成功，已存在下一个ID段时返回false
+     */
+    boolean offerNext(IdSegment segment) {
+        while (true) {
+            CompletableFuture<IdSegment> pending = pendingNext.get();
+            if (pending != null && !pending.isCompletedExceptionally()) {
+                return pending.complete(segment);
+            }
+            // 没有加载句柄，或加载已失败但句柄尚未清除时，替换为已就绪的ID段
+            if (pendingNext.compareAndSet(pending, CompletableFuture.completedFuture(segment))) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * 加载失败，立即通知所有等待者并清除句柄以便重试
+     *
+     * @param pending 失败的加载句柄
+     * @param cause 失败原因
+     */
+    void failLoading(CompletableFuture<IdSegment> pending, Throwable cause) {
+        pending.completeExceptionally(cause);
+        pendingNext.compareAndSet(pending, null);
+    }
+    
+    /**
+     * 是否正在加载下一个ID段
+     *
+     * @return 是否正在加载
+     */
+    boolean isLoading() {
+        CompletableFuture<IdSegment> pending = pendingNext.get();
+        return pending != null && !pending.isDone();
+    }
+    
+    /**
+     * 是否已发起加载或已有下一个ID段
+     *
+     * @return 是否已发起加载
+     */
+    boolean hasPendingNext() {
+        return pendingNext.get() != null;
+    }
+    
+    /**
+     * 获取下一个ID
+     *
+     * @return 下一个ID，如果ID段已耗尽则返回{@link SegmentBuffer#EXHAUSTED}
+     */
+    long nextId() {
+        long id = cursor.getAndAdd(stride);
+        return id <= segment.getMaxId() ? id : SegmentBuffer.EXHAUSTED;
+    }
+    
+    /**
+     * 租借一个子块，子块与ID段的间隔相同
+     *
+     * @param size 期望的子块大小（ID数量）
+     * @return 租借到的子块，如果ID段已耗尽则返回null
+     */
+    IdSegment leaseBlock(int size) {
+        long start = cursor.getAndAdd(size * stride);
+        if (start > segment.getMaxId()) {
+            return null;
+        }
+        return new IdSegment(start, Math.min(start + (size - 1) * stride, segment.getMaxId()), stride);
+    }
+    
+    /**
+     * 取走当前ID段中剩余的全部ID
+     * 游标直接移到ID段末尾之后，之后的发放都会得到耗尽结果，不会与取走的范围重叠
+     *
+     * @return 剩余的ID范围，已耗尽时返回null
+     */
+    IdSegment drain() {
+        long start = cursor.getAndSet(segment.getMaxId() + stride);
+        if (start > segment.getMaxId()) {
+            return null;
+        }
+        return new IdSegment(start, segment.getMaxId(), stride);
+    }
+    
+    /**
+     * 剩余可用数量
+     *
+     * @return 剩余可用数量，耗尽后为0
+     */
+    long remaining() {
+        return Math.max(0, (segment.getMaxId() - cursor.get()) / stride + 1);
+    }
+    
+    /**
+     * 是否已耗尽
+     *
+     * @return 是否已耗尽
+     */
+    boolean isExhausted() {
+        return cursor.get() > segment.getMaxId();
+    }
+    
+    @Override
+    public String toString() {
+        return "SegmentHolder{" +
+                "segment=" + segment +
+                ", cursor=" + cursor.get() +
+                ", next=" + getNext() +
+                '}';
+    }
+}
\ No newline at end of file
@@ -0,0 +1,455 @@
+package com.caoyixin.cyxid.segment.cache;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshot;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 分级缓存的ID段分配器
+ * 包装实际的分配器，按业务从实际的分配器获取大号段（超级号段），在本地切分成生成器请求的小号段，
+ * 进程内多个生成器频繁请求小号段时，对存储的访问次数降低为原来的“小号段步长 ÷ 超级号段步长”。
+ * 剩余ID低于补充阈值时通过共享的加载调度器在后台获取下一个超级号段，缓存耗尽时请求方等待同一个加载结果；
+ * 关闭时将尚未切分的ID范围写入快照，重启后优先使用
+ */
+@Slf4j
+public class CachingSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 同步请求等待超级号段的最长时间（秒）
+     */
+    private static final long AWAIT_TIMEOUT_SECONDS = 10;
+    
+    /**
+     * 实际的分配器
+     */
+    private final SegmentAllocator delegate;
+    
+    /**
+     * 未指定步长时切分的ID段长度
+     */
+    private final int defaultStep;
+    
+    /**
+     * 向实际的分配器请求的超级号段步长
+     */
+    private final int superStep;
+    
+    /**
+     * 触发后台补充的剩余ID数量
+     */
+    private final long refillThreshold;
+    
+    /**
+     * ID段加载调度器
+     */
+    private final SegmentLoaderScheduler loaderScheduler;
+    
+    /**
+     * ID段快照存储，为null时关闭后丢弃剩余ID范围
+     */
+    private final SegmentSnapshotStore snapshotStore;
+    
+    /**
+     * 各业务的超级号段缓存
+     */
+    private final Map<String, SuperSegmentCache> caches = new ConcurrentHashMap<>();
+    
+    /**
+     * 请求实际的分配器的次数
+     */
+    private final AtomicLong delegateCalls = new AtomicLong(0);
+    
+    /**
+     * 是否已关闭
+     */
+    private volatile boolean closed = false;
+    
+    /**
+     * 创建分级缓存的ID段分配器
+     * 指定快照存储时立即读取上次关闭时保存的剩余ID范围
+     *
+     * @param delegate 实际的分配器
+     * @param defaultStep 未指定步长时切分的ID段长度
+     * @param superStep 向实际的分配器请求的超级号段步长
+     * @param refillPercent 剩余ID低于超级号段步长的此百分比时后台补充（1-100）
+     * @param loaderScheduler ID段加载调度器
+     * @param snapshotStore ID段快照存储，为null时关闭后丢弃剩余ID范围；不能与生成器工厂共用同一个文件
+     */
+    public CachingSegmentAllocator(SegmentAllocator delegate, int defaultStep, int superStep, int refillPercent,
+                                   SegmentLoaderScheduler loaderScheduler, SegmentSnapshotStore snapshotStore) {
+        if (defaultStep <= 0 || superStep < defaultStep) {
+            throw new IllegalArgumentException("超级号段步长必须大于等于默认步长，且默认步长必须大于0");
+        }
+        if (refillPercent <= 0 || refillPercent > 100) {
+            throw new IllegalArgumentException("补充阈值百分比必须在1-100之间");
+        }
+        this.delegate = delegate;
+        this.defaultStep = defaultStep;
+        this.superStep = superStep;
+        this.refillThreshold = (long) superStep * refillPercent / 100;
+        this.loaderScheduler = loaderScheduler;
+        this.snapshotStore = snapshotStore;
+        
+        if (snapshotStore != null) {
+            for (SegmentSnapshot snapshot : snapshotStore.consume().values()) {
+                SuperSegmentCache cache = cacheOf(snapshot.getName());
+                for (IdSegment segment : snapshot.getSegments()) {
+                    cache.add(segment);
+                }
+                log.info("从快照恢复超级号段：{} -> {}", snapshot.getName(), snapshot.getSegments());
+            }
+        }
+        
+        log.info("初始化分级缓存的ID段分配器：默认步长={}，超级号段步长={}，补充阈值={}%",
+                defaultStep, superStep, refillPercent);
+    }
+    
+    /**
+     * 创建分级缓存的ID段分配器（剩余20%时补充，使用进程内默认的加载调度器，不保存快照）
+     *
+     * @param delegate 实际的分配器
+     * @param defaultStep 未指定步长时切分的ID段长度
+     * @param superStep 向实际的分配器请求的超级号段步长
+     */
+    public CachingSegmentAllocator(SegmentAllocator delegate, int defaultStep, int superStep) {
+        this(delegate, defaultStep, superStep, 20, SegmentLoaderScheduler.getDefault(), null);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return nextSegment(name, defaultStep);
+    }
+    
+    /**
+     * 按指定步长切分下一个ID段
+     * 当前超级号段剩余不足时只返回剩余的部分，不跨超级号段拼接，也不浪费剩余的ID；
+     * 请求的步长不小于超级号段步长时直接请求实际的分配器
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配的ID段
+     */
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        if (closed) {
+            throw new CyxIdException("分级缓存的ID段分配器已关闭：" + name);
+        }
+        if (requestedStep >= superStep) {
+            delegateCalls.incrementAndGet();
+            return delegate.nextSegment(name, requestedStep);
+        }
+        
+        return await(name, carveAsync(name, requestedStep));
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        return nextSegmentAsync(name, defaultStep);
+    }
+    
+    /**
+     * 按指定步长异步切分下一个ID段
+     * 缓存中有剩余时直接返回已完成的结果，缓存耗尽时在下一个超级号段到达后完成，不阻塞调用线程；
+     * 请求的步长不小于超级号段步长时直接转发给实际的分配器
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配结果，步长非法时以IllegalArgumentException完成
+     */
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("步长必须大于0"));
+            return failed;
+        }
+        if (closed) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new CyxIdException("分级缓存的ID段分配器已关闭：" + name));
+            return failed;
+        }
+        if (requestedStep >= superStep) {
+            delegateCalls.incrementAndGet();
+            return delegate.nextSegmentAsync(name, requestedStep);
+        }
+        return carveAsync(name, requestedStep);
+    }
+    
+    /**
+     * 请求实际的分配器的次数，包括直接转发的请求
+     *
+     * @return 请求次数
+     */
+    public long getDelegateCallCount() {
+        return delegateCalls.get();
+    }
+    
+    /**
+     * 获取业务当前缓存的剩余ID数量
+     *
+     * @param name ID生成器名称
+     * @return 剩余ID数量
+     */
+    public long getCachedIdsCount(String name) {
+        SuperSegmentCache cache = caches.get(name);
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.remaining;
+        }
+    }
+    
+    /**
+     * 关闭分配器
+     * 取走所有业务尚未切分的ID范围，指定了快照存储时写入快照，否则丢弃。
+     * 关闭后仍在执行的补充任务取得的超级号段会被丢弃，宁可浪费也不重复发放
+     */
+    public void shutdown() {
+        closed = true;
+        
+        List<SegmentSnapshot> snapshots = new ArrayList<>();
+        long discarded = 0;
+        for (Map.Entry<String, SuperSegmentCache> entry : caches.entrySet()) {
+            SuperSegmentCache cache = entry.getValue();
+            synchronized (cache) {
+                discarded += cache.remaining;
+                snapshots.add(new SegmentSnapshot(entry.getKey(), superStep, cache.drain()));
+            }
+        }
+        
+        if (snapshotStore != null) {
+            snapshotStore.save(snapshots);
+        } else if (discarded > 0) {
+            log.info("关闭分级缓存的ID段分配器，丢弃尚未使用的ID：{}个", discarded);
+        }
+    }
+    
+    /**
+     * 获取业务的超级号段缓存，不存在时创建
+     *
+     * @param name ID生成器名称
+     * @return 超级号段缓存
+     */
+    private SuperSegmentCache cacheOf(String name) {
+        return caches.computeIfAbsent(name, SuperSegmentCache::new);
+    }
+    
+    /**
+     * 从业务的缓存中切分ID段
+     * 剩余低于补充阈值时发起后台加载；缓存已耗尽时在加载完成后重新切分
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 切分结果
+     */
+    private CompletableFuture<IdSegment> carveAsync(String name, int requestedStep) {
+        SuperSegmentCache cache = cacheOf(name);
+        CompletableFuture<IdSegment> pending;
+        IdSegment segment;
+        boolean start = false;
+        synchronized (cache) {
+            if (closed) {
+                CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new CyxIdException("分级缓存的ID段分配器已关闭：" + name));
+                return failed;
+            }
+            segment = cache.carve(requestedStep);
+            if (segment != null && cache.remaining >= refillThreshold) {
+                return CompletableFuture.completedFuture(segment);
+            }
+            pending = cache.loading;
+            if (pending == null) {
+                pending = new CompletableFuture<>();
+                cache.loading = pending;
+                start = true;
+            }
+        }
+        
+        if (start) {
+            load(cache, pending, segment == null);
+        }
+        if (segment != null) {
+            return CompletableFuture.completedFuture(segment);
+        }
+        return pending.thenCompose(loaded -> carveAsync(name, requestedStep));
+    }
+    
+    /**
+     * 加载下一个超级号段
+     * 提交到共享的加载调度器；缓存已耗尽时按最高优先级加载，调度器已关闭时在当前线程加载
+     *
+     * @param cache 超级号段缓存
+     * @param pending 加载句柄
+     * @param exhausted 缓存是否已耗尽
+     */
+    private void load(SuperSegmentCache cache, CompletableFuture<IdSegment> pending, boolean exhausted) {
+        Supplier<CompletionStage<IdSegment>> task = () -> {
+            delegateCalls.incrementAndGet();
+            CompletionStage<IdSegment> result;
+            try {
+                result = delegate.nextSegmentAsync(cache.name, superStep);
+            } catch (RuntimeException e) {
+                CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                result = failed;
+            }
+            return result.whenComplete((segment, e) -> {
+                synchronized (cache) {
+                    if (e == null && !closed) {
+                        cache.add(segment);
+                    }
+                    cache.loading = null;
+                }
+                if (e == null) {
+                    pending.complete(segment);
+                    log.debug("加载超级号段成功：{} -> {}", cache.name, segment);
+                } else {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.error("加载超级号段失败：{}", cache.name, cause);
+                    pending.completeExceptionally(cause);
+                }
+            });
+        };
+        
+        try {
+            if (!loaderScheduler.submitAsync(cache, cache.name, exhausted ? 0 : Long.MAX_VALUE, task)) {
+                log.debug("超级号段加载任务已在排队：{}", cache.name);
+            }
+        } catch (RejectedExecutionException e) {
+            task.get();
+        }
+    }
+    
+    /**
+     * 等待切分结果，最多等待10秒
+     * 超时后切分结果仍可能完成，其中的ID段被丢弃，不会重复发放
+     *
+     * @param name ID生成器名称
+     * @param pending 切分结果
+     * @return 切分出的ID段
+     */
+    private IdSegment await(String name, CompletableFuture<IdSegment> pending) {
+        try {
+            return pending.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CyxIdException("加载超级号段失败：" + name, cause);
+        } catch (TimeoutException e) {
+            throw new CyxIdException("等待超级号段超时：" + name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CyxIdException("等待超级号段时被中断：" + name, e);
+        }
+    }
+    
+    /**
+     * 单个业务的超级号段缓存
+     * 所有字段由缓存对象本身的锁保护
+     */
+    private static class SuperSegmentCache {
+        
+        /**
+         * ID生成器名称
+         */
+        private final String name;
+        
+        /**
+         * 尚未切分的ID范围，按使用顺序排列
+         */
+        private final Deque<IdSegment> ranges = new ArrayDeque<>();
+        
+        /**
+         * 尚未切分的ID总数
+         */
+        private long remaining = 0;
+        
+        /**
+         * 正在执行的加载任务的句柄，没有时为null
+         */
+        private CompletableFuture<IdSegment> loading;
+        
+        /**
+         * 创建超级号段缓存
+         *
+         * @param name ID生成器名称
+         */
+        SuperSegmentCache(String name) {
+            this.name = name;
+        }
+        
+        /**
+         * 追加ID范围
+         *
+         * @param segment ID范围
+         */
+        void add(IdSegment segment) {
+            ranges.addLast(segment);
+            remaining += segment.getStep();
+        }
+        
+        /**
+         * 从最早的ID范围切分一个ID段
+         *
+         * @param step 请求的步长
+         * @return 切分出的ID段，缓存已耗尽时返回null
+         */
+        IdSegment carve(int step) {
+            IdSegment head = ranges.pollFirst();
+            if (head == null) {
+                return null;
+            }
+            
+            long stride = head.getStride();
+            long maxId = Math.min(head.getMaxId(), head.getMinId() + (step - 1) * stride);
+            if (maxId < head.getMaxId()) {
+                ranges.addFirst(new IdSegment(maxId + stride, head.getMaxId(), stride));
+            }
+            IdSegment segment = new IdSegment(head.getMinId(), maxId, stride);
+            remaining -= segment.getStep();
+            return segment;
+        }
+        
+        /**
+         * 取走所有尚未切分的ID范围
+         *
+         * @return 尚未切分的ID范围
+         */
+        List<IdSegment> drain() {
+            if (ranges.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<IdSegment> drained = new ArrayList<>(ranges);
+            ranges.clear();
+            remaining = 0;
+            return drained;
+        }
+    }
+}
\ No newline at end of file
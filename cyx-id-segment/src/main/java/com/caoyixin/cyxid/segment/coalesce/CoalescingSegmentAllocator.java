@@ -0,0 +1,491 @@
+package com.caoyixin.cyxid.segment.coalesce;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并并发请求的ID段分配器
+ * 同一业务可能同时被多个生成器工厂（分段、链式分段、Starter的默认生成器）各自的缓冲区补充，
+ * 并发的补充请求会重复访问存储并浪费ID段。本分配器把同一业务、同一步长的并发请求合并为一次后端请求：
+ * 请求正在执行时到达的请求方排队组成下一轮，上一轮结束后由下一轮的第一个请求方一次为整轮请求，
+ * 按步长请求时获取一个“步长 × 请求方数量”的ID段再切分，未指定步长时通过{@link SegmentAllocator#nextSegments(String, int)}一次获取。
+ * 对存储的访问次数与ID消耗量成正比，而与共用分配器的生成器数量无关。
+ * 异步请求与同步请求共用同一组轮次，异步请求方是一轮的第一个请求方时通过实际分配器的异步接口为整轮请求，
+ * 不阻塞调用线程
+ */
+@Slf4j
+public class CoalescingSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 实际的分配器
+     */
+    private final SegmentAllocator delegate;
+    
+    /**
+     * 各业务、各步长的合并状态，key为“业务名称#步长”，未指定步长时步长为0
+     */
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    
+    /**
+     * 收到的请求次数
+     */
+    private final LongAdder requests = new LongAdder();
+    
+    /**
+     * 请求实际的分配器的次数
+     */
+    private final LongAdder backendCalls = new LongAdder();
+    
+    /**
+     * 创建合并并发请求的ID段分配器
+     *
+     * @param delegate 实际的分配器
+     */
+    public CoalescingSegmentAllocator(SegmentAllocator delegate) {
+        this.delegate = delegate;
+        log.info("初始化合并并发请求的ID段分配器：{}", delegate.getClass().getSimpleName());
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return coalesce(name, 0);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        return coalesce(name, requestedStep);
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        requests.increment();
+        return coalesceAsync(flightOf(name, 0));
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("步长必须大于0"));
+            return failed;
+        }
+        requests.increment();
+        return coalesceAsync(flightOf(name, requestedStep));
+    }
+    
+    /**
+     * 一次获取多个连续的ID段，本身已是一次请求，直接转发给实际的分配器
+     *
+     * @param name ID生成器名称
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    @Override
+    public List<IdSegment> nextSegments(String name, int count) {
+        requests.increment();
+        backendCalls.increment();
+        return delegate.nextSegments(name, count);
+    }
+    
+    /**
+     * 一次为多个ID生成器获取ID段，本身已是一次请求，直接转发给实际的分配器
+     *
+     * @param counts 各ID生成器需要的ID段数量，key为ID生成器名称
+     * @return 各ID生成器分配的ID段，key为ID生成器名称
+     */
+    @Override
+    public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        requests.increment();
+        backendCalls.increment();
+        return delegate.nextSegments(counts);
+    }
+    
+    /**
+     * 收到的请求次数
+     *
+     * @return 请求次数
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+    
+    /**
+     * 请求实际的分配器的次数
+     *
+     * @return 请求次数
+     */
+    public long getBackendCallCount() {
+        return backendCalls.sum();
+    }
+    
+    /**
+     * 获取实际的分配器
+     *
+     * @return 实际的分配器
+     */
+    public SegmentAllocator getDelegate() {
+        return delegate;
+    }
+    
+    /**
+     * 合并请求
+     * 没有正在执行的请求时立即请求；否则加入下一轮，是下一轮的第一个请求方时等上一轮结束后为整轮请求，
+     * 其余请求方等待整轮的结果。后端返回的ID少于请求方数量时，没有分到ID的请求方重新排队
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @return 分配的ID段
+     */
+    private IdSegment coalesce(String name, int requestedStep) {
+        requests.increment();
+        Flight flight = flightOf(name, requestedStep);
+        
+        while (true) {
+            Round round;
+            int index;
+            synchronized (flight) {
+                round = join(flight);
+                index = round.size++;
+            }
+            
+            if (index == 0) {
+                round.turn.join();
+                execute(flight, round);
+            }
+            List<IdSegment> segments = await(name, round.result);
+            if (index < segments.size()) {
+                return segments.get(index);
+            }
+            log.debug("后端返回的ID段不足以分给本轮所有请求方，重新排队：{}", name);
+        }
+    }
+    
+    /**
+     * 异步合并请求
+     * 与同步请求的排队规则相同，是一轮的第一个请求方时在轮到本轮时发起异步请求，不等待上一轮结束
+     *
+     * @param flight 合并状态
+     * @return 分配结果
+     */
+    private CompletableFuture<IdSegment> coalesceAsync(Flight flight) {
+        Round round;
+        int index;
+        synchronized (flight) {
+            round = join(flight);
+            index = round.size++;
+        }
+        
+        if (index == 0) {
+            round.turn.thenRun(() -> executeAsync(flight, round));
+        }
+        return round.result.handle((segments, e) -> {
+            if (e != null) {
+                CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+                failed.completeExceptionally(unwrap(flight.name, e));
+                return failed;
+            }
+            if (index < segments.size()) {
+                return CompletableFuture.completedFuture(segments.get(index));
+            }
+            log.debug("后端返回的ID段不足以分给本轮所有请求方，重新排队：{}", flight.name);
+            return coalesceAsync(flight);
+        }).thenCompose(result -> result);
+    }
+    
+    /**
+     * 获取业务、步长对应的合并状态
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @return 合并状态
+     */
+    private Flight flightOf(String name, int requestedStep) {
+        return flights.computeIfAbsent(name + '#' + requestedStep, key -> new Flight(name, requestedStep));
+    }
+    
+    /**
+     * 加入一轮请求，调用方必须持有合并状态的锁
+     * 没有正在执行的请求时创建立即执行的一轮，否则加入排队的下一轮
+     *
+     * @param flight 合并状态
+     * @return 加入的一轮请求
+     */
+    private static Round join(Flight flight) {
+        if (flight.inFlight == null) {
+            Round round = new Round();
+            round.turn.complete(null);
+            flight.inFlight = round;
+            return round;
+        }
+        if (flight.next == null) {
+            flight.next = new Round();
+        }
+        return flight.next;
+    }
+    
+    /**
+     * 为一轮请求访问实际的分配器，完成后让下一轮开始
+     *
+     * @param flight 合并状态
+     * @param round 本轮请求
+     */
+    private void execute(Flight flight, Round round) {
+        int size = close(flight, round);
+        
+        try {
+            round.result.complete(fetch(flight.name, flight.requestedStep, size));
+        } catch (RuntimeException e) {
+            round.result.completeExceptionally(e);
+        } finally {
+            if (!round.result.isDone()) {
+                round.result.completeExceptionally(new CyxIdException("分配ID段失败：" + flight.name));
+            }
+            advance(flight);
+        }
+    }
+    
+    /**
+     * 通过实际分配器的异步接口为一轮请求获取ID段，结果返回后让下一轮开始
+     *
+     * @param flight 合并状态
+     * @param round 本轮请求
+     */
+    private void executeAsync(Flight flight, Round round) {
+        int size = close(flight, round);
+        
+        CompletionStage<List<IdSegment>> fetched;
+        try {
+            fetched = fetchAsync(flight.name, flight.requestedStep, size);
+        } catch (RuntimeException e) {
+            CompletableFuture<List<IdSegment>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            fetched = failed;
+        }
+        fetched.whenComplete((segments, e) -> {
+            if (e == null) {
+                round.result.complete(segments);
+            } else {
+                round.result.completeExceptionally(unwrap(flight.name, e));
+            }
+            advance(flight);
+        });
+    }
+    
+    /**
+     * 本轮开始执行，之后到达的请求方加入下一轮
+     *
+     * @param flight 合并状态
+     * @param round 本轮请求
+     * @return 本轮请求方数量
+     */
+    private static int close(Flight flight, Round round) {
+        synchronized (flight) {
+            return round.size;
+        }
+    }
+    
+    /**
+     * 本轮结束，让排队的下一轮开始
+     *
+     * @param flight 合并状态
+     */
+    private static void advance(Flight flight) {
+        Round following;
+        synchronized (flight) {
+            following = flight.next;
+            flight.inFlight = following;
+            flight.next = null;
+        }
+        if (following != null) {
+            following.turn.complete(null);
+        }
+    }
+    
+    /**
+     * 为一轮请求获取ID段
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @param size 本轮请求方数量
+     * @return 分给各请求方的ID段，可能少于请求方数量
+     */
+    private List<IdSegment> fetch(String name, int requestedStep, int size) {
+        backendCalls.increment();
+        if (size == 1) {
+            return Collections.singletonList(requestedStep > 0
+                    ? delegate.nextSegment(name, requestedStep) : delegate.nextSegment(name));
+        }
+        
+        log.debug("合并{}个并发请求：{}，步长={}", size, name, requestedStep);
+        if (requestedStep == 0) {
+            return delegate.nextSegments(name, size);
+        }
+        long total = Math.min((long) requestedStep * size, Integer.MAX_VALUE);
+        return split(delegate.nextSegment(name, (int) total), size);
+    }
+    
+    /**
+     * 通过实际分配器的异步接口为一轮请求获取ID段
+     * 按步长请求时一次获取整轮的ID段再切分；未指定步长时批量接口没有异步形式，
+     * 改为同时发出与请求方数量相同的异步请求，由实际的分配器自行流水线化
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @param size 本轮请求方数量
+     * @return 分给各请求方的ID段，可能少于请求方数量
+     */
+    private CompletionStage<List<IdSegment>> fetchAsync(String name, int requestedStep, int size) {
+        if (requestedStep > 0) {
+            backendCalls.increment();
+            if (size == 1) {
+                return delegate.nextSegmentAsync(name, requestedStep).thenApply(Collections::singletonList);
+            }
+            log.debug("合并{}个并发异步请求：{}，步长={}", size, name, requestedStep);
+            long total = Math.min((long) requestedStep * size, Integer.MAX_VALUE);
+            return delegate.nextSegmentAsync(name, (int) total).thenApply(segment -> split(segment, size));
+        }
+        
+        List<CompletableFuture<IdSegment>> pending = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            backendCalls.increment();
+            pending.add(delegate.nextSegmentAsync(name).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<IdSegment> segments = new ArrayList<>(size);
+            for (CompletableFuture<IdSegment> future : pending) {
+                segments.add(future.join());
+            }
+            return segments;
+        });
+    }
+    
+    /**
+     * 把ID段尽量均匀地切分为多个ID段
+     * 实际的分配器忽略请求的步长时，按返回的ID数量均分
+     *
+     * @param segment ID段
+     * @param parts 期望的份数
+     * @return 切分出的ID段，ID数量少于期望的份数时每个ID段只有一个ID
+     */
+    private static List<IdSegment> split(IdSegment segment, int parts) {
+        long count = segment.getStep();
+        int actualParts = (int) Math.min(parts, count);
+        long base = count / actualParts;
+        long extra = count % actualParts;
+        long stride = segment.getStride();
+        
+        List<IdSegment> segments = new ArrayList<>(actualParts);
+        long minId = segment.getMinId();
+        for (int i = 0; i < actualParts; i++) {
+            long size = base + (i < extra ? 1 : 0);
+            long maxId = minId + (size - 1) * stride;
+            segments.add(new IdSegment(minId, maxId, stride));
+            minId = maxId + stride;
+        }
+        return segments;
+    }
+    
+    /**
+     * 等待本轮的结果
+     *
+     * @param name ID生成器名称
+     * @param pending 本轮的结果
+     * @return 分给各请求方的ID段
+     */
+    private static List<IdSegment> await(String name, CompletableFuture<List<IdSegment>> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            throw unwrap(name, e);
+        }
+    }
+    
+    /**
+     * 取出异步结果中的原始异常，受检异常包装为CyxIdException
+     *
+     * @param name ID生成器名称
+     * @param error 异步结果的异常
+     * @return 原始的运行时异常
+     */
+    private static RuntimeException unwrap(String name, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new CyxIdException("分配ID段失败：" + name, cause);
+    }
+    
+    /**
+     * 单个业务、单个步长的合并状态
+     * 所有字段由状态对象本身的锁保护
+     */
+    private static class Flight {
+        
+        /**
+         * ID生成器名称
+         */
+        private final String name;
+        
+        /**
+         * 请求的步长，为0时按分配器自身的步长
+         */
+        private final int requestedStep;
+        
+        /**
+         * 正在执行的一轮请求，没有时为null
+         */
+        private Round inFlight;
+        
+        /**
+         * 正在排队的下一轮请求，没有时为null
+         */
+        private Round next;
+        
+        /**
+         * 创建合并状态
+         *
+         * @param name ID生成器名称
+         * @param requestedStep 请求的步长
+         */
+        Flight(String name, int requestedStep) {
+            this.name = name;
+            this.requestedStep = requestedStep;
+        }
+    }
+    
+    /**
+     * 一轮合并的请求
+     */
+    private static class Round {
+        
+        /**
+         * 轮到本轮执行的信号，立即执行的一轮创建时即已完成
+         */
+        private final CompletableFuture<Void> turn = new CompletableFuture<>();
+        
+        /**
+         * 分给各请求方的ID段
+         */
+        private final CompletableFuture<List<IdSegment>> result = new CompletableFuture<>();
+        
+        /**
+         * 请求方数量，由合并状态的锁保护
+         */
+        private int size = 0;
+    }
+}
\ No newline at end of file
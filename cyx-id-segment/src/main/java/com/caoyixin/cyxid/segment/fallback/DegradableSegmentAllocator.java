@@ -0,0 +1,332 @@
+package com.caoyixin.cyxid.segment.fallback;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可降级的ID段分配器
+ * 包装实际的分配器，分配失败时改为从应急ID段来源获取ID段，使存储短暂不可用时仍能持续发放ID。
+ * 内置熔断器：连续失败达到阈值后熔断，熔断期间直接使用应急来源；
+ * 熔断时间按指数退避增长，到期后只放行一个探测请求，探测成功则自动恢复使用实际的分配器。
+ * 同步和异步请求共用同一个熔断器，熔断器的状态变化都在对象锁内完成
+ */
+@Slf4j
+public class DegradableSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        
+        /**
+         * 正常，请求实际的分配器
+         */
+        CLOSED,
+        
+        /**
+         * 熔断，直接使用应急来源
+         */
+        OPEN,
+        
+        /**
+         * 半开，放行一个探测请求
+         */
+        HALF_OPEN
+    }
+    
+    /**
+     * 实际的分配器
+     */
+    private final SegmentAllocator delegate;
+    
+    /**
+     * 应急ID段来源
+     */
+    private final EmergencySegmentSource emergencySource;
+    
+    /**
+     * 触发熔断的连续失败次数
+     */
+    private final int failureThreshold;
+    
+    /**
+     * 初始熔断时间（纳秒）
+     */
+    private final long initialBackoffNanos;
+    
+    /**
+     * 最大熔断时间（纳秒）
+     */
+    private final long maxBackoffNanos;
+    
+    /**
+     * 应急ID段的默认步长
+     */
+    private final int emergencyStep;
+    
+    /**
+     * 熔断器状态
+     */
+    private volatile State state = State.CLOSED;
+    
+    /**
+     * 连续失败次数
+     */
+    private int consecutiveFailures = 0;
+    
+    /**
+     * 当前熔断时间（纳秒），每次探测失败翻倍
+     */
+    private long backoffNanos;
+    
+    /**
+     * 允许下一次探测的时间（纳秒）
+     */
+    private long nextProbeNanos;
+    
+    /**
+     * 是否有探测请求正在执行
+     */
+    private boolean probing = false;
+    
+    /**
+     * 创建可降级的ID段分配器
+     *
+     * @param delegate 实际的分配器
+     * @param emergencySource 应急ID段来源
+     * @param failureThreshold 触发熔断的连续失败次数
+     * @param initialBackoffMillis 初始熔断时间（毫秒）
+     * @param maxBackoffMillis 最大熔断时间（毫秒）
+     * @param emergencyStep 应急ID段的默认步长
+     */
+    public DegradableSegmentAllocator(SegmentAllocator delegate, EmergencySegmentSource emergencySource,
+                                      int failureThreshold, long initialBackoffMillis, long maxBackoffMillis,
+                                      int emergencyStep) {
+        if (failureThreshold <= 0 || initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("熔断参数无效");
+        }
+        this.delegate = delegate;
+        this.emergencySource = emergencySource;
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.emergencyStep = emergencyStep;
+        this.backoffNanos = initialBackoffNanos;
+        
+        log.info("初始化可降级的ID段分配器：熔断阈值={}，熔断时间={}-{}ms",
+                failureThreshold, initialBackoffMillis, maxBackoffMillis);
+    }
+    
+    /**
+     * 创建可降级的ID段分配器（连续失败3次熔断，熔断时间100毫秒起，最长30秒）
+     *
+     * @param delegate 实际的分配器
+     * @param emergencySource 应急ID段来源
+     */
+    public DegradableSegmentAllocator(SegmentAllocator delegate, EmergencySegmentSource emergencySource) {
+        this(delegate, emergencySource, 3, 100, 30_000, 1000);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return allocate(name, emergencyStep, false);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        return allocate(name, requestedStep, true);
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        return allocateAsync(name, emergencyStep, false);
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        return allocateAsync(name, requestedStep, true);
+    }
+    
+    /**
+     * 获取熔断器状态
+     *
+     * @return 熔断器状态
+     */
+    public State getState() {
+        return state;
+    }
+    
+    /**
+     * 是否处于降级状态
+     *
+     * @return 熔断或半开时返回true
+     */
+    public boolean isDegraded() {
+        return state != State.CLOSED;
+    }
+    
+    /**
+     * 分配ID段
+     * 熔断期间只有到期后抢到探测权的一个请求会访问实际的分配器，其余请求直接使用应急来源
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @param stepRequested 是否按请求的步长向实际的分配器请求
+     * @return 分配的ID段
+     */
+    private IdSegment allocate(String name, int requestedStep, boolean stepRequested) {
+        boolean probe = false;
+        if (state != State.CLOSED) {
+            probe = tryStartProbe();
+            if (!probe && state != State.CLOSED) {
+                return emergencySource.nextSegment(name, requestedStep);
+            }
+        }
+        
+        try {
+            IdSegment segment = stepRequested ? delegate.nextSegment(name, requestedStep) : delegate.nextSegment(name);
+            onSuccess(probe);
+            return segment;
+        } catch (Exception e) {
+            onFailure(name, e, probe);
+            return emergencySource.nextSegment(name, requestedStep);
+        }
+    }
+    
+    /**
+     * 异步分配ID段
+     * 与同步分配共用熔断器，通过实际的分配器的异步接口请求，失败时以应急来源的ID段完成
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @param stepRequested 是否按请求的步长向实际的分配器请求
+     * @return 分配结果，应急来源也失败时以其异常完成
+     */
+    private CompletionStage<IdSegment> allocateAsync(String name, int requestedStep, boolean stepRequested) {
+        boolean probe = false;
+        if (state != State.CLOSED) {
+            probe = tryStartProbe();
+            if (!probe && state != State.CLOSED) {
+                return emergencyAsync(name, requestedStep);
+            }
+        }
+        
+        CompletionStage<IdSegment> pending;
+        try {
+            pending = stepRequested ? delegate.nextSegmentAsync(name, requestedStep) : delegate.nextSegmentAsync(name);
+        } catch (Exception e) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            pending = failed;
+        }
+        
+        boolean probeStarted = probe;
+        CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        pending.whenComplete((segment, error) -> {
+            if (error == null) {
+                onSuccess(probeStarted);
+                result.complete(segment);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            onFailure(name, cause, probeStarted);
+            completeWithEmergency(result, name, requestedStep);
+        });
+        return result;
+    }
+    
+    /**
+     * 以应急来源的ID段完成的异步结果
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配结果
+     */
+    private CompletionStage<IdSegment> emergencyAsync(String name, int requestedStep) {
+        CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        completeWithEmergency(result, name, requestedStep);
+        return result;
+    }
+    
+    /**
+     * 从应急来源获取ID段并完成异步结果
+     *
+     * @param result 异步结果
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     */
+    private void completeWithEmergency(CompletableFuture<IdSegment> result, String name, int requestedStep) {
+        try {
+            result.complete(emergencySource.nextSegment(name, requestedStep));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * 熔断时间到期后尝试获取探测权
+     * 检查到期时间、抢占探测权和进入半开状态在同一把锁内完成，同一时刻最多一个探测请求
+     *
+     * @return 是否获得探测权；熔断器已关闭时返回false
+     */
+    private synchronized boolean tryStartProbe() {
+        if (state == State.CLOSED || probing || System.nanoTime() - nextProbeNanos < 0) {
+            return false;
+        }
+        probing = true;
+        state = State.HALF_OPEN;
+        log.info("ID段分配器熔断到期，发起探测请求");
+        return true;
+    }
+    
+    /**
+     * 分配成功，关闭熔断器并重置退避时间
+     *
+     * @param probe 是否为探测请求
+     */
+    private synchronized void onSuccess(boolean probe) {
+        if (probe) {
+            probing = false;
+        }
+        if (state != State.CLOSED) {
+            log.info("ID段分配器已恢复，退出降级模式");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        backoffNanos = initialBackoffNanos;
+    }
+    
+    /**
+     * 分配失败，累计失败次数，达到阈值或探测失败时熔断，探测失败时退避时间翻倍
+     *
+     * @param name ID生成器名称
+     * @param cause 失败原因
+     * @param probe 是否为探测请求
+     */
+    private synchronized void onFailure(String name, Throwable cause, boolean probe) {
+        consecutiveFailures++;
+        
+        if (probe) {
+            probing = false;
+            backoffNanos = Math.min(backoffNanos << 1, maxBackoffNanos);
+        } else if (state != State.CLOSED) {
+            // 熔断前已放行的请求随后失败，熔断器已经打开，不再延长熔断时间
+            return;
+        } else if (consecutiveFailures < failureThreshold) {
+            log.warn("分配ID段失败，使用应急ID段：{}，连续失败{}次", name, consecutiveFailures, cause);
+            return;
+        }
+        
+        state = State.OPEN;
+        nextProbeNanos = System.nanoTime() + backoffNanos;
+        log.error("ID段分配器不可用，进入降级模式：{}，{}ms后重试",
+                name, TimeUnit.NANOSECONDS.toMillis(backoffNanos), cause);
+    }
+}
\ No newline at end of file
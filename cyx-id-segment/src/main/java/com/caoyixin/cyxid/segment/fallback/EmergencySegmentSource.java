@@ -0,0 +1,19 @@
+package com.caoyixin.cyxid.segment.fallback;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+
+/**
+ * 应急ID段来源
+ * 分配器不可用时提供ID段，提供的ID段必须与分配器分配的ID段互不重叠
+ */
+public interface EmergencySegmentSource {
+    
+    /**
+     * 获取一个应急ID段
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，实现方可以按自身规则调整
+     * @return 应急ID段
+     */
+    IdSegment nextSegment(String name, int requestedStep);
+}
\ No newline at end of file
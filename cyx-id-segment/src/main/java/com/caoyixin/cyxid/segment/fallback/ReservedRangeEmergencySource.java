@@ -0,0 +1,65 @@
+package com.caoyixin.cyxid.segment.fallback;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预留区间应急ID段来源
+ * 从为本节点预先预留的ID区间中切分应急ID段，每个生成器名称独立使用整个区间。
+ * 预留区间必须高于分配器可能达到的最大值，且只分给一个节点；
+ * 区间的使用进度只保存在内存中，启用过应急模式后应为节点重新预留新的区间
+ */
+@Slf4j
+public class ReservedRangeEmergencySource implements EmergencySegmentSource {
+    
+    /**
+     * 预留区间的起始值（包含）
+     */
+    private final long start;
+    
+    /**
+     * 预留区间的结束值（包含）
+     */
+    private final long end;
+    
+    /**
+     * 各生成器在预留区间中的下一个可用值
+     */
+    private final Map<String, AtomicLong> cursors = new ConcurrentHashMap<>();
+    
+    /**
+     * 创建预留区间应急ID段来源
+     *
+     * @param start 预留区间的起始值（包含）
+     * @param end 预留区间的结束值（包含）
+     */
+    public ReservedRangeEmergencySource(long start, long end) {
+        if (start <= 0 || start > end) {
+            throw new IllegalArgumentException("预留区间无效：[" + start + ", " + end + "]");
+        }
+        this.start = start;
+        this.end = end;
+        
+        log.info("初始化预留区间应急ID段来源：[{}, {}]", start, end);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        int step = Math.max(1, requestedStep);
+        AtomicLong cursor = cursors.computeIfAbsent(name, key -> new AtomicLong(start));
+        
+        long minId = cursor.getAndAdd(step);
+        if (minId > end || minId < start) {
+            throw new CyxIdException("预留的应急ID区间已耗尽：" + name);
+        }
+        
+        IdSegment segment = new IdSegment(minId, Math.min(minId + step - 1, end));
+        log.warn("从预留区间分配应急ID段[{}]：{}", name, segment);
+        return segment;
+    }
+}
\ No newline at end of file
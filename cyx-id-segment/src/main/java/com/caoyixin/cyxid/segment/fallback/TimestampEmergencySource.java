@@ -0,0 +1,91 @@
+package com.caoyixin.cyxid.segment.fallback;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 时间戳编码应急ID段来源
+ * 按雪花算法的结构编码应急ID段：一个应急ID段对应一个毫秒内本节点的全部序列号，
+ * 即 (时间戳 - 基准时间) << (节点位数 + 序列号位数) | 节点ID << 序列号位数 | [0, 最大序列号]。
+ * 节点ID在集群内唯一时各节点的应急ID互不重复。上一个应急ID段使用的时间戳只保存在内存中，
+ * 同一毫秒内的多次请求会预支之后的毫秒，进程重启或时钟回拨后可能与之前发放的应急ID重复。
+ * 生成的ID远大于分配器分配的ID，分配器恢复后ID会回落，不再保持单调递增
+ */
+@Slf4j
+public class TimestampEmergencySource implements EmergencySegmentSource {
+    
+    /**
+     * 基准时间戳
+     */
+    private final long epoch;
+    
+    /**
+     * 节点ID
+     */
+    private final long workerId;
+    
+    /**
+     * 序列号位数
+     */
+    private final int sequenceBits;
+    
+    /**
+     * 时间戳左移位数
+     */
+    private final int timestampShift;
+    
+    /**
+     * 上一个应急ID段使用的时间戳
+     */
+    private long lastTimestamp = -1L;
+    
+    /**
+     * 创建时间戳编码应急ID段来源
+     *
+     * @param epoch 基准时间戳
+     * @param workerId 节点ID
+     * @param workerIdBits 节点ID位数
+     * @param sequenceBits 序列号位数
+     */
+    public TimestampEmergencySource(long epoch, long workerId, int workerIdBits, int sequenceBits) {
+        long maxWorkerId = ~(-1L << workerIdBits);
+        if (workerId < 0 || workerId > maxWorkerId) {
+            throw new IllegalArgumentException(String.format("工作节点ID必须在0-%d的范围内", maxWorkerId));
+        }
+        this.epoch = epoch;
+        this.workerId = workerId;
+        this.sequenceBits = sequenceBits;
+        this.timestampShift = workerIdBits + sequenceBits;
+        
+        log.info("初始化时间戳编码应急ID段来源：epoch={}, workerId={}", epoch, workerId);
+    }
+    
+    /**
+     * 创建时间戳编码应急ID段来源（10位节点ID，12位序列号）
+     *
+     * @param epoch 基准时间戳
+     * @param workerId 节点ID
+     */
+    public TimestampEmergencySource(long epoch, long workerId) {
+        this(epoch, workerId, 10, 12);
+    }
+    
+    /**
+     * 获取一个应急ID段
+     * 每个毫秒只分配一次，同一毫秒内的再次请求使用下一个毫秒，因此不受请求步长影响
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长（忽略）
+     * @return 应急ID段
+     */
+    @Override
+    public synchronized IdSegment nextSegment(String name, int requestedStep) {
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        lastTimestamp = timestamp;
+        
+        long minId = ((timestamp - epoch) << timestampShift) | (workerId << sequenceBits);
+        IdSegment segment = new IdSegment(minId, minId | ~(-1L << sequenceBits));
+        log.warn("分配时间戳编码应急ID段[{}]：{}", name, segment);
+        return segment;
+    }
+}
\ No newline at end of file
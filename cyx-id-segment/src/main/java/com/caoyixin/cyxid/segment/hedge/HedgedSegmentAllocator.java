@@ -0,0 +1,606 @@
+package com.caoyixin.cyxid.segment.hedge;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import com.caoyixin.cyxid.storage.api.metrics.LatencyHistogram;
+import com.caoyixin.cyxid.storage.api.metrics.LatencySnapshot;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对冲请求的ID段分配器
+ * 先向主分配器请求ID段，超过对冲延迟仍未返回（或主分配器失败）时，再向备用分配器发出同一请求，使用先返回的结果；
+ * 后返回的ID段不会丢弃，而是留作该业务的备用ID段，下一次请求直接使用。
+ * 对冲延迟取主分配器最近一个统计窗口内延迟的指定百分位，使单个存储的长尾延迟不再直接导致号段耗尽。
+ * 请求通过分配器的异步接口发出，每个分配器使用各自的固定大小线程池，慢的主分配器不会占满备用分配器的线程。
+ * 主备分配器必须拥有互不重叠的ID空间，例如使用不同区域编号的{@link com.caoyixin.cyxid.storage.api.RegionStride}
+ */
+@Slf4j
+public class HedgedSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 计算对冲延迟所需的最少样本数，样本不足时使用最大对冲延迟
+     */
+    private static final int MIN_SAMPLES = 20;
+    
+    /**
+     * 每隔多少次请求重新计算对冲延迟
+     */
+    private static final int DELAY_REFRESH_INTERVAL = 32;
+    
+    /**
+     * 延迟统计窗口的样本数，窗口写满后换用新的直方图，对冲延迟只反映最近的延迟
+     */
+    private static final int LATENCY_WINDOW_SAMPLES = 256;
+    
+    /**
+     * 每个分配器的请求线程数
+     */
+    private static final int CALL_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    
+    /**
+     * 主分配器
+     */
+    private final SegmentAllocator primary;
+    
+    /**
+     * 备用分配器，ID空间与主分配器互不重叠
+     */
+    private final SegmentAllocator secondary;
+    
+    /**
+     * 计算对冲延迟的百分位
+     */
+    private final double hedgePercentile;
+    
+    /**
+     * 最小对冲延迟（纳秒）
+     */
+    private final long minHedgeDelayNanos;
+    
+    /**
+     * 最大对冲延迟（纳秒）
+     */
+    private final long maxHedgeDelayNanos;
+    
+    /**
+     * 向主分配器发出请求的线程池
+     */
+    private final ExecutorService primaryExecutor;
+    
+    /**
+     * 向备用分配器发出请求的线程池
+     */
+    private final ExecutorService secondaryExecutor;
+    
+    /**
+     * 在对冲延迟到期时发出对冲请求的定时器
+     */
+    private final ScheduledThreadPoolExecutor hedgeTimer;
+    
+    /**
+     * 当前统计窗口内主分配器成功请求的延迟
+     */
+    private volatile LatencyHistogram primaryLatency = new LatencyHistogram();
+    
+    /**
+     * 各业务的备用ID段，即对冲后较晚返回的ID段，由队列本身的锁保护
+     */
+    private final Map<String, Deque<IdSegment>> spares = new ConcurrentHashMap<>();
+    
+    /**
+     * 请求后端的次数（不含直接使用备用ID段的请求）
+     */
+    private final AtomicLong requests = new AtomicLong(0);
+    
+    /**
+     * 向备用分配器发出对冲请求的次数
+     */
+    private final LongAdder hedges = new LongAdder();
+    
+    /**
+     * 备用分配器先返回的次数
+     */
+    private final LongAdder secondaryWins = new LongAdder();
+    
+    /**
+     * 直接使用备用ID段的次数
+     */
+    private final LongAdder spareHits = new LongAdder();
+    
+    /**
+     * 当前的对冲延迟（纳秒）
+     */
+    private volatile long hedgeDelayNanos;
+    
+    /**
+     * 是否已关闭
+     */
+    private volatile boolean closed = false;
+    
+    /**
+     * 创建对冲请求的ID段分配器
+     *
+     * @param primary 主分配器
+     * @param secondary 备用分配器，ID空间必须与主分配器互不重叠
+     * @param hedgePercentile 主分配器延迟超过此百分位时发出对冲请求（0-100）
+     * @param minHedgeDelayMillis 最小对冲延迟（毫秒）
+     * @param maxHedgeDelayMillis 最大对冲延迟（毫秒），样本不足时使用
+     */
+    public HedgedSegmentAllocator(SegmentAllocator primary, SegmentAllocator secondary, double hedgePercentile,
+                                  long minHedgeDelayMillis, long maxHedgeDelayMillis) {
+        if (hedgePercentile <= 0 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("对冲百分位必须在0-100之间");
+        }
+        if (minHedgeDelayMillis < 0 || maxHedgeDelayMillis < minHedgeDelayMillis) {
+            throw new IllegalArgumentException("对冲延迟参数无效");
+        }
+        this.primary = primary;
+        this.secondary = secondary;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+        this.maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxHedgeDelayMillis);
+        this.hedgeDelayNanos = maxHedgeDelayNanos;
+        
+        this.primaryExecutor = newCallExecutor("cyx-id-hedge-primary-");
+        this.secondaryExecutor = newCallExecutor("cyx-id-hedge-secondary-");
+        this.hedgeTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "cyx-id-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 主分配器按时返回时取消的定时任务立即移出队列
+        hedgeTimer.setRemoveOnCancelPolicy(true);
+        
+        log.info("初始化对冲请求的ID段分配器：对冲百分位=p{}，对冲延迟={}-{}ms",
+                hedgePercentile, minHedgeDelayMillis, maxHedgeDelayMillis);
+    }
+    
+    /**
+     * 创建对冲请求的ID段分配器（主分配器延迟超过p95时对冲，对冲延迟1毫秒至200毫秒）
+     *
+     * @param primary 主分配器
+     * @param secondary 备用分配器，ID空间必须与主分配器互不重叠
+     */
+    public HedgedSegmentAllocator(SegmentAllocator primary, SegmentAllocator secondary) {
+        this(primary, secondary, 95, 1, 200);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return await(name, hedge(name, 0));
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        return await(name, hedge(name, requestedStep));
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        return hedge(name, 0);
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("步长必须大于0"));
+            return failed;
+        }
+        return hedge(name, requestedStep);
+    }
+    
+    /**
+     * 请求后端的次数，不含直接使用备用ID段的请求
+     *
+     * @return 请求次数
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+    
+    /**
+     * 向备用分配器发出对冲请求的次数，包括主分配器失败后的转发
+     *
+     * @return 对冲次数
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+    
+    /**
+     * 对冲率，即发出对冲请求的次数占请求后端次数的比例
+     *
+     * @return 对冲率（0-1），没有请求时为0
+     */
+    public double getHedgeRate() {
+        long count = requests.get();
+        return count == 0 ? 0 : (double) hedges.sum() / count;
+    }
+    
+    /**
+     * 备用分配器先返回的次数
+     *
+     * @return 次数
+     */
+    public long getSecondaryWinCount() {
+        return secondaryWins.sum();
+    }
+    
+    /**
+     * 直接使用备用ID段的次数
+     *
+     * @return 次数
+     */
+    public long getSpareHitCount() {
+        return spareHits.sum();
+    }
+    
+    /**
+     * 获取当前的对冲延迟
+     *
+     * @return 对冲延迟（纳秒）
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+    
+    /**
+     * 获取业务的备用ID数量
+     *
+     * @param name ID生成器名称
+     * @return 备用ID数量
+     */
+    public long getSpareIdsCount(String name) {
+        Deque<IdSegment> queue = spares.get(name);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            long count = 0;
+            for (IdSegment segment : queue) {
+                count += segment.getStep();
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * 关闭分配器
+     * 停止请求线程并丢弃尚未使用的备用ID段，关闭后仍在执行的请求取得的ID段也会被丢弃
+     */
+    public void shutdown() {
+        closed = true;
+        hedgeTimer.shutdown();
+        primaryExecutor.shutdown();
+        secondaryExecutor.shutdown();
+        
+        long discarded = 0;
+        for (String name : spares.keySet()) {
+            discarded += getSpareIdsCount(name);
+        }
+        spares.clear();
+        log.info("关闭对冲请求的ID段分配器：请求{}次，对冲{}次（{}%），备用分配器先返回{}次，丢弃备用ID{}个",
+                requests.get(), hedges.sum(), String.format("%.2f", getHedgeRate() * 100),
+                secondaryWins.sum(), discarded);
+    }
+    
+    /**
+     * 发起对冲请求
+     * 有备用ID段时直接使用；否则先请求主分配器，超过对冲延迟或主分配器失败时再请求备用分配器
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @return 分配结果
+     */
+    private CompletableFuture<IdSegment> hedge(String name, int requestedStep) {
+        if (closed) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new CyxIdException("对冲请求的ID段分配器已关闭：" + name));
+            return failed;
+        }
+        IdSegment spare = takeSpare(name, requestedStep);
+        if (spare != null) {
+            spareHits.increment();
+            return CompletableFuture.completedFuture(spare);
+        }
+        
+        long count = requests.incrementAndGet();
+        if (count % DELAY_REFRESH_INTERVAL == 0) {
+            refreshHedgeDelay();
+        }
+        
+        HedgedRequest request = new HedgedRequest(name, requestedStep);
+        LatencyHistogram latency = primaryLatency;
+        long start = System.nanoTime();
+        call(primary, primaryExecutor, name, requestedStep).whenComplete((segment, e) -> {
+            if (e == null) {
+                latency.record(System.nanoTime() - start);
+            }
+            request.onResult(segment, e, false);
+        });
+        if (!request.result.isDone()) {
+            scheduleHedge(request);
+        }
+        return request.result;
+    }
+    
+    /**
+     * 在分配器的线程池中通过异步接口请求分配器
+     * 支持异步的分配器发出请求后立即释放线程，只有同步的分配器会在请求期间占用线程
+     *
+     * @param allocator 分配器
+     * @param executor 分配器的线程池
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时按分配器自身的步长
+     * @return 分配结果
+     */
+    private CompletableFuture<IdSegment> call(SegmentAllocator allocator, ExecutorService executor,
+                                              String name, int requestedStep) {
+        CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    CompletionStage<IdSegment> pending = requestedStep > 0
+                            ? allocator.nextSegmentAsync(name, requestedStep) : allocator.nextSegmentAsync(name);
+                    pending.whenComplete((segment, e) -> {
+                        if (e == null) {
+                            result.complete(segment);
+                        } else {
+                            result.completeExceptionally(e);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new CyxIdException("对冲请求的ID段分配器已关闭：" + name, e));
+        }
+        return result;
+    }
+    
+    /**
+     * 创建向一个分配器发出请求的线程池
+     *
+     * @param threadPrefix 线程名前缀
+     * @return 固定大小的线程池
+     */
+    private static ExecutorService newCallExecutor(String threadPrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(CALL_THREADS, r -> {
+            Thread thread = new Thread(r, threadPrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * 在对冲延迟到期时向备用分配器发出请求，请求在此之前完成时取消
+     * 定时器已关闭时不再对冲，等待主分配器的结果
+     *
+     * @param request 对冲请求
+     */
+    private void scheduleHedge(HedgedRequest request) {
+        try {
+            ScheduledFuture<?> timer = hedgeTimer.schedule(request::startSecondary, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            request.result.whenComplete((segment, e) -> timer.cancel(false));
+        } catch (RejectedExecutionException e) {
+            log.debug("分配器已关闭，不再发出对冲请求：{}", request.name);
+        }
+    }
+    
+    /**
+     * 按主分配器当前统计窗口内延迟的百分位重新计算对冲延迟
+     * 窗口样本数达到上限后开始新的窗口，新窗口样本不足前沿用当前的对冲延迟
+     */
+    private void refreshHedgeDelay() {
+        LatencySnapshot snapshot = primaryLatency.snapshot();
+        if (snapshot.getCount() < MIN_SAMPLES) {
+            return;
+        }
+        long delay = snapshot.getValueAtPercentile(hedgePercentile);
+        hedgeDelayNanos = Math.max(minHedgeDelayNanos, Math.min(maxHedgeDelayNanos, delay));
+        if (snapshot.getCount() >= LATENCY_WINDOW_SAMPLES) {
+            primaryLatency = new LatencyHistogram();
+        }
+    }
+    
+    /**
+     * 取出业务的一个备用ID段
+     * 指定步长且最早的备用ID段更长时，按步长从头部切分，剩余部分按原间隔放回队首
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长，为0时不限制
+     * @return 备用ID段，没有备用ID段时返回null
+     */
+    private IdSegment takeSpare(String name, int requestedStep) {
+        Deque<IdSegment> queue = spares.get(name);
+        if (queue == null) {
+            return null;
+        }
+        synchronized (queue) {
+            IdSegment head = queue.pollFirst();
+            if (head == null || requestedStep <= 0 || head.getStep() <= requestedStep) {
+                return head;
+            }
+            
+            long stride = head.getStride();
+            long maxId = head.getMinId() + (requestedStep - 1) * stride;
+            queue.addFirst(new IdSegment(maxId + stride, head.getMaxId(), stride));
+            return new IdSegment(head.getMinId(), maxId, stride);
+        }
+    }
+    
+    /**
+     * 保存对冲后较晚返回的ID段
+     *
+     * @param name ID生成器名称
+     * @param segment ID段
+     */
+    private void addSpare(String name, IdSegment segment) {
+        if (closed) {
+            log.info("分配器已关闭，丢弃较晚返回的ID段：{} -> {}", name, segment);
+            return;
+        }
+        Deque<IdSegment> queue = spares.computeIfAbsent(name, key -> new ArrayDeque<>());
+        synchronized (queue) {
+            queue.addLast(segment);
+        }
+        log.debug("保存较晚返回的ID段备用：{} -> {}", name, segment);
+    }
+    
+    /**
+     * 等待分配结果
+     *
+     * @param name ID生成器名称
+     * @param pending 分配结果
+     * @return 分配的ID段
+     */
+    private IdSegment await(String name, CompletableFuture<IdSegment> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CyxIdException("分配ID段失败：" + name, cause);
+        }
+    }
+    
+    /**
+     * 一次对冲请求
+     * 使用先成功返回的ID段，主备分配器都失败时以主分配器的异常失败
+     */
+    private class HedgedRequest {
+        
+        /**
+         * ID生成器名称
+         */
+        private final String name;
+        
+        /**
+         * 请求的步长，为0时按分配器自身的步长
+         */
+        private final int requestedStep;
+        
+        /**
+         * 分配结果
+         */
+        private final CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        
+        /**
+         * 是否已有分配器成功返回
+         */
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+        
+        /**
+         * 是否已向备用分配器发出请求
+         */
+        private final AtomicBoolean secondaryStarted = new AtomicBoolean(false);
+        
+        /**
+         * 失败的请求数量
+         */
+        private final AtomicInteger failures = new AtomicInteger(0);
+        
+        /**
+         * 主分配器的异常
+         */
+        private volatile Throwable primaryError;
+        
+        /**
+         * 备用分配器的异常
+         */
+        private volatile Throwable secondaryError;
+        
+        /**
+         * 创建对冲请求
+         *
+         * @param name ID生成器名称
+         * @param requestedStep 请求的步长
+         */
+        HedgedRequest(String name, int requestedStep) {
+            this.name = name;
+            this.requestedStep = requestedStep;
+        }
+        
+        /**
+         * 向备用分配器发出请求，已发出或已有结果时忽略
+         */
+        void startSecondary() {
+            if (result.isDone() || !secondaryStarted.compareAndSet(false, true)) {
+                return;
+            }
+            hedges.increment();
+            log.debug("主分配器未在{}微秒内返回，向备用分配器发出对冲请求：{}",
+                    TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos), name);
+            call(secondary, secondaryExecutor, name, requestedStep)
+                    .whenComplete((segment, e) -> onResult(segment, e, true));
+        }
+        
+        /**
+         * 处理一个分配器的结果
+         * 先成功的结果作为请求结果，后成功的结果留作备用；主分配器失败时立即转发到备用分配器
+         *
+         * @param segment 分配的ID段
+         * @param error 分配失败的异常
+         * @param fromSecondary 是否来自备用分配器
+         */
+        void onResult(IdSegment segment, Throwable error, boolean fromSecondary) {
+            if (error == null) {
+                if (settled.compareAndSet(false, true)) {
+                    if (fromSecondary) {
+                        secondaryWins.increment();
+                    }
+                    result.complete(segment);
+                } else {
+                    addSpare(name, segment);
+                }
+                return;
+            }
+            
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (!fromSecondary) {
+                primaryError = cause;
+                log.warn("主分配器分配ID段失败，转发到备用分配器：{}", name, cause);
+                startSecondary();
+            } else {
+                secondaryError = cause;
+                log.warn("备用分配器分配ID段失败：{}", name, cause);
+            }
+            if (failures.incrementAndGet() == 2) {
+                Throwable failure = primaryError;
+                // 主备分配器可能抛出同一个异常实例，不能抑制自身
+                if (secondaryError != failure) {
+                    failure.addSuppressed(secondaryError);
+                }
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+}
\ No newline at end of file
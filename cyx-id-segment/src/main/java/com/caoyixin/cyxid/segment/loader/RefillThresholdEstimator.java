@@ -0,0 +1,166 @@
+package com.caoyixin.cyxid.segment.loader;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 补充阈值估算器
+ * 根据ID的消耗速率和分配器的加载延迟计算触发加载下一个ID段的剩余数量阈值：
+ * 阈值 = 消耗速率（EWMA）× 分配器加载延迟（P99）× 安全系数，
+ * 保证存储变慢时加载仍能在当前ID段耗尽前完成。
+ * 样本只在ID段切换和加载完成时记录，不影响发放ID的路径
+ */
+public class RefillThresholdEstimator {
+    
+    /**
+     * 消耗速率的EWMA平滑系数
+     */
+    private static final double RATE_ALPHA = 0.3;
+    
+    /**
+     * 用于计算P99延迟的最近加载次数
+     */
+    private static final int LATENCY_WINDOW = 128;
+    
+    /**
+     * 阈值下限占ID段长度的百分比
+     */
+    private static final int MIN_THRESHOLD_PERCENT = 5;
+    
+    /**
+     * 最近的加载延迟（纳秒），环形缓冲
+     */
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    
+    /**
+     * 已记录的加载延迟数量
+     */
+    private int latencyCount = 0;
+    
+    /**
+     * 下一个加载延迟的写入位置
+     */
+    private int latencyIndex = 0;
+    
+    /**
+     * 消耗速率（每纳秒消耗的ID数），尚无样本时为0
+     */
+    private volatile double consumptionRate = 0;
+    
+    /**
+     * 最近加载延迟的P99（纳秒），尚无样本时为0
+     */
+    private volatile long p99LatencyNanos = 0;
+    
+    /**
+     * 安全系数，放大消耗速率与加载延迟的乘积以应对突发流量
+     */
+    private volatile double safetyFactor = 2.0;
+    
+    /**
+     * 记录一个ID段的消耗情况
+     *
+     * @param consumed 消耗的ID数量
+     * @param elapsedNanos 消耗这些ID所用的时间（纳秒）
+     */
+    public synchronized void recordConsumption(long consumed, long elapsedNanos) {
+        if (consumed <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        
+        double rate = (double) consumed / elapsedNanos;
+        consumptionRate = consumptionRate == 0 ? rate : RATE_ALPHA * rate + (1 - RATE_ALPHA) * consumptionRate;
+    }
+    
+    /**
+     * 记录一次分配器加载的延迟
+     *
+     * @param latencyNanos 加载延迟（纳秒）
+     */
+    public synchronized void recordLatency(long latencyNanos) {
+        if (latencyNanos < 0) {
+            return;
+        }
+        
+        latencies[latencyIndex] = latencyNanos;
+        latencyIndex = (latencyIndex + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+        
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        p99LatencyNanos = sorted[(int) Math.ceil(latencyCount * 0.99) - 1];
+    }
+    
+    /**
+     * 计算触发加载的剩余数量阈值
+     * 尚无消耗或延迟样本时按回退百分比计算，结果不低于ID段长度的5%，不超过ID段长度
+     *
+     * @param step ID段长度
+     * @param fallbackPercent 无样本时使用的安全距离百分比
+     * @return 剩余数量低于此值时应加载下一个ID段
+     */
+    public long threshold(long step, int fallbackPercent) {
+        double rate = consumptionRate;
+        long latency = p99LatencyNanos;
+        if (rate == 0 || latency == 0) {
+            return (long) (step * (fallbackPercent / 100.0));
+        }
+        
+        long estimated = (long) Math.ceil(rate * latency * safetyFactor);
+        long floor = step * MIN_THRESHOLD_PERCENT / 100;
+        return Math.min(step, Math.max(floor, estimated));
+    }
+    
+    /**
+     * 按当前消耗速率估算剩余ID耗尽前的时间
+     *
+     * @param remaining 剩余ID数量
+     * @return 预计耗尽前的时间（纳秒），尚无消耗样本时返回Long.MAX_VALUE
+     */
+    public long timeToExhaustionNanos(long remaining) {
+        double rate = consumptionRate;
+        if (rate == 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) Math.min(Long.MAX_VALUE, Math.max(0, remaining) / rate);
+    }
+    
+    /**
+     * 获取消耗速率
+     *
+     * @return 每秒消耗的ID数
+     */
+    public double getConsumptionRatePerSecond() {
+        return consumptionRate * TimeUnit.SECONDS.toNanos(1);
+    }
+    
+    /**
+     * 获取最近加载延迟的P99
+     *
+     * @return P99延迟（纳秒）
+     */
+    public long getP99LatencyNanos() {
+        return p99LatencyNanos;
+    }
+    
+    /**
+     * 获取安全系数
+     *
+     * @return 安全系数
+     */
+    public double getSafetyFactor() {
+        return safetyFactor;
+    }
+    
+    /**
+     * 设置安全系数
+     *
+     * @param safetyFactor 安全系数，必须大于0
+     */
+    public void setSafetyFactor(double safetyFactor) {
+        if (safetyFactor <= 0) {
+            throw new IllegalArgumentException("安全系数必须大于0");
+        }
+        this.safetyFactor = safetyFactor;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.caoyixin.cyxid.segment.loader;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个业务的ID段加载统计快照
+ */
+@Getter
+public class SegmentLoadMetrics {
+    
+    /**
+     * 业务名称
+     */
+    private final String tag;
+    
+    /**
+     * 已执行的加载次数
+     */
+    private final long loads;
+    
+    /**
+     * 累计排队等待时间（纳秒）
+     */
+    private final long totalQueueWaitNanos;
+    
+    /**
+     * 最长排队等待时间（纳秒），反映该业务被其他业务挤占的程度
+     */
+    private final long maxQueueWaitNanos;
+    
+    /**
+     * 晚于预计耗尽时间完成的加载次数
+     */
+    private final long lateLoads;
+    
+    /**
+     * 最长迟到时间（纳秒）
+     */
+    private final long maxLatenessNanos;
+    
+    /**
+     * 创建加载统计快照
+     *
+     * @param tag 业务名称
+     * @param loads 已执行的加载次数
+     * @param totalQueueWaitNanos 累计排队等待时间（纳秒）
+     * @param maxQueueWaitNanos 最长排队等待时间（纳秒）
+     * @param lateLoads 晚于预计耗尽时间完成的加载次数
+     * @param maxLatenessNanos 最长迟到时间（纳秒）
+     */
+    public SegmentLoadMetrics(String tag, long loads, long totalQueueWaitNanos, long maxQueueWaitNanos,
+                              long lateLoads, long maxLatenessNanos) {
+        this.tag = tag;
+        this.loads = loads;
+        this.totalQueueWaitNanos = totalQueueWaitNanos;
+        this.maxQueueWaitNanos = maxQueueWaitNanos;
+        this.lateLoads = lateLoads;
+        this.maxLatenessNanos = maxLatenessNanos;
+    }
+    
+    /**
+     * 获取平均排队等待时间
+     *
+     * @return 平均排队等待时间（纳秒），没有加载时为0
+     */
+    public long getAverageQueueWaitNanos() {
+        return loads == 0 ? 0 : totalQueueWaitNanos / loads;
+    }
+    
+    @Override
+    public String toString() {
+        return "SegmentLoadMetrics{" +
+                "tag='" + tag + '\'' +
+                ", loads=" + loads +
+                ", avgQueueWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getAverageQueueWaitNanos()) +
+                ", maxQueueWaitMs=" + TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) +
+                ", lateLoads=" + lateLoads +
+                ", maxLatenessMs=" + TimeUnit.NANOSECONDS.toMillis(maxLatenessNanos) +
+                '}';
+    }
+}
\ No newline at end of file
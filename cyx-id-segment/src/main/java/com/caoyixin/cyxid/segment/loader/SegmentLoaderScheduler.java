@@ -0,0 +1,635 @@
+package com.caoyixin.cyxid.segment.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * ID段加载调度器
+ * 进程内所有分段ID缓存器共享的补充调度器，线程数不再随生成器数量增长。
+ * 同一个缓存器同时只会有一个排队中的加载任务，排队的任务按预计耗尽时间（提交时间 + 剩余ID数 ÷ 消耗速率）
+ * 从早到晚执行，优先补充最接近耗尽的缓存器；同时执行的加载数不超过并发上限。
+ * 异步加载任务发出请求后立即归还执行许可，等待存储响应期间不占用线程，可以同时为大量业务发起加载。
+ * 按业务记录排队等待时间（饥饿）和加载完成晚于预计耗尽时间的次数与时长（迟到）
+ */
+@Slf4j
+public class SegmentLoaderScheduler {
+    
+    /**
+     * 执行模式
+     */
+    public enum Mode {
+        
+        /**
+         * 有界的平台线程池
+         */
+        PLATFORM,
+        
+        /**
+         * 每个任务一个虚拟线程，运行环境不支持虚拟线程时退化为平台线程池
+         */
+        VIRTUAL
+    }
+    
+    /**
+     * 预计耗尽时间的上限（纳秒），消耗速率未知时按此值排序
+     */
+    private static final long MAX_TIME_TO_EXHAUSTION_NANOS = TimeUnit.DAYS.toNanos(1);
+    
+    /**
+     * 同步加载任务执行完毕后的结果
+     */
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+    
+    /**
+     * 进程内共享的默认调度器
+     */
+    private static volatile SegmentLoaderScheduler defaultScheduler;
+    
+    /**
+     * 执行模式
+     */
+    private final Mode mode;
+    
+    /**
+     * 平台线程池的线程数，同时也是并发加载数上限
+     */
+    private final int threads;
+    
+    /**
+     * 并发加载许可，限制同时执行的加载任务数
+     */
+    private final Semaphore permits;
+    
+    /**
+     * 各业务的加载统计，key为业务名称
+     */
+    private final Map<String, LoadStats> stats = new ConcurrentHashMap<>();
+    
+    /**
+     * 执行加载任务的线程池
+     */
+    private final ExecutorService loadingExecutor;
+    
+    /**
+     * 周期任务线程池，供定期扫描等低频任务共享
+     */
+    private final ScheduledExecutorService periodicExecutor;
+    
+    /**
+     * 等待执行的加载任务，剩余ID数量少的优先
+     */
+    private final PriorityBlockingQueue<LoadTask> pendingTasks = new PriorityBlockingQueue<>();
+    
+    /**
+     * 已排队尚未开始执行的加载任务，key为去重键
+     */
+    private final Map<Object, LoadTask> queuedTasks = new ConcurrentHashMap<>();
+    
+    /**
+     * 任务提交序号，剩余数量相同时按提交顺序执行
+     */
+    private final AtomicLong sequence = new AtomicLong();
+    
+    /**
+     * 已开始执行尚未完成的加载任务数，包括等待存储响应的异步加载
+     */
+    private final AtomicInteger inFlightLoads = new AtomicInteger();
+    
+    /**
+     * 是否已关闭，关闭后不再接受新的加载任务
+     */
+    private volatile boolean shutdown = false;
+    
+    /**
+     * 创建ID段加载调度器
+     *
+     * @param mode 执行模式
+     * @param threads 平台线程池的线程数，同时也是并发加载数上限（虚拟线程模式下同样生效）
+     */
+    public SegmentLoaderScheduler(Mode mode, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("加载线程数必须大于0");
+        }
+        this.threads = threads;
+        this.permits = new Semaphore(threads);
+        
+        ExecutorService virtualExecutor = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.mode = Mode.VIRTUAL;
+            this.loadingExecutor = virtualExecutor;
+        } else {
+            this.mode = Mode.PLATFORM;
+            this.loadingExecutor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("segment-loader-"));
+        }
+        
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new DaemonThreadFactory("segment-loader-scheduler-"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.periodicExecutor = scheduler;
+        
+        log.info("初始化ID段加载调度器：模式={}，线程数={}", this.mode, this.mode == Mode.PLATFORM ? threads : "按任务");
+    }
+    
+    /**
+     * 获取进程内共享的默认调度器
+     * 默认使用平台线程池，线程数为CPU核数（至少2个）；默认调度器已被关闭时创建新的默认调度器
+     *
+     * @return 默认调度器
+     */
+    public static SegmentLoaderScheduler getDefault() {
+        SegmentLoaderScheduler scheduler = defaultScheduler;
+        if (scheduler == null || scheduler.shutdown) {
+            synchronized (SegmentLoaderScheduler.class) {
+                scheduler = defaultScheduler;
+                if (scheduler == null || scheduler.shutdown) {
+                    scheduler = new SegmentLoaderScheduler(Mode.PLATFORM,
+                            Math.max(2, Runtime.getRuntime().availableProcessors()));
+                    defaultScheduler = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+    
+    /**
+     * 配置进程内共享的默认调度器
+     * 应在创建生成器之前调用；配置与现有默认调度器相同且未关闭时直接返回现有实例，否则替换默认调度器。
+     * 已创建的生成器持有旧调度器并继续向其提交加载任务，因此旧调度器不会被关闭，需要时由调用方自行关闭
+     *
+     * @param mode 执行模式
+     * @param threads 平台线程池的线程数
+     * @return 配置后的默认调度器
+     */
+    public static synchronized SegmentLoaderScheduler configureDefault(Mode mode, int threads) {
+        SegmentLoaderScheduler previous = defaultScheduler;
+        if (previous != null && !previous.shutdown && previous.mode == mode && previous.threads == threads) {
+            return previous;
+        }
+        
+        defaultScheduler = new SegmentLoaderScheduler(mode, threads);
+        if (previous != null && !previous.shutdown) {
+            log.warn("替换已在使用的默认ID段加载调度器，已创建的生成器仍使用旧调度器");
+        }
+        return defaultScheduler;
+    }
+    
+    /**
+     * 提交加载任务
+     * 同一去重键已有排队中的任务时不会重复提交
+     *
+     * @param key 去重键，通常为缓存器本身
+     * @param timeToExhaustionNanos 缓存器预计耗尽前的剩余时间（纳秒），越短越优先
+     * @param task 加载任务
+     * @return 是否提交成功；已有排队中的任务时返回false
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    public boolean submit(Object key, long timeToExhaustionNanos, Runnable task) {
+        return submit(key, String.valueOf(key), timeToExhaustionNanos, task);
+    }
+    
+    /**
+     * 提交加载任务
+     * 同一去重键已有排队中的任务时不会重复提交
+     *
+     * @param key 去重键，通常为缓存器本身
+     * @param tag 业务名称，用于统计
+     * @param timeToExhaustionNanos 缓存器预计耗尽前的剩余时间（纳秒），越短越优先；未知时传入Long.MAX_VALUE
+     * @param task 加载任务
+     * @return 是否提交成功；已有排队中的任务时返回false
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    public boolean submit(Object key, String tag, long timeToExhaustionNanos, Runnable task) {
+        return submitAsync(key, tag, timeToExhaustionNanos, () -> {
+            task.run();
+            return COMPLETED;
+        });
+    }
+    
+    /**
+     * 提交异步加载任务
+     * 任务发出请求后返回表示加载结果的阶段，返回后立即归还执行许可，加载完成时才记录统计；
+     * 同一去重键已有排队中的任务时不会重复提交
+     *
+     * @param key 去重键，通常为缓存器本身
+     * @param tag 业务名称，用于统计
+     * @param timeToExhaustionNanos 缓存器预计耗尽前的剩余时间（纳秒），越短越优先；未知时传入Long.MAX_VALUE
+     * @param task 发起加载的操作，返回加载结果
+     * @return 是否提交成功；已有排队中的任务时返回false
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    public boolean submitAsync(Object key, String tag, long timeToExhaustionNanos,
+                               Supplier<? extends CompletionStage<?>> task) {
+        long now = System.nanoTime();
+        return enqueue(key, now, Collections.singletonMap(tag, deadline(now, timeToExhaustionNanos)), task);
+    }
+    
+    /**
+     * 提交合并了多个业务的加载任务
+     * 任务按其中最早的预计耗尽时间排队，完成时为每个业务分别记录排队等待时间，并按各自的预计耗尽时间记录迟到；
+     * 同一去重键已有排队中的任务时不会重复提交
+     *
+     * @param key 去重键
+     * @param timeToExhaustionNanos 各业务预计耗尽前的剩余时间（纳秒），key为业务名称，不能为空
+     * @param task 加载任务
+     * @return 是否提交成功；已有排队中的任务时返回false
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    public boolean submitBatch(Object key, Map<String, Long> timeToExhaustionNanos, Runnable task) {
+        if (timeToExhaustionNanos.isEmpty()) {
+            throw new IllegalArgumentException("批量加载任务至少包含一个业务");
+        }
+        long now = System.nanoTime();
+        Map<String, Long> deadlines = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : timeToExhaustionNanos.entrySet()) {
+            deadlines.put(entry.getKey(), deadline(now, entry.getValue()));
+        }
+        return enqueue(key, now, deadlines, () -> {
+            task.run();
+            return COMPLETED;
+        });
+    }
+    
+    /**
+     * 计算预计耗尽时间
+     *
+     * @param now 当前时间（纳秒）
+     * @param timeToExhaustionNanos 预计耗尽前的剩余时间（纳秒）
+     * @return 预计耗尽时间（纳秒）
+     */
+    private static long deadline(long now, long timeToExhaustionNanos) {
+        return now + Math.min(Math.max(0, timeToExhaustionNanos), MAX_TIME_TO_EXHAUSTION_NANOS);
+    }
+    
+    /**
+     * 加载任务排队并分配执行线程
+     *
+     * @param key 去重键
+     * @param now 提交时间（纳秒）
+     * @param deadlines 各业务的预计耗尽时间（纳秒），key为业务名称
+     * @param task 加载操作
+     * @return 是否提交成功；已有排队中的任务时返回false
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    private boolean enqueue(Object key, long now, Map<String, Long> deadlines,
+                            Supplier<? extends CompletionStage<?>> task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("ID段加载调度器已关闭");
+        }
+        LoadTask loadTask = new LoadTask(key, now, deadlines, sequence.getAndIncrement(), task);
+        if (queuedTasks.putIfAbsent(key, loadTask) != null) {
+            return false;
+        }
+        
+        pendingTasks.add(loadTask);
+        try {
+            dispatch();
+        } catch (RejectedExecutionException e) {
+            pendingTasks.remove(loadTask);
+            queuedTasks.remove(key, loadTask);
+            throw e;
+        }
+        return true;
+    }
+    
+    /**
+     * 以固定间隔执行周期任务
+     *
+     * @param task 周期任务
+     * @param initialDelay 首次执行的延迟
+     * @param delay 两次执行之间的间隔
+     * @param unit 时间单位
+     * @return 周期任务的句柄，用于取消
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return periodicExecutor.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+    
+    /**
+     * 获取排队中尚未开始执行的加载任务数
+     *
+     * @return 队列深度
+     */
+    public int getQueueDepth() {
+        return pendingTasks.size();
+    }
+    
+    /**
+     * 获取正在执行的加载任务数
+     *
+     * @return 正在执行的加载任务数
+     */
+    public int getActiveLoads() {
+        return threads - permits.availablePermits();
+    }
+    
+    /**
+     * 获取已开始尚未完成的加载数，包括已归还执行许可、正在等待存储响应的异步加载
+     *
+     * @return 进行中的加载数
+     */
+    public int getInFlightLoads() {
+        return inFlightLoads.get();
+    }
+    
+    /**
+     * 获取各业务的加载统计
+     *
+     * @return 统计快照，key为业务名称
+     */
+    public Map<String, SegmentLoadMetrics> getMetrics() {
+        Map<String, SegmentLoadMetrics> metrics = new TreeMap<>();
+        for (Map.Entry<String, LoadStats> entry : stats.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return metrics;
+    }
+    
+    /**
+     * 获取执行模式
+     *
+     * @return 执行模式
+     */
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * 是否已关闭
+     *
+     * @return 调用过{@link #shutdown()}时返回true
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+    
+    /**
+     * 关闭调度器，不再接受新的加载任务，已排队的加载任务仍会执行完毕
+     */
+    public void shutdown() {
+        shutdown = true;
+        periodicExecutor.shutdown();
+        terminateIfIdle();
+    }
+    
+    /**
+     * 已关闭且没有排队和正在执行的任务时关闭加载线程池
+     */
+    private void terminateIfIdle() {
+        if (shutdown && pendingTasks.isEmpty() && permits.availablePermits() == threads) {
+            loadingExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * 在并发上限内为排队的任务分配执行线程
+     *
+     * @throws RejectedExecutionException 调度器已关闭
+     */
+    private void dispatch() {
+        while (!pendingTasks.isEmpty() && permits.tryAcquire()) {
+            try {
+                loadingExecutor.execute(this::runNext);
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * 取出预计耗尽时间最早的任务并执行，同步任务执行完毕、异步任务发出请求后释放许可并继续分配排队的任务
+     * 取出的不一定是触发本次执行的任务
+     */
+    private void runNext() {
+        try {
+            LoadTask loadTask = pendingTasks.poll();
+            if (loadTask == null) {
+                return;
+            }
+            
+            queuedTasks.remove(loadTask.key, loadTask);
+            long start = System.nanoTime();
+            inFlightLoads.incrementAndGet();
+            CompletionStage<?> result;
+            try {
+                result = loadTask.task.get();
+            } catch (Exception e) {
+                log.error("执行ID段加载任务异常", e);
+                result = COMPLETED;
+            }
+            if (result == null) {
+                result = COMPLETED;
+            }
+            result.whenComplete((value, error) -> complete(loadTask, start));
+        } finally {
+            permits.release();
+            try {
+                dispatch();
+            } catch (RejectedExecutionException e) {
+                log.debug("调度器已关闭，不再分配排队的加载任务");
+            }
+            terminateIfIdle();
+        }
+    }
+    
+    /**
+     * 加载完成时为任务中的每个业务记录排队等待与迟到统计
+     *
+     * @param loadTask 加载任务
+     * @param start 开始执行的时间（纳秒）
+     */
+    private void complete(LoadTask loadTask, long start) {
+        inFlightLoads.decrementAndGet();
+        long finish = System.nanoTime();
+        for (Map.Entry<String, Long> entry : loadTask.deadlines.entrySet()) {
+            long lateness = finish - entry.getValue();
+            stats.computeIfAbsent(entry.getKey(), tag -> new LoadStats())
+                    .record(start - loadTask.submitNanos, lateness);
+            if (lateness > 0) {
+                log.warn("ID段加载晚于预计耗尽时间：{}，迟到{}ms", entry.getKey(),
+                        TimeUnit.NANOSECONDS.toMillis(lateness));
+            }
+        }
+    }
+    
+    /**
+     * 创建每个任务一个虚拟线程的线程池
+     * 通过反射调用以兼容不支持虚拟线程的运行环境
+     *
+     * @return 线程池，不支持虚拟线程时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            log.warn("当前运行环境不支持虚拟线程，ID段加载调度器退化为平台线程池");
+            return null;
+        }
+    }
+    
+    /**
+     * 加载任务
+     */
+    private static final class LoadTask implements Comparable<LoadTask> {
+        
+        /**
+         * 去重键
+         */
+        private final Object key;
+        
+        /**
+         * 提交时间（纳秒）
+         */
+        private final long submitNanos;
+        
+        /**
+         * 各业务的预计耗尽时间（纳秒），key为业务名称
+         */
+        private final Map<String, Long> deadlines;
+        
+        /**
+         * 最早的预计耗尽时间（纳秒），决定排队顺序
+         */
+        private final long deadlineNanos;
+        
+        /**
+         * 提交序号
+         */
+        private final long sequence;
+        
+        /**
+         * 加载操作，返回加载结果
+         */
+        private final Supplier<? extends CompletionStage<?>> task;
+        
+        private LoadTask(Object key, long submitNanos, Map<String, Long> deadlines, long sequence,
+                         Supplier<? extends CompletionStage<?>> task) {
+            this.key = key;
+            this.submitNanos = submitNanos;
+            this.deadlines = deadlines;
+            Long earliest = null;
+            for (Long deadline : deadlines.values()) {
+                if (earliest == null || deadline - earliest < 0) {
+                    earliest = deadline;
+                }
+            }
+            this.deadlineNanos = earliest;
+            this.sequence = sequence;
+            this.task = task;
+        }
+        
+        @Override
+        public int compareTo(LoadTask other) {
+            int result = Long.compare(deadlineNanos - other.deadlineNanos, 0);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    /**
+     * 单个业务的加载统计
+     */
+    private static final class LoadStats {
+        
+        /**
+         * 已执行的加载次数
+         */
+        private final LongAdder loads = new LongAdder();
+        
+        /**
+         * 累计排队等待时间（纳秒）
+         */
+        private final LongAdder totalQueueWaitNanos = new LongAdder();
+        
+        /**
+         * 最长排队等待时间（纳秒）
+         */
+        private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+        
+        /**
+         * 晚于预计耗尽时间完成的加载次数
+         */
+        private final LongAdder lateLoads = new LongAdder();
+        
+        /**
+         * 最长迟到时间（纳秒）
+         */
+        private final LongAccumulator maxLatenessNanos = new LongAccumulator(Math::max, 0);
+        
+        /**
+         * 记录一次加载
+         *
+         * @param queueWaitNanos 排队等待时间（纳秒）
+         * @param latenessNanos 完成时间减去预计耗尽时间（纳秒），大于0表示迟到
+         */
+        private void record(long queueWaitNanos, long latenessNanos) {
+            loads.increment();
+            totalQueueWaitNanos.add(queueWaitNanos);
+            maxQueueWaitNanos.accumulate(queueWaitNanos);
+            if (latenessNanos > 0) {
+                lateLoads.increment();
+                maxLatenessNanos.accumulate(latenessNanos);
+            }
+        }
+        
+        /**
+         * 生成统计快照
+         *
+         * @param tag 业务名称
+         * @return 统计快照
+         */
+        private SegmentLoadMetrics snapshot(String tag) {
+            return new SegmentLoadMetrics(tag, loads.sum(), totalQueueWaitNanos.sum(), maxQueueWaitNanos.get(),
+                    lateLoads.sum(), maxLatenessNanos.get());
+        }
+    }
+    
+    /**
+     * 守护线程工厂
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        
+        /**
+         * 线程名前缀
+         */
+        private final String prefix;
+        
+        /**
+         * 已创建的线程数
+         */
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+        
+        private DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setName(prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
\ No newline at end of file
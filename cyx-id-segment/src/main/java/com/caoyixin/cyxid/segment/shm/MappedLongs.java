@@ -0,0 +1,265 @@
+package com.caoyixin.cyxid.segment.shm;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 映射内存中long值的原子访问
+ * 多个进程映射同一文件时，计数器必须直接在映射内存上做原子操作。JDK 8没有面向ByteBuffer的原子操作，
+ * 因此通过反射获取sun.misc.Unsafe并按映射内存的地址访问，方法句柄在类初始化时绑定，调用开销与直接调用相当。
+ * 文件中的long值固定为小端字节序，在大端平台上读写时翻转字节序，原子增加退化为CAS循环
+ */
+final class MappedLongs {
+    
+    /**
+     * 平台字节序是否与文件的小端字节序不同
+     */
+    private static final boolean SWAP = ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN;
+    
+    /**
+     * 读取缓冲区地址的句柄：(Buffer) -> long
+     */
+    private static final MethodHandle ADDRESS;
+    
+    /**
+     * volatile读：(long地址) -> long
+     */
+    private static final MethodHandle GET_VOLATILE;
+    
+    /**
+     * volatile写：(long地址, long值) -> void
+     */
+    private static final MethodHandle PUT_VOLATILE;
+    
+    /**
+     * 原子增加：(long地址, long增量) -> long原值
+     */
+    private static final MethodHandle GET_AND_ADD;
+    
+    /**
+     * CAS：(long地址, long期望值, long新值) -> boolean
+     */
+    private static final MethodHandle COMPARE_AND_SWAP;
+    
+    /**
+     * 初始化失败的原因，运行环境支持时为null
+     */
+    private static final Throwable UNSUPPORTED_CAUSE;
+    
+    static {
+        MethodHandle address = null;
+        MethodHandle getVolatile = null;
+        MethodHandle putVolatile = null;
+        MethodHandle getAndAdd = null;
+        MethodHandle compareAndSwap = null;
+        Throwable cause = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            
+            // 直接缓冲区的地址保存在Buffer.address中，用Unsafe按字段偏移读取，不需要打开java.nio模块
+            long addressOffset = (long) lookup.unreflect(unsafeClass.getMethod("objectFieldOffset", Field.class))
+                    .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            address = MethodHandles.insertArguments(
+                    bind(lookup, unsafeClass, unsafe, "getLong", Object.class, long.class), 1, addressOffset)
+                    .asType(MethodType.methodType(long.class, Buffer.class));
+            
+            // 按绝对地址访问时对象参数为null
+            getVolatile = MethodHandles.insertArguments(
+                    bind(lookup, unsafeClass, unsafe, "getLongVolatile", Object.class, long.class), 0, (Object) null);
+            putVolatile = MethodHandles.insertArguments(
+                    bind(lookup, unsafeClass, unsafe, "putLongVolatile", Object.class, long.class, long.class),
+                    0, (Object) null);
+            getAndAdd = MethodHandles.insertArguments(
+                    bind(lookup, unsafeClass, unsafe, "getAndAddLong", Object.class, long.class, long.class),
+                    0, (Object) null);
+            compareAndSwap = MethodHandles.insertArguments(
+                    bind(lookup, unsafeClass, unsafe, "compareAndSwapLong",
+                            Object.class, long.class, long.class, long.class), 0, (Object) null);
+        } catch (Throwable e) {
+            cause = e;
+        }
+        ADDRESS = address;
+        GET_VOLATILE = getVolatile;
+        PUT_VOLATILE = putVolatile;
+        GET_AND_ADD = getAndAdd;
+        COMPARE_AND_SWAP = compareAndSwap;
+        UNSUPPORTED_CAUSE = cause;
+    }
+    
+    /**
+     * 映射内存的起始地址
+     */
+    private final long baseAddress;
+    
+    /**
+     * 映射内存的长度
+     */
+    private final int capacity;
+    
+    /**
+     * 映射的文件内容，持有引用以保证映射在使用期间不被回收
+     */
+    private final MappedByteBuffer buffer;
+    
+    /**
+     * 创建映射内存的原子访问
+     *
+     * @param buffer 映射的文件内容
+     * @throws CyxIdException 运行环境不支持直接访问映射内存
+     */
+    MappedLongs(MappedByteBuffer buffer) {
+        if (UNSUPPORTED_CAUSE != null) {
+            throw new CyxIdException("当前运行环境不支持映射内存的原子操作", UNSUPPORTED_CAUSE);
+        }
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        try {
+            this.baseAddress = (long) ADDRESS.invokeExact((Buffer) buffer);
+        } catch (Throwable e) {
+            throw new CyxIdException("读取映射内存地址失败", e);
+        }
+    }
+    
+    /**
+     * volatile读
+     *
+     * @param offset 偏移，必须按8字节对齐
+     * @return 值
+     */
+    long getVolatile(int offset) {
+        try {
+            return fromFile((long) GET_VOLATILE.invokeExact(address(offset)));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    
+    /**
+     * volatile写
+     *
+     * @param offset 偏移，必须按8字节对齐
+     * @param value 值
+     */
+    void setVolatile(int offset, long value) {
+        try {
+            PUT_VOLATILE.invokeExact(address(offset), toFile(value));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    
+    /**
+     * 原子增加并返回原值
+     *
+     * @param offset 偏移，必须按8字节对齐
+     * @param delta 增量
+     * @return 增加前的值
+     */
+    long getAndAdd(int offset, long delta) {
+        if (SWAP) {
+            while (true) {
+                long current = getVolatile(offset);
+                if (compareAndSet(offset, current, current + delta)) {
+                    return current;
+                }
+            }
+        }
+        try {
+            return (long) GET_AND_ADD.invokeExact(address(offset), delta);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    
+    /**
+     * 当前值等于期望值时原子设置为新值
+     *
+     * @param offset 偏移，必须按8字节对齐
+     * @param expected 期望值
+     * @param newValue 新值
+     * @return 是否设置成功
+     */
+    boolean compareAndSet(int offset, long expected, long newValue) {
+        try {
+            return (boolean) COMPARE_AND_SWAP.invokeExact(address(offset), toFile(expected), toFile(newValue));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    
+    /**
+     * 计算偏移处的绝对地址，越界或未对齐时拒绝访问，避免破坏进程内存
+     *
+     * @param offset 偏移
+     * @return 绝对地址
+     */
+    private long address(int offset) {
+        if (offset < 0 || offset > capacity - Long.BYTES || (offset & (Long.BYTES - 1)) != 0) {
+            throw new IndexOutOfBoundsException("映射内存偏移无效：" + offset);
+        }
+        return baseAddress + offset;
+    }
+    
+    /**
+     * 把平台字节序的值转换为文件的小端字节序
+     *
+     * @param value 平台字节序的值
+     * @return 小端字节序的值
+     */
+    private static long toFile(long value) {
+        return SWAP ? Long.reverseBytes(value) : value;
+    }
+    
+    /**
+     * 把文件的小端字节序的值转换为平台字节序
+     *
+     * @param value 小端字节序的值
+     * @return 平台字节序的值
+     */
+    private static long fromFile(long value) {
+        return SWAP ? Long.reverseBytes(value) : value;
+    }
+    
+    /**
+     * 获取Unsafe的方法并绑定到实例
+     *
+     * @param lookup 查找上下文
+     * @param unsafeClass Unsafe类
+     * @param unsafe Unsafe实例
+     * @param name 方法名
+     * @param parameterTypes 参数类型
+     * @return 绑定实例后的方法句柄
+     * @throws ReflectiveOperationException 方法不存在或无法访问
+     */
+    private static MethodHandle bind(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe,
+                                     String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return lookup.unreflect(unsafeClass.getMethod(name, parameterTypes)).bindTo(unsafe);
+    }
+    
+    /**
+     * 方法句柄调用的异常原样抛出运行时异常，受检异常包装为CyxIdException
+     *
+     * @param e 调用异常
+     * @return 不会返回，仅用于调用方的throw语句
+     */
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new CyxIdException("访问映射内存失败", e);
+    }
+}
\ No newline at end of file
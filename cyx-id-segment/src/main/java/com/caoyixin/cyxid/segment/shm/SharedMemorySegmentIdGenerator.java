@@ -0,0 +1,475 @@
+package com.caoyixin.cyxid.segment.shm;
+
+import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 跨进程共享内存分段ID生成器
+ * 同一主机上的多个JVM映射同一个文件，共用文件中的一组双缓冲ID段：
+ * 发放ID时直接对映射内存中的游标做原子getAndAdd，所有进程共享一个缓冲区；
+ * 通过文件锁选出一个进程负责在非活跃槽位耗尽后从分配器补充ID段，主机上只有一个分配器客户端访问存储。
+ * 持有文件锁的进程退出时操作系统自动释放锁，其他进程在下一次轮询时接替。
+ * 每个槽位用序号锁（奇数表示正在写入）保护，读取前后序号不变才认为取到的ID属于当前ID段。
+ * 槽位记录ID段的间隔，游标每次前进一个间隔；共用同一文件的进程必须使用相同区域配置的分配器。
+ * 游标不刷盘，主机崩溃或断电后磁盘上的游标可能落后于已发放的ID，再次启动时会重复发放，
+ * 因此共享文件必须放在内存文件系统（例如Linux的/dev/shm）上，主机重启后文件消失，重新从分配器获取ID段
+ */
+@Slf4j
+public class SharedMemorySegmentIdGenerator implements IdGenerator {
+    
+    /**
+     * 文件魔数
+     */
+    private static final int MAGIC = 0x43595348;
+    
+    /**
+     * 文件格式版本
+     */
+    private static final int VERSION = 2;
+    
+    /**
+     * 文件头中生成器名称长度的偏移
+     */
+    private static final int NAME_LENGTH_OFFSET = 8;
+    
+    /**
+     * 文件头中生成器名称的偏移
+     */
+    private static final int NAME_OFFSET = 10;
+    
+    /**
+     * 生成器名称的最大字节数（UTF-8）
+     */
+    private static final int MAX_NAME_BYTES = 110;
+    
+    /**
+     * 活跃槽位计数的偏移，独占一个缓存行，值的最低位为活跃槽位下标
+     */
+    private static final int ACTIVE_OFFSET = 128;
+    
+    /**
+     * 第一个槽位的偏移
+     */
+    private static final int SLOTS_OFFSET = 256;
+    
+    /**
+     * 槽位长度
+     */
+    private static final int SLOT_SIZE = 256;
+    
+    /**
+     * 槽位内序号的偏移
+     */
+    private static final int EPOCH_OFFSET = 0;
+    
+    /**
+     * 槽位内ID段最大ID的偏移
+     */
+    private static final int MAX_ID_OFFSET = 8;
+    
+    /**
+     * 槽位内ID间隔的偏移
+     */
+    private static final int STRIDE_OFFSET = 16;
+    
+    /**
+     * 槽位内游标的偏移，与序号和最大ID不在同一缓存行
+     */
+    private static final int CURSOR_OFFSET = 128;
+    
+    /**
+     * 文件长度
+     */
+    private static final int FILE_SIZE = SLOTS_OFFSET + 2 * SLOT_SIZE;
+    
+    /**
+     * 用于选举补充进程的文件锁区域偏移，位于映射区域之外
+     */
+    private static final long LEADER_LOCK_OFFSET = FILE_SIZE;
+    
+    /**
+     * 等待ID段补充的最长时间（纳秒）
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    
+    /**
+     * 进程内初始化文件的互斥锁，文件锁不能在同一进程内互斥
+     */
+    private static final Object INIT_LOCK = new Object();
+    
+    /**
+     * 生成器名称
+     */
+    private final String name;
+    
+    /**
+     * ID段分配器
+     */
+    private final SegmentAllocator segmentAllocator;
+    
+    /**
+     * 共享文件路径
+     */
+    private final Path file;
+    
+    /**
+     * 补充线程的轮询间隔（纳秒）
+     */
+    private final long pollNanos;
+    
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+    
+    /**
+     * 映射的共享内存
+     */
+    private final MappedByteBuffer buffer;
+    
+    /**
+     * 映射内存中long值的原子访问，固定为小端字节序
+     */
+    private final MappedLongs longs;
+    
+    /**
+     * 补充线程，负责竞选和补充ID段
+     */
+    private final Thread refillThread;
+    
+    /**
+     * 补充进程的文件锁，当前进程不是补充进程时为null
+     */
+    private volatile FileLock leaderLock;
+    
+    /**
+     * 是否正在运行
+     */
+    private volatile boolean running = true;
+    
+    /**
+     * 创建跨进程共享内存分段ID生成器，补充线程每5毫秒轮询一次
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param file 共享文件路径，同一主机上使用同一序列的进程必须指定同一个文件
+     */
+    public SharedMemorySegmentIdGenerator(String name, SegmentAllocator segmentAllocator, Path file) {
+        this(name, segmentAllocator, file, 5);
+    }
+    
+    /**
+     * 创建跨进程共享内存分段ID生成器
+     *
+     * @param name 生成器名称
+     * @param segmentAllocator ID段分配器
+     * @param file 共享文件路径，同一主机上使用同一序列的进程必须指定同一个文件
+     * @param pollMillis 补充线程的轮询间隔（毫秒），ID段的消耗时长应远大于此值
+     */
+    public SharedMemorySegmentIdGenerator(String name, SegmentAllocator segmentAllocator, Path file, long pollMillis) {
+        if (pollMillis <= 0) {
+            throw new IllegalArgumentException("轮询间隔必须大于0");
+        }
+        this.name = name;
+        this.segmentAllocator = segmentAllocator;
+        this.file = file;
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(pollMillis);
+        
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            longs = new MappedLongs(buffer);
+            warnIfNotInMemory();
+            initialize();
+        } catch (IOException e) {
+            throw new CyxIdException("打开共享内存文件失败：" + file, e);
+        }
+        
+        refillThread = new Thread(this::refillLoop, "cyx-id-shm-" + name);
+        refillThread.setDaemon(true);
+        refillThread.start();
+        
+        log.info("初始化跨进程共享内存分段ID生成器：{}，文件={}", name, file);
+    }
+    
+    @Override
+    public long generate() {
+        long deadline = 0;
+        
+        while (true) {
+            long active = longs.getVolatile(ACTIVE_OFFSET);
+            int slot = slotOffset(active);
+            
+            long epoch = longs.getVolatile(slot + EPOCH_OFFSET);
+            if ((epoch & 1) == 0) {
+                long stride = longs.getVolatile(slot + STRIDE_OFFSET);
+                long id = longs.getAndAdd(slot + CURSOR_OFFSET, stride);
+                long maxId = longs.getVolatile(slot + MAX_ID_OFFSET);
+                
+                // 取号期间序号不变，说明游标属于当前ID段
+                if (id <= maxId && longs.getVolatile(slot + EPOCH_OFFSET) == epoch) {
+                    return id;
+                }
+            }
+            
+            // 当前槽位已耗尽，切换到已补充好的另一个槽位
+            if (isReady(slotOffset(active + 1))
+                    && longs.compareAndSet(ACTIVE_OFFSET, active, active + 1)) {
+                wakeRefiller();
+                continue;
+            }
+            
+            // 两个槽位都已耗尽，等待补充
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + MAX_WAIT_NANOS;
+            } else if (now - deadline > 0) {
+                throw new CyxIdException("等待共享ID段补充超时，生成器：" + name);
+            }
+            wakeRefiller();
+            LockSupport.parkNanos(50_000);
+        }
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 获取ID生成器类型
+     *
+     * @return ID生成器类型
+     */
+    @Override
+    public String getType() {
+        return "segment-shm";
+    }
+    
+    /**
+     * 当前进程是否为补充进程
+     *
+     * @return 持有补充进程的文件锁时返回true
+     */
+    public boolean isLeader() {
+        return leaderLock != null;
+    }
+    
+    /**
+     * 关闭生成器
+     * 停止补充线程并释放补充进程的文件锁，其他进程在下一次轮询时接替
+     */
+    public void shutdown() {
+        running = false;
+        refillThread.interrupt();
+        try {
+            refillThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭共享内存文件失败：{}", file, e);
+        }
+        log.info("关闭跨进程共享内存分段ID生成器：{}", name);
+    }
+    
+    /**
+     * 共享文件不在内存文件系统上时输出警告
+     * 游标不刷盘，文件在主机重启后仍然存在时可能重复发放崩溃前已发放的ID
+     */
+    private void warnIfNotInMemory() {
+        try {
+            String type = Files.getFileStore(file).type();
+            if (!"tmpfs".equals(type) && !"ramfs".equals(type)) {
+                log.warn("共享内存文件不在内存文件系统上（{}），主机崩溃或断电后可能重复发放ID，建议放在/dev/shm下：{}",
+                        type, file);
+            }
+        } catch (IOException e) {
+            log.debug("无法识别共享内存文件所在的文件系统：{}", file, e);
+        }
+    }
+    
+    /**
+     * 初始化或校验共享文件
+     * 进程内用静态锁互斥，进程间用文件头区域的文件锁互斥
+     *
+     * @throws IOException 加锁失败
+     */
+    private void initialize() throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length == 0 || nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("生成器名称长度必须在1到" + MAX_NAME_BYTES + "字节之间：" + name);
+        }
+        
+        synchronized (INIT_LOCK) {
+            FileLock lock = channel.lock(0, ACTIVE_OFFSET, false);
+            try {
+                if (buffer.getInt(0) == 0) {
+                    // 两个槽位初始都为空（游标大于最大ID），由补充进程先填充非活跃槽位
+                    for (int i = 0; i < 2; i++) {
+                        int slot = SLOTS_OFFSET + i * SLOT_SIZE;
+                        longs.setVolatile(slot + EPOCH_OFFSET, 0L);
+                        longs.setVolatile(slot + MAX_ID_OFFSET, 0L);
+                        longs.setVolatile(slot + STRIDE_OFFSET, 1L);
+                        longs.setVolatile(slot + CURSOR_OFFSET, 1L);
+                    }
+                    longs.setVolatile(ACTIVE_OFFSET, 0L);
+                    for (int i = 0; i < nameBytes.length; i++) {
+                        buffer.put(NAME_OFFSET + i, nameBytes[i]);
+                    }
+                    buffer.putShort(NAME_LENGTH_OFFSET, (short) nameBytes.length);
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(0, MAGIC);
+                    return;
+                }
+                
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new CyxIdException("共享内存文件格式不支持：" + file);
+                }
+                byte[] existing = new byte[buffer.getShort(NAME_LENGTH_OFFSET)];
+                for (int i = 0; i < existing.length; i++) {
+                    existing[i] = buffer.get(NAME_OFFSET + i);
+                }
+                String existingName = new String(existing, StandardCharsets.UTF_8);
+                if (!existingName.equals(name)) {
+                    throw new CyxIdException("共享内存文件属于其他生成器：" + existingName + "，当前生成器：" + name);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+    
+    /**
+     * 补充线程主循环
+     * 未持有文件锁时尝试竞选，持有时补充已耗尽的非活跃槽位
+     */
+    private void refillLoop() {
+        while (running) {
+            try {
+                if (leaderLock == null) {
+                    tryBecomeLeader();
+                }
+                if (leaderLock != null) {
+                    while (running && refillIfNeeded()) {
+                        // 两个槽位都耗尽时连续补充
+                    }
+                }
+            } catch (Exception e) {
+                log.error("补充共享ID段失败，生成器：{}", name, e);
+            }
+            LockSupport.parkNanos(pollNanos);
+        }
+        
+        FileLock lock = leaderLock;
+        leaderLock = null;
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                log.debug("释放补充进程文件锁失败：{}", file, e);
+            }
+        }
+    }
+    
+    /**
+     * 尝试成为补充进程
+     *
+     * @throws IOException 加锁失败
+     */
+    private void tryBecomeLeader() throws IOException {
+        try {
+            FileLock lock = channel.tryLock(LEADER_LOCK_OFFSET, 1, false);
+            if (lock != null) {
+                leaderLock = lock;
+                log.info("成为共享ID段补充进程，生成器：{}", name);
+            }
+        } catch (OverlappingFileLockException e) {
+            // 同一进程内的其他生成器实例已是补充进程
+        }
+    }
+    
+    /**
+     * 非活跃槽位已耗尽时从分配器获取ID段填充
+     *
+     * @return 是否填充了槽位
+     */
+    private boolean refillIfNeeded() {
+        long active = longs.getVolatile(ACTIVE_OFFSET);
+        int slot = slotOffset(active + 1);
+        if (isReady(slot)) {
+            return false;
+        }
+        
+        IdSegment segment = segmentAllocator.nextSegment(name);
+        // 上一个补充进程在写入中途退出时序号停留在奇数，从奇数开始标记写入，结束时总是落在偶数上
+        long writing = longs.getVolatile(slot + EPOCH_OFFSET) | 1;
+        longs.setVolatile(slot + EPOCH_OFFSET, writing);
+        longs.setVolatile(slot + STRIDE_OFFSET, segment.getStride());
+        longs.setVolatile(slot + CURSOR_OFFSET, segment.getMinId());
+        longs.setVolatile(slot + MAX_ID_OFFSET, segment.getMaxId());
+        longs.setVolatile(slot + EPOCH_OFFSET, writing + 1);
+        
+        log.debug("补充共享ID段，生成器：{}，槽位：{}，ID段：{}", name, (active + 1) & 1, segment);
+        return true;
+    }
+    
+    /**
+     * 槽位是否已填充且尚未耗尽
+     *
+     * @param slot 槽位偏移
+     * @return 是否可用
+     */
+    private boolean isReady(int slot) {
+        long epoch = longs.getVolatile(slot + EPOCH_OFFSET);
+        if ((epoch & 1) != 0) {
+            return false;
+        }
+        boolean ready = longs.getVolatile(slot + CURSOR_OFFSET)
+                <= longs.getVolatile(slot + MAX_ID_OFFSET);
+        return ready && longs.getVolatile(slot + EPOCH_OFFSET) == epoch;
+    }
+    
+    /**
+     * 当前进程是补充进程时立即唤醒补充线程
+     */
+    private void wakeRefiller() {
+        if (leaderLock != null) {
+            LockSupport.unpark(refillThread);
+        }
+    }
+    
+    /**
+     * 根据活跃槽位计数计算槽位偏移
+     *
+     * @param active 活跃槽位计数
+     * @return 槽位偏移
+     */
+    private static int slotOffset(long active) {
+        return SLOTS_OFFSET + (int) (active & 1) * SLOT_SIZE;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.caoyixin.cyxid.segment.snapshot;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ID段快照
+ * 记录一个生成器关闭时尚未使用的ID范围，重启后优先使用这些范围再请求分配器
+ */
+@Getter
+public class SegmentSnapshot {
+    
+    /**
+     * 生成器名称
+     */
+    private final String name;
+    
+    /**
+     * 关闭时的请求步长，重启后作为动态步长的起点
+     */
+    private final int step;
+    
+    /**
+     * 尚未使用的ID范围，按使用顺序排列
+     */
+    private final List<IdSegment> segments;
+    
+    /**
+     * 创建ID段快照
+     *
+     * @param name 生成器名称
+     * @param step 关闭时的请求步长
+     * @param segments 尚未使用的ID范围
+     */
+    public SegmentSnapshot(String name, int step, List<IdSegment> segments) {
+        this.name = name;
+        this.step = step;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+    
+    /**
+     * 是否没有剩余的ID范围
+     *
+     * @return 没有剩余时返回true
+     */
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+    
+    @Override
+    public String toString() {
+        return "SegmentSnapshot{" +
+                "name='" + name + '\'' +
+                ", step=" + step +
+                ", segments=" + segments +
+                '}';
+    }
+}
\ No newline at end of file
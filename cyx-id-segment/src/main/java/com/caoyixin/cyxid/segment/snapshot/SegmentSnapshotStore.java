@@ -0,0 +1,331 @@
+package com.caoyixin.cyxid.segment.snapshot;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * ID段快照存储
+ * 关闭时将各生成器尚未使用的ID范围写入本地文件，重启后读取并优先使用。
+ * 文件先写入临时文件并强制刷盘，再原子替换正式文件，末尾带CRC32校验和；
+ * 文件中记录写入节点的标识，其他节点读取时拒绝使用，防止文件被复制后重复发放ID；
+ * 读取成功后立即删除文件，保证同一份快照只会被使用一次。
+ * <p>
+ * 节点标识相同的克隆节点（例如从同一镜像启动、主机名相同）会拿到同一份文件，仅靠节点标识无法区分。
+ * 指定纪元分配器后，保存时从共享存储取得一个纪元写入文件，读取时再取一个，
+ * 只有紧随保存纪元的下一个值才能使用快照；共享存储对同一个值只发放一次，复制出的多份文件最多只有一份被使用
+ */
+@Slf4j
+public class SegmentSnapshotStore {
+    
+    /**
+     * 文件魔数
+     */
+    private static final int MAGIC = 0x43594953;
+    
+    /**
+     * 文件格式版本，版本2起每个ID段记录间隔，版本3起记录纪元
+     */
+    private static final int VERSION = 3;
+    
+    /**
+     * 记录间隔但不记录纪元的旧版本
+     */
+    private static final int VERSION_STRIDED = 2;
+    
+    /**
+     * 不记录ID段间隔的旧版本，读取时按连续ID段处理
+     */
+    private static final int VERSION_CONTIGUOUS = 1;
+    
+    /**
+     * 纪元在共享存储中的业务名称前缀
+     */
+    private static final String EPOCH_TAG_PREFIX = "cyx-id-snapshot-epoch:";
+    
+    /**
+     * 快照文件路径
+     */
+    private final Path file;
+    
+    /**
+     * 当前节点标识
+     */
+    private final String nodeId;
+    
+    /**
+     * 签发纪元的分配器，为null时只校验节点标识
+     */
+    private final SegmentAllocator epochAllocator;
+    
+    /**
+     * 纪元在共享存储中的业务名称
+     */
+    private final String epochTag;
+    
+    /**
+     * 创建ID段快照存储
+     *
+     * @param file 快照文件路径
+     * @param nodeId 当前节点标识，必须在集群内唯一且在重启后保持不变
+     */
+    public SegmentSnapshotStore(Path file, String nodeId) {
+        this(file, nodeId, null);
+    }
+    
+    /**
+     * 创建校验纪元的ID段快照存储
+     * 纪元分配器应直接访问所有节点共享的存储（如Redis或数据库分配器），不能是进程内的应急来源
+     *
+     * @param file 快照文件路径
+     * @param nodeId 当前节点标识，必须在集群内唯一且在重启后保持不变
+     * @param epochAllocator 签发纪元的分配器，为null时只校验节点标识
+     */
+    public SegmentSnapshotStore(Path file, String nodeId, SegmentAllocator epochAllocator) {
+        if (nodeId == null || nodeId.isEmpty()) {
+            throw new IllegalArgumentException("节点标识不能为空");
+        }
+        this.file = file;
+        this.nodeId = nodeId;
+        this.epochAllocator = epochAllocator;
+        this.epochTag = EPOCH_TAG_PREFIX + nodeId + ":" + file.getFileName();
+    }
+    
+    /**
+     * 保存快照
+     * 没有剩余ID范围的快照会被忽略
+     *
+     * @param snapshots 各生成器的快照
+     */
+    public void save(Collection<SegmentSnapshot> snapshots) {
+        long epoch = 0;
+        if (epochAllocator != null) {
+            try {
+                epoch = epochAllocator.nextSegment(epochTag, 1).getMaxId();
+            } catch (RuntimeException e) {
+                log.error("获取快照纪元失败，不保存快照：{}", file, e);
+                throw new CyxIdException("获取快照纪元失败：" + file, e);
+            }
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(nodeId);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(epoch);
+            
+            List<SegmentSnapshot> nonEmpty = new ArrayList<>();
+            for (SegmentSnapshot snapshot : snapshots) {
+                if (!snapshot.isEmpty()) {
+                    nonEmpty.add(snapshot);
+                }
+            }
+            out.writeInt(nonEmpty.size());
+            for (SegmentSnapshot snapshot : nonEmpty) {
+                out.writeUTF(snapshot.getName());
+                out.writeInt(snapshot.getStep());
+                out.writeInt(snapshot.getSegments().size());
+                for (IdSegment segment : snapshot.getSegments()) {
+                    out.writeLong(segment.getMinId());
+                    out.writeLong(segment.getMaxId());
+                    out.writeLong(segment.getStride());
+                }
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+            
+            writeDurably(bytes.toByteArray());
+            log.info("保存ID段快照完成：{}，共{}个生成器", file, nonEmpty.size());
+        
+        } catch (IOException e) {
+            log.error("保存ID段快照失败：{}", file, e);
+            throw new CyxIdException("保存ID段快照失败：" + file, e);
+        }
+    }
+    
+    /**
+     * 读取并消费快照
+     * 校验失败、节点不匹配、纪元不连续或文件不存在时返回空结果；读取成功后先删除文件再返回，
+     * 删除失败时不返回任何快照，宁可浪费也不重复发放
+     *
+     * @return 各生成器的快照，key为生成器名称
+     */
+    public Map<String, SegmentSnapshot> consume() {
+        if (!Files.exists(file)) {
+            return Collections.emptyMap();
+        }
+        
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Map<String, SegmentSnapshot> snapshots = parse(data);
+            if (snapshots == null) {
+                return Collections.emptyMap();
+            }
+            
+            Files.delete(file);
+            syncDirectory();
+            log.info("读取ID段快照完成：{}，共{}个生成器", file, snapshots.size());
+            return snapshots;
+        
+        } catch (IOException e) {
+            log.error("读取ID段快照失败，放弃使用快照：{}", file, e);
+            return Collections.emptyMap();
+        }
+    }
+    
+    /**
+     * 解析快照文件
+     *
+     * @param data 文件内容
+     * @return 各生成器的快照，校验失败、节点不匹配或纪元不连续时返回null
+     * @throws IOException 文件内容不完整
+     */
+    private Map<String, SegmentSnapshot> parse(byte[] data) throws IOException {
+        if (data.length < Long.BYTES) {
+            log.warn("ID段快照文件不完整，忽略：{}", file);
+            return null;
+        }
+        
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Long.BYTES);
+        long expected = ByteBuffer.wrap(data, data.length - Long.BYTES, Long.BYTES).getLong();
+        if (crc.getValue() != expected) {
+            log.warn("ID段快照文件校验和不匹配，忽略：{}", file);
+            return null;
+        }
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - Long.BYTES));
+        int version = in.readInt() == MAGIC ? in.readInt() : -1;
+        if (version != VERSION && version != VERSION_STRIDED && version != VERSION_CONTIGUOUS) {
+            log.warn("ID段快照文件格式不支持，忽略：{}", file);
+            return null;
+        }
+        
+        String writerNodeId = in.readUTF();
+        long savedAt = in.readLong();
+        if (!nodeId.equals(writerNodeId)) {
+            log.warn("ID段快照文件由其他节点写入，拒绝使用：{}，写入节点：{}，当前节点：{}", file, writerNodeId, nodeId);
+            return null;
+        }
+        long epoch = version == VERSION ? in.readLong() : 0;
+        if (epochAllocator != null && !followsEpoch(epoch)) {
+            return null;
+        }
+        
+        Map<String, SegmentSnapshot> snapshots = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int step = in.readInt();
+            int segmentCount = in.readInt();
+            List<IdSegment> segments = new ArrayList<>(segmentCount);
+            for (int j = 0; j < segmentCount; j++) {
+                long minId = in.readLong();
+                long maxId = in.readLong();
+                long stride = version == VERSION_CONTIGUOUS ? 1 : in.readLong();
+                segments.add(new IdSegment(minId, maxId, stride));
+            }
+            snapshots.put(name, new SegmentSnapshot(name, step, segments));
+        }
+        
+        log.debug("解析ID段快照：写入时间={}，快照={}", savedAt, snapshots.values());
+        return snapshots;
+    }
+    
+    /**
+     * 从共享存储取得下一个纪元，判断其是否紧随快照保存时的纪元
+     * 其间有相同节点标识的其他节点读取或保存过快照时不再连续
+     *
+     * @param savedEpoch 快照保存时的纪元，为0表示快照没有记录纪元
+     * @return 是否可以使用快照
+     */
+    private boolean followsEpoch(long savedEpoch) {
+        if (savedEpoch == 0) {
+            log.warn("ID段快照文件没有记录纪元，拒绝使用：{}", file);
+            return false;
+        }
+        
+        IdSegment next;
+        try {
+            next = epochAllocator.nextSegment(epochTag, 1);
+        } catch (RuntimeException e) {
+            log.warn("获取快照纪元失败，放弃使用快照：{}", file, e);
+            return false;
+        }
+        if (next.getMinId() != savedEpoch + next.getStride()) {
+            log.warn("ID段快照的纪元已失效，可能已被相同节点标识的其他节点使用，拒绝使用：{}，保存纪元：{}，当前纪元：{}",
+                    file, savedEpoch, next.getMinId());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 写入临时文件并刷盘后原子替换正式文件
+     *
+     * @param data 文件内容
+     * @throws IOException 写入失败
+     */
+    private void writeDurably(byte[] data) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+    
+    /**
+     * 刷新所在目录，使文件的创建、替换和删除持久化
+     * 部分平台不支持打开目录，此时忽略
+     */
+    private void syncDirectory() {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent == null) {
+            return;
+        }
+        
+        try (FileChannel channel = FileChannel.open(parent, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("刷新目录失败，忽略：{}", parent, e);
+        }
+    }
+}
\ No newline at end of file
@@ -1,12 +1,20 @@
 package com.caoyixin.cyxid.spring.boot.config;
 
 import com.caoyixin.cyxid.core.IdGenerator;
+import com.caoyixin.cyxid.core.exception.CyxIdException;
 import com.caoyixin.cyxid.core.provider.DefaultIdGeneratorProvider;
 import com.caoyixin.cyxid.core.provider.IdGeneratorProvider;
 import com.caoyixin.cyxid.segment.SegmentIdGenerator;
 import com.caoyixin.cyxid.segment.SegmentIdGeneratorFactory;
 import com.caoyixin.cyxid.segment.chain.SegmentChainIdGenerator;
 import com.caoyixin.cyxid.segment.chain.SegmentChainIdGeneratorFactory;
+import com.caoyixin.cyxid.segment.coalesce.CoalescingSegmentAllocator;
+import com.caoyixin.cyxid.segment.fallback.DegradableSegmentAllocator;
+import com.caoyixin.cyxid.segment.fallback.EmergencySegmentSource;
+import com.caoyixin.cyxid.segment.fallback.ReservedRangeEmergencySource;
+import com.caoyixin.cyxid.segment.fallback.TimestampEmergencySource;
+import com.caoyixin.cyxid.segment.loader.SegmentLoaderScheduler;
+import com.caoyixin.cyxid.segment.snapshot.SegmentSnapshotStore;
 import com.caoyixin.cyxid.snowflake.ClockBackwardsHandler;
 import com.caoyixin.cyxid.snowflake.DefaultClockBackwardsHandler;
 import com.caoyixin.cyxid.snowflake.SnowflakeIdGenerator;
@@ -23,7 +31,13 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ID生成器自动配置类
@@ -35,6 +49,11 @@ import java.util.List;
 @ConditionalOnProperty(prefix = "cyx-id", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class CyxIdGeneratorAutoConfiguration {
     
+    /**
+     * 合并并发请求的分配器，key为实际的分配器，分段与链式分段生成器共用同一个实例
+     */
+    private final Map<SegmentAllocator, CoalescingSegmentAllocator> coalescingAllocators = new ConcurrentHashMap<>();
+    
     /**
      * 创建ID生成器提供者
      */
@@ -111,18 +130,78 @@ public class CyxIdGeneratorAutoConfiguration {
         return generator;
     }
     
+    /**
+     * 配置进程内共享的ID段加载调度器
+     * 调度器为进程内共享的默认实例，不随容器关闭，同一JVM中的其他容器（测试、热重启）继续使用
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean
+    public SegmentLoaderScheduler segmentLoaderScheduler(CyxIdProperties properties) {
+        CyxIdProperties.LoaderProperties loader = properties.getLoader();
+        SegmentLoaderScheduler.Mode mode = SegmentLoaderScheduler.Mode.valueOf(loader.getMode().toUpperCase(Locale.ROOT));
+        
+        log.info("配置ID段加载调度器：模式={}, 线程数={}", mode, loader.getThreads());
+        
+        return SegmentLoaderScheduler.configureDefault(mode, loader.getThreads());
+    }
+    
+    /**
+     * 创建分段ID生成器工厂
+     * 容器关闭时调用shutdown，启用快照时保存尚未使用的ID范围
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "cyx-id", name = {"type", "segment.enabled"}, havingValue = "segment, true")
+    public SegmentIdGeneratorFactory segmentIdGeneratorFactory(SegmentAllocator segmentAllocator,
+                                                               SegmentLoaderScheduler loaderScheduler,
+                                                               CyxIdProperties properties) {
+        CyxIdProperties.SegmentProperties segment = properties.getSegment();
+        
+        log.info("创建分段ID生成器工厂：步长={}, 安全距离={}%, 步长范围=[{}, {}], 期望段时长={}ms", 
+                segment.getStep(), segment.getSafeDistancePercent(), 
+                segment.getMinStep(), segment.getMaxStep(), segment.getTargetSegmentDuration());
+        
+        // 快照纪元直接从共享存储获取，不经过合并和降级
+        SegmentAllocator storageAllocator = segmentAllocator;
+        segmentAllocator = coalescing(segmentAllocator, properties);
+        
+        // 启用降级时包装分配器
+        if (segment.getFallback().isEnabled()) {
+            segmentAllocator = degradable(segmentAllocator, segment);
+        }
+        
+        // 启用快照时创建快照存储
+        SegmentSnapshotStore snapshotStore = null;
+        CyxIdProperties.SnapshotProperties snapshot = segment.getSnapshot();
+        if (snapshot.isEnabled()) {
+            String nodeId = snapshot.getNodeId() != null ? snapshot.getNodeId() : localHostName();
+            log.info("启用分段ID快照：文件={}, 节点标识={}", snapshot.getPath(), nodeId);
+            snapshotStore = new SegmentSnapshotStore(Paths.get(snapshot.getPath()), nodeId, storageAllocator);
+        }
+        
+        return new SegmentIdGeneratorFactory(
+                segmentAllocator,
+                segment.getMinStep(),
+                segment.getMaxStep(),
+                segment.getTargetSegmentDuration(),
+                snapshotStore,
+                loaderScheduler
+        );
+    }
+    
     /**
      * 创建分段ID生成器
      */
     @Bean
     @ConditionalOnMissingBean(name = "segmentIdGenerator")
     @ConditionalOnProperty(prefix = "cyx-id", name = {"type", "segment.enabled"}, havingValue = "segment, true")
-    public IdGenerator segmentIdGenerator(SegmentAllocator segmentAllocator, CyxIdProperties properties) {
-        log.info("创建分段ID生成器：步长={}, 安全距离={}%", 
-                properties.getSegment().getStep(), properties.getSegment().getSafeDistancePercent());
+    public IdGenerator segmentIdGenerator(SegmentIdGeneratorFactory factory, CyxIdProperties properties) {
+        CyxIdProperties.SegmentProperties segment = properties.getSegment();
         
-        // 创建分段ID生成器工厂
-        SegmentIdGeneratorFactory factory = new SegmentIdGeneratorFactory(segmentAllocator);
+        // 预热配置的业务，预热完成后才继续启动
+        if (!segment.getWarmUpTags().isEmpty()) {
+            factory.warmUp(segment.getWarmUpTags()).join();
+        }
         
         // 创建默认生成器
         SegmentIdGenerator generator = (SegmentIdGenerator) factory.getGenerator("default");
@@ -136,19 +215,24 @@ public class CyxIdGeneratorAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean(name = "segmentChainIdGenerator")
     @ConditionalOnProperty(prefix = "cyx-id", name = {"type", "segmentChain.enabled"}, havingValue = "segment-chain, true")
-    public IdGenerator segmentChainIdGenerator(SegmentAllocator segmentAllocator, CyxIdProperties properties) {
+    public IdGenerator segmentChainIdGenerator(SegmentAllocator segmentAllocator, SegmentLoaderScheduler loaderScheduler,
+                                               CyxIdProperties properties) {
         CyxIdProperties.SegmentChainProperties segmentChain = properties.getSegmentChain();
         
-        log.info("创建链式分段ID生成器：步长={}, 安全距离={}%, 最大链长={}, 预取周期={}ms", 
+        log.info("创建链式分段ID生成器：步长={}, 安全距离={}%, 链深度=[{}, {}], 预取周期={}ms, 按需加载超时={}ms", 
                 segmentChain.getStep(), segmentChain.getSafeDistancePercent(), 
-                segmentChain.getMaxChainLength(), segmentChain.getPrefetchPeriod());
+                segmentChain.getMinChainLength(), segmentChain.getMaxChainLength(), segmentChain.getPrefetchPeriod(),
+                segmentChain.getDemandFetchTimeout());
         
         // 创建链式分段ID生成器工厂
         SegmentChainIdGeneratorFactory factory = new SegmentChainIdGeneratorFactory(
-                segmentAllocator,
+                coalescing(segmentAllocator, properties),
                 segmentChain.getPrefetchPeriod(),
                 segmentChain.getSafeDistancePercent(),
-                segmentChain.getMaxChainLength()
+                segmentChain.getMinChainLength(),
+                segmentChain.getMaxChainLength(),
+                segmentChain.getDemandFetchTimeout(),
+                loaderScheduler
         );
         
         // 创建默认生成器
@@ -156,4 +240,67 @@ public class CyxIdGeneratorAutoConfiguration {
         
         return generator;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 获取本机主机名，作为快照的默认节点标识
+     *
+     * @return 主机名
+     */
+    private String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new CyxIdException("无法获取本机主机名，请配置cyx-id.segment.snapshot.node-id", e);
+        }
+    }
+    
+    /**
+     * 启用请求合并时，使用合并并发请求的分配器包装实际的分配器
+     * 同一个实际的分配器只包装一次，使分段与链式分段生成器对同一业务的并发补充合并为一次请求
+     *
+     * @param segmentAllocator 实际的分配器
+     * @param properties 配置属性
+     * @return 合并并发请求的分配器，未启用时返回实际的分配器
+     */
+    private SegmentAllocator coalescing(SegmentAllocator segmentAllocator, CyxIdProperties properties) {
+        if (!properties.getLoader().isCoalesce()) {
+            return segmentAllocator;
+        }
+        return coalescingAllocators.computeIfAbsent(segmentAllocator, CoalescingSegmentAllocator::new);
+    }
+    
+    /**
+     * 使用可降级的分配器包装实际的分配器
+     *
+     * @param segmentAllocator 实际的分配器
+     * @param segment 分段ID配置
+     * @return 可降级的分配器
+     */
+    private SegmentAllocator degradable(SegmentAllocator segmentAllocator, CyxIdProperties.SegmentProperties segment) {
+        CyxIdProperties.FallbackProperties fallback = segment.getFallback();
+        
+        EmergencySegmentSource emergencySource;
+        if ("reserved".equals(fallback.getSource())) {
+            emergencySource = new ReservedRangeEmergencySource(fallback.getReservedStart(), fallback.getReservedEnd());
+        } else {
+            // 各节点默认使用相同的节点ID会发放重复的应急ID，因此必须显式配置
+            if (fallback.getWorkerId() == null) {
+                throw new CyxIdException("使用时间戳编码应急来源时必须配置cyx-id.segment.fallback.worker-id，且在集群内唯一");
+            }
+            emergencySource = new TimestampEmergencySource(fallback.getEpoch(), fallback.getWorkerId());
+        }
+        
+        log.info("启用分段ID降级模式：应急来源={}, 熔断阈值={}, 熔断时间={}-{}ms", 
+                fallback.getSource(), fallback.getFailureThreshold(), 
+                fallback.getInitialBackoff(), fallback.getMaxBackoff());
+        
+        return new DegradableSegmentAllocator(
+                segmentAllocator,
+                emergencySource,
+                fallback.getFailureThreshold(),
+                fallback.getInitialBackoff(),
+                fallback.getMaxBackoff(),
+                segment.getStep()
+        );
+    }
+}
\ No newline at end of file
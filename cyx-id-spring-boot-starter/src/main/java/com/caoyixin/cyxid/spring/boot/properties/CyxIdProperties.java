@@ -3,6 +3,9 @@ package com.caoyixin.cyxid.spring.boot.properties;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * CyxId配置属性
  */
@@ -35,6 +38,11 @@ public class CyxIdProperties {
      */
     private final SegmentChainProperties segmentChain = new SegmentChainProperties();
     
+    /**
+     * ID段加载调度器配置
+     */
+    private final LoaderProperties loader = new LoaderProperties();
+    
     /**
      * Redis配置
      */
@@ -148,6 +156,111 @@ public class CyxIdProperties {
          * 安全距离百分比（1-100）
          */
         private int safeDistancePercent = 50;
+        
+        /**
+         * 动态步长的下限，小于等于0时使用step
+         */
+        private int minStep = 0;
+        
+        /**
+         * 动态步长的上限
+         */
+        private int maxStep = 1_000_000;
+        
+        /**
+         * 期望一个ID段的使用时长（毫秒），消耗快于此值时扩大步长，慢于两倍此值时缩小步长
+         */
+        private long targetSegmentDuration = 900_000;
+        
+        /**
+         * 启动时预热的业务名称，预热完成前应用不会完成启动
+         */
+        private List<String> warmUpTags = new ArrayList<>();
+        
+        /**
+         * 分配器不可用时的降级配置
+         */
+        private final FallbackProperties fallback = new FallbackProperties();
+        
+        /**
+         * 剩余ID范围快照配置
+         */
+        private final SnapshotProperties snapshot = new SnapshotProperties();
+    }
+    
+    /**
+     * 快照配置属性
+     * 关闭时保存尚未使用的ID范围，重启后优先使用
+     */
+    @Data
+    public static class SnapshotProperties {
+        
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+        
+        /**
+         * 快照文件路径
+         */
+        private String path = "./cyx-id-segment.snapshot";
+        
+        /**
+         * 节点标识，必须在集群内唯一且重启后不变，为空时使用主机名
+         */
+        private String nodeId;
+    }
+    
+    /**
+     * 降级配置属性
+     */
+    @Data
+    public static class FallbackProperties {
+        
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+        
+        /**
+         * 应急ID段来源 (reserved, timestamp)
+         */
+        private String source = "timestamp";
+        
+        /**
+         * 预留区间的起始值（包含），source为reserved时使用
+         */
+        private long reservedStart;
+        
+        /**
+         * 预留区间的结束值（包含），source为reserved时使用
+         */
+        private long reservedEnd;
+        
+        /**
+         * 节点ID，source为timestamp时必须配置，且在集群内唯一
+         */
+        private Long workerId;
+        
+        /**
+         * 基准时间戳，source为timestamp时使用（2024-01-01 00:00:00）
+         */
+        private long epoch = 1704038400000L;
+        
+        /**
+         * 触发熔断的连续失败次数
+         */
+        private int failureThreshold = 3;
+        
+        /**
+         * 初始熔断时间（毫秒）
+         */
+        private long initialBackoff = 100;
+        
+        /**
+         * 最大熔断时间（毫秒）
+         */
+        private long maxBackoff = 30_000;
     }
     
     /**
@@ -177,14 +290,47 @@ public class CyxIdProperties {
         private int safeDistancePercent = 20;
         
         /**
-         * 最大链长
+         * 最大链长；启用链深度自动调整时为深度上限
          */
         private int maxChainLength = 3;
         
+        /**
+         * 链深度下限，大于0且小于最大链长时按峰值消耗速率和分配器延迟自动调整链深度
+         */
+        private int minChainLength = 0;
+        
         /**
          * 预取周期（毫秒）
          */
         private long prefetchPeriod = 1000;
+        
+        /**
+         * 所有ID段耗尽时按需加载的最长等待时间（毫秒），超时后才抛出异常
+         */
+        private long demandFetchTimeout = 1000;
+    }
+    
+    /**
+     * ID段加载调度器配置属性
+     * 所有分段ID生成器共享同一个加载调度器
+     */
+    @Data
+    public static class LoaderProperties {
+        
+        /**
+         * 执行模式 (platform, virtual)
+         */
+        private String mode = "platform";
+        
+        /**
+         * 平台线程池的线程数
+         */
+        private int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        
+        /**
+         * 是否合并同一业务的并发号段请求，分段与链式分段生成器共用一个分配器时避免重复请求存储
+         */
+        private boolean coalesce = true;
     }
     
     /**
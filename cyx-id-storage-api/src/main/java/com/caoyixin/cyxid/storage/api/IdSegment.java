@@ -4,7 +4,9 @@ import lombok.Getter;
 
 /**
  * ID段
- * 表示一段连续的ID范围
+ * 表示一段等间隔的ID范围：minId, minId + stride, minId + 2 * stride, ..., maxId。
+ * 间隔为1时即连续的ID范围；多个区域各自独立分配时，区域k（共N个区域）使用间隔N、
+ * 与k模N同余的ID，不同区域的ID永不重叠
  */
 @Getter
 public class IdSegment {
@@ -20,26 +22,55 @@ public class IdSegment {
     private final long maxId;
     
     /**
-     * 创建ID段
+     * 相邻两个ID的间隔，连续段为1
+     */
+    private final long stride;
+    
+    /**
+     * 创建连续的ID段
      *
      * @param minId 最小ID（包含）
      * @param maxId 最大ID（包含）
      */
     public IdSegment(long minId, long maxId) {
+        this(minId, maxId, 1);
+    }
+    
+    /**
+     * 创建等间隔的ID段
+     *
+     * @param minId 最小ID（包含）
+     * @param maxId 最大ID（包含），与最小ID的差必须是间隔的整数倍
+     * @param stride 相邻两个ID的间隔
+     */
+    public IdSegment(long minId, long maxId, long stride) {
         if (minId > maxId) {
             throw new IllegalArgumentException("最小ID不能大于最大ID");
         }
+        if (stride <= 0 || (maxId - minId) % stride != 0) {
+            throw new IllegalArgumentException("间隔必须大于0，且最大ID与最小ID的差必须是间隔的整数倍");
+        }
         this.minId = minId;
         this.maxId = maxId;
+        this.stride = stride;
     }
     
     /**
-     * 获取段的步长
+     * 获取段的步长，即段中的ID数量
      *
      * @return 段的步长
      */
     public long getStep() {
-        return maxId - minId + 1;
+        return (maxId - minId) / stride + 1;
+    }
+    
+    /**
+     * 是否为等间隔（非连续）的ID段
+     *
+     * @return 间隔大于1时返回true
+     */
+    public boolean isStrided() {
+        return stride > 1;
     }
     
     /**
@@ -57,6 +88,7 @@ public class IdSegment {
                 "minId=" + minId +
                 ", maxId=" + maxId +
                 ", step=" + getStep() +
+                (stride > 1 ? ", stride=" + stride : "") +
                 '}';
     }
 } 
\ No newline at end of file
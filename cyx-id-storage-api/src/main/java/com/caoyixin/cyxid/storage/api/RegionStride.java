@@ -0,0 +1,83 @@
+package com.caoyixin.cyxid.storage.api;
+
+import lombok.Getter;
+
+/**
+ * 区域间隔
+ * 多个区域使用各自独立的存储分配ID时，把区域内连续的计数值映射为全局不重叠的ID：
+ * 区域k（共N个区域）的第p个计数值对应ID base + p * N + k，即区域k拥有所有与base + k模N同余的ID。
+ * 各区域的分配器只访问本区域的存储，区域之间无需任何协调。
+ * <p>
+ * 迁移说明：已经按连续ID发放过的业务改为多区域时，新区域的计数值从头开始，p * N + k会与已发放的ID重叠。
+ * 此时必须通过起始ID（base）把所有区域的ID移到已发放的最大ID之后，所有区域使用相同的起始ID，部署后不能修改
+ */
+@Getter
+public class RegionStride {
+    
+    /**
+     * 单区域部署，计数值即ID
+     */
+    public static final RegionStride NONE = new RegionStride(0, 1);
+    
+    /**
+     * 本区域的编号，从0开始
+     */
+    private final int regionIndex;
+    
+    /**
+     * 区域总数，即ID间隔
+     */
+    private final int regionCount;
+    
+    /**
+     * 起始ID，所有区域发放的ID都大于此值
+     */
+    private final long baseId;
+    
+    /**
+     * 创建区域间隔
+     *
+     * @param regionIndex 本区域的编号（0 ~ regionCount-1），部署后不能修改
+     * @param regionCount 区域总数，所有区域必须相同，部署后不能修改
+     */
+    public RegionStride(int regionIndex, int regionCount) {
+        this(regionIndex, regionCount, 0);
+    }
+    
+    /**
+     * 创建从指定起始ID之后发放的区域间隔
+     * 用于把已经发放过连续ID的业务迁移为多区域：起始ID不小于迁移前已发放的最大ID时，新旧ID不会重叠
+     *
+     * @param regionIndex 本区域的编号（0 ~ regionCount-1），部署后不能修改
+     * @param regionCount 区域总数，所有区域必须相同，部署后不能修改
+     * @param baseId 起始ID，不小于迁移前已发放的最大ID，所有区域必须相同，部署后不能修改
+     */
+    public RegionStride(int regionIndex, int regionCount, long baseId) {
+        if (regionCount <= 0 || regionIndex < 0 || regionIndex >= regionCount) {
+            throw new IllegalArgumentException("区域编号必须在0到区域总数-1之间");
+        }
+        if (baseId < 0) {
+            throw new IllegalArgumentException("起始ID不能为负数");
+        }
+        this.regionIndex = regionIndex;
+        this.regionCount = regionCount;
+        this.baseId = baseId;
+    }
+    
+    /**
+     * 把区域内一段连续的计数值映射为ID段
+     *
+     * @param firstPosition 第一个计数值（包含）
+     * @param lastPosition 最后一个计数值（包含）
+     * @return 本区域的ID段，多区域时为等间隔的ID段
+     */
+    public IdSegment toSegment(long firstPosition, long lastPosition) {
+        return new IdSegment(baseId + firstPosition * regionCount + regionIndex,
+                baseId + lastPosition * regionCount + regionIndex, regionCount);
+    }
+    
+    @Override
+    public String toString() {
+        return "RegionStride{" + regionIndex + "/" + regionCount + (baseId == 0 ? "" : ", base=" + baseId) + '}';
+    }
+}
\ No newline at end of file
@@ -1,5 +1,12 @@
 package com.caoyixin.cyxid.storage.api;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * ID段分配器接口
  * 用于分配ID段
@@ -13,4 +20,90 @@ public interface SegmentAllocator {
      * @return 分配的ID段
      */
     IdSegment nextSegment(String name);
-} 
\ No newline at end of file
+    
+    /**
+     * 按指定步长获取下一个ID段
+     * 用于按消耗速率动态调整ID段长度，实现方应在一次原子操作中分配指定数量的ID。
+     * 默认实现忽略请求的步长，按分配器自身的步长分配
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配的ID段
+     */
+    default IdSegment nextSegment(String name, int requestedStep) {
+        return nextSegment(name);
+    }
+    
+    /**
+     * 异步获取下一个ID段
+     * 用于补充引擎同时为多个业务发起请求而不为每个请求占用一个线程，实现方应在不阻塞调用线程的情况下返回。
+     * 默认实现在调用线程中执行{@link #nextSegment(String)}，返回已完成的结果
+     *
+     * @param name ID生成器名称
+     * @return 分配结果，分配失败时以异常完成
+     */
+    default CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        try {
+            return CompletableFuture.completedFuture(nextSegment(name));
+        } catch (RuntimeException e) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    /**
+     * 按指定步长异步获取下一个ID段
+     * 默认实现在调用线程中执行{@link #nextSegment(String, int)}，返回已完成的结果
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配结果，分配失败时以异常完成
+     */
+    default CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        try {
+            return CompletableFuture.completedFuture(nextSegment(name, requestedStep));
+        } catch (RuntimeException e) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    /**
+     * 一次获取多个连续的ID段
+     * 用于一次补满ID段链，实现方应在一次存储往返中分配全部ID段，返回的ID段按ID从小到大排列。
+     * 默认实现逐个调用{@link #nextSegment(String)}
+     *
+     * @param name ID生成器名称
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    default List<IdSegment> nextSegments(String name, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("ID段数量必须大于0");
+        }
+        
+        List<IdSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(nextSegment(name));
+        }
+        return segments;
+    }
+    
+    /**
+     * 一次为多个ID生成器获取ID段
+     * 用于定期预取时批量补充所有需要补充的业务，实现方应在一次存储往返中完成全部分配。
+     * 默认实现逐个调用{@link #nextSegments(String, int)}
+     *
+     * @param counts 各ID生成器需要的ID段数量，key为ID生成器名称
+     * @return 各ID生成器分配的ID段，按ID从小到大排列，key为ID生成器名称
+     */
+    default Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        Map<String, List<IdSegment>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            result.put(entry.getKey(), nextSegments(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import lombok.Getter;
+
+/**
+ * 单个业务（或操作）的分配器调用统计快照
+ */
+@Getter
+public class AllocatorMetrics {
+    
+    /**
+     * 业务名称，机器ID分配器为操作名称
+     */
+    private final String name;
+    
+    /**
+     * 调用次数，包括失败的调用
+     */
+    private final long calls;
+    
+    /**
+     * 失败次数
+     */
+    private final long errors;
+    
+    /**
+     * 调用延迟，包括失败的调用
+     */
+    private final LatencySnapshot latency;
+    
+    /**
+     * 创建分配器调用统计快照
+     *
+     * @param name 业务名称
+     * @param calls 调用次数
+     * @param errors 失败次数
+     * @param latency 调用延迟
+     */
+    public AllocatorMetrics(String name, long calls, long errors, LatencySnapshot latency) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.latency = latency;
+    }
+    
+    @Override
+    public String toString() {
+        return "AllocatorMetrics{" +
+                "name='" + name + '\'' +
+                ", calls=" + calls +
+                ", errors=" + errors +
+                ", latency=" + latency +
+                '}';
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按名称分组的分配器调用统计
+ * 供各个带统计的分配器包装器共用
+ */
+class AllocatorStats {
+    
+    /**
+     * 各名称的统计，key为业务名称或操作名称
+     */
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    
+    /**
+     * 记录一次调用
+     *
+     * @param name 业务名称或操作名称
+     * @param nanos 调用延迟（纳秒）
+     * @param failed 是否失败
+     */
+    void record(String name, long nanos, boolean failed) {
+        Stats entry = stats.get(name);
+        if (entry == null) {
+            entry = stats.computeIfAbsent(name, key -> new Stats());
+        }
+        entry.calls.increment();
+        if (failed) {
+            entry.errors.increment();
+        }
+        entry.latency.record(nanos);
+    }
+    
+    /**
+     * 获取统计快照
+     *
+     * @return 统计快照，按名称排序
+     */
+    Map<String, AllocatorMetrics> snapshot() {
+        Map<String, AllocatorMetrics> metrics = new TreeMap<>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats value = entry.getValue();
+            metrics.put(entry.getKey(), new AllocatorMetrics(entry.getKey(),
+                    value.calls.sum(), value.errors.sum(), value.latency.snapshot()));
+        }
+        return metrics;
+    }
+    
+    /**
+     * 单个名称的统计
+     */
+    private static final class Stats {
+        
+        /**
+         * 调用次数
+         */
+        private final LongAdder calls = new LongAdder();
+        
+        /**
+         * 失败次数
+         */
+        private final LongAdder errors = new LongAdder();
+        
+        /**
+         * 调用延迟
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import com.caoyixin.cyxid.storage.api.MachineIdAllocator;
+
+import java.util.Map;
+
+/**
+ * 带统计的机器ID分配器
+ * 包装实际的分配器，按操作（allocate、release）记录调用次数、失败次数和调用延迟直方图；
+ * release返回false计为失败
+ */
+public class InstrumentedMachineIdAllocator implements MachineIdAllocator {
+    
+    /**
+     * 分配操作的统计名称
+     */
+    public static final String ALLOCATE = "allocate";
+    
+    /**
+     * 释放操作的统计名称
+     */
+    public static final String RELEASE = "release";
+    
+    /**
+     * 实际的分配器
+     */
+    private final MachineIdAllocator delegate;
+    
+    /**
+     * 调用统计
+     */
+    private final AllocatorStats stats = new AllocatorStats();
+    
+    /**
+     * 创建带统计的机器ID分配器
+     *
+     * @param delegate 实际的分配器
+     */
+    public InstrumentedMachineIdAllocator(MachineIdAllocator delegate) {
+        this.delegate = delegate;
+    }
+    
+    @Override
+    public int allocate() {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            int machineId = delegate.allocate();
+            failed = false;
+            return machineId;
+        } finally {
+            stats.record(ALLOCATE, System.nanoTime() - start, failed);
+        }
+    }
+    
+    @Override
+    public boolean release(int machineId) {
+        long start = System.nanoTime();
+        boolean released = false;
+        try {
+            released = delegate.release(machineId);
+            return released;
+        } finally {
+            stats.record(RELEASE, System.nanoTime() - start, !released);
+        }
+    }
+    
+    /**
+     * 获取各操作的调用统计
+     *
+     * @return 统计快照，key为操作名称
+     */
+    public Map<String, AllocatorMetrics> getMetrics() {
+        return stats.snapshot();
+    }
+    
+    /**
+     * 获取实际的分配器
+     *
+     * @return 实际的分配器
+     */
+    public MachineIdAllocator getDelegate() {
+        return delegate;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * 带统计的ID段分配器
+ * 包装实际的分配器，按业务记录调用次数、失败次数和调用延迟直方图，用于区分ID延迟尖刺来自存储还是上层的加载与等待。
+ * 批量分配按一次调用计入其中每个业务；异步分配记录从发起到完成的时间
+ */
+public class InstrumentedSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 实际的分配器
+     */
+    private final SegmentAllocator delegate;
+    
+    /**
+     * 调用统计
+     */
+    private final AllocatorStats stats = new AllocatorStats();
+    
+    /**
+     * 创建带统计的ID段分配器
+     *
+     * @param delegate 实际的分配器
+     */
+    public InstrumentedSegmentAllocator(SegmentAllocator delegate) {
+        this.delegate = delegate;
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            IdSegment segment = delegate.nextSegment(name);
+            failed = false;
+            return segment;
+        } finally {
+            stats.record(name, System.nanoTime() - start, failed);
+        }
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            IdSegment segment = delegate.nextSegment(name, requestedStep);
+            failed = false;
+            return segment;
+        } finally {
+            stats.record(name, System.nanoTime() - start, failed);
+        }
+    }
+    
+    @Override
+    public List<IdSegment> nextSegments(String name, int count) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<IdSegment> segments = delegate.nextSegments(name, count);
+            failed = false;
+            return segments;
+        } finally {
+            stats.record(name, System.nanoTime() - start, failed);
+        }
+    }
+    
+    @Override
+    public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, List<IdSegment>> segments = delegate.nextSegments(counts);
+            failed = false;
+            return segments;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            for (String name : counts.keySet()) {
+                stats.record(name, elapsed, failed);
+            }
+        }
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        long start = System.nanoTime();
+        return recordAsync(name, start, invoke(() -> delegate.nextSegmentAsync(name)));
+    }
+    
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        long start = System.nanoTime();
+        return recordAsync(name, start, invoke(() -> delegate.nextSegmentAsync(name, requestedStep)));
+    }
+    
+    /**
+     * 获取各业务的调用统计
+     *
+     * @return 统计快照，key为业务名称
+     */
+    public Map<String, AllocatorMetrics> getMetrics() {
+        return stats.snapshot();
+    }
+    
+    /**
+     * 获取实际的分配器
+     *
+     * @return 实际的分配器
+     */
+    public SegmentAllocator getDelegate() {
+        return delegate;
+    }
+    
+    /**
+     * 发起异步分配，同步抛出的异常转换为异常完成
+     *
+     * @param call 异步分配操作
+     * @return 分配结果
+     */
+    private static CompletionStage<IdSegment> invoke(Supplier<CompletionStage<IdSegment>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    /**
+     * 在异步分配完成时记录统计
+     *
+     * @param name 业务名称
+     * @param start 发起时间（纳秒）
+     * @param result 分配结果
+     * @return 分配结果
+     */
+    private CompletionStage<IdSegment> recordAsync(String name, long start, CompletionStage<IdSegment> result) {
+        return result.whenComplete((segment, e) -> stats.record(name, System.nanoTime() - start, e != null));
+    }
+}
\ No newline at end of file
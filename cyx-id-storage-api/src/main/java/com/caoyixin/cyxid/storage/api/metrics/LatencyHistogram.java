@@ -0,0 +1,110 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟直方图
+ * 按对数-线性分桶记录延迟（纳秒），每个2的幂区间再均分为32个子桶，相对误差不超过约3%，
+ * 覆盖从1纳秒到Long.MAX_VALUE的全部取值，内存占用固定（约16KB）。
+ * 记录只做一次下标计算和几次原子累加，不加锁、不分配对象，适合在分配器调用路径上常驻
+ */
+public class LatencyHistogram {
+    
+    /**
+     * 每个2的幂区间的子桶数量的位数
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    
+    /**
+     * 每个2的幂区间的子桶数量
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    /**
+     * 桶数量，足以覆盖Long.MAX_VALUE
+     */
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    
+    /**
+     * 各桶的计数
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    
+    /**
+     * 延迟总和（纳秒）
+     */
+    private final LongAdder total = new LongAdder();
+    
+    /**
+     * 最小延迟（纳秒）
+     */
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    
+    /**
+     * 最大延迟（纳秒）
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    /**
+     * 记录一次延迟
+     *
+     * @param nanos 延迟（纳秒），小于0时按0记录
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(value));
+        total.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+    
+    /**
+     * 获取直方图快照
+     * 与并发的记录之间不加锁，快照中的各项统计可能相差正在进行的几次记录
+     *
+     * @return 直方图快照
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            sum += counts[i];
+        }
+        long minValue = min.get();
+        return new LatencySnapshot(counts, sum, total.sum(), minValue == Long.MAX_VALUE ? 0 : minValue, max.get());
+    }
+    
+    /**
+     * 计算延迟所在的桶
+     * 小于两个子桶区间的值线性分桶，其余值按最高位所在的2的幂区间和其后5位确定子桶
+     *
+     * @param value 延迟（纳秒），不小于0
+     * @return 桶下标
+     */
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+    
+    /**
+     * 计算桶的上界（包含）
+     *
+     * @param index 桶下标
+     * @return 桶内的最大延迟（纳秒）
+     */
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long top = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long upper = ((top + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.caoyixin.cyxid.storage.api.metrics;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟直方图快照
+ * 不可变，可以在任意线程中读取和导出
+ */
+@Getter
+public class LatencySnapshot {
+    
+    /**
+     * 各桶的计数
+     */
+    @Getter(AccessLevel.NONE)
+    private final long[] buckets;
+    
+    /**
+     * 记录总数
+     */
+    private final long count;
+    
+    /**
+     * 延迟总和（纳秒）
+     */
+    private final long totalNanos;
+    
+    /**
+     * 最小延迟（纳秒），没有记录时为0
+     */
+    private final long minNanos;
+    
+    /**
+     * 最大延迟（纳秒）
+     */
+    private final long maxNanos;
+    
+    /**
+     * 创建延迟直方图快照
+     *
+     * @param buckets 各桶的计数
+     * @param count 记录总数
+     * @param totalNanos 延迟总和（纳秒）
+     * @param minNanos 最小延迟（纳秒）
+     * @param maxNanos 最大延迟（纳秒）
+     */
+    LatencySnapshot(long[] buckets, long count, long totalNanos, long minNanos, long maxNanos) {
+        this.buckets = buckets;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+    }
+    
+    /**
+     * 获取平均延迟
+     *
+     * @return 平均延迟（纳秒），没有记录时为0
+     */
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+    
+    /**
+     * 获取指定百分位的延迟
+     * 返回该百分位所在桶的上界，不超过记录到的最大延迟
+     *
+     * @param percentile 百分位（0-100）
+     * @return 延迟（纳秒），没有记录时为0
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("百分位必须在0-100之间");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return "LatencySnapshot{" +
+                "count=" + count +
+                ", meanUs=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) +
+                ", p50Us=" + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)) +
+                ", p99Us=" + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)) +
+                ", p999Us=" + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99.9)) +
+                ", maxUs=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) +
+                '}';
+    }
+}
\ No newline at end of file
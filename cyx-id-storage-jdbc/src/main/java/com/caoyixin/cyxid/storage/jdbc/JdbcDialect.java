@@ -0,0 +1,163 @@
+package com.caoyixin.cyxid.storage.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * 数据库方言
+ * 决定如何在号段表上执行“增加max_id并读回新值”：
+ * 支持的数据库用一条语句完成，不需要显式事务；其他数据库在一个事务中先更新再读取，
+ * 更新持有的行锁保证读到的正是本次更新的结果
+ */
+public enum JdbcDialect {
+    
+    /**
+     * 通用方言，UPDATE后在同一事务中SELECT
+     */
+    GENERIC(false) {
+        @Override
+        Long increment(Connection connection, String table, String name, long delta) throws SQLException {
+            if (update(connection, "UPDATE " + table + " SET max_id = max_id + ?, version = version + 1 WHERE biz_tag = ?",
+                    name, delta) == 0) {
+                return null;
+            }
+            return queryMaxId(connection, "SELECT max_id FROM " + table + " WHERE biz_tag = ?", name, null);
+        }
+    },
+    
+    /**
+     * H2，使用FINAL TABLE读取UPDATE后的值
+     */
+    H2(true) {
+        @Override
+        Long increment(Connection connection, String table, String name, long delta) throws SQLException {
+            return queryMaxId(connection, "SELECT max_id FROM FINAL TABLE (UPDATE " + table
+                    + " SET max_id = max_id + ?, version = version + 1 WHERE biz_tag = ?)", name, delta);
+        }
+    },
+    
+    /**
+     * PostgreSQL，使用UPDATE ... RETURNING
+     */
+    POSTGRESQL(true) {
+        @Override
+        Long increment(Connection connection, String table, String name, long delta) throws SQLException {
+            return queryMaxId(connection, "UPDATE " + table
+                    + " SET max_id = max_id + ?, version = version + 1 WHERE biz_tag = ? RETURNING max_id", name, delta);
+        }
+    },
+    
+    /**
+     * MySQL/MariaDB，UPDATE时把新值写入会话级的LAST_INSERT_ID，读取时不再访问号段表
+     */
+    MYSQL(true) {
+        @Override
+        Long increment(Connection connection, String table, String name, long delta) throws SQLException {
+            if (update(connection, "UPDATE " + table
+                    + " SET max_id = LAST_INSERT_ID(max_id + ?), version = version + 1 WHERE biz_tag = ?", name, delta) == 0) {
+                return null;
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT LAST_INSERT_ID()");
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    };
+    
+    /**
+     * 是否用一条语句完成增加并读回，无需显式事务
+     */
+    private final boolean singleStatement;
+    
+    JdbcDialect(boolean singleStatement) {
+        this.singleStatement = singleStatement;
+    }
+    
+    /**
+     * 是否用一条语句完成增加并读回
+     *
+     * @return 为true时可以在自动提交模式下执行
+     */
+    public boolean isSingleStatement() {
+        return singleStatement;
+    }
+    
+    /**
+     * 增加业务的max_id并返回新值，同时递增版本号
+     *
+     * @param connection 数据库连接
+     * @param table 号段表名
+     * @param name 业务键名
+     * @param delta 增加的ID数量
+     * @return 增加后的max_id，业务不存在时返回null
+     * @throws SQLException 执行失败
+     */
+    abstract Long increment(Connection connection, String table, String name, long delta) throws SQLException;
+    
+    /**
+     * 根据数据库产品名称识别方言
+     *
+     * @param metaData 数据库元数据
+     * @return 识别出的方言，无法识别时返回GENERIC
+     * @throws SQLException 读取元数据失败
+     */
+    public static JdbcDialect detect(DatabaseMetaData metaData) throws SQLException {
+        String product = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT);
+        if (product.contains("h2")) {
+            return H2;
+        }
+        if (product.contains("postgresql")) {
+            return POSTGRESQL;
+        }
+        if (product.contains("mysql") || product.contains("mariadb")) {
+            return MYSQL;
+        }
+        return GENERIC;
+    }
+    
+    /**
+     * 执行按业务键名更新的语句
+     *
+     * @param connection 数据库连接
+     * @param sql 更新语句，参数依次为增加的ID数量和业务键名
+     * @param name 业务键名
+     * @param delta 增加的ID数量
+     * @return 更新的行数
+     * @throws SQLException 执行失败
+     */
+    private static int update(Connection connection, String sql, String name, long delta) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, delta);
+            statement.setString(2, name);
+            return statement.executeUpdate();
+        }
+    }
+    
+    /**
+     * 执行返回max_id的查询
+     *
+     * @param connection 数据库连接
+     * @param sql 查询语句
+     * @param name 业务键名
+     * @param delta 增加的ID数量，为null时语句只有业务键名一个参数
+     * @return 查询到的max_id，没有结果时返回null
+     * @throws SQLException 执行失败
+     */
+    private static Long queryMaxId(Connection connection, String sql, String name, Long delta) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (delta != null) {
+                statement.setLong(index++, delta);
+            }
+            statement.setString(index, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : null;
+            }
+        }
+    }
+}
\ No newline at end of file
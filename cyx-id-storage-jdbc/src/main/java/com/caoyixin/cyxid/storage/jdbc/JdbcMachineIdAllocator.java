@@ -0,0 +1,409 @@
+package com.caoyixin.cyxid.storage.jdbc;
+
+import com.caoyixin.cyxid.core.exception.MachineIdAllocationException;
+import com.caoyixin.cyxid.storage.api.MachineIdAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * JDBC机器ID分配器
+ * 基于数据库租约表（machine_id, owner, lease_expire_time, version）实现的机器ID分配器，每个已分配的机器ID一行。
+ * 分配时优先续用当前节点已持有的租约，其次插入未使用过的机器ID，最后按版本号接管已过期的租约；
+ * 分配成功后后台线程每隔租约时长的三分之一续租一次。
+ * 每次写入都单独提交，连接池的连接不是自动提交模式时也不会在归还连接时被回滚。
+ * 租约到期时间使用各节点的本地时钟，节点间的时钟偏差必须远小于租约时长
+ */
+@Slf4j
+public class JdbcMachineIdAllocator implements MachineIdAllocator {
+    
+    /**
+     * 合法的表名
+     */
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    
+    /**
+     * 数据源
+     */
+    private final DataSource dataSource;
+    
+    /**
+     * 租约表名
+     */
+    private final String tableName;
+    
+    /**
+     * 机器ID的最大值
+     */
+    private final int maxMachineId;
+    
+    /**
+     * 租约时长（毫秒）
+     */
+    private final long leaseMillis;
+    
+    /**
+     * 租约持有者标识，用于唯一标识当前节点
+     */
+    private final String owner;
+    
+    /**
+     * 当前节点的机器ID
+     */
+    private volatile int machineId = -1;
+    
+    /**
+     * 租约是否有效，续租时发现租约已被其他节点接管则置为false
+     */
+    private volatile boolean leaseValid = false;
+    
+    /**
+     * 续租调度器
+     */
+    private ScheduledExecutorService heartbeat;
+    
+    /**
+     * 创建JDBC机器ID分配器
+     *
+     * @param dataSource 数据源
+     * @param tableName 租约表名
+     * @param maxMachineId 机器ID的最大值
+     * @param leaseMillis 租约时长（毫秒）
+     * @param owner 租约持有者标识，必须在集群内唯一
+     */
+    public JdbcMachineIdAllocator(DataSource dataSource, String tableName, int maxMachineId,
+                                  long leaseMillis, String owner) {
+        if (tableName == null || !TABLE_NAME.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("租约表名无效：" + tableName);
+        }
+        if (maxMachineId < 0 || leaseMillis <= 0) {
+            throw new IllegalArgumentException("机器ID最大值和租约时长无效");
+        }
+        if (owner == null || owner.isEmpty()) {
+            throw new IllegalArgumentException("租约持有者标识不能为空");
+        }
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.maxMachineId = maxMachineId;
+        this.leaseMillis = leaseMillis;
+        this.owner = owner;
+        
+        log.info("初始化JDBC机器ID分配器：最大值={}，租约时长={}ms，持有者={}", maxMachineId, leaseMillis, owner);
+    }
+    
+    /**
+     * 创建JDBC机器ID分配器（使用默认配置）
+     *
+     * @param dataSource 数据源
+     */
+    public JdbcMachineIdAllocator(DataSource dataSource) {
+        this(dataSource, "cyx_id_machine_lease", 1023, 60_000, generateOwner());
+    }
+    
+    @Override
+    public int allocate() {
+        if (machineId >= 0) {
+            return machineId;
+        }
+        
+        synchronized (this) {
+            if (machineId >= 0) {
+                return machineId;
+            }
+            
+            try {
+                // 1. 续用当前节点已持有的租约
+                Integer existing = execute(false, this::findOwnedMachineId);
+                if (existing != null && renew(existing)) {
+                    machineId = existing;
+                    log.info("续用已持有的机器ID租约：{}", machineId);
+                } else {
+                    // 2. 插入未使用过的机器ID或接管已过期的租约
+                    machineId = acquire();
+                    log.info("分配新的机器ID：{}", machineId);
+                }
+                leaseValid = true;
+                
+                // 3. 启动续租线程，防止租约过期
+                startHeartbeat();
+                
+                return machineId;
+            
+            } catch (SQLException e) {
+                log.error("分配机器ID失败", e);
+                throw new MachineIdAllocationException("分配机器ID失败", e);
+            }
+        }
+    }
+    
+    @Override
+    public synchronized boolean release(int machineId) {
+        if (machineId != this.machineId) {
+            log.warn("尝试释放的机器ID与当前分配的不一致：{} != {}", machineId, this.machineId);
+            return false;
+        }
+        
+        stopHeartbeat();
+        try {
+            boolean result = execute(false, connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM " + tableName + " WHERE machine_id = ? AND owner = ?")) {
+                    statement.setInt(1, machineId);
+                    statement.setString(2, owner);
+                    return statement.executeUpdate() > 0;
+                }
+            });
+            
+            log.info("释放机器ID：{}，结果={}", machineId, result);
+            this.machineId = -1;
+            leaseValid = false;
+            return result;
+        
+        } catch (SQLException e) {
+            log.error("释放机器ID失败：{}", machineId, e);
+            return false;
+        }
+    }
+    
+    /**
+     * 租约是否有效
+     *
+     * @return 已分配机器ID且续租未发现租约被接管时返回true
+     */
+    public boolean isLeaseValid() {
+        return machineId >= 0 && leaseValid;
+    }
+    
+    /**
+     * 获取租约持有者标识
+     *
+     * @return 租约持有者标识
+     */
+    public String getOwner() {
+        return owner;
+    }
+    
+    /**
+     * 查找当前节点持有的机器ID
+     *
+     * @param connection 数据库连接
+     * @return 机器ID，未持有时返回null
+     * @throws SQLException 查询失败
+     */
+    private Integer findOwnedMachineId(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT machine_id FROM " + tableName + " WHERE owner = ? ORDER BY machine_id")) {
+            statement.setString(1, owner);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * 插入未使用过的机器ID或接管已过期的租约
+     * 从小到大尝试，插入遇到主键冲突或接管时版本号已变化说明被其他节点抢先，继续尝试下一个
+     *
+     * @return 分配的机器ID
+     * @throws SQLException 执行失败
+     * @throws MachineIdAllocationException 没有可用的机器ID
+     */
+    private int acquire() throws SQLException {
+        Map<Integer, long[]> leases = execute(false, connection -> {
+            Map<Integer, long[]> result = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT machine_id, lease_expire_time, version FROM " + tableName);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.put(resultSet.getInt(1), new long[]{resultSet.getLong(2), resultSet.getLong(3)});
+                }
+            }
+            return result;
+        });
+        
+        long now = System.currentTimeMillis();
+        for (int id = 0; id <= maxMachineId; id++) {
+            long[] lease = leases.get(id);
+            if (lease == null) {
+                if (tryInsert(id, now)) {
+                    return id;
+                }
+            } else if (lease[0] < now && tryTakeOver(id, lease[1], now)) {
+                log.info("接管已过期的机器ID租约：{}", id);
+                return id;
+            }
+        }
+        
+        throw new MachineIdAllocationException("无法分配机器ID：已达到最大数量 " + maxMachineId);
+    }
+    
+    /**
+     * 插入未使用过的机器ID
+     * 主键冲突在事务回滚后才判断，部分数据库在事务内出错后拒绝执行后续语句
+     *
+     * @param id 机器ID
+     * @param now 当前时间（毫秒）
+     * @return 是否插入成功，主键冲突时返回false
+     * @throws SQLException 主键冲突以外的执行失败
+     */
+    private boolean tryInsert(int id, long now) throws SQLException {
+        try {
+            return execute(false, connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO " + tableName + " (machine_id, owner, lease_expire_time, version) VALUES (?, ?, ?, 0)")) {
+                    statement.setInt(1, id);
+                    statement.setString(2, owner);
+                    statement.setLong(3, now + leaseMillis);
+                    return statement.executeUpdate() == 1;
+                }
+            });
+        } catch (SQLException e) {
+            // SQLSTATE 23xxx：完整性约束冲突，机器ID已被其他节点插入
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * 按版本号接管已过期的租约
+     *
+     * @param id 机器ID
+     * @param version 读取时的版本号
+     * @param now 当前时间（毫秒）
+     * @return 是否接管成功
+     * @throws SQLException 执行失败
+     */
+    private boolean tryTakeOver(int id, long version, long now) throws SQLException {
+        return execute(false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE " + tableName + " SET owner = ?, lease_expire_time = ?, version = version + 1 "
+                            + "WHERE machine_id = ? AND version = ? AND lease_expire_time < ?")) {
+                statement.setString(1, owner);
+                statement.setLong(2, now + leaseMillis);
+                statement.setInt(3, id);
+                statement.setLong(4, version);
+                statement.setLong(5, now);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+    
+    /**
+     * 续租
+     *
+     * @param id 机器ID
+     * @return 租约仍由当前节点持有时返回true
+     * @throws SQLException 执行失败
+     */
+    private boolean renew(int id) throws SQLException {
+        return execute(false, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE " + tableName + " SET lease_expire_time = ?, version = version + 1 "
+                            + "WHERE machine_id = ? AND owner = ?")) {
+                statement.setLong(1, System.currentTimeMillis() + leaseMillis);
+                statement.setInt(2, id);
+                statement.setString(3, owner);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+    
+    /**
+     * 启动续租线程，每隔租约时长的三分之一续租一次
+     */
+    private void startHeartbeat() {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "machine-id-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        long interval = Math.max(1, leaseMillis / 3);
+        heartbeat.scheduleWithFixedDelay(() -> {
+            int id = machineId;
+            if (id < 0) {
+                return;
+            }
+            
+            try {
+                if (renew(id)) {
+                    leaseValid = true;
+                } else if (leaseValid) {
+                    leaseValid = false;
+                    log.error("机器ID租约已被其他节点接管：{}，继续使用可能产生重复ID", id);
+                }
+            } catch (Exception e) {
+                log.error("机器ID续租失败：{}", id, e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        
+        log.info("启动机器ID续租线程，租约时长：{}ms", leaseMillis);
+    }
+    
+    /**
+     * 停止续租线程
+     */
+    private void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+    }
+    
+    /**
+     * 获取连接并执行数据库操作，连接不是自动提交模式时在事务中执行并提交
+     *
+     * @param transactional 是否需要事务
+     * @param work 数据库操作
+     * @param <T> 结果类型
+     * @return 操作结果
+     * @throws SQLException 执行失败
+     */
+    private <T> T execute(boolean transactional, JdbcTransactions.SqlWork<T> work) throws SQLException {
+        return JdbcTransactions.execute(dataSource, transactional, work);
+    }
+    
+    /**
+     * 生成租约持有者标识
+     * 使用主机名和进程ID的组合，同一主机上的多个进程互不冲突
+     *
+     * @return 租约持有者标识
+     */
+    private static String generateOwner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            log.warn("获取主机名失败，使用随机值", e);
+            host = "node-" + System.currentTimeMillis() + "-" + (int) (Math.random() * 10000);
+        }
+        return host + ":" + currentPid();
+    }
+    
+    /**
+     * 获取当前进程ID
+     * 运行时名称的格式通常为“进程ID@主机名”，格式不符时使用整个名称
+     *
+     * @return 当前进程ID
+     */
+    private static String currentPid() {
+        String runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+        int at = runtimeName.indexOf('@');
+        return at > 0 ? runtimeName.substring(0, at) : runtimeName;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,379 @@
+package com.caoyixin.cyxid.storage.jdbc;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * JDBC段分配器
+ * 基于数据库号段表（biz_tag, max_id, step, version）实现的ID段分配器，每个业务一行。
+ * 每次分配只执行一次“增加max_id并读回新值”，由数据库行锁保证多个节点分配的ID段互不重叠；
+ * 业务行不存在时按默认步长自动创建。业务的步长取自号段表，首次使用时读取并缓存
+ */
+@Slf4j
+public class JdbcSegmentAllocator implements SegmentAllocator {
+    
+    /**
+     * 合法的表名
+     */
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    
+    /**
+     * 数据源
+     */
+    private final DataSource dataSource;
+    
+    /**
+     * 自动创建业务行时使用的默认步长
+     */
+    private final int defaultStep;
+    
+    /**
+     * 号段表名
+     */
+    private final String tableName;
+    
+    /**
+     * 数据库方言
+     */
+    private final JdbcDialect dialect;
+    
+    /**
+     * 各业务的步长缓存，key为业务键名
+     */
+    private final Map<String, Integer> steps = new ConcurrentHashMap<>();
+    
+    /**
+     * 创建JDBC段分配器
+     *
+     * @param dataSource 数据源
+     * @param defaultStep 自动创建业务行时使用的默认步长
+     * @param tableName 号段表名
+     * @param dialect 数据库方言
+     */
+    public JdbcSegmentAllocator(DataSource dataSource, int defaultStep, String tableName, JdbcDialect dialect) {
+        if (defaultStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        if (tableName == null || !TABLE_NAME.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("号段表名无效：" + tableName);
+        }
+        this.dataSource = dataSource;
+        this.defaultStep = defaultStep;
+        this.tableName = tableName;
+        this.dialect = dialect;
+        
+        log.info("初始化JDBC段分配器：默认步长={}，号段表={}，方言={}", defaultStep, tableName, dialect);
+    }
+    
+    /**
+     * 创建JDBC段分配器，根据数据库产品名称识别方言
+     *
+     * @param dataSource 数据源
+     * @param defaultStep 自动创建业务行时使用的默认步长
+     * @param tableName 号段表名
+     */
+    public JdbcSegmentAllocator(DataSource dataSource, int defaultStep, String tableName) {
+        this(dataSource, defaultStep, tableName, detectDialect(dataSource));
+    }
+    
+    /**
+     * 创建JDBC段分配器（使用默认配置）
+     *
+     * @param dataSource 数据源
+     */
+    public JdbcSegmentAllocator(DataSource dataSource) {
+        this(dataSource, 1000, "cyx_id_segment");
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return allocate(name, stepOf(name), 1).get(0);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        return allocate(name, requestedStep, 1).get(0);
+    }
+    
+    /**
+     * 一次获取多个连续的ID段
+     * 一次增加count个步长的ID，在本地切分为count个ID段
+     *
+     * @param name ID生成器名称
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    @Override
+    public List<IdSegment> nextSegments(String name, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("ID段数量必须大于0");
+        }
+        return allocate(name, stepOf(name), count);
+    }
+    
+    /**
+     * 一次为多个ID生成器获取ID段
+     * 在一个事务中批量执行所有业务的UPDATE，再用一条SELECT读回全部新值，
+     * 往返次数与业务数量无关；业务按键名排序后更新，避免并发批量分配之间因加锁顺序不同而死锁
+     *
+     * @param counts 各ID生成器需要的ID段数量，key为ID生成器名称
+     * @return 各ID生成器分配的ID段，按ID从小到大排列，key为ID生成器名称
+     */
+    @Override
+    public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        for (Integer count : counts.values()) {
+            if (count == null || count <= 0) {
+                throw new IllegalArgumentException("ID段数量必须大于0");
+            }
+        }
+        if (counts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, Integer> sorted = new TreeMap<>(counts);
+        Map<String, Integer> segmentSteps = new HashMap<>();
+        for (String name : sorted.keySet()) {
+            segmentSteps.put(name, stepOf(name));
+        }
+        
+        try {
+            Map<String, Long> maxIds = execute(true, connection -> {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE " + tableName + " SET max_id = max_id + ?, version = version + 1 WHERE biz_tag = ?")) {
+                    for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+                        update.setLong(1, (long) segmentSteps.get(entry.getKey()) * entry.getValue());
+                        update.setString(2, entry.getKey());
+                        update.addBatch();
+                    }
+                    int[] updated = update.executeBatch();
+                    for (int i = 0; i < updated.length; i++) {
+                        if (updated[i] == 0) {
+                            throw new CyxIdException("号段表中不存在业务：" + new ArrayList<>(sorted.keySet()).get(i));
+                        }
+                    }
+                }
+                return selectMaxIds(connection, sorted.keySet());
+            });
+            
+            // 在本地按步长切分
+            Map<String, List<IdSegment>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                Long maxId = maxIds.get(entry.getKey());
+                if (maxId == null) {
+                    throw new CyxIdException("号段表中不存在业务：" + entry.getKey());
+                }
+                result.put(entry.getKey(), split(maxId, segmentSteps.get(entry.getKey()), entry.getValue()));
+            }
+            log.debug("批量分配ID段：{}个业务", result.size());
+            
+            return result;
+        
+        } catch (SQLException e) {
+            log.error("从数据库批量分配ID段失败：{}", counts.keySet(), e);
+            throw new CyxIdException("从数据库批量分配ID段失败：" + counts.keySet(), e);
+        }
+    }
+    
+    /**
+     * 清空步长缓存，下次分配时重新从号段表读取各业务的步长
+     */
+    public void refreshSteps() {
+        steps.clear();
+    }
+    
+    /**
+     * 获取数据库方言
+     *
+     * @return 数据库方言
+     */
+    public JdbcDialect getDialect() {
+        return dialect;
+    }
+    
+    /**
+     * 分配count个步长为segmentStep的连续ID段
+     * 业务行不存在时创建后重试一次
+     *
+     * @param name ID生成器名称
+     * @param segmentStep 每个ID段的长度
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    private List<IdSegment> allocate(String name, int segmentStep, int count) {
+        long total = (long) segmentStep * count;
+        
+        try {
+            Long maxId = execute(!dialect.isSingleStatement(),
+                    connection -> dialect.increment(connection, tableName, name, total));
+            if (maxId == null) {
+                steps.remove(name);
+                stepOf(name);
+                maxId = execute(!dialect.isSingleStatement(),
+                        connection -> dialect.increment(connection, tableName, name, total));
+            }
+            if (maxId == null) {
+                throw new CyxIdException("号段表中不存在业务：" + name);
+            }
+            
+            List<IdSegment> segments = split(maxId, segmentStep, count);
+            log.debug("分配{}个ID段[{}]：{}-{}", count, name, maxId - total + 1, maxId);
+            
+            return segments;
+        
+        } catch (SQLException e) {
+            log.error("从数据库分配ID段失败：{}", name, e);
+            throw new CyxIdException("从数据库分配ID段失败：" + name, e);
+        }
+    }
+    
+    /**
+     * 获取业务的步长，业务行不存在时按默认步长创建
+     *
+     * @param name 业务键名
+     * @return 号段表中记录的步长
+     */
+    private int stepOf(String name) {
+        return steps.computeIfAbsent(name, key -> {
+            try {
+                return execute(false, connection -> {
+                    Integer step = selectStep(connection, key);
+                    if (step != null) {
+                        return step;
+                    }
+                    
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO " + tableName + " (biz_tag, max_id, step, version) VALUES (?, 0, ?, 0)")) {
+                        insert.setString(1, key);
+                        insert.setInt(2, defaultStep);
+                        insert.executeUpdate();
+                        log.info("创建号段表业务行：{}，步长={}", key, defaultStep);
+                        return defaultStep;
+                    } catch (SQLException e) {
+                        // 其他节点同时创建了业务行
+                        step = selectStep(connection, key);
+                        if (step == null) {
+                            throw e;
+                        }
+                        return step;
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("读取业务步长失败：{}", key, e);
+                throw new CyxIdException("读取业务步长失败：" + key, e);
+            }
+        });
+    }
+    
+    /**
+     * 查询业务的步长
+     *
+     * @param connection 数据库连接
+     * @param name 业务键名
+     * @return 步长，业务行不存在时返回null
+     * @throws SQLException 查询失败
+     */
+    private Integer selectStep(Connection connection, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT step FROM " + tableName + " WHERE biz_tag = ?")) {
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * 用一条查询读取多个业务的max_id
+     *
+     * @param connection 数据库连接
+     * @param names 业务键名
+     * @return 各业务的max_id，key为业务键名
+     * @throws SQLException 查询失败
+     */
+    private Map<String, Long> selectMaxIds(Connection connection, Iterable<String> names) throws SQLException {
+        List<String> params = new ArrayList<>();
+        names.forEach(params::add);
+        
+        String placeholders = String.join(", ", Collections.nCopies(params.size(), "?"));
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT biz_tag, max_id FROM " + tableName + " WHERE biz_tag IN (" + placeholders + ")")) {
+            for (int i = 0; i < params.size(); i++) {
+                statement.setString(i + 1, params.get(i));
+            }
+            
+            Map<String, Long> maxIds = new HashMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    maxIds.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+            return maxIds;
+        }
+    }
+    
+    /**
+     * 把以maxId结尾的连续ID范围切分为count个ID段
+     *
+     * @param maxId 范围的最大ID
+     * @param segmentStep 每个ID段的长度
+     * @param count ID段数量
+     * @return 切分的ID段，按ID从小到大排列
+     */
+    private static List<IdSegment> split(long maxId, int segmentStep, int count) {
+        List<IdSegment> segments = new ArrayList<>(count);
+        long minId = maxId - (long) segmentStep * count + 1;
+        for (int i = 0; i < count; i++) {
+            segments.add(new IdSegment(minId, minId + segmentStep - 1));
+            minId += segmentStep;
+        }
+        return segments;
+    }
+    
+    /**
+     * 获取连接并执行数据库操作
+     *
+     * @param transactional 是否需要事务
+     * @param work 数据库操作
+     * @param <T> 结果类型
+     * @return 操作结果
+     * @throws SQLException 执行失败
+     * @see JdbcTransactions#execute(DataSource, boolean, JdbcTransactions.SqlWork)
+     */
+    private <T> T execute(boolean transactional, JdbcTransactions.SqlWork<T> work) throws SQLException {
+        return JdbcTransactions.execute(dataSource, transactional, work);
+    }
+    
+    /**
+     * 根据数据源识别方言
+     *
+     * @param dataSource 数据源
+     * @return 识别出的方言
+     */
+    private static JdbcDialect detectDialect(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return JdbcDialect.detect(connection.getMetaData());
+        } catch (SQLException e) {
+            throw new CyxIdException("识别数据库方言失败", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.caoyixin.cyxid.storage.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * JDBC事务执行工具
+ * 连接池通常把连接配置为非自动提交（例如Spring事务下的Hikari、Druid），
+ * 写入必须显式提交，否则归还连接时被回滚，号段表和租约表的所有写操作都经由这里执行
+ */
+final class JdbcTransactions {
+    
+    private JdbcTransactions() {
+    }
+    
+    /**
+     * 获取连接并执行数据库操作
+     * 需要事务或连接不是自动提交模式时在事务中执行，失败时回滚，结束后恢复连接的自动提交设置
+     *
+     * @param dataSource 数据源
+     * @param transactional 是否需要事务
+     * @param work 数据库操作
+     * @param <T> 结果类型
+     * @return 操作结果
+     * @throws SQLException 执行失败
+     */
+    static <T> T execute(DataSource dataSource, boolean transactional, SqlWork<T> work) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            if (!transactional && autoCommit) {
+                return work.execute(connection);
+            }
+            
+            connection.setAutoCommit(false);
+            try {
+                T result = work.execute(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+    
+    /**
+     * 使用连接执行的数据库操作
+     *
+     * @param <T> 结果类型
+     */
+    @FunctionalInterface
+    interface SqlWork<T> {
+        
+        /**
+         * 执行数据库操作
+         *
+         * @param connection 数据库连接
+         * @return 操作结果
+         * @throws SQLException 执行失败
+         */
+        T execute(Connection connection) throws SQLException;
+    }
+}
\ No newline at end of file
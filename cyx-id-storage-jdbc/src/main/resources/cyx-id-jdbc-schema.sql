@@ -0,0 +1,17 @@
+-- 号段分配表：每个业务一行，max_id为已分配的最大ID，step为该业务的号段长度
+CREATE TABLE IF NOT EXISTS cyx_id_segment (
+    biz_tag     VARCHAR(128) NOT NULL,
+    max_id      BIGINT       NOT NULL DEFAULT 0,
+    step        INT          NOT NULL,
+    version     BIGINT       NOT NULL DEFAULT 0,
+    PRIMARY KEY (biz_tag)
+);
+
+-- 机器ID租约表：每个已分配的机器ID一行，lease_expire_time为租约到期时间（毫秒时间戳）
+CREATE TABLE IF NOT EXISTS cyx_id_machine_lease (
+    machine_id          INT          NOT NULL,
+    owner               VARCHAR(128) NOT NULL,
+    lease_expire_time   BIGINT       NOT NULL,
+    version             BIGINT       NOT NULL DEFAULT 0,
+    PRIMARY KEY (machine_id)
+);
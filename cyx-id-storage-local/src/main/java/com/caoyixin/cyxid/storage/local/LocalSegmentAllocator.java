@@ -0,0 +1,509 @@
+package com.caoyixin.cyxid.storage.local;
+
+import com.caoyixin.cyxid.core.exception.CyxIdException;
+import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.SegmentAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地段分配器
+ * 把各业务的高水位保存在内存映射文件中，不依赖任何外部存储，适用于边缘节点和单机部署。
+ * 文件中每个业务占一个128字节的槽位，记录已分配的最大ID和已持久化的预留上限：
+ * 文件被本进程独占，分配时只对内存中的已分配计数做原子addAndGet，只有超过预留上限时才提前预留一大段并force()刷盘，
+ * 同时等待刷盘的多个分配合并为一次force()（组提交）。发出的ID永远不超过已刷盘的预留上限，
+ * 重启后从预留上限继续分配，进程或系统崩溃都不会重复发放ID，代价是最多浪费一次预留的ID数量。
+ * 文件在打开期间被独占锁定，防止多个进程同时使用
+ */
+@Slf4j
+public class LocalSegmentAllocator implements SegmentAllocator, AutoCloseable {
+    
+    /**
+     * 文件魔数
+     */
+    private static final int MAGIC = 0x43594C48;
+    
+    /**
+     * 文件格式版本
+     */
+    private static final int VERSION = 1;
+    
+    /**
+     * 文件头长度
+     */
+    private static final int HEADER_SIZE = 128;
+    
+    /**
+     * 槽位长度，相邻业务的计数器位于不同的缓存行
+     */
+    private static final int SLOT_SIZE = 128;
+    
+    /**
+     * 槽位内已分配最大ID的偏移
+     */
+    private static final int ALLOCATED_OFFSET = 0;
+    
+    /**
+     * 槽位内预留上限的偏移
+     */
+    private static final int RESERVED_OFFSET = 8;
+    
+    /**
+     * 槽位内业务键名长度的偏移
+     */
+    private static final int NAME_LENGTH_OFFSET = 16;
+    
+    /**
+     * 槽位内业务键名的偏移
+     */
+    private static final int NAME_OFFSET = 18;
+    
+    /**
+     * 业务键名的最大字节数（UTF-8）
+     */
+    private static final int MAX_NAME_BYTES = SLOT_SIZE - NAME_OFFSET;
+    
+    /**
+     * 高水位文件路径
+     */
+    private final Path file;
+    
+    /**
+     * 默认步长
+     */
+    private final int defaultStep;
+    
+    /**
+     * 每次刷盘时在所需上限之外额外预留的ID数量
+     */
+    private final long reserveAhead;
+    
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+    
+    /**
+     * 文件独占锁
+     */
+    private final FileLock fileLock;
+    
+    /**
+     * 映射的文件内容
+     */
+    private final MappedByteBuffer buffer;
+    
+    /**
+     * 槽位数量，即最多支持的业务数量
+     */
+    private final int slotCount;
+    
+    /**
+     * 各业务的槽位，key为业务键名
+     */
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    
+    /**
+     * 刷盘锁，同时保护新业务的槽位分配
+     */
+    private final Object flushLock = new Object();
+    
+    /**
+     * 刷盘次数
+     */
+    private final AtomicLong forceCount = new AtomicLong();
+    
+    /**
+     * 创建本地段分配器
+     *
+     * @param file 高水位文件路径，不存在时自动创建
+     * @param defaultStep 默认步长
+     * @param reserveAhead 每次刷盘时额外预留的ID数量，越大刷盘越少，崩溃后浪费的ID越多
+     * @param maxTags 新建文件时的槽位数量，即最多支持的业务数量
+     */
+    public LocalSegmentAllocator(Path file, int defaultStep, long reserveAhead, int maxTags) {
+        if (defaultStep <= 0 || reserveAhead < 0 || maxTags <= 0) {
+            throw new IllegalArgumentException("本地段分配器参数无效");
+        }
+        this.file = file;
+        this.defaultStep = defaultStep;
+        this.reserveAhead = reserveAhead;
+        
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileLock = tryLock(channel);
+            if (fileLock == null) {
+                channel.close();
+                throw new CyxIdException("高水位文件正被其他进程使用：" + file);
+            }
+            
+            boolean created = channel.size() == 0;
+            int count = created ? maxTags : readSlotCount();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) count * SLOT_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            slotCount = count;
+            
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slotCount);
+                buffer.force();
+            } else {
+                recover();
+            }
+        
+        } catch (IOException e) {
+            throw new CyxIdException("打开高水位文件失败：" + file, e);
+        }
+        
+        log.info("初始化本地段分配器：文件={}，默认步长={}，预留={}，槽位={}，已有业务={}",
+                file, defaultStep, reserveAhead, slotCount, slots.size());
+    }
+    
+    /**
+     * 创建本地段分配器（默认步长1000，每次预留10万个ID，最多1024个业务）
+     *
+     * @param file 高水位文件路径，不存在时自动创建
+     */
+    public LocalSegmentAllocator(Path file) {
+        this(file, 1000, 100_000, 1024);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name) {
+        return allocate(name, defaultStep, 1).get(0);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        return allocate(name, requestedStep, 1).get(0);
+    }
+    
+    /**
+     * 一次获取多个连续的ID段
+     * 一次addAndGet分配count个步长的ID，在本地切分为count个ID段
+     *
+     * @param name ID生成器名称
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    @Override
+    public List<IdSegment> nextSegments(String name, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("ID段数量必须大于0");
+        }
+        return allocate(name, defaultStep, count);
+    }
+    
+    /**
+     * 一次为多个ID生成器获取ID段
+     * 先为所有业务分配，需要刷盘时所有业务合并为一次force()
+     *
+     * @param counts 各ID生成器需要的ID段数量，key为ID生成器名称
+     * @return 各ID生成器分配的ID段，按ID从小到大排列，key为ID生成器名称
+     */
+    @Override
+    public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        for (Integer count : counts.values()) {
+            if (count == null || count <= 0) {
+                throw new IllegalArgumentException("ID段数量必须大于0");
+            }
+        }
+        if (counts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, List<IdSegment>> result = new LinkedHashMap<>();
+        boolean flush = false;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Slot slot = slotOf(entry.getKey());
+            long maxId = increment(slot, (long) defaultStep * entry.getValue());
+            if (maxId > slot.durable) {
+                slot.needed.accumulateAndGet(maxId, Math::max);
+                flush = true;
+            }
+            result.put(entry.getKey(), split(maxId, defaultStep, entry.getValue()));
+        }
+        if (flush) {
+            commit();
+        }
+        log.debug("批量分配ID段：{}个业务", result.size());
+        
+        return result;
+    }
+    
+    /**
+     * 获取刷盘次数
+     *
+     * @return 自创建以来调用force()的次数
+     */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+    
+    /**
+     * 获取业务已持久化的预留上限
+     * 重启后该业务从此值之后继续分配
+     *
+     * @param name 业务键名
+     * @return 预留上限，业务不存在时返回0
+     */
+    public long getReservedMaxId(String name) {
+        Slot slot = slots.get(name);
+        return slot == null ? 0 : slot.durable;
+    }
+    
+    /**
+     * 刷盘并释放文件
+     */
+    @Override
+    public void close() {
+        synchronized (flushLock) {
+            try {
+                for (Slot slot : slots.values()) {
+                    buffer.putLong(slot.offset + ALLOCATED_OFFSET, slot.allocated.get());
+                }
+                buffer.force();
+                fileLock.release();
+                channel.close();
+                log.info("关闭本地段分配器：{}", file);
+            } catch (IOException e) {
+                throw new CyxIdException("关闭高水位文件失败：" + file, e);
+            }
+        }
+    }
+    
+    /**
+     * 分配count个步长为segmentStep的连续ID段
+     *
+     * @param name ID生成器名称
+     * @param segmentStep 每个ID段的长度
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    private List<IdSegment> allocate(String name, int segmentStep, int count) {
+        Slot slot = slotOf(name);
+        long maxId = increment(slot, (long) segmentStep * count);
+        
+        // 超过已刷盘的预留上限时，必须等到新的上限落盘后才能发出
+        if (maxId > slot.durable) {
+            slot.needed.accumulateAndGet(maxId, Math::max);
+            commit();
+        }
+        return split(maxId, segmentStep, count);
+    }
+    
+    /**
+     * 原子增加业务的已分配计数
+     * 文件被本进程独占，计数只保存在内存中，刷盘时写回文件；重启后以预留上限为准，不依赖文件中的计数
+     *
+     * @param slot 业务槽位
+     * @param delta 增加的ID数量
+     * @return 增加后的已分配最大ID
+     */
+    private long increment(Slot slot, long delta) {
+        return slot.allocated.addAndGet(delta);
+    }
+    
+    /**
+     * 组提交
+     * 在刷盘锁内为所有需要的业务提升预留上限后只调用一次force()；
+     * 等待锁期间需求已被前一次刷盘覆盖的线程进入后直接返回
+     */
+    private void commit() {
+        synchronized (flushLock) {
+            List<Slot> raised = new ArrayList<>();
+            for (Slot slot : slots.values()) {
+                long needed = slot.needed.get();
+                if (needed > slot.durable) {
+                    buffer.putLong(slot.offset + ALLOCATED_OFFSET, slot.allocated.get());
+                    buffer.putLong(slot.offset + RESERVED_OFFSET, needed + reserveAhead);
+                    raised.add(slot);
+                }
+            }
+            if (raised.isEmpty()) {
+                return;
+            }
+            
+            buffer.force();
+            forceCount.incrementAndGet();
+            for (Slot slot : raised) {
+                slot.durable = buffer.getLong(slot.offset + RESERVED_OFFSET);
+            }
+            log.debug("高水位刷盘：{}个业务", raised.size());
+        }
+    }
+    
+    /**
+     * 获取业务的槽位，业务不存在时分配新槽位并刷盘
+     *
+     * @param name 业务键名
+     * @return 业务槽位
+     */
+    private Slot slotOf(String name) {
+        Slot slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        
+        synchronized (flushLock) {
+            slot = slots.get(name);
+            if (slot != null) {
+                return slot;
+            }
+            
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0 || bytes.length > MAX_NAME_BYTES) {
+                throw new IllegalArgumentException("业务键名长度必须在1到" + MAX_NAME_BYTES + "字节之间：" + name);
+            }
+            int index = slots.size();
+            if (index >= slotCount) {
+                throw new CyxIdException("高水位文件的业务数量已满：" + slotCount);
+            }
+            
+            // 名称长度最后写入，刷盘前崩溃时该槽位仍视为空闲
+            int offset = HEADER_SIZE + index * SLOT_SIZE;
+            buffer.putLong(offset + ALLOCATED_OFFSET, 0L);
+            buffer.putLong(offset + RESERVED_OFFSET, 0L);
+            for (int i = 0; i < bytes.length; i++) {
+                buffer.put(offset + NAME_OFFSET + i, bytes[i]);
+            }
+            buffer.putShort(offset + NAME_LENGTH_OFFSET, (short) bytes.length);
+            buffer.force();
+            forceCount.incrementAndGet();
+            
+            slot = new Slot(offset, 0);
+            slots.put(name, slot);
+            log.info("高水位文件新增业务：{}，槽位={}", name, index);
+            return slot;
+        }
+    }
+    
+    /**
+     * 尝试独占锁定文件
+     *
+     * @param channel 文件通道
+     * @return 文件锁，已被其他进程或本进程内的其他分配器锁定时返回null
+     * @throws IOException 加锁失败
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 读取已有文件的槽位数量并校验文件头
+     *
+     * @return 槽位数量
+     * @throws IOException 读取失败
+     */
+    private int readSlotCount() throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new CyxIdException("高水位文件格式不支持：" + file);
+        }
+        return header.getInt(8);
+    }
+    
+    /**
+     * 从文件恢复各业务的槽位
+     * 已分配计数重置为已持久化的预留上限，上次运行中预留但未发出的ID被跳过
+     */
+    private void recover() {
+        for (int index = 0; index < slotCount; index++) {
+            int offset = HEADER_SIZE + index * SLOT_SIZE;
+            int length = buffer.getShort(offset + NAME_LENGTH_OFFSET);
+            if (length <= 0) {
+                break;
+            }
+            
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + NAME_OFFSET + i);
+            }
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            long reserved = buffer.getLong(offset + RESERVED_OFFSET);
+            buffer.putLong(offset + ALLOCATED_OFFSET, reserved);
+            slots.put(name, new Slot(offset, reserved));
+            log.info("恢复业务高水位：{}，从{}之后继续分配", name, reserved);
+        }
+    }
+    
+    /**
+     * 把以maxId结尾的连续ID范围切分为count个ID段
+     *
+     * @param maxId 范围的最大ID
+     * @param segmentStep 每个ID段的长度
+     * @param count ID段数量
+     * @return 切分的ID段，按ID从小到大排列
+     */
+    private static List<IdSegment> split(long maxId, int segmentStep, int count) {
+        List<IdSegment> segments = new ArrayList<>(count);
+        long minId = maxId - (long) segmentStep * count + 1;
+        for (int i = 0; i < count; i++) {
+            segments.add(new IdSegment(minId, minId + segmentStep - 1));
+            minId += segmentStep;
+        }
+        return segments;
+    }
+    
+    /**
+     * 业务槽位
+     */
+    private static final class Slot {
+        
+        /**
+         * 槽位在文件中的偏移
+         */
+        private final int offset;
+        
+        /**
+         * 已分配的最大ID
+         */
+        private final AtomicLong allocated;
+        
+        /**
+         * 已刷盘的预留上限，只在刷盘锁内更新
+         */
+        private volatile long durable;
+        
+        /**
+         * 等待刷盘的最大ID
+         */
+        private final AtomicLong needed = new AtomicLong();
+        
+        Slot(int offset, long durable) {
+            this.offset = offset;
+            this.allocated = new AtomicLong(durable);
+            this.durable = durable;
+        }
+    }
+}
\ No newline at end of file
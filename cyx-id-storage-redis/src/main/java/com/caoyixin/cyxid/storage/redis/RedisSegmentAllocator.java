@@ -2,17 +2,38 @@ package com.caoyixin.cyxid.storage.redis;
 
 import com.caoyixin.cyxid.core.exception.CyxIdException;
 import com.caoyixin.cyxid.storage.api.IdSegment;
+import com.caoyixin.cyxid.storage.api.RegionStride;
 import com.caoyixin.cyxid.storage.api.SegmentAllocator;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Redis段分配器
- * 基于Redis实现的ID段分配器
+ * 基于Redis实现的ID段分配器。
+ * 异步分配请求放入队列，由一个管道线程批量取出，通过一个连接以管道一次发送所有INCRBY，
+ * 同时在途的请求再多也只占用一个线程和一个连接
  */
 @Slf4j
 public class RedisSegmentAllocator implements SegmentAllocator {
     
+    /**
+     * 一次管道最多发送的异步请求数
+     */
+    private static final int MAX_PIPELINE_SIZE = 512;
+    
     /**
      * Redis连接管理器
      */
@@ -28,6 +49,26 @@ public class RedisSegmentAllocator implements SegmentAllocator {
      */
     private final String keyPrefix;
     
+    /**
+     * 区域间隔，把本区域Redis中的计数值映射为全局不重叠的ID
+     */
+    private final RegionStride regionStride;
+    
+    /**
+     * 等待发送的异步请求
+     */
+    private final ConcurrentLinkedQueue<AsyncRequest> asyncRequests = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * 管道线程，首次异步请求时启动
+     */
+    private volatile Thread pipelineThread;
+    
+    /**
+     * 是否已关闭
+     */
+    private volatile boolean closed = false;
+    
     /**
      * 创建Redis段分配器
      *
@@ -36,11 +77,26 @@ public class RedisSegmentAllocator implements SegmentAllocator {
      * @param keyPrefix Redis键前缀
      */
     public RedisSegmentAllocator(RedisConnectionManager connectionManager, int step, String keyPrefix) {
+        this(connectionManager, step, keyPrefix, RegionStride.NONE);
+    }
+    
+    /**
+     * 创建多区域部署中一个区域的Redis段分配器
+     * 每个区域连接本区域的Redis独立分配，区域k（共N个区域）只发放与k模N同余的ID，区域之间的ID永不重叠
+     *
+     * @param connectionManager 本区域的Redis连接管理器
+     * @param step ID段步长（ID数量）
+     * @param keyPrefix Redis键前缀
+     * @param regionStride 区域间隔
+     */
+    public RedisSegmentAllocator(RedisConnectionManager connectionManager, int step, String keyPrefix,
+                                 RegionStride regionStride) {
         this.connectionManager = connectionManager;
         this.step = step;
         this.keyPrefix = keyPrefix;
+        this.regionStride = regionStride;
         
-        log.info("初始化Redis段分配器：步长={}，键前缀={}", step, keyPrefix);
+        log.info("初始化Redis段分配器：步长={}，键前缀={}，区域={}", step, keyPrefix, regionStride);
     }
     
     /**
@@ -54,18 +110,27 @@ public class RedisSegmentAllocator implements SegmentAllocator {
     
     @Override
     public IdSegment nextSegment(String name) {
+        return nextSegment(name, step);
+    }
+    
+    @Override
+    public IdSegment nextSegment(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            throw new IllegalArgumentException("步长必须大于0");
+        }
+        
         String key = keyPrefix + name;
         
         try {
             // 使用Redis的INCRBY原子操作获取一段ID范围
             long maxId = connectionManager.execute(jedis -> {
-                return jedis.incrBy(key, step);
+                return jedis.incrBy(key, requestedStep);
             });
             
             // 计算最小ID
-            long minId = maxId - step + 1;
+            long minId = maxId - requestedStep + 1;
             
-            IdSegment segment = new IdSegment(minId, maxId);
+            IdSegment segment = regionStride.toSegment(minId, maxId);
             log.debug("分配ID段[{}]：{}", name, segment);
             
             return segment;
@@ -76,6 +141,135 @@ public class RedisSegmentAllocator implements SegmentAllocator {
         }
     }
     
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name) {
+        return nextSegmentAsync(name, step);
+    }
+    
+    /**
+     * 按指定步长异步获取下一个ID段
+     * 请求放入队列后立即返回，由管道线程与其他在途请求一起发送
+     *
+     * @param name ID生成器名称
+     * @param requestedStep 请求的步长
+     * @return 分配结果，步长非法时以IllegalArgumentException完成，分配失败时以CyxIdException完成
+     */
+    @Override
+    public CompletionStage<IdSegment> nextSegmentAsync(String name, int requestedStep) {
+        if (requestedStep <= 0) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("步长必须大于0"));
+            return failed;
+        }
+        if (closed) {
+            CompletableFuture<IdSegment> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new CyxIdException("Redis段分配器已关闭：" + name));
+            return failed;
+        }
+        
+        AsyncRequest request = new AsyncRequest(name, requestedStep);
+        asyncRequests.add(request);
+        if (closed) {
+            // 与关闭并发时，确保请求不会滞留在队列中
+            failPending(new CyxIdException("Redis段分配器已关闭"));
+        } else {
+            LockSupport.unpark(pipelineThread());
+        }
+        return request.result;
+    }
+    
+    /**
+     * 一次获取多个连续的ID段
+     * 使用一次INCRBY分配count个步长的ID，在本地切分为count个ID段
+     *
+     * @param name ID生成器名称
+     * @param count ID段数量
+     * @return 分配的ID段，按ID从小到大排列
+     */
+    @Override
+    public List<IdSegment> nextSegments(String name, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("ID段数量必须大于0");
+        }
+        
+        String key = keyPrefix + name;
+        long total = (long) step * count;
+        
+        try {
+            // 一次INCRBY分配全部ID
+            long maxId = connectionManager.execute(jedis -> {
+                return jedis.incrBy(key, total);
+            });
+            
+            // 在本地按步长切分
+            List<IdSegment> segments = new ArrayList<>(count);
+            long minId = maxId - total + 1;
+            for (int i = 0; i < count; i++) {
+                segments.add(regionStride.toSegment(minId, minId + step - 1));
+                minId += step;
+            }
+            log.debug("分配{}个ID段[{}]：{}-{}", count, name, maxId - total + 1, maxId);
+            
+            return segments;
+            
+        } catch (Exception e) {
+            log.error("从Redis分配ID段失败：{}", name, e);
+            throw new CyxIdException("从Redis分配ID段失败：" + name, e);
+        }
+    }
+    
+    /**
+     * 一次为多个ID生成器获取ID段
+     * 所有业务的INCRBY通过一个管道发送，只需一次Redis往返，各自在本地按步长切分
+     *
+     * @param counts 各ID生成器需要的ID段数量，key为ID生成器名称
+     * @return 各ID生成器分配的ID段，按ID从小到大排列，key为ID生成器名称
+     */
+    @Override
+    public Map<String, List<IdSegment>> nextSegments(Map<String, Integer> counts) {
+        for (Integer count : counts.values()) {
+            if (count == null || count <= 0) {
+                throw new IllegalArgumentException("ID段数量必须大于0");
+            }
+        }
+        if (counts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        
+        try {
+            // 通过管道一次发送所有INCRBY
+            Map<String, Response<Long>> responses = connectionManager.execute(jedis -> {
+                Map<String, Response<Long>> pending = new LinkedHashMap<>();
+                Pipeline pipeline = jedis.pipelined();
+                for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                    pending.put(entry.getKey(), pipeline.incrBy(keyPrefix + entry.getKey(), (long) step * entry.getValue()));
+                }
+                pipeline.sync();
+                return pending;
+            });
+            
+            // 在本地按步长切分
+            Map<String, List<IdSegment>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Response<Long>> entry : responses.entrySet()) {
+                int count = counts.get(entry.getKey());
+                long minId = entry.getValue().get() - (long) step * count + 1;
+                List<IdSegment> segments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    segments.add(regionStride.toSegment(minId, minId + step - 1));
+                    minId += step;
+                }
+                result.put(entry.getKey(), segments);
+            }
+            log.debug("批量分配ID段：{}个业务", result.size());
+            
+            return result;
+            
+        } catch (Exception e) {
+            log.error("从Redis批量分配ID段失败：{}", counts.keySet(), e);
+            throw new CyxIdException("从Redis批量分配ID段失败：" + counts.keySet(), e);
+        }
+    }
+    
     /**
      * 重置ID段
      *
@@ -98,4 +292,130 @@ public class RedisSegmentAllocator implements SegmentAllocator {
             throw new CyxIdException("重置ID段失败：" + name, e);
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 关闭分配器，停止管道线程
+     * 尚未发送的异步请求以异常完成
+     */
+    public void shutdown() {
+        closed = true;
+        Thread thread = pipelineThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        failPending(new CyxIdException("Redis段分配器已关闭"));
+    }
+    
+    /**
+     * 获取管道线程，尚未启动时启动
+     *
+     * @return 管道线程
+     */
+    private Thread pipelineThread() {
+        Thread thread = pipelineThread;
+        if (thread == null) {
+            synchronized (this) {
+                thread = pipelineThread;
+                if (thread == null) {
+                    thread = new Thread(this::runPipeline, "cyx-id-redis-pipeline-" + keyPrefix);
+                    thread.setDaemon(true);
+                    thread.start();
+                    pipelineThread = thread;
+                }
+            }
+        }
+        return thread;
+    }
+    
+    /**
+     * 管道线程主循环
+     * 队列为空时休眠，被新请求唤醒后取出当前所有在途请求（最多MAX_PIPELINE_SIZE个）一次发送
+     */
+    private void runPipeline() {
+        List<AsyncRequest> batch = new ArrayList<>();
+        while (!closed) {
+            AsyncRequest request;
+            while (batch.size() < MAX_PIPELINE_SIZE && (request = asyncRequests.poll()) != null) {
+                batch.add(request);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+            
+            sendPipeline(batch);
+            batch.clear();
+        }
+        failPending(new CyxIdException("Redis段分配器已关闭"));
+    }
+    
+    /**
+     * 通过一个管道发送一批异步请求并完成各自的结果
+     *
+     * @param batch 异步请求
+     */
+    private void sendPipeline(List<AsyncRequest> batch) {
+        try {
+            List<Response<Long>> responses = connectionManager.execute(jedis -> {
+                List<Response<Long>> pending = new ArrayList<>(batch.size());
+                Pipeline pipeline = jedis.pipelined();
+                for (AsyncRequest request : batch) {
+                    pending.add(pipeline.incrBy(keyPrefix + request.name, request.step));
+                }
+                pipeline.sync();
+                return pending;
+            });
+            
+            for (int i = 0; i < batch.size(); i++) {
+                AsyncRequest request = batch.get(i);
+                long maxId = responses.get(i).get();
+                request.result.complete(regionStride.toSegment(maxId - request.step + 1, maxId));
+            }
+            log.debug("通过管道异步分配ID段：{}个请求", batch.size());
+            
+        } catch (Exception e) {
+            log.error("通过管道从Redis分配ID段失败：{}个请求", batch.size(), e);
+            for (AsyncRequest request : batch) {
+                request.result.completeExceptionally(new CyxIdException("从Redis分配ID段失败：" + request.name, e));
+            }
+        }
+    }
+    
+    /**
+     * 以异常完成所有尚未发送的异步请求
+     *
+     * @param cause 异常
+     */
+    private void failPending(CyxIdException cause) {
+        AsyncRequest request;
+        while ((request = asyncRequests.poll()) != null) {
+            request.result.completeExceptionally(cause);
+        }
+    }
+    
+    /**
+     * 异步分配请求
+     */
+    private static final class AsyncRequest {
+        
+        /**
+         * ID生成器名称
+         */
+        private final String name;
+        
+        /**
+         * 请求的步长
+         */
+        private final int step;
+        
+        /**
+         * 分配结果
+         */
+        private final CompletableFuture<IdSegment> result = new CompletableFuture<>();
+        
+        private AsyncRequest(String name, int step) {
+            this.name = name;
+            this.step = step;
+        }
+    }
+}
\ No newline at end of file